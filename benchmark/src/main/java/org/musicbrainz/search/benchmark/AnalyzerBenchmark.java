@@ -0,0 +1,75 @@
+package org.musicbrainz.search.benchmark;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.musicbrainz.search.analysis.MusicbrainzAnalyzer;
+import org.musicbrainz.search.analysis.MusicbrainzKeepAccentsAnalyzer;
+import org.musicbrainz.search.analysis.NewMusicbrainzAnalyzer;
+import org.musicbrainz.search.analysis.TitleAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken by each analyzer to tokenize all of BenchmarkData.NAMES, as done for every analyzed field when indexing
+ * and for every term of a query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyzerBenchmark {
+
+    @Param({"MusicbrainzAnalyzer", "TitleAnalyzer", "MusicbrainzKeepAccentsAnalyzer", "NewMusicbrainzAnalyzer"})
+    public String analyzerName;
+
+    private Analyzer analyzer;
+
+    @Setup
+    public void setUp() {
+        if ("MusicbrainzAnalyzer".equals(analyzerName)) {
+            analyzer = new MusicbrainzAnalyzer();
+        }
+        else if ("TitleAnalyzer".equals(analyzerName)) {
+            analyzer = new TitleAnalyzer();
+        }
+        else if ("MusicbrainzKeepAccentsAnalyzer".equals(analyzerName)) {
+            analyzer = new MusicbrainzKeepAccentsAnalyzer();
+        }
+        else if ("NewMusicbrainzAnalyzer".equals(analyzerName)) {
+            analyzer = new NewMusicbrainzAnalyzer();
+        }
+        else {
+            throw new IllegalArgumentException("Unknown analyzer " + analyzerName);
+        }
+    }
+
+    @Benchmark
+    public void analyze(Blackhole blackhole) throws IOException {
+        for (String name : BenchmarkData.NAMES) {
+            TokenStream stream = analyzer.tokenStream("name", name);
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                blackhole.consume(term.length());
+            }
+            stream.end();
+            stream.close();
+        }
+    }
+}
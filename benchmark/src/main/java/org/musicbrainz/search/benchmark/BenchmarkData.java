@@ -0,0 +1,63 @@
+package org.musicbrainz.search.benchmark;
+
+/**
+ * Realistic names and titles used as input by the benchmarks, kept in the source so benchmarks run offline
+ */
+public class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    public static final String[] NAMES = {
+            // Latin, mostly ASCII
+            "The Beatles", "Guns N' Roses", "Red Hot Chili Peppers", "...And You Will Know Us by the Trail of Dead",
+            "AC/DC", "Sunn O)))", "Ke$ha", "!!!", "Godspeed You! Black Emperor", "Florence + the Machine",
+            "The Jimi Hendrix Experience", "Wu-Tang Clan", "P!nk", "M83", "Boards of Canada",
+            // Accented Latin
+            "Björk", "Sigur Rós", "Mötley Crüe", "Beyoncé", "Antonín Dvořák", "Łódź Philharmonic", "Ænima",
+            "Françoise Hardy", "Édith Piaf", "Motörhead", "Queensrÿche", "Hüsker Dü", "Zdeněk Fibich", "Việt Nam",
+            // CJK
+            "浜崎あゆみ", "ハマサキアユミ", "パフューム", "東京事變", "張學友", "周杰倫", "宇多田ヒカル", "きゃりーぱみゅぱみゅ",
+            "ｱﾕﾐ", "坂本龍一", "소녀시대", "빅뱅",
+            // Hebrew, Cyrillic, Greek, Arabic
+            "אביתר בנאי", "שלמה ארצי", "Фёдор Шаляпин", "Сергей Рахманинов", "Μίκης Θεοδωράκης", "أم كلثوم",
+            // Punctuation heavy titles
+            "(I Can't Get No) Satisfaction", "Live at the Royal Albert Hall, 1969-04-14 [disc 2]",
+            "Symphony No. 9 in D minor, Op. 125 \"Choral\": IV. Presto – Allegro assai",
+            "Don't Stop 'til You Get Enough (12\" version)", "99 Luftballons / 99 Red Balloons",
+    };
+
+    /**
+     * Advanced recording searches, as sent by the web service
+     */
+    public static final String[] RECORDING_QUERIES = {
+            "recording:\"(I Can't Get No) Satisfaction\" AND artist:\"The Rolling Stones\"",
+            "\"Gravitational Lenz\" AND dur:[230000 TO 240000]",
+            "recording:yesterday AND artist:beatles AND status:1 AND type:1",
+            "recording:\"浜崎あゆみ\" OR artist:ハマサキアユミ",
+            "recording:周杰倫 AND release:范特西",
+            "artist:\"אביתר בנאי\" AND recording:יוצא",
+            "recording:\"Фёдор\" AND country:RU",
+            "recording:björk~ AND qdur:117 AND tnum:3",
+            "recording:sym* AND artist:Dvořák",
+            "recording:\"Symphony No. 9 in D minor, Op. 125\" AND tracks:4",
+            "isrc:GBAYE6900520",
+            "rid:7ca7782b-a602-448b-b108-bb881a7be2d6",
+    };
+
+    /**
+     * Advanced release searches, as sent by the web service
+     */
+    public static final String[] RELEASE_QUERIES = {
+            "release:\"Our Glorious 5 Year Plan\" AND artist:\"Farming Incident\"",
+            "release:Homogenic AND artist:Björk AND date:1997",
+            "release:\"Live at the Royal Albert Hall\" AND format:CD AND tracks:[10 TO 20]",
+            "release:\"A BEST\" AND artist:浜崎あゆみ AND country:JP",
+            "release:范特西 AND label:\"BMG Taiwan\"",
+            "release:\"Ænima\" AND type:1 AND status:1",
+            "artist:\"שלמה ארצי\"",
+            "catno:\"SRCL-5004\" OR barcode:4988009500411",
+            "release:\"99 Luftballons\" AND lang:deu AND script:Latn",
+            "release:motörhead* AND mediums:2",
+    };
+}
@@ -0,0 +1,119 @@
+package org.musicbrainz.search.benchmark;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.MetaIndexField;
+import org.musicbrainz.search.index.RecordingIndexField;
+import org.musicbrainz.search.servlet.RecordingQueryParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to parse and count the hits of duration range searches, against an index where durations are trie
+ * encoded and against one built the old way with only the full precision term of each duration, which falls back to a
+ * term range visiting every distinct duration in the range.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurationRangeBenchmark {
+
+    // Up to an hour, in milliseconds
+    private static final int MAX_DURATION = 3600000;
+
+    private static final String[] QUERIES = {
+            "dur:[230000 TO 240000]",
+            "dur:[0 TO 60000]",
+            "dur:[180000 TO 300000]",
+            "dur:[1200000 TO *]",
+    };
+
+    @Param({"trie", "prefixCoded"})
+    public String encoding;
+
+    @Param({"100000"})
+    public int numberOfDocuments;
+
+    private Analyzer analyzer;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        analyzer = DatabaseIndex.getAnalyzer(RecordingIndexField.class);
+        RAMDirectory ramDir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(ramDir, new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer));
+        boolean trie = "trie".equals(encoding);
+        if (trie) {
+            MbDocument meta = new MbDocument();
+            meta.addField(MetaIndexField.NUMERIC_PRECISION_STEP, MbDocument.NUMERIC_PRECISION_STEP);
+            writer.addDocument(meta.getLuceneDocument());
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < numberOfDocuments; i++) {
+            MbDocument doc = new MbDocument();
+            int duration = random.nextInt(MAX_DURATION);
+            if (trie) {
+                doc.addNumericField(RecordingIndexField.DURATION, duration);
+            }
+            else {
+                BytesRefBuilder bytes = new BytesRefBuilder();
+                NumericUtils.intToPrefixCoded(duration, 0, bytes);
+                doc.getLuceneDocument().add(new Field(RecordingIndexField.DURATION.getName(),
+                        bytes.toBytesRef().utf8ToString(), RecordingIndexField.DURATION.getFieldType()));
+            }
+            writer.addDocument(doc.getLuceneDocument());
+        }
+        writer.close();
+        reader = DirectoryReader.open(ramDir);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    @Benchmark
+    public int search() throws ParseException, IOException {
+        int hits = 0;
+        for (String query : QUERIES) {
+            TotalHitCountCollector collector = new TotalHitCountCollector();
+            RecordingQueryParser parser = new RecordingQueryParser(new String[]{RecordingIndexField.RECORDING.getName()}, analyzer);
+            searcher.search(parser.parse(query), collector);
+            hits += collector.getTotalHits();
+        }
+        return hits;
+    }
+}
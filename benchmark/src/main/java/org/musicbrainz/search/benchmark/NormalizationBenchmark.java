@@ -0,0 +1,107 @@
+package org.musicbrainz.search.benchmark;
+
+import com.ibm.icu.text.Transliterator;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.cjk.CJKBigramFilter;
+import org.apache.lucene.analysis.icu.ICUTransformFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.analysis.AccentFilter;
+import org.musicbrainz.search.analysis.LowercaseFilter;
+import org.musicbrainz.search.analysis.MusicbrainzAnalyzer;
+import org.musicbrainz.search.analysis.MusicbrainzTokenizer;
+import org.musicbrainz.search.analysis.MusicbrainzTokenizerFilter;
+import org.musicbrainz.search.analysis.MusicbrainzWordDelimiterFilter;
+import org.musicbrainz.search.analysis.WordDelimiterIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares MusicbrainzAnalyzer using MusicbrainzNormalizationFilter with the chain of two ICUTransformFilters and
+ * AccentFilter it replaced, both when analysing text for indexing and when parsing queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizationBenchmark {
+
+    /**
+     * MusicbrainzAnalyzer as it was before MusicbrainzNormalizationFilter
+     */
+    static class ChainedNormalizationAnalyzer extends MusicbrainzAnalyzer {
+
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+            Tokenizer source = new MusicbrainzTokenizer(LuceneVersion.LUCENE_VERSION, reader);
+            TokenStream filter = new ICUTransformFilter(source, Transliterator.getInstance("[ー[:Script=Katakana:]]Katakana-Hiragana"));
+            filter = new ICUTransformFilter(filter, Transliterator.getInstance("Traditional-Simplified"));
+            filter = new AccentFilter(filter);
+            filter = new MusicbrainzTokenizerFilter(filter);
+            filter = new CJKBigramFilter(filter);
+            filter = new LowercaseFilter(filter);
+            filter = new MusicbrainzWordDelimiterFilter(filter,
+                    WordDelimiterIterator.DEFAULT_WORD_DELIM_TABLE,
+                    1, 0, 0, 6, 0, 0, 0, 0, 0, null);
+            return new TokenStreamComponents(source, filter);
+        }
+    }
+
+    @Param({"fused", "chained"})
+    public String normalization;
+
+    private Analyzer analyzer;
+    private QueryParser queryParser;
+    private String[] queries;
+
+    @Setup
+    public void setUp() {
+        analyzer = "fused".equals(normalization) ? new MusicbrainzAnalyzer() : new ChainedNormalizationAnalyzer();
+        queryParser = new QueryParser(LuceneVersion.LUCENE_VERSION, "name", analyzer);
+        queries = new String[BenchmarkData.NAMES.length];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = QueryParser.escape(BenchmarkData.NAMES[i]);
+        }
+    }
+
+    @Benchmark
+    public void analyze(Blackhole blackhole) throws IOException {
+        for (String name : BenchmarkData.NAMES) {
+            TokenStream stream = analyzer.tokenStream("name", name);
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                blackhole.consume(term.length());
+            }
+            stream.end();
+            stream.close();
+        }
+    }
+
+    @Benchmark
+    public void parseQuery(Blackhole blackhole) throws ParseException {
+        for (String query : queries) {
+            blackhole.consume(queryParser.parse(query));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.musicbrainz.search.benchmark;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.musicbrainz.search.index.ArtistIndexField;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.RecordingIndexField;
+import org.musicbrainz.search.index.ReleaseIndexField;
+import org.musicbrainz.search.servlet.ArtistDismaxSearcher;
+import org.musicbrainz.search.servlet.DismaxAlias;
+import org.musicbrainz.search.servlet.DismaxSearcher;
+import org.musicbrainz.search.servlet.RecordingQueryParser;
+import org.musicbrainz.search.servlet.ReleaseDismaxSearcher;
+import org.musicbrainz.search.servlet.ReleaseQueryParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to parse a batch of queries, set up the way the servlet does it: dismax queries for the simple search
+ * with the same aliases as ArtistDismaxSearch, RecordingDismaxSearch and ReleaseDismaxSearch, and advanced queries with
+ * RecordingQueryParser and ReleaseQueryParser using the per field analyzer of the index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryParserBenchmark {
+
+    @Param({"artistDismax", "recordingDismax", "releaseDismax", "recording", "release"})
+    public String parser;
+
+    private Analyzer analyzer;
+    private DismaxSearcher dismaxSearcher;
+    private String[] defaultFields;
+    private String[] queries;
+
+    @Setup
+    public void setUp() {
+        if ("artistDismax".equals(parser)) {
+            analyzer = DatabaseIndex.getAnalyzer(ArtistIndexField.class);
+            Map<String, DismaxAlias.AliasField> fieldBoosts = new HashMap<String, DismaxAlias.AliasField>();
+            fieldBoosts.put(ArtistIndexField.ARTIST_ACCENT.getName(), new DismaxAlias.AliasField(false, 1.4f));
+            fieldBoosts.put(ArtistIndexField.ARTIST.getName(), new DismaxAlias.AliasField(true, 1.2f));
+            fieldBoosts.put(ArtistIndexField.SORTNAME.getName(), new DismaxAlias.AliasField(true, 1.1f));
+            fieldBoosts.put(ArtistIndexField.ALIAS.getName(), new DismaxAlias.AliasField(true, 0.9f));
+            dismaxSearcher = new ArtistDismaxSearcher(createAlias(fieldBoosts));
+            queries = BenchmarkData.NAMES;
+        }
+        else if ("recordingDismax".equals(parser)) {
+            analyzer = DatabaseIndex.getAnalyzer(RecordingIndexField.class);
+            Map<String, DismaxAlias.AliasField> fieldBoosts = new HashMap<String, DismaxAlias.AliasField>();
+            fieldBoosts.put(RecordingIndexField.RECORDING_ACCENT.getName(), new DismaxAlias.AliasField(false, 1.8f));
+            fieldBoosts.put(RecordingIndexField.RECORDING.getName(), new DismaxAlias.AliasField(true, 1.6f));
+            fieldBoosts.put(RecordingIndexField.RELEASE.getName(), new DismaxAlias.AliasField(true, 1.2f));
+            fieldBoosts.put(RecordingIndexField.ARTIST_NAMECREDIT.getName(), new DismaxAlias.AliasField(false, 0.8f));
+            fieldBoosts.put(RecordingIndexField.ARTIST.getName(), new DismaxAlias.AliasField(true, 0.8f));
+            dismaxSearcher = new DismaxSearcher(createAlias(fieldBoosts));
+            queries = BenchmarkData.NAMES;
+        }
+        else if ("releaseDismax".equals(parser)) {
+            analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+            Map<String, DismaxAlias.AliasField> fieldBoosts = new HashMap<String, DismaxAlias.AliasField>();
+            fieldBoosts.put(ReleaseIndexField.RELEASE_ACCENT.getName(), new DismaxAlias.AliasField(false, 1.4f));
+            fieldBoosts.put(ReleaseIndexField.RELEASE.getName(), new DismaxAlias.AliasField(true, 1.2f));
+            fieldBoosts.put(ReleaseIndexField.BARCODE.getName(), new DismaxAlias.AliasField(false, 1.2f));
+            fieldBoosts.put(ReleaseIndexField.CATALOG_NO.getName(), new DismaxAlias.AliasField(false, 0.5f));
+            fieldBoosts.put(ReleaseIndexField.ARTIST.getName(), new DismaxAlias.AliasField(true, 1f));
+            fieldBoosts.put(ReleaseIndexField.ARTIST_NAMECREDIT.getName(), new DismaxAlias.AliasField(true, 1f));
+            fieldBoosts.put(ReleaseIndexField.LABEL.getName(), new DismaxAlias.AliasField(true, 0.8f));
+            dismaxSearcher = new ReleaseDismaxSearcher(createAlias(fieldBoosts));
+            queries = BenchmarkData.NAMES;
+        }
+        else if ("recording".equals(parser)) {
+            analyzer = DatabaseIndex.getAnalyzer(RecordingIndexField.class);
+            defaultFields = new String[]{RecordingIndexField.RECORDING.getName()};
+            queries = BenchmarkData.RECORDING_QUERIES;
+        }
+        else if ("release".equals(parser)) {
+            analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+            defaultFields = new String[]{ReleaseIndexField.RELEASE.getName()};
+            queries = BenchmarkData.RELEASE_QUERIES;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown parser " + parser);
+        }
+    }
+
+    private static DismaxAlias createAlias(Map<String, DismaxAlias.AliasField> fieldBoosts) {
+        DismaxAlias dismaxAlias = new DismaxAlias();
+        dismaxAlias.setFields(fieldBoosts);
+        dismaxAlias.setTie(0.1f);
+        return dismaxAlias;
+    }
+
+    /**
+     * A new parser is created for each query, as the servlet does
+     */
+    @Benchmark
+    public void parse(Blackhole blackhole) throws ParseException {
+        for (String query : queries) {
+            if (dismaxSearcher != null) {
+                blackhole.consume(dismaxSearcher.parseQuery(query, analyzer));
+            }
+            else {
+                QueryParser queryParser = "recording".equals(parser)
+                        ? new RecordingQueryParser(defaultFields, analyzer)
+                        : new ReleaseQueryParser(defaultFields, analyzer);
+                blackhole.consume(queryParser.parse(query));
+            }
+        }
+    }
+}
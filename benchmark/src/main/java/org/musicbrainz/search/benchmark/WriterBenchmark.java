@@ -0,0 +1,231 @@
+package org.musicbrainz.search.benchmark;
+
+import org.musicbrainz.mmd2.Artist;
+import org.musicbrainz.mmd2.ArtistCredit;
+import org.musicbrainz.mmd2.DefAreaElementInner;
+import org.musicbrainz.mmd2.LifeSpan;
+import org.musicbrainz.mmd2.Medium;
+import org.musicbrainz.mmd2.MediumList;
+import org.musicbrainz.mmd2.NameCredit;
+import org.musicbrainz.mmd2.ObjectFactory;
+import org.musicbrainz.mmd2.Recording;
+import org.musicbrainz.mmd2.Release;
+import org.musicbrainz.mmd2.ReleaseGroup;
+import org.musicbrainz.mmd2.ReleaseList;
+import org.musicbrainz.mmd2.Tag;
+import org.musicbrainz.mmd2.TagList;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.ArtistIndexField;
+import org.musicbrainz.search.index.MMDSerializer;
+import org.musicbrainz.search.index.RecordingIndexField;
+import org.musicbrainz.search.servlet.Result;
+import org.musicbrainz.search.servlet.Results;
+import org.musicbrainz.search.servlet.ResultsWriter;
+import org.musicbrainz.search.servlet.SearchServerServlet;
+import org.musicbrainz.search.servlet.mmd1.ArtistMmd1XmlWriter;
+import org.musicbrainz.search.servlet.mmd1.TrackMmd1XmlWriter;
+import org.musicbrainz.search.servlet.mmd2.ArtistWriter;
+import org.musicbrainz.search.servlet.mmd2.RecordingWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to write a page of search results, from unserializing the stored mmd2 objects to marshalling the
+ * response, for each output format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+    /** Default number of results returned by the web service */
+    private static final int NUMBER_OF_RESULTS = 25;
+
+    @Param({"artist", "recording"})
+    public String resourceType;
+
+    @Param({SearchServerServlet.RESPONSE_XML, SearchServerServlet.RESPONSE_JSON,
+            SearchServerServlet.RESPONSE_JSON_NEW, "mmd1"})
+    public String format;
+
+    private ResultsWriter writer;
+    private String outputFormat;
+    private Results results;
+    private CountingWriter out;
+
+    @Setup
+    public void setUp() {
+        boolean mmd1 = "mmd1".equals(format);
+        outputFormat = mmd1 ? SearchServerServlet.RESPONSE_XML : format;
+
+        results = new Results();
+        results.setTotalHits(NUMBER_OF_RESULTS * 100);
+        results.setOffset(0);
+        results.setMaxScore(10f);
+        for (int i = 0; i < NUMBER_OF_RESULTS; i++) {
+            Result result = new Result();
+            result.setScore(10f - i * 0.3f);
+            if ("artist".equals(resourceType)) {
+                result.setDoc(createArtistDocument(i));
+            }
+            else {
+                result.setDoc(createRecordingDocument(i));
+            }
+            results.results.add(result);
+        }
+
+        if ("artist".equals(resourceType)) {
+            writer = mmd1 ? new ArtistMmd1XmlWriter() : new ArtistWriter();
+        }
+        else if ("recording".equals(resourceType)) {
+            writer = mmd1 ? new TrackMmd1XmlWriter() : new RecordingWriter();
+        }
+        else {
+            throw new IllegalArgumentException("Unknown resource type " + resourceType);
+        }
+        out = new CountingWriter();
+    }
+
+    private static String name(int i) {
+        return BenchmarkData.NAMES[i % BenchmarkData.NAMES.length];
+    }
+
+    private static String id(int i) {
+        return UUID.nameUUIDFromBytes(name(i).getBytes()).toString();
+    }
+
+    private static Artist createArtist(ObjectFactory of, int i) {
+        Artist artist = of.createArtist();
+        artist.setId(id(i));
+        artist.setName(name(i));
+        artist.setSortName(name(i));
+        return artist;
+    }
+
+    private static TagList createTagList(ObjectFactory of) {
+        TagList tagList = of.createTagList();
+        for (String name : new String[]{"rock", "j-pop", "électronique"}) {
+            Tag tag = of.createTag();
+            tag.setName(name);
+            tag.setCount(BigInteger.valueOf(name.length()));
+            tagList.getTag().add(tag);
+        }
+        return tagList;
+    }
+
+    private static MbDocument createArtistDocument(int i) {
+        ObjectFactory of = new ObjectFactory();
+        Artist artist = createArtist(of, i);
+        artist.setType("Group");
+        artist.setDisambiguation("the real one");
+        artist.setCountry("JP");
+        LifeSpan lifespan = of.createLifeSpan();
+        lifespan.setBegin("1998-04-08");
+        artist.setLifeSpan(lifespan);
+        DefAreaElementInner area = of.createDefAreaElementInner();
+        area.setId("2db42837-c832-3c27-b4a3-08198f75693c");
+        area.setName("Japan");
+        area.setSortName("Japan");
+        artist.setArea(area);
+        artist.setTagList(createTagList(of));
+
+        MbDocument doc = new MbDocument();
+        doc.addField(ArtistIndexField.ARTIST_ID, artist.getId());
+        doc.addField(ArtistIndexField.ARTIST_STORE, MMDSerializer.serialize(artist));
+        return doc;
+    }
+
+    private static MbDocument createRecordingDocument(int i) {
+        ObjectFactory of = new ObjectFactory();
+        Recording recording = of.createRecording();
+        recording.setId(id(i + 1));
+        recording.setTitle(name(i + 1));
+        recording.setLength(BigInteger.valueOf(234000));
+
+        ArtistCredit ac = of.createArtistCredit();
+        NameCredit nc = of.createNameCredit();
+        nc.setArtist(createArtist(of, i));
+        ac.getNameCredit().add(nc);
+        recording.setArtistCredit(ac);
+
+        // Popular recordings appear on many releases
+        ReleaseList releaseList = of.createReleaseList();
+        for (int j = 0; j < 3; j++) {
+            Release release = of.createRelease();
+            release.setId(id(i + j + 2));
+            release.setTitle(name(i + j + 2));
+            ReleaseGroup rg = of.createReleaseGroup();
+            rg.setId(id(i + j + 3));
+            rg.setType("Album");
+            release.setReleaseGroup(rg);
+            MediumList ml = of.createMediumList();
+            Medium m = of.createMedium();
+            Medium.TrackList trackList = of.createMediumTrackList();
+            trackList.setCount(BigInteger.valueOf(12));
+            trackList.setOffset(BigInteger.valueOf(j));
+            m.setTrackList(trackList);
+            m.setPosition(BigInteger.valueOf(1));
+            ml.getMedium().add(m);
+            ml.setTrackCount(BigInteger.valueOf(12));
+            release.setMediumList(ml);
+            release.setDate("1970-01-01");
+            release.setCountry("GB");
+            releaseList.getRelease().add(release);
+        }
+        recording.setReleaseList(releaseList);
+        recording.setTagList(createTagList(of));
+
+        MbDocument doc = new MbDocument();
+        doc.addField(RecordingIndexField.RECORDING_ID, recording.getId());
+        doc.addField(RecordingIndexField.RECORDING_STORE, MMDSerializer.serialize(recording));
+        return doc;
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        PrintWriter pw = new PrintWriter(out);
+        writer.write(pw, results, outputFormat, false);
+        pw.flush();
+        return out.count;
+    }
+
+    /**
+     * Discards the output, only counting it so that it can't be optimised away
+     */
+    static class CountingWriter extends Writer {
+
+        long count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
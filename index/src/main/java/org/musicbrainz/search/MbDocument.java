@@ -81,17 +81,40 @@ public class MbDocument {
     }
     
     
+    /**
+     * Precision step of the numeric fields, each value is indexed at full precision and again with each further 8 bits
+     * dropped so that a NumericRangeQuery only has to visit a few terms to match a range
+     */
+    public static final int NUMERIC_PRECISION_STEP = 8;
+
+    private static final FieldType INT_FIELD_TYPE = newNumericFieldType(IntField.TYPE_NOT_STORED);
+    private static final FieldType FLOAT_FIELD_TYPE = newNumericFieldType(FloatField.TYPE_NOT_STORED);
+    private static final FieldType LONG_FIELD_TYPE = newNumericFieldType(LongField.TYPE_NOT_STORED);
+
+    private static FieldType newNumericFieldType(FieldType numericType) {
+        FieldType fieldType = new FieldType(numericType);
+        fieldType.setNumericPrecisionStep(NUMERIC_PRECISION_STEP);
+        fieldType.freeze();
+        return fieldType;
+    }
+
     /**
      * Add integral numeric field, handled specially so that ranges searches work properly
      *
+     * The full precision term is the same as the one indexes built before trie encoding was used contain, so term
+     * searches work with either, and the value is still stored in its prefix coded form.
+     *
      * @param field
      * @param value
      */
     public void addNumericField(IndexField field, Integer value) {
 
-        BytesRefBuilder bytes = new BytesRefBuilder();
-        NumericUtils.intToPrefixCoded(value, 0, bytes);
-        doc.add(new Field(field.getName(),bytes.toBytesRef().utf8ToString(), field.getFieldType()));
+        doc.add(new IntField(field.getName(), value, INT_FIELD_TYPE));
+        if (field.getFieldType().stored()) {
+            BytesRefBuilder bytes = new BytesRefBuilder();
+            NumericUtils.intToPrefixCoded(value, 0, bytes);
+            doc.add(new StoredField(field.getName(), bytes.toBytesRef().utf8ToString()));
+        }
     }
 
     /**
@@ -102,9 +125,12 @@ public class MbDocument {
      */
     public void addNumericField(IndexField field,Float value) {
 
-        BytesRefBuilder bytes = new BytesRefBuilder();
-        NumericUtils.intToPrefixCoded(NumericUtils.floatToSortableInt(value), 0, bytes);
-        doc.add(new Field(field.getName(),bytes.toBytesRef().utf8ToString(), field.getFieldType()));
+        doc.add(new FloatField(field.getName(), value, FLOAT_FIELD_TYPE));
+        if (field.getFieldType().stored()) {
+            BytesRefBuilder bytes = new BytesRefBuilder();
+            NumericUtils.intToPrefixCoded(NumericUtils.floatToSortableInt(value), 0, bytes);
+            doc.add(new StoredField(field.getName(), bytes.toBytesRef().utf8ToString()));
+        }
     }
 
 
@@ -116,9 +142,12 @@ public class MbDocument {
      */
     public void addNumericField(IndexField field, Long value) {
 
-        BytesRefBuilder bytes = new BytesRefBuilder();
-        NumericUtils.longToPrefixCoded(value, 0, bytes);
-        doc.add(new Field(field.getName(),bytes.toBytesRef().utf8ToString(), field.getFieldType()));
+        doc.add(new LongField(field.getName(), value, LONG_FIELD_TYPE));
+        if (field.getFieldType().stored()) {
+            BytesRefBuilder bytes = new BytesRefBuilder();
+            NumericUtils.longToPrefixCoded(value, 0, bytes);
+            doc.add(new StoredField(field.getName(), bytes.toBytesRef().utf8ToString()));
+        }
     }
 
     /**
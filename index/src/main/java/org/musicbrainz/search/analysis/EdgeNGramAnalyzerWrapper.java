@@ -0,0 +1,35 @@
+package org.musicbrainz.search.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.musicbrainz.search.LuceneVersion;
+
+/**
+ * Indexes the leading n-grams of every token produced by another analyzer, so that a prefix of a word can be found
+ * with a single term lookup rather than by expanding a PrefixQuery over the term dictionary.
+ */
+public final class EdgeNGramAnalyzerWrapper extends AnalyzerWrapper {
+
+    private final Analyzer delegate;
+    private final int minGram;
+    private final int maxGram;
+
+    public EdgeNGramAnalyzerWrapper(Analyzer delegate, int minGram, int maxGram) {
+        super(delegate.getReuseStrategy());
+        this.delegate = delegate;
+        this.minGram = minGram;
+        this.maxGram = maxGram;
+    }
+
+    @Override
+    protected Analyzer getWrappedAnalyzer(String fieldName) {
+        return delegate;
+    }
+
+    @Override
+    protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+        return new TokenStreamComponents(components.getTokenizer(),
+                new EdgeNGramTokenFilter(LuceneVersion.LUCENE_VERSION, components.getTokenStream(), minGram, maxGram));
+    }
+}
@@ -28,7 +28,6 @@
 
 package org.musicbrainz.search.analysis;
 
-import com.ibm.icu.text.Transliterator;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharFilter;
 import org.apache.lucene.analysis.TokenStream;
@@ -36,7 +35,6 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.charfilter.MappingCharFilter;
 import org.apache.lucene.analysis.charfilter.NormalizeCharMap;
 import org.apache.lucene.analysis.cjk.CJKBigramFilter;
-import org.apache.lucene.analysis.icu.ICUTransformFilter;
 import org.musicbrainz.search.LuceneVersion;
 
 import java.io.IOException;
@@ -65,8 +63,7 @@ public class MusicbrainzKeepAccentsAnalyzer extends Analyzer {
     @Override
     protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
         Tokenizer source = new MusicbrainzTokenizer(LuceneVersion.LUCENE_VERSION,reader );
-        TokenStream filter = new ICUTransformFilter(source, Transliterator.getInstance("[ー[:Script=Katakana:]]Katakana-Hiragana"));
-        filter = new ICUTransformFilter(filter, Transliterator.getInstance("Traditional-Simplified"));
+        TokenStream filter = new MusicbrainzNormalizationFilter(source, false);
         filter = new MusicbrainzTokenizerFilter(filter);
         filter = new CJKBigramFilter(filter);
         filter = new LowercaseFilter(filter);
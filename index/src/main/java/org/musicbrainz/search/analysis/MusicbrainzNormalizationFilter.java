@@ -0,0 +1,273 @@
+package org.musicbrainz.search.analysis;
+
+import com.ibm.icu.lang.UCharacter;
+import com.ibm.icu.text.Replaceable;
+import com.ibm.icu.text.RuleBasedTransliterator;
+import com.ibm.icu.text.Transliterator;
+import com.ibm.icu.text.UTF16;
+import com.ibm.icu.text.UnicodeSet;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+
+/**
+ * Does the work of ICUTransformFilter(Katakana-Hiragana), ICUTransformFilter(Traditional-Simplified) and AccentFilter
+ * in a single filter, producing exactly the same tokens.
+ *
+ * The transliterators are only run on tokens containing a character they may modify, so Latin tokens never reach
+ * them. Diacritics are folded using a table precomputed from AccentFilter, one entry per BMP character, tokens with
+ * characters whose folding depends on their neighbours (surrogates and combining marks that AccentFilter keeps) still
+ * go through AccentFilter's own code.
+ */
+public final class MusicbrainzNormalizationFilter extends TokenFilter {
+
+    public static final String KATAKANA_TO_HIRAGANA = "[ー[:Script=Katakana:]]Katakana-Hiragana";
+    public static final String TRADITIONAL_TO_SIMPLIFIED = "Traditional-Simplified";
+
+    /** Marks characters that can't be folded on their own */
+    private static final char[] COMPLEX = new char[0];
+
+    /** Folded form of each BMP character, null if left unchanged */
+    private static final char[][] FOLD = new char[Character.MAX_VALUE + 1][];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char ch = (char) c;
+            if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+                FOLD[c] = COMPLEX;
+                continue;
+            }
+            String folded = AccentFilter.stripDiacritics(String.valueOf(ch));
+            if (isReorderable(folded)) {
+                FOLD[c] = COMPLEX;
+            }
+            else if (folded.length() != 1 || folded.charAt(0) != ch) {
+                FOLD[c] = folded.toCharArray();
+            }
+        }
+    }
+
+    /**
+     * Canonical reordering can move a combining mark relative to the marks of neighbouring characters, so a token
+     * is only folded character by character if none of the folded characters is a combining mark.
+     */
+    private static boolean isReorderable(String folded) {
+        for (int i = 0; i < folded.length(); i++) {
+            char ch = folded.charAt(i);
+            int type = Character.getType(ch);
+            if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+                    || type == Character.ENCLOSING_MARK || UCharacter.getCombiningClass(ch) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    private final boolean foldAccents;
+
+    private final Transliterator katakanaToHiragana;
+    private final UnicodeSet katakanaSet;
+    private final int katakanaMin;
+    private final Transliterator traditionalToSimplified;
+    private final UnicodeSet traditionalSet;
+    private final int traditionalMin;
+
+    private final TermReplaceable replaceable = new TermReplaceable();
+    private final Transliterator.Position position = new Transliterator.Position();
+    private char[] folded = new char[ArrayUtil.oversize(16, 2)];
+
+    public MusicbrainzNormalizationFilter(TokenStream input) {
+        this(input, true);
+    }
+
+    /**
+     * @param input
+     * @param foldAccents false to only do the transliterations, as MusicbrainzKeepAccentsAnalyzer does
+     */
+    public MusicbrainzNormalizationFilter(TokenStream input, boolean foldAccents) {
+        super(input);
+        this.foldAccents = foldAccents;
+
+        katakanaToHiragana = createTransliterator(KATAKANA_TO_HIRAGANA);
+        katakanaSet = katakanaToHiragana.getSourceSet().freeze();
+        katakanaMin = katakanaSet.isEmpty() ? Integer.MAX_VALUE : katakanaSet.getRangeStart(0);
+
+        traditionalToSimplified = createTransliterator(TRADITIONAL_TO_SIMPLIFIED);
+        traditionalSet = traditionalToSimplified.getSourceSet().freeze();
+        traditionalMin = traditionalSet.isEmpty() ? Integer.MAX_VALUE : traditionalSet.getRangeStart(0);
+    }
+
+    /**
+     * Configured the same way ICUTransformFilter does
+     */
+    @SuppressWarnings("deprecation")
+    private static Transliterator createTransliterator(String id) {
+        Transliterator transliterator = Transliterator.getInstance(id);
+        if (transliterator.getFilter() == null && transliterator instanceof RuleBasedTransliterator) {
+            UnicodeSet sourceSet = transliterator.getSourceSet();
+            if (sourceSet != null && !sourceSet.isEmpty()) {
+                transliterator.setFilter(sourceSet);
+            }
+        }
+        return transliterator;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!input.incrementToken()) {
+            return false;
+        }
+
+        if (contains(katakanaSet, katakanaMin)) {
+            transliterate(katakanaToHiragana);
+        }
+        if (contains(traditionalSet, traditionalMin)) {
+            transliterate(traditionalToSimplified);
+        }
+        if (foldAccents) {
+            foldAccents();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the term contains a character from the set, min being the lowest code point in the set
+     */
+    private boolean contains(UnicodeSet set, int min) {
+        char[] buffer = termAtt.buffer();
+        int length = termAtt.length();
+        for (int i = 0; i < length; ) {
+            int cp = Character.codePointAt(buffer, i, length);
+            if (cp >= min && set.contains(cp)) {
+                return true;
+            }
+            i += Character.charCount(cp);
+        }
+        return false;
+    }
+
+    private void transliterate(Transliterator transliterator) {
+        replaceable.setText(termAtt);
+        int length = termAtt.length();
+        position.start = 0;
+        position.limit = length;
+        position.contextStart = 0;
+        position.contextLimit = length;
+        transliterator.filteredTransliterate(replaceable, position, false);
+    }
+
+    private void foldAccents() {
+        char[] buffer = termAtt.buffer();
+        int length = termAtt.length();
+
+        // Most tokens don't have anything to fold
+        int start = 0;
+        while (start < length && FOLD[buffer[start]] == null) {
+            start++;
+        }
+        if (start == length) {
+            return;
+        }
+
+        folded = ArrayUtil.grow(folded, length);
+        System.arraycopy(buffer, 0, folded, 0, start);
+        int foldedLength = start;
+        for (int i = start; i < length; i++) {
+            char[] fold = FOLD[buffer[i]];
+            if (fold == null) {
+                folded = ArrayUtil.grow(folded, foldedLength + 1);
+                folded[foldedLength++] = buffer[i];
+            }
+            else if (fold == COMPLEX) {
+                String result = AccentFilter.stripDiacritics(new String(buffer, 0, length));
+                termAtt.setEmpty().append(result);
+                return;
+            }
+            else {
+                folded = ArrayUtil.grow(folded, foldedLength + fold.length);
+                System.arraycopy(fold, 0, folded, foldedLength, fold.length);
+                foldedLength += fold.length;
+            }
+        }
+        termAtt.copyBuffer(folded, 0, foldedLength);
+    }
+
+    /**
+     * Lets the transliterators work directly on the term buffer
+     */
+    private static final class TermReplaceable implements Replaceable {
+
+        private CharTermAttribute term;
+        private char[] buffer;
+        private int length;
+
+        void setText(CharTermAttribute term) {
+            this.term = term;
+            this.buffer = term.buffer();
+            this.length = term.length();
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int offset) {
+            return buffer[offset];
+        }
+
+        public int char32At(int offset) {
+            return UTF16.charAt(buffer, 0, length, offset);
+        }
+
+        public void getChars(int srcStart, int srcLimit, char[] dst, int dstStart) {
+            System.arraycopy(buffer, srcStart, dst, dstStart, srcLimit - srcStart);
+        }
+
+        public void replace(int start, int limit, String text) {
+            int textLength = text.length();
+            int newLength = makeRoom(start, limit, textLength);
+            text.getChars(0, textLength, buffer, start);
+            setLength(newLength);
+        }
+
+        public void replace(int start, int limit, char[] chars, int charsStart, int charsLength) {
+            int newLength = makeRoom(start, limit, charsLength);
+            System.arraycopy(chars, charsStart, buffer, start, charsLength);
+            setLength(newLength);
+        }
+
+        public void copy(int start, int limit, int dest) {
+            char[] text = new char[limit - start];
+            getChars(start, limit, text, 0);
+            replace(dest, dest, text, 0, limit - start);
+        }
+
+        public boolean hasMetaData() {
+            return false;
+        }
+
+        /**
+         * Shift the text after limit so that there's exactly room for replacementLength chars from start
+         *
+         * @return the new length
+         */
+        private int makeRoom(int start, int limit, int replacementLength) {
+            int newLength = length - (limit - start) + replacementLength;
+            if (newLength > buffer.length) {
+                buffer = term.resizeBuffer(newLength);
+            }
+            System.arraycopy(buffer, limit, buffer, start + replacementLength, length - limit);
+            return newLength;
+        }
+
+        private void setLength(int newLength) {
+            length = newLength;
+            term.setLength(newLength);
+        }
+    }
+}
@@ -28,7 +28,6 @@
 
 package org.musicbrainz.search.analysis;
 
-import com.ibm.icu.text.Transliterator;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharFilter;
 import org.apache.lucene.analysis.TokenStream;
@@ -37,7 +36,6 @@ import org.apache.lucene.analysis.charfilter.MappingCharFilter;
 import org.apache.lucene.analysis.charfilter.NormalizeCharMap;
 import org.apache.lucene.analysis.cjk.CJKBigramFilter;
 import org.apache.lucene.analysis.core.KeywordTokenizer;
-import org.apache.lucene.analysis.icu.ICUTransformFilter;
 import org.musicbrainz.search.LuceneVersion;
 
 import java.io.IOException;
@@ -48,7 +46,7 @@ import java.util.regex.Pattern;
  * Should be used for for analysing titles such as track title,release title or recording title
  * because contains special processing for titles that isn't required for other text fields such as artist name.
  *
- * Filters MusicbrainzTokenizer with MusicbrainzTokenizerFilter, ICUTransformFilter, AccentFilter, LowerCaseFilter
+ * Filters MusicbrainzTokenizer with MusicbrainzNormalizationFilter, MusicbrainzTokenizerFilter, LowerCaseFilter
  * and no stop words.
  */
 public class TitleAnalyzer extends Analyzer {
@@ -76,9 +74,7 @@ public class TitleAnalyzer extends Analyzer {
     @Override
     protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
         Tokenizer source = new MusicbrainzTokenizer(LuceneVersion.LUCENE_VERSION, reader);
-        TokenStream filter = new ICUTransformFilter(source, Transliterator.getInstance("[ー[:Script=Katakana:]]Katakana-Hiragana"));
-        filter = new ICUTransformFilter(filter, Transliterator.getInstance("Traditional-Simplified"));
-        filter = new AccentFilter(filter);
+        TokenStream filter = new MusicbrainzNormalizationFilter(source);
         filter = new MusicbrainzTokenizerFilter(filter);
         filter = new CJKBigramFilter(filter);
         filter = new LowercaseFilter(filter);
@@ -0,0 +1,84 @@
+package org.musicbrainz.search.index;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.musicbrainz.search.MbDocument;
+
+/**
+ * Hash of the content of a document
+ *
+ * Stored with every entity document so that when the updater rebuilds a document because one of the tables it
+ * depends on has changed it can compare the hash of the new document with the one already in the index and skip the
+ * delete/add if the rendered document has not actually changed.
+ */
+public class ContentHash {
+
+    private ContentHash() {
+    }
+
+    /**
+     * Compute hash over the name and value of every field in the document, ignoring any existing hash field
+     *
+     * @param doc
+     * @return hex representation of the hash
+     */
+    public static String compute(Document doc) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (IndexableField field : doc.getFields()) {
+            if (field.name().equals(MetaIndexField.CONTENT_HASH.getName())) {
+                continue;
+            }
+            putString(hasher, field.name());
+
+            String value = field.stringValue();
+            BytesRef binaryValue = field.binaryValue();
+            if (value != null) {
+                putString(hasher, value);
+            }
+            else if (binaryValue != null) {
+                hasher.putInt(binaryValue.length);
+                hasher.putBytes(binaryValue.bytes, binaryValue.offset, binaryValue.length);
+            }
+            else if (field.numericValue() != null) {
+                putString(hasher, field.numericValue().toString());
+            }
+            else {
+                hasher.putInt(-1);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Compute the hash of the document and add it to the document, replacing any hash previously added
+     *
+     * @param doc
+     * @return the hash
+     */
+    public static String addTo(Document doc) {
+        doc.removeFields(MetaIndexField.CONTENT_HASH.getName());
+        String hash = compute(doc);
+        new MbDocument(doc).addField(MetaIndexField.CONTENT_HASH, hash);
+        return hash;
+    }
+
+    /**
+     * @param doc
+     * @return the hash stored in the document, or null if the document was indexed before hashes were added
+     */
+    public static String get(Document doc) {
+        return doc.get(MetaIndexField.CONTENT_HASH.getName());
+    }
+
+    /**
+     * Length prefixed so that the boundary between name and value can't be moved without changing the hash
+     */
+    private static void putString(Hasher hasher, String value) {
+        hasher.putInt(value.length());
+        hasher.putString(value, Charsets.UTF_8);
+    }
+}
@@ -54,6 +54,13 @@ public abstract class DatabaseIndex implements Index {
         return getName() + INDEX_SUFFIX;
     }
 
+    /* This is appended to the index folder, with the number of the shard, when an index is split into shards */
+    public static final String SHARD_SUFFIX = "_shard";
+
+    public String getShardFilename(int shard) {
+        return getFilename() + SHARD_SUFFIX + shard;
+    }
+
     protected DatabaseIndex(Connection dbConnection) {
         this.preparedStatements = new HashMap<String, PreparedStatement>();
         this.dbConnection = dbConnection;
@@ -99,6 +106,12 @@ public abstract class DatabaseIndex implements Index {
 		    info.schemaSequence = Integer.parseInt(doc.get(MetaIndexField.SCHEMA_SEQUENCE));
 		    String tmpStr = doc.get(MetaIndexField.LAST_CHANGE_SEQUENCE);
 		    info.changeSequence = (tmpStr != null && !tmpStr.isEmpty()) ? Integer.parseInt(tmpStr) : null;
+		    tmpStr = doc.get(MetaIndexField.DOCUMENT_COUNT);
+		    info.documentCount = (tmpStr != null && !tmpStr.isEmpty()) ? Integer.parseInt(tmpStr) : null;
+		    tmpStr = doc.get(MetaIndexField.LAST_FULL_COUNT);
+		    info.lastFullCount = (tmpStr != null && !tmpStr.isEmpty()) ? Long.parseLong(tmpStr) : null;
+		    tmpStr = doc.get(MetaIndexField.NUMERIC_PRECISION_STEP);
+		    info.numericPrecisionStep = (tmpStr != null && !tmpStr.isEmpty()) ? Integer.parseInt(tmpStr) : null;
 		    
 		}
 		return info; 
@@ -117,6 +130,8 @@ public abstract class DatabaseIndex implements Index {
 	        
 	        info.schemaSequence = rs.getInt("current_schema_sequence");
 	        info.replicationSequence = rs.getInt("current_replication_sequence");
+	        // Indexes built from the database from now on have trie encoded numeric fields
+	        info.numericPrecisionStep = MbDocument.NUMERIC_PRECISION_STEP;
 	        
 			// Check if dbmirror tables exist to get last change sequence
 			DatabaseMetaData meta = dbConnection.getMetaData();
@@ -153,6 +168,15 @@ public abstract class DatabaseIndex implements Index {
         if (info.changeSequence != null) {
         	doc.addField(MetaIndexField.LAST_CHANGE_SEQUENCE, info.changeSequence);
         }
+        if (info.documentCount != null) {
+        	doc.addField(MetaIndexField.DOCUMENT_COUNT, info.documentCount);
+        }
+        if (info.lastFullCount != null) {
+        	doc.addField(MetaIndexField.LAST_FULL_COUNT, info.lastFullCount.toString());
+        }
+        if (info.numericPrecisionStep != null) {
+        	doc.addField(MetaIndexField.NUMERIC_PRECISION_STEP, info.numericPrecisionStep);
+        }
         indexWriter.addDocument(doc.getLuceneDocument());       
 
 	}
@@ -0,0 +1,118 @@
+package org.musicbrainz.search.index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.shingle.ShingleAnalyzerWrapper;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.musicbrainz.search.analysis.EdgeNGramAnalyzerWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optional fields added at index time next to the fields searched by dismax queries on the recording and release
+ * indexes, so that the dismax parser can use term lookups instead of expanding prefix, fuzzy and phrase queries.
+ *
+ * For a field x, the xngram field holds the leading n-grams of each word of x, and the xshingle field holds each pair
+ * of consecutive words of x, both analyzed the same way as x. The values are copied from x when the document is
+ * written by ThreadedIndexWriter so the indexes themselves don't need to know about them.
+ */
+public class DismaxSiblingFields {
+
+    public static final String NGRAM_SUFFIX = "ngram";
+    public static final String SHINGLE_SUFFIX = "shingle";
+
+    /** Shortest prefix indexed, the artist dismax parser allows fuzzy matches from two characters */
+    public static final int MIN_GRAM = 2;
+
+    /** Longest prefix indexed, a longer query term can't be looked up in the ngram field */
+    public static final int MAX_GRAM = 20;
+
+    public static final String SHINGLE_SEPARATOR = " ";
+
+    private final List<IndexField[]> siblings = new ArrayList<IndexField[]>();
+
+    private DismaxSiblingFields() {
+    }
+
+    private DismaxSiblingFields add(IndexField field, IndexField ngramField, IndexField shingleField) {
+        siblings.add(new IndexField[]{field, ngramField, shingleField});
+        return this;
+    }
+
+    /**
+     * @param indexName
+     * @return the sibling fields of the index, or null if it has none
+     */
+    public static DismaxSiblingFields forIndex(String indexName) {
+        if (RecordingIndex.INDEX_NAME.equals(indexName)) {
+            return new DismaxSiblingFields()
+                    .add(RecordingIndexField.RECORDING, RecordingIndexField.RECORDING_NGRAM, RecordingIndexField.RECORDING_SHINGLE)
+                    .add(RecordingIndexField.RELEASE, RecordingIndexField.RELEASE_NGRAM, RecordingIndexField.RELEASE_SHINGLE)
+                    .add(RecordingIndexField.ARTIST, RecordingIndexField.ARTIST_NGRAM, RecordingIndexField.ARTIST_SHINGLE);
+        }
+        else if (ReleaseIndex.INDEX_NAME.equals(indexName)) {
+            return new DismaxSiblingFields()
+                    .add(ReleaseIndexField.RELEASE, ReleaseIndexField.RELEASE_NGRAM, ReleaseIndexField.RELEASE_SHINGLE)
+                    .add(ReleaseIndexField.ARTIST, ReleaseIndexField.ARTIST_NGRAM, ReleaseIndexField.ARTIST_SHINGLE)
+                    .add(ReleaseIndexField.ARTIST_NAMECREDIT, ReleaseIndexField.ARTIST_NAMECREDIT_NGRAM, ReleaseIndexField.ARTIST_NAMECREDIT_SHINGLE)
+                    .add(ReleaseIndexField.LABEL, ReleaseIndexField.LABEL_NGRAM, ReleaseIndexField.LABEL_SHINGLE);
+        }
+        return null;
+    }
+
+    public static String getNGramFieldName(String fieldName) {
+        return fieldName + NGRAM_SUFFIX;
+    }
+
+    public static String getShingleFieldName(String fieldName) {
+        return fieldName + SHINGLE_SUFFIX;
+    }
+
+    /**
+     * @param analyzer analyzer of the original field
+     * @return analyzer for its ngram field
+     */
+    static Analyzer ngram(Analyzer analyzer) {
+        return new EdgeNGramAnalyzerWrapper(analyzer, MIN_GRAM, MAX_GRAM);
+    }
+
+    /**
+     * @param analyzer analyzer of the original field
+     * @return analyzer for its shingle field
+     */
+    static Analyzer shingle(Analyzer analyzer) {
+        return new ShingleAnalyzerWrapper(analyzer, 2, 2, SHINGLE_SEPARATOR, false, false, "");
+    }
+
+    /**
+     * Copy the values of the original fields to their sibling fields
+     *
+     * @param doc
+     */
+    public void addTo(Document doc) {
+        for (IndexField[] fields : siblings) {
+            for (String value : doc.getValues(fields[0].getName())) {
+                doc.add(new Field(fields[1].getName(), value, fields[1].getFieldType()));
+                doc.add(new Field(fields[2].getName(), value, fields[2].getFieldType()));
+            }
+        }
+    }
+
+    /**
+     * @param reader
+     * @return true if the index was built with sibling fields, so documents written to it must have them too
+     */
+    public boolean isPresent(IndexReader reader) {
+        FieldInfos fieldInfos = MultiFields.getMergedFieldInfos(reader);
+        for (IndexField[] fields : siblings) {
+            if (fieldInfos.fieldInfo(fields[1].getName()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -30,8 +30,6 @@
 package org.musicbrainz.search.index;
 
 import org.apache.commons.lang.time.StopWatch;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.store.FSDirectory;
@@ -152,6 +150,7 @@ public class IndexBuilder
 
         ExecutorService es = Executors.newFixedThreadPool(MAX_THREADS_FOR_CONCURRENT_OPTIMIZATION);
         CompletionService<Boolean> cs = new ExecutorCompletionService<Boolean>(es);
+        int indexWritersToBeClosed = 0;
         for (DatabaseIndex index : indexes) {
 
             // Check if this index should be built
@@ -160,9 +159,30 @@ public class IndexBuilder
                 continue;
             }
 
-            IndexWriter indexWriter = createIndexWriter(index,options);
-            int maxId = buildDatabaseIndex(indexWriter, index, options, initialReplicationInformation);
-            cs.submit(new IndexWriterOptimizerAndClose(maxId,indexWriter, index, options));
+            int shards = options.getShards(index.getName());
+            IndexWriter[] indexWriters = new IndexWriter[shards];
+            for (int i = 0; i < shards; i++) {
+                indexWriters[i] = createIndexWriter(index, options, shards > 1 ? index.getShardFilename(i) : index.getFilename());
+            }
+            if (shards > 1 && new File(options.getIndexesDir() + index.getFilename()).exists()) {
+                System.out.println(index.getName()+":Built as "+shards+" shards, remove "+index.getFilename()+" for the search server to use them");
+            }
+            ReleaseSummaryStore.Writer releaseSummaries = null;
+            if (options.isReleaseSummaries() && index instanceof RecordingIndex) {
+                releaseSummaries = new ReleaseSummaryStore.Writer(new File(options.getIndexesDir() + ReleaseSummaryStore.FILENAME));
+                ((RecordingIndex) index).setReleaseSummaries(releaseSummaries);
+            }
+            int maxId = buildDatabaseIndex(indexWriters, index, options, initialReplicationInformation);
+            if (releaseSummaries != null) {
+                releaseSummaries.close();
+                System.out.println(index.getName()+":Release summaries:" + releaseSummaries.getCount() + " releases in "
+                        + releaseSummaries.getBytes() + " bytes, referred to by " + releaseSummaries.getReferences()
+                        + " tracks, whose copies would have taken " + releaseSummaries.getReferencedBytes() + " bytes");
+            }
+            for (IndexWriter indexWriter : indexWriters) {
+                cs.submit(new IndexWriterOptimizerAndClose(maxId,indexWriter, index, options));
+                indexWritersToBeClosed++;
+            }
         }
 
         // FreeDB data indexing
@@ -181,7 +201,7 @@ public class IndexBuilder
 
         //Wait for each index to be optimized and closed before exiting from Index Build
         System.out.println("Waiting for any indexes to finish optimizing:"+ Utils.formatCurrentTimeForOutput());
-        for (int i =0;i<indexesToBeBuilt.size();i++) {
+        for (int i =0;i<indexWritersToBeClosed;i++) {
             Future<Boolean> result = cs.take();
             try
             {
@@ -215,14 +235,15 @@ public class IndexBuilder
      *
      * @param index
      * @param options
+     * @param filename folder of the index, or of the shard being written
      * @return
      * @throws IOException
      * @throws SQLException
      */
-    private static IndexWriter createIndexWriter(DatabaseIndex index, IndexOptions options) throws IOException, SQLException
+    private static IndexWriter createIndexWriter(DatabaseIndex index, IndexOptions options, String filename) throws IOException, SQLException
     {
         IndexWriter indexWriter;
-        String path = options.getIndexesDir() + index.getFilename();
+        String path = options.getIndexesDir() + filename;
 
         FSDirectory fsDir = FSDirectory.open(new File(path), NoLockFactory.getNoLockFactory() );
 
@@ -240,6 +261,10 @@ public class IndexBuilder
                                                 Runtime.getRuntime().availableProcessors(),
                                                 options.getDatabaseChunkSize()
                                                 );
+        if(options.isDismaxSiblingFields())
+        {
+            ((ThreadedIndexWriter) indexWriter).setSiblingFields(DismaxSiblingFields.forIndex(index.getName()));
+        }
 
         return indexWriter;
     }
@@ -248,32 +273,41 @@ public class IndexBuilder
 
     /**
      * Build an index from database
-     * 
+     *
+     * When there are several writers the index is split into shards, each holding a contiguous range of ids and its
+     * own meta document.
+     *
+     * @param indexWriters one for each shard
      * @param options
      * @param initialReplicationInformation 
      * @throws IOException 
      * @throws SQLException 
      */
-    private static int buildDatabaseIndex(IndexWriter indexWriter, DatabaseIndex index, IndexOptions options, ReplicationInformation initialReplicationInformation) throws IOException, SQLException
+    private static int buildDatabaseIndex(IndexWriter[] indexWriters, DatabaseIndex index, IndexOptions options, ReplicationInformation initialReplicationInformation) throws IOException, SQLException
     {
         try
         {
             StopWatch clock = new StopWatch();
             clock.start();
             System.out.println(index.getName()+":Started at "+ Utils.formatCurrentTimeForOutput());
-            index.init(indexWriter, false);
-            index.addMetaInformation(indexWriter, initialReplicationInformation);
+            index.init(indexWriters[0], false);
+            for (IndexWriter indexWriter : indexWriters) {
+                index.addMetaInformation(indexWriter, initialReplicationInformation);
+            }
             int maxId = index.getMaxId();
             if(maxId > 0) {
 
                 if (options.isTest() && options.getTestIndexSize() < maxId)
                     maxId = options.getTestIndexSize();
-                int j = 0;
-                while (j <= maxId) {
-                    int k = Math.min(j + options.getDatabaseChunkSize() - 1, maxId);
-                    System.out.print(index.getName()+":Indexing " + j + "..." + k + " / " + maxId + " (" + (100*k/maxId) + "%)\r");
-                    index.indexData(indexWriter, j, k);
-                    j += options.getDatabaseChunkSize();
+                for (int shard = 0; shard < indexWriters.length; shard++) {
+                    int j = (int) ((long) (maxId + 1) * shard / indexWriters.length);
+                    int lastId = (int) ((long) (maxId + 1) * (shard + 1) / indexWriters.length) - 1;
+                    while (j <= lastId) {
+                        int k = Math.min(j + options.getDatabaseChunkSize() - 1, lastId);
+                        System.out.print(index.getName()+":Indexing " + j + "..." + k + " / " + maxId + " (" + (100*k/maxId) + "%)\r");
+                        index.indexData(indexWriters[shard], j, k);
+                        j += options.getDatabaseChunkSize();
+                    }
                 }
             }
             index.destroy();
@@ -352,21 +386,23 @@ public class IndexBuilder
 
         public Boolean call()
         {
-            IndexReader reader=null;
             try
             {
                 StopWatch clock = new StopWatch();
                 clock.start();
-                String path = options.getIndexesDir() + index.getFilename();
                 System.out.println(index.getName()+":Started forceMerge at "+Utils.formatCurrentTimeForOutput());
                 indexWriter.forceMerge(1);
+                // Excluding the meta document
+                int luceneDocs = indexWriter.numDocs() - 1;
                 indexWriter.close();
                 clock.stop();
-                // For debugging to check sql is not creating too few/many rows
-                if(true) {
+                // Counting database rows is a full table scan, only do it for debugging to check sql is not creating too few/many rows
+                if(options.isDebug()) {
                     int dbRows = index.getNoOfRows(maxId);
-                    reader = DirectoryReader.open(FSDirectory.open(new File(path)));
-                    System.out.println(index.getName()+":"+dbRows+" db rows:"+(reader.maxDoc() - 1)+" lucene docs");
+                    System.out.println(index.getName()+":"+dbRows+" db rows:"+luceneDocs+" lucene docs");
+                }
+                else {
+                    System.out.println(index.getName()+":"+luceneDocs+" lucene docs");
                 }
                 System.out.println(index.getName()+":Finished forceMerge:" + Utils.formatClock(clock));
                 return true;
@@ -77,6 +77,18 @@ public class IndexOptions {
     public ArrayList<String> selectedIndexes() { return new ArrayList<String>(Arrays.asList(indexes.split(","))); }
     public boolean buildIndex(String indexName) { return selectedIndexes().contains(indexName); }
 
+    @Option(name="--shards", usage="A comma-separated list of indexes to split into shards by id range, with the number of shards of each (e.g. recording:4,release:2)")
+    private String shards = "";
+    public int getShards(String indexName) {
+        for (String entry : shards.split(",")) {
+            String[] nameAndCount = entry.split(":");
+            if (nameAndCount.length == 2 && nameAndCount[0].trim().equals(indexName)) {
+                return Math.max(1, Integer.parseInt(nameAndCount[1].trim()));
+            }
+        }
+        return 1;
+    }
+
     // Test mode
     @Option(name="--test", aliases = { "-t" }, usage="Test the index builder by creating small test indexes.")
     private boolean test = false;
@@ -109,5 +121,15 @@ public class IndexOptions {
     private int maxBufferedDocs = MAX_BUFFERED_DOCS;
     public int getMaxBufferedDocs() { return maxBufferedDocs; }
 
+    // Dismax sibling fields
+    @Option(name="--dismax-sibling-fields", usage="Also index edge n-grams and shingles of the recording and release fields searched by dismax queries, so they can be matched without prefix, fuzzy and phrase queries. Makes these indexes larger.")
+    private boolean dismaxSiblingFields = false;
+    public boolean isDismaxSiblingFields() { return dismaxSiblingFields; }
+
+    // Release summaries
+    @Option(name="--release-summaries", usage="Store the releases of recordings once in "+ReleaseSummaryStore.FILENAME+" rather than copying them into every recording that has a track on them. Makes the recording index smaller, needs a search server that reads the release summaries.")
+    private boolean releaseSummaries = false;
+    public boolean isReleaseSummaries() { return releaseSummaries; }
+
 
 }
@@ -32,8 +32,16 @@ public enum MetaIndexField implements IndexField {
     REPLICATION_SEQUENCE	("index_repseq",		MusicBrainzFieldTypes.TEXT_STORED_NOT_ANALYZED),
     SCHEMA_SEQUENCE			("index_schseq",		MusicBrainzFieldTypes.TEXT_STORED_NOT_ANALYZED),
     LAST_CHANGE_SEQUENCE	("index_changeseq",		MusicBrainzFieldTypes.TEXT_STORED_NOT_ANALYZED),
+    // Number of entity documents the index is expected to hold, maintained by the updater
+    DOCUMENT_COUNT			("index_doccount",		MusicBrainzFieldTypes.TEXT_STORED_NOT_ANALYZED),
+    // Time of the last full count of database rows against index documents
+    LAST_FULL_COUNT			("index_lastfullcount",	MusicBrainzFieldTypes.TEXT_STORED_NOT_ANALYZED),
+    // Precision step of the trie encoded numeric fields, missing when the index was built before they were trie encoded
+    NUMERIC_PRECISION_STEP	("index_numericstep",	MusicBrainzFieldTypes.TEXT_STORED_NOT_ANALYZED),
     // Dumb field always filled with '1', but that easily allow to find the meta document
     META					("index_meta",			MusicBrainzFieldTypes.TEXT_STORED_NOT_ANALYZED),
+    // Hash of the content of an entity document, lets the updater skip rewriting documents that haven't changed
+    CONTENT_HASH			("index_contenthash",	MusicBrainzFieldTypes.TEXT_STORED_NOT_INDEXED),
     ;
 
     private String name;
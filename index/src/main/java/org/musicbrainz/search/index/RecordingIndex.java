@@ -108,9 +108,21 @@ public class RecordingIndex extends DatabaseIndex {
 
     String releases;
     String releaseArtistCredits;
+    // Null unless the releases are stored once in release summaries rather than in every recording
+    private ReleaseSummaryStore.Writer releaseSummaries;
     String releaseEvents;
     String releaseSecondaryTypes;
 
+    /**
+     * Store the releases of recordings in the release summaries, the recordings only keeping their id and what
+     * depends on the track
+     *
+     * @param releaseSummaries
+     */
+    public void setReleaseSummaries(ReleaseSummaryStore.Writer releaseSummaries) {
+        this.releaseSummaries = releaseSummaries;
+    }
+
     @Override
     public Similarity getSimilarity() {
         return new RecordingSimilarity();
@@ -762,7 +774,7 @@ public class RecordingIndex extends DatabaseIndex {
                                           Map<Integer, ArtistCreditWrapper> trackArtistCredits,
                                           Map<Integer, List<TrackWrapper>> tracks,
                                           Map<Integer, Release> releases,
-                                          Map<Integer, ArtistCreditWrapper>   releaseArtists) throws SQLException {
+                                          Map<Integer, ArtistCreditWrapper>   releaseArtists) throws SQLException, IOException {
 
         buildClock.resume();
         Set<Integer> durations = new HashSet<Integer>();
@@ -1016,6 +1028,16 @@ public class RecordingIndex extends DatabaseIndex {
                                         RecordingIndexField.ARTIST_NAME);
                         track.setArtistCredit(taw.getArtistCredit());
                     }
+
+                    if (releaseSummaries != null) {
+                        int releaseId = trackWrapper.getReleaseId();
+                        if (!releaseSummaries.contains(releaseId)) {
+                            releaseSummaries.add(releaseId, MMDSerializer.serialize(createReleaseSummary(of, release, origRelease)));
+                        }
+                        releaseSummaries.addReference(releaseId);
+                        releaseList.getRelease().set(releaseList.getRelease().size() - 1, createTrackRelease(of, release, origRelease));
+                        doc.addField(RecordingIndexField.RELEASE_SUMMARY_ID, releaseId);
+                    }
                 }
             }
         } else {
@@ -1056,6 +1078,52 @@ public class RecordingIndex extends DatabaseIndex {
         return doc.getLuceneDocument();
     }
 
+    /**
+     * The parts of a release that are the same for every recording with a track on it
+     *
+     * @param of
+     * @param release release as built for the recording
+     * @param origRelease release as loaded
+     * @return
+     */
+    private Release createReleaseSummary(ObjectFactory of, Release release, Release origRelease) {
+        Release summary = of.createRelease();
+        summary.setId(release.getId());
+        summary.setTitle(release.getTitle());
+        summary.setReleaseGroup(release.getReleaseGroup());
+        summary.setStatus(release.getStatus());
+        //Various artists credit, other release artist credits depend on the track
+        summary.setArtistCredit(origRelease.getArtistCredit());
+        MediumList ml = of.createMediumList();
+        ml.setTrackCount(release.getMediumList().getTrackCount());
+        summary.setMediumList(ml);
+        summary.setReleaseEventList(release.getReleaseEventList());
+        summary.setDate(release.getDate());
+        summary.setCountry(release.getCountry());
+        return summary;
+    }
+
+    /**
+     * The parts of a release that depend on the track of the recording, the rest is joined back from the release
+     * summary when the recording is written
+     *
+     * @param of
+     * @param release release as built for the recording
+     * @param origRelease release as loaded
+     * @return
+     */
+    private Release createTrackRelease(ObjectFactory of, Release release, Release origRelease) {
+        Release trackRelease = of.createRelease();
+        trackRelease.setId(release.getId());
+        if (origRelease.getArtistCredit() == null) {
+            trackRelease.setArtistCredit(release.getArtistCredit());
+        }
+        MediumList ml = of.createMediumList();
+        ml.getMedium().addAll(release.getMediumList().getMedium());
+        trackRelease.setMediumList(ml);
+        return trackRelease;
+    }
+
     /**
      * Create various artist credits
      *
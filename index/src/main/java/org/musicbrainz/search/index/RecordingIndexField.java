@@ -48,6 +48,18 @@ public enum RecordingIndexField implements IndexField {
     VIDEO                   ("video",                MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, new CaseInsensitiveKeywordAnalyzer()),
     RECORDING_STORE		     ("recordingstore",    MusicBrainzFieldTypes.TEXT_STORED_NOT_INDEXED),
 
+    // Only present if the index was built with --release-summaries, the internal id of each release of the recording
+    // store in the same order, see ReleaseSummaryStore
+    RELEASE_SUMMARY_ID      ("releasesummaryid",    MusicBrainzFieldTypes.TEXT_STORED_NOT_INDEXED),
+
+    // Only present if the index was built with --dismax-sibling-fields, see DismaxSiblingFields
+    RECORDING_NGRAM         ("recordingngram",      MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.ngram(new MusicbrainzWithPosGapAnalyzer())),
+    RECORDING_SHINGLE       ("recordingshingle",    MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.shingle(new MusicbrainzWithPosGapAnalyzer())),
+    RELEASE_NGRAM           ("releasengram",        MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.ngram(new TitleWithPosGapAnalyzer())),
+    RELEASE_SHINGLE         ("releaseshingle",      MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.shingle(new TitleWithPosGapAnalyzer())),
+    ARTIST_NGRAM            ("artistngram",         MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.ngram(new MusicbrainzWithPosGapAnalyzer())),
+    ARTIST_SHINGLE          ("artistshingle",       MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.shingle(new MusicbrainzWithPosGapAnalyzer())),
+
 
     ;
 
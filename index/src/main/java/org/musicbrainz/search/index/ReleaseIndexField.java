@@ -45,6 +45,16 @@ public enum ReleaseIndexField implements IndexField {
     TYPE		        ("type",		    MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, new CaseInsensitiveKeywordAnalyzer()),
     PACKAGING           ("packaging",       MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED, new CaseInsensitiveKeywordAnalyzer()),
     RELEASE_STORE		("releasestore",    MusicBrainzFieldTypes.TEXT_STORED_NOT_INDEXED),
+
+    // Only present if the index was built with --dismax-sibling-fields, see DismaxSiblingFields
+    RELEASE_NGRAM       ("releasengram",    MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.ngram(new TitleAnalyzer())),
+    RELEASE_SHINGLE     ("releaseshingle",  MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.shingle(new TitleAnalyzer())),
+    ARTIST_NGRAM        ("artistngram",     MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.ngram(new MusicbrainzWithPosGapAnalyzer())),
+    ARTIST_SHINGLE      ("artistshingle",   MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.shingle(new MusicbrainzWithPosGapAnalyzer())),
+    ARTIST_NAMECREDIT_NGRAM   ("creditnamengram",   MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.ngram(new MusicbrainzWithPosGapAnalyzer())),
+    ARTIST_NAMECREDIT_SHINGLE ("creditnameshingle", MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.shingle(new MusicbrainzWithPosGapAnalyzer())),
+    LABEL_NGRAM         ("labelngram",      MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.ngram(new MusicbrainzWithPosGapAnalyzer())),
+    LABEL_SHINGLE       ("labelshingle",    MusicBrainzFieldTypes.TEXT_NOT_STORED_ANALYZED_NO_NORMS, DismaxSiblingFields.shingle(new MusicbrainzWithPosGapAnalyzer())),
     ;
 
     private String name;
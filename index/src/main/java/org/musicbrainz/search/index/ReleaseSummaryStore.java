@@ -0,0 +1,250 @@
+package org.musicbrainz.search.index;
+
+import com.google.common.io.CountingOutputStream;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Summaries of the releases that recordings appear on, keyed by internal release id
+ *
+ * When the recording index is built with --release-summaries each release is stored here once, rather than copied
+ * into the stored recording of every recording with a track on it, and the recordings only keep what depends on the
+ * track. The search server joins them back when writing the recordings.
+ *
+ * The file, kept next to the index folders, holds the serialized summaries followed by an index of release ids and
+ * offsets sorted by release id, so it can be read straight from a memory mapped directory with a binary search and
+ * without loading anything onto the heap.
+ */
+public class ReleaseSummaryStore implements Closeable {
+
+    public static final String FILENAME = "recording_releases";
+
+    private static final String CODEC = "ReleaseSummaries";
+    private static final int VERSION = 0;
+    // Release id and offset of its summary
+    private static final int ENTRY_BYTES = 12;
+    // Number of releases and offset of the index
+    private static final int FOOTER_BYTES = 12;
+
+    private final Directory directory;
+    private final IndexInput input;
+    private final int count;
+    private final long indexOffset;
+
+    /**
+     * Open the store in the directory, which is closed with the store, or straight away if the store can't be read
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public ReleaseSummaryStore(Directory directory) throws IOException {
+        this.directory = directory;
+        IndexInput in = null;
+        boolean success = false;
+        try {
+            in = directory.openInput(FILENAME, IOContext.READ);
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+            in.seek(in.length() - FOOTER_BYTES);
+            count = in.readInt();
+            indexOffset = in.readLong();
+            success = true;
+        }
+        finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(in, directory);
+            }
+        }
+        this.input = in;
+    }
+
+    /**
+     * @param releaseId internal id of the release
+     * @return serialized summary of the release, or null if it isn't in the store
+     * @throws IOException
+     */
+    public String get(int releaseId) throws IOException {
+        IndexInput in = input.clone();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            in.seek(indexOffset + (long) mid * ENTRY_BYTES);
+            int id = in.readInt();
+            if (id < releaseId) {
+                low = mid + 1;
+            }
+            else if (id > releaseId) {
+                high = mid - 1;
+            }
+            else {
+                in.seek(in.readLong());
+                return in.readString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of releases in the store
+     */
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            input.close();
+        }
+        finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * Writes the store while the recording index is built, each release being added once
+     *
+     * The store is written to a temporary file that replaces the previous store when closed, so a search server
+     * reading the previous store is not affected. Not thread safe.
+     */
+    public static class Writer implements Closeable {
+
+        private final File file;
+        private final File tempFile;
+        private final CountingOutputStream counter;
+        private final OutputStreamDataOutput out;
+        // Size of the summary of each release added, by release id
+        private int[] summaryBytes = new int[1024];
+        // Release id in the upper half and position of the release in offsets in the lower half, to sort by release id
+        private long[] entries = new long[1024];
+        private long[] offsets = new long[1024];
+        private int count;
+        private long references;
+        private long referencedBytes;
+
+        /**
+         * @param file
+         * @throws IOException
+         */
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.tempFile = new File(file.getPath() + ".tmp");
+            counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out = new OutputStreamDataOutput(counter);
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+        }
+
+        /**
+         * @param releaseId
+         * @return true if the summary of the release has already been added
+         */
+        public boolean contains(int releaseId) {
+            return releaseId < summaryBytes.length && summaryBytes[releaseId] > 0;
+        }
+
+        /**
+         * @param releaseId internal id of the release
+         * @param summary serialized summary of the release
+         * @throws IOException
+         */
+        public void add(int releaseId, String summary) throws IOException {
+            if (contains(releaseId)) {
+                return;
+            }
+            if (releaseId >= summaryBytes.length) {
+                summaryBytes = Arrays.copyOf(summaryBytes, Math.max(releaseId + 1, summaryBytes.length * 2));
+            }
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            long offset = counter.getCount();
+            out.writeString(summary);
+            summaryBytes[releaseId] = (int) Math.max(1, counter.getCount() - offset);
+            entries[count] = ((long) releaseId << 32) | count;
+            offsets[count] = offset;
+            count++;
+        }
+
+        /**
+         * Count a recording referring to the release rather than holding a copy of it
+         *
+         * @param releaseId
+         */
+        public void addReference(int releaseId) {
+            references++;
+            if (contains(releaseId)) {
+                referencedBytes += summaryBytes[releaseId];
+            }
+        }
+
+        /**
+         * @return number of releases in the store
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return number of recording tracks referring to a release of the store
+         */
+        public long getReferences() {
+            return references;
+        }
+
+        /**
+         * @return size the summaries would take if each recording held its own copy
+         */
+        public long getReferencedBytes() {
+            return referencedBytes;
+        }
+
+        /**
+         * @return size of the store written so far
+         */
+        public long getBytes() {
+            return counter.getCount();
+        }
+
+        /**
+         * Write the index of the store and replace the previous store
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            boolean success = false;
+            try {
+                long indexOffset = counter.getCount();
+                Arrays.sort(entries, 0, count);
+                for (int i = 0; i < count; i++) {
+                    out.writeInt((int) (entries[i] >>> 32));
+                    out.writeLong(offsets[(int) entries[i]]);
+                }
+                out.writeInt(count);
+                out.writeLong(indexOffset);
+                success = true;
+            }
+            finally {
+                out.close();
+                if (!success) {
+                    tempFile.delete();
+                }
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with " + tempFile);
+            }
+        }
+    }
+}
@@ -5,6 +5,12 @@ public class ReplicationInformation implements Comparable<ReplicationInformation
 	public Integer schemaSequence;
 	public Integer replicationSequence;
 	public Integer changeSequence;
+
+	// Not part of the replication position, only carried along in the meta document
+	public Integer documentCount;
+	public Long lastFullCount;
+	// Only set by a full build, documents added by the updater to an older index don't make all its numeric fields trie encoded
+	public Integer numericPrecisionStep;
 	
 	@Override
 	public int compareTo(ReplicationInformation other) {
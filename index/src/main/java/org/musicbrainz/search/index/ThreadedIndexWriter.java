@@ -22,6 +22,7 @@ package org.musicbrainz.search.index;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
@@ -35,6 +36,7 @@ import java.util.concurrent.TimeUnit;
 public class ThreadedIndexWriter extends IndexWriter {
     private ExecutorService threadPool;
     private Analyzer defaultAnalyzer;
+    private DismaxSiblingFields siblingFields;
 
     private class Job implements Runnable {
         Document doc;
@@ -48,7 +50,7 @@ public class ThreadedIndexWriter extends IndexWriter {
         public void run() {
             try {
 
-                ThreadedIndexWriter.super.addDocument(doc, analyzer);
+                writeDocument(doc, analyzer);
             } catch (IOException ioe) {
                 ioe.printStackTrace(System.err);
             }
@@ -72,6 +74,15 @@ public class ThreadedIndexWriter extends IndexWriter {
                 new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
+    /**
+     * Copy the dismax fields of each entity document to their sibling fields before writing it
+     *
+     * @param siblingFields sibling fields of the index, or null for none
+     */
+    public void setSiblingFields(DismaxSiblingFields siblingFields) {
+        this.siblingFields = siblingFields;
+    }
+
     public void addDocument(Document doc) {
         threadPool.execute(new Job(doc, defaultAnalyzer));
     }
@@ -80,6 +91,49 @@ public class ThreadedIndexWriter extends IndexWriter {
         threadPool.execute(new Job(doc,  a));
     }
 
+    /**
+     * Documents added through the IndexWriter api (which is how the indexes add them) end up here
+     */
+    @Override
+    public void addDocument(Iterable<? extends IndexableField> doc, Analyzer analyzer) throws IOException {
+        writeDocument(doc, analyzer);
+    }
+
+    /**
+     * Write the document to the index, entity documents are first stamped with a hash of their content so that the
+     * updater can later detect whether a rebuilt document has really changed. Sibling fields, if any, are added after
+     * the hash is computed since they only repeat other fields.
+     *
+     * @param doc
+     * @param analyzer
+     * @throws IOException
+     */
+    protected void writeDocument(Iterable<? extends IndexableField> doc, Analyzer analyzer) throws IOException {
+        if (doc instanceof Document && ((Document) doc).get(MetaIndexField.META.getName()) == null) {
+            ContentHash.addTo((Document) doc);
+            if (siblingFields != null) {
+                siblingFields.addTo((Document) doc);
+            }
+        }
+        super.addDocument(doc, analyzer);
+    }
+
+    /**
+     * Atomically replace any documents matching the term with this document, for use by subclasses
+     * since updateDocument() is not supported. Sibling fields are added as when writing a document.
+     *
+     * @param term
+     * @param doc
+     * @param analyzer
+     * @throws IOException
+     */
+    protected void replaceDocument(Term term, Iterable<? extends IndexableField> doc, Analyzer analyzer) throws IOException {
+        if (doc instanceof Document && siblingFields != null) {
+            siblingFields.addTo((Document) doc);
+        }
+        super.updateDocument(term, doc, analyzer);
+    }
+
     public void updateDocument(Term term, Document doc) {
         throw new UnsupportedOperationException();
 
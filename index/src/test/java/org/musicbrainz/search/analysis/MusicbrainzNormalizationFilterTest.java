@@ -0,0 +1,99 @@
+package org.musicbrainz.search.analysis;
+
+import com.ibm.icu.text.Transliterator;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.icu.ICUTransformFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MusicbrainzNormalizationFilter must give exactly the same tokens as the filters it replaces
+ */
+public class MusicbrainzNormalizationFilterTest {
+
+    private static final String[] SAMPLES = {
+            "ŃåᴊıÃšņ", "tést", "ábcáef", "Björk", "Sigur Rós", "Mötley Crüe", "Beyoncé", "Ænima", "Œuvre", "straße",
+            "Dvořák", "Łódź", "Ḥasan", "Việt Nam", "ǅemal", "ﬁnal", "^hat `back`", "á̖b", "ệ",
+            "浜崎あゆみ", "ハマサキアユミ", "ｱﾕﾐ", "パフューム", "ボーカロイド", "東京事變", "張學友", "周杰倫", "劉德華",
+            "한국어", "빅뱅", "אביתר בנאי", "שָׁלוֹם", "Фёдор Шаляпин", "Ελληνικά", "مُحَمَّد", "हिन्दी", "ไทย",
+            "𝄞music", "𠀋𠂉", "AC/DC", "!!!", "Guns N' Roses", "...And You Will Know Us", "Sunn O)))", "Ke$ha",
+    };
+
+    private static List<String> tokens(TokenStream stream) throws IOException {
+        List<String> result = new ArrayList<String>();
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            result.add(term.toString());
+        }
+        stream.end();
+        stream.close();
+        return result;
+    }
+
+    private static TokenStream original(String text, boolean foldAccents) {
+        Tokenizer source = new WhitespaceTokenizer(LuceneVersion.LUCENE_VERSION, new StringReader(text));
+        TokenStream filter = new ICUTransformFilter(source, Transliterator.getInstance(MusicbrainzNormalizationFilter.KATAKANA_TO_HIRAGANA));
+        filter = new ICUTransformFilter(filter, Transliterator.getInstance(MusicbrainzNormalizationFilter.TRADITIONAL_TO_SIMPLIFIED));
+        if (foldAccents) {
+            filter = new AccentFilter(filter);
+        }
+        return filter;
+    }
+
+    private static TokenStream fused(String text, boolean foldAccents) {
+        Tokenizer source = new WhitespaceTokenizer(LuceneVersion.LUCENE_VERSION, new StringReader(text));
+        return new MusicbrainzNormalizationFilter(source, foldAccents);
+    }
+
+    private static void assertSameTokens(String text) throws IOException {
+        assertEquals(tokens(original(text, true)), tokens(fused(text, true)));
+        assertEquals(tokens(original(text, false)), tokens(fused(text, false)));
+    }
+
+    @Test
+    public void testSamples() throws IOException {
+        for (String sample : SAMPLES) {
+            assertSameTokens(sample);
+        }
+    }
+
+    @Test
+    public void testEveryCharacter() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (char c = 1; c < Character.MAX_VALUE; c++) {
+            if (!Character.isWhitespace(c) && !Character.isSurrogate(c)) {
+                sb.append(c).append(' ');
+            }
+        }
+        assertSameTokens(sb.toString());
+    }
+
+    @Test
+    public void testCharacterPairs() throws IOException {
+        // Characters that fold next to combining marks and other folded characters
+        String chars = "aeéèêëçñøßœæĳǆǅÅåḤạְּ̖̣́がガゕヿー東學한가";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < chars.length(); i++) {
+            for (int j = 0; j < chars.length(); j++) {
+                sb.append(chars.charAt(i)).append(chars.charAt(j)).append(' ');
+            }
+        }
+        assertSameTokens(sb.toString());
+    }
+
+    @Test
+    public void testAnalyzer() throws IOException {
+        assertEquals("[najiasn]", tokens(new MusicbrainzAnalyzer().tokenStream("name", "ŃåᴊıÃšņ")).toString());
+    }
+}
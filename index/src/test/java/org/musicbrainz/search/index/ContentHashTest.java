@@ -0,0 +1,42 @@
+package org.musicbrainz.search.index;
+
+import org.junit.Test;
+import org.musicbrainz.search.MbDocument;
+
+import static org.junit.Assert.*;
+
+public class ContentHashTest {
+
+    private MbDocument createRecording(String name) {
+        MbDocument doc = new MbDocument();
+        doc.addField(RecordingIndexField.ID, "1");
+        doc.addField(RecordingIndexField.RECORDING, name);
+        doc.addField(RecordingIndexField.ARTIST_NAME, "Farming Incident");
+        return doc;
+    }
+
+    @Test
+    public void testSameContentSameHash() throws Exception {
+        assertEquals(ContentHash.compute(createRecording("Gravitational Lenz").getLuceneDocument()),
+                ContentHash.compute(createRecording("Gravitational Lenz").getLuceneDocument()));
+    }
+
+    @Test
+    public void testChangedContentChangesHash() throws Exception {
+        assertFalse(ContentHash.compute(createRecording("Gravitational Lenz").getLuceneDocument()).equals(
+                ContentHash.compute(createRecording("Gravitational Lens").getLuceneDocument())));
+    }
+
+    @Test
+    public void testAddToReplacesExistingHash() throws Exception {
+        MbDocument doc = createRecording("Gravitational Lenz");
+        assertNull(ContentHash.get(doc.getLuceneDocument()));
+
+        String hash = ContentHash.addTo(doc.getLuceneDocument());
+        assertEquals(hash, ContentHash.get(doc.getLuceneDocument()));
+
+        // Hash field itself is not part of the hash
+        assertEquals(hash, ContentHash.addTo(doc.getLuceneDocument()));
+        assertEquals(1, doc.getLuceneDocument().getFields(MetaIndexField.CONTENT_HASH.getName()).length);
+    }
+}
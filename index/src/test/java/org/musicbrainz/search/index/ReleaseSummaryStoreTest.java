@@ -0,0 +1,113 @@
+package org.musicbrainz.search.index;
+
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class ReleaseSummaryStoreTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("releasesummaries", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private void writeStore(int... releaseIds) throws Exception {
+        ReleaseSummaryStore.Writer writer = new ReleaseSummaryStore.Writer(new File(dir, ReleaseSummaryStore.FILENAME));
+        for (int releaseId : releaseIds) {
+            if (!writer.contains(releaseId)) {
+                writer.add(releaseId, "<release>" + releaseId + "</release>");
+            }
+            writer.addReference(releaseId);
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testEachReleaseStoredOnce() throws Exception {
+        ReleaseSummaryStore.Writer writer = new ReleaseSummaryStore.Writer(new File(dir, ReleaseSummaryStore.FILENAME));
+        writer.add(491240, "<release>Farming Incident</release>");
+        writer.addReference(491240);
+        writer.add(491240, "<release>Farming Incident</release>");
+        writer.addReference(491240);
+        assertEquals(1, writer.getCount());
+        assertEquals(2, writer.getReferences());
+        assertEquals(2 * 36, writer.getReferencedBytes());
+        writer.close();
+        assertFalse(new File(dir, ReleaseSummaryStore.FILENAME + ".tmp").exists());
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        // Added in the order recordings refer to them, not by release id
+        writeStore(300, 5, 2000000, 5, 17);
+
+        ReleaseSummaryStore store = new ReleaseSummaryStore(new MMapDirectory(dir));
+        try {
+            assertEquals(4, store.size());
+            assertEquals("<release>5</release>", store.get(5));
+            assertEquals("<release>17</release>", store.get(17));
+            assertEquals("<release>300</release>", store.get(300));
+            assertEquals("<release>2000000</release>", store.get(2000000));
+            assertNull(store.get(1));
+            assertNull(store.get(18));
+            assertNull(store.get(3000000));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReplaceWhileOpen() throws Exception {
+        writeStore(1, 2);
+        ReleaseSummaryStore store = new ReleaseSummaryStore(new NIOFSDirectory(dir));
+        try {
+            writeStore(3);
+            // Still reads the store it opened
+            assertEquals("<release>2</release>", store.get(2));
+        }
+        finally {
+            store.close();
+        }
+
+        store = new ReleaseSummaryStore(new NIOFSDirectory(dir));
+        try {
+            assertEquals(1, store.size());
+            assertEquals("<release>3</release>", store.get(3));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        writeStore();
+        ReleaseSummaryStore store = new ReleaseSummaryStore(new NIOFSDirectory(dir));
+        try {
+            assertEquals(0, store.size());
+            assertNull(store.get(1));
+        }
+        finally {
+            store.close();
+        }
+    }
+}
@@ -12,6 +12,8 @@ public abstract class AbstractDismaxSearchServer implements SearchServer {
 
   protected DismaxSearcher dismaxSearcher;
   protected AbstractSearchServer realSearchServer;
+  protected QueryCache queryCache;
+  protected ResourceType resourceType;
 
   protected AbstractDismaxSearchServer(AbstractSearchServer mainSearchServer) {
     this.realSearchServer = mainSearchServer;
@@ -20,17 +22,71 @@ public abstract class AbstractDismaxSearchServer implements SearchServer {
 
   abstract protected DismaxSearcher initDismaxSearcher();
 
+  /**
+   * @return the search server whose index this searches
+   */
+  public AbstractSearchServer getSearchServer() {
+    return realSearchServer;
+  }
+
   // Default parseQuery implemention
   protected Query parseQuery(String query) throws ParseException
   {
     return dismaxSearcher.parseQuery(query, realSearchServer.getAnalyzer());
   }
 
+  /**
+   * Parse the query, or get it from the query cache if it has already been parsed
+   */
+  protected Query getQuery(String query) throws ParseException
+  {
+    Query parsed = getCachedQuery(query);
+    return parsed != null ? parsed : parseAndCacheQuery(query);
+  }
+
+  /**
+   * @param query
+   * @return the parsed query from the query cache, or null if it hasn't been parsed yet
+   */
+  protected Query getCachedQuery(String query)
+  {
+    return queryCache != null ? queryCache.get(resourceType, true, query) : null;
+  }
+
+  private Query parseAndCacheQuery(String query) throws ParseException
+  {
+    Query parsed = parseQuery(query);
+    if (queryCache != null) {
+      queryCache.put(resourceType, true, query, parsed);
+    }
+    return parsed;
+  }
+
+  /**
+   * Cache parsed queries in queryCache
+   *
+   * @param queryCache
+   * @param resourceType resource type of this search server
+   */
+  public void setQueryCache(QueryCache queryCache, ResourceType resourceType) {
+    this.queryCache = queryCache;
+    this.resourceType = resourceType;
+  }
+
   @Override
   public Results search(String userQuery, int offset, int limit) throws IOException, ParseException {
     // Parse query with the dismaxSearcher, then delegate the search to the backend search server
-    Query query = parseQuery(userQuery);
-    return realSearchServer.search(query, offset, limit);
+    long start = System.nanoTime();
+    Query query = getCachedQuery(userQuery);
+    boolean queryCacheHit = query != null;
+    if (!queryCacheHit) {
+      query = parseAndCacheQuery(userQuery);
+    }
+    long parseNanos = System.nanoTime() - start;
+    Results results = realSearchServer.search(query, offset, limit);
+    results.setParseNanos(parseNanos);
+    results.setQueryCacheHit(queryCacheHit);
+    return results;
   }
 
   @Override
@@ -40,7 +96,7 @@ public abstract class AbstractDismaxSearchServer implements SearchServer {
 
   @Override
   public String explain(String userQuery, int offset, int limit) throws IOException, ParseException {
-      Query query = parseQuery(userQuery);
+      Query query = getQuery(userQuery);
       return realSearchServer.explain(query, offset, limit);
   }
 
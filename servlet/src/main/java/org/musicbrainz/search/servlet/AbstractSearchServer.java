@@ -30,15 +30,18 @@ package org.musicbrainz.search.servlet;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -61,6 +64,9 @@ import org.musicbrainz.search.servlet.mmd2.ResultsWriter;
 
 public abstract class AbstractSearchServer implements SearchServer {
 
+  // Searches taking longer are stopped
+  public static final long TIME_ALLOWED_MILLIS = 1000;
+
   protected String query;
   protected int offset;
   protected int limit;
@@ -73,6 +79,15 @@ public abstract class AbstractSearchServer implements SearchServer {
   protected Date serverLastUpdatedDate;
   protected SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm zz", Locale.US);
   protected AtomicInteger searchCount = new AtomicInteger();
+  protected QueryCache queryCache;
+  protected ResourceType resourceType;
+  protected QueryCostGuard queryCostGuard;
+  protected FilterCache filterCache;
+  protected ParallelSearch parallelSearch;
+  // Set when the index is split into shards, searcherManager is then that of the first shard
+  protected IndexShards indexShards;
+  // Low cardinality keyword fields whose required and prohibited clauses are run as cached filters
+  protected Set<String> filterFields = Collections.emptySet();
 
   protected AbstractSearchServer() {
   }
@@ -126,7 +141,11 @@ public abstract class AbstractSearchServer implements SearchServer {
   public void reloadIndex() throws CorruptIndexException, IOException {
     if (searcherManager != null) {
       // Try to refresh
-      searcherManager.maybeRefresh();
+      if (indexShards != null) {
+        indexShards.maybeRefresh();
+      } else {
+        searcherManager.maybeRefresh();
+      }
       // Update last update date
       this.setLastServerUpdatedDate();
       resultsWriter.setLastServerUpdatedDate(this.getServerLastUpdatedDate());
@@ -140,7 +159,11 @@ public abstract class AbstractSearchServer implements SearchServer {
     }
     // In some cases, when indices are reloaded, the old index files are not released.
     // This ensures that they are and disk space is not exhausted
-    searcherManager.close();
+    if (indexShards != null) {
+      indexShards.close();
+    } else {
+      searcherManager.close();
+    }
   }
 
   public org.musicbrainz.search.servlet.mmd2.ResultsWriter getMmd2Writer() {
@@ -179,7 +202,83 @@ public abstract class AbstractSearchServer implements SearchServer {
    */
   @Override
   public Results search(String query, int offset, int limit) throws IOException, ParseException {
-    return this.search(parseQuery(query), offset, limit);
+    long start = System.nanoTime();
+    Query parsed = getCachedQuery(query);
+    boolean queryCacheHit = parsed != null;
+    if (!queryCacheHit) {
+      parsed = parseAndCacheQuery(query);
+    }
+    long parseNanos = System.nanoTime() - start;
+    Results results = this.search(admit(query, parsed), offset, limit);
+    results.setParseNanos(parseNanos);
+    results.setQueryCacheHit(queryCacheHit);
+    return results;
+  }
+
+  /**
+   * Check the cost of the parsed query against the current index, all of its shards if it is sharded
+   *
+   * @param query the query as sent by the user
+   * @param parsed
+   * @return the query to run
+   * @throws IOException
+   * @throws QueryTooExpensiveException if the query costs too much to run
+   */
+  protected Query admit(String query, Query parsed) throws IOException, QueryTooExpensiveException {
+    if (queryCostGuard == null) {
+      return parsed;
+    }
+    if (indexShards != null) {
+      // The reader over all the shards sums their statistics
+      IndexShards.Searchers searchers = indexShards.acquire();
+      try {
+        return queryCostGuard.admit(query, parsed, searchers.getSearcher().getIndexReader());
+      } finally {
+        indexShards.release(searchers);
+      }
+    }
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      return queryCostGuard.admit(query, parsed, searcher.getIndexReader());
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+
+  /**
+   * Check the cost of queries before running them
+   *
+   * @param queryCostGuard
+   */
+  public void setQueryCostGuard(QueryCostGuard queryCostGuard) {
+    this.queryCostGuard = queryCostGuard;
+  }
+
+  /**
+   * Run clauses on the filter fields of this search server as cached filters
+   *
+   * @param filterCache
+   */
+  public void setFilterCache(FilterCache filterCache) {
+    this.filterCache = filterCache;
+  }
+
+  /**
+   * Search the segments of the index in parallel when the server isn't busy
+   *
+   * @param parallelSearch
+   */
+  public void setParallelSearch(ParallelSearch parallelSearch) {
+    this.parallelSearch = parallelSearch;
+  }
+
+  /**
+   * Search all the shards of a sharded index and merge their results
+   *
+   * @param indexShards
+   */
+  public void setIndexShards(IndexShards indexShards) {
+    this.indexShards = indexShards;
   }
 
   /**
@@ -195,23 +294,67 @@ public abstract class AbstractSearchServer implements SearchServer {
   @Override
   public Results search(Query query, int offset, int limit) throws IOException, ParseException, TimeExceededException {
 
+    long start = System.nanoTime();
+    if (indexShards != null) {
+      IndexShards.Searchers searchers = indexShards.acquire();
+      try {
+        Query rewritten = searchers.getSearcher().rewrite(query);
+        TopDocs topDocs = search(searchers.getSearcher(), rewritten, offset + limit);
+        long searchNanos = System.nanoTime() - start;
+        searchCount.incrementAndGet();
+        Results results = processResults(searchers.getSearcher(), topDocs, offset);
+        results.setSearchNanos(searchNanos);
+        results.setQuery(rewritten);
+        results.setIndexVersion(searchers.getIndexVersion());
+        return results;
+      } finally {
+        indexShards.release(searchers);
+      }
+    }
+
     IndexSearcher searcher = searcherManager.acquire();
     try {
-      TopDocsCollector<?> collector = TopScoreDocCollector.create(offset + limit, true);
-      TimeLimitingCollector tCollector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), 1000);
-      searcher.search(query, tCollector);
+      // Rewritten here rather than by the searcher so that the query as run can be logged
+      Query rewritten = searcher.rewrite(query);
+      TopDocs topDocs = search(searcher, rewritten, offset + limit);
+      long searchNanos = System.nanoTime() - start;
       searchCount.incrementAndGet();
-      TopDocs topDocs = collector.topDocs();
       if (topDocs == null)
       {
           return new Results();
       }
-      return processResults(searcher, topDocs, offset);
+      Results results = processResults(searcher, topDocs, offset);
+      results.setSearchNanos(searchNanos);
+      results.setQuery(rewritten);
+      if (searcher.getIndexReader() instanceof DirectoryReader) {
+        results.setIndexVersion(((DirectoryReader) searcher.getIndexReader()).getVersion());
+      }
+      return results;
     } finally {
       searcherManager.release(searcher);
     }
   }
 
+  /**
+   * Search the segments of the index in parallel if there is a pool for them, else one after the other
+   *
+   * @param searcher
+   * @param rewritten query already rewritten by the searcher
+   * @param numHits
+   * @return the best numHits documents
+   * @throws IOException
+   * @throws TimeExceededException if the search took too long
+   */
+  private TopDocs search(IndexSearcher searcher, Query rewritten, int numHits) throws IOException {
+    if (parallelSearch != null) {
+      return parallelSearch.search(searcher, rewritten, numHits, TIME_ALLOWED_MILLIS);
+    }
+    TopDocsCollector<?> collector = TopScoreDocCollector.create(numHits, true);
+    TimeLimitingCollector tCollector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), TIME_ALLOWED_MILLIS);
+    searcher.search(rewritten, tCollector);
+    return collector.topDocs();
+  }
+
   /**
    * Parse the query
    *
@@ -222,7 +365,50 @@ public abstract class AbstractSearchServer implements SearchServer {
   protected Query parseQuery(String query) throws ParseException
   {
     QueryParser parser = getParser();
-    return parser.parse(query);
+    Query parsed = parser.parse(query);
+    return filterCache != null ? filterCache.applyTo(parsed, filterFields) : parsed;
+  }
+
+  /**
+   * Parse the query, or get it from the query cache if it has already been parsed
+   *
+   * @param query
+   * @return
+   * @throws ParseException
+   */
+  protected Query getQuery(String query) throws ParseException
+  {
+    Query parsed = getCachedQuery(query);
+    return parsed != null ? parsed : parseAndCacheQuery(query);
+  }
+
+  /**
+   * @param query
+   * @return the parsed query from the query cache, or null if it hasn't been parsed yet
+   */
+  protected Query getCachedQuery(String query)
+  {
+    return queryCache != null ? queryCache.get(resourceType, false, query) : null;
+  }
+
+  private Query parseAndCacheQuery(String query) throws ParseException
+  {
+    Query parsed = parseQuery(query);
+    if (queryCache != null) {
+      queryCache.put(resourceType, false, query, parsed);
+    }
+    return parsed;
+  }
+
+  /**
+   * Cache parsed queries in queryCache
+   *
+   * @param queryCache
+   * @param resourceType resource type of this search server
+   */
+  public void setQueryCache(QueryCache queryCache, ResourceType resourceType) {
+    this.queryCache = queryCache;
+    this.resourceType = resourceType;
   }
 
   /**
@@ -233,6 +419,27 @@ public abstract class AbstractSearchServer implements SearchServer {
     return searchCount.toString();
   }
 
+  /**
+   * @return number of documents in the current searcher, over all the shards if the index is split
+   * @throws IOException
+   */
+  public int getNumDocs() throws IOException {
+    if (indexShards != null) {
+      IndexShards.Searchers searchers = indexShards.acquire();
+      try {
+        return searchers.getSearcher().getIndexReader().numDocs();
+      } finally {
+        indexShards.release(searchers);
+      }
+    }
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      return searcher.getIndexReader().numDocs();
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+
   /**
    * Get Query Parser for parsing queries for this resourceType , QueryParser is not thread safe so always get a new
    * instance;
@@ -256,17 +463,19 @@ public abstract class AbstractSearchServer implements SearchServer {
     results.setTotalHits(topDocs.totalHits);
     ScoreDoc docs[] = topDocs.scoreDocs;
     results.setMaxScore(topDocs.getMaxScore());
+    long start = System.nanoTime();
     for (int i = offset; i < docs.length; i++) {
       Result result     = new Result();
       result.setScore(docs[i].score);
       result.setDoc(new MbDocument(searcher.doc(docs[i].doc)));
       results.results.add(result);
     }
+    results.setLoadNanos(System.nanoTime() - start);
     return results;
   }
 
   public String explain(String userQuery, int offset, int limit) throws IOException, ParseException {
-    Query parsedQuery = parseQuery(userQuery);
+    Query parsedQuery = getQuery(userQuery);
     return explain(parsedQuery, offset, limit);
   }
 
@@ -279,23 +488,38 @@ public abstract class AbstractSearchServer implements SearchServer {
     sb.append("<html lang=\"en\">\n<head>\n");
     sb.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n");
     sb.append("</head>\n<body>");
-    IndexSearcher searcher = searcherManager.acquire();
-    try {
-      TopDocs topdocs = searcher.search(query, offset + limit);
-      ScoreDoc docs[] = topdocs.scoreDocs;
-      float maxScore = topdocs.getMaxScore();
-      sb.append("<p>Query:" + query.toString() + "</p>\n");
-      for (int i = 0; i < docs.length; i++) {
-        explainAndDisplayResult(i, sb, searcher, query, docs[i], maxScore);
+    if (indexShards != null) {
+      IndexShards.Searchers searchers = indexShards.acquire();
+      try {
+        TopDocs topdocs = searchers.getSearcher().search(query, offset + limit);
+        explainResults(sb, searchers.getSearcher(), query, topdocs);
+      } finally {
+        indexShards.release(searchers);
+      }
+    } else {
+      IndexSearcher searcher = searcherManager.acquire();
+      try {
+        TopDocs topdocs = searcher.search(query, offset + limit);
+        explainResults(sb, searcher, query, topdocs);
+      } finally {
+        searcherManager.release(searcher);
       }
-      searchCount.incrementAndGet();
-    } finally {
-      searcherManager.release(searcher);
     }
     sb.append("</body>\n</html>");
     return sb.toString();
   }
 
+  private void explainResults(StringBuffer sb, IndexSearcher searcher, Query query, TopDocs topdocs)
+      throws IOException, ParseException {
+    ScoreDoc docs[] = topdocs.scoreDocs;
+    float maxScore = topdocs.getMaxScore();
+    sb.append("<p>Query:" + query.toString() + "</p>\n");
+    for (int i = 0; i < docs.length; i++) {
+      explainAndDisplayResult(i, sb, searcher, query, docs[i], maxScore);
+    }
+    searchCount.incrementAndGet();
+  }
+
   /**
    * Output the Explain for the document
    *
@@ -0,0 +1,224 @@
+package org.musicbrainz.search.servlet;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a search is let in, from the cost of the searches of its resource type already in flight, so that
+ * during a spike the cheapest to lose traffic is turned away first and straight away, rather than every search slowing
+ * down until they all time out.
+ *
+ * The cost of a search is estimated as the moving average of how long searches of its resource type took, kept
+ * separately for dismax searches, whose fuzzy matching makes them dearer. Each resource type, and type=all, has a
+ * budget of search time in flight; searches of a priority are shed once letting them in would take the load of their
+ * resource type past the share of the budget allowed for the priority. High priority searches are never shed here.
+ */
+public class AdmissionController {
+
+  public enum Priority {
+    // Anonymous traffic, rate limited on behalf of the web service
+    LOW,
+    // Internal searches of type=all or dismax
+    NORMAL,
+    // Other internal searches
+    HIGH,
+  }
+
+  public static final int DEFAULT_BUDGET_MILLIS = 8000;
+  public static final int DEFAULT_SHED_LOW_PERCENT = 50;
+  public static final int DEFAULT_SHED_NORMAL_PERCENT = 80;
+  // Estimated cost of a search before any of its resource type has completed
+  static final long DEFAULT_COST_MICROS = TimeUnit.MILLISECONDS.toMicros(100);
+  static final int MAX_RETRY_AFTER_SECONDS = 30;
+  // Weight of the latest search in the moving averages
+  private static final double ALPHA = 0.2;
+
+  private final long budgetMicros;
+  private final EnumMap<Priority, Integer> shedPercents = new EnumMap<Priority, Integer>(Priority.class);
+  private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+  private final EnumMap<Priority, AtomicLong> admitted = new EnumMap<Priority, AtomicLong>(Priority.class);
+  private final EnumMap<Priority, AtomicLong> shed = new EnumMap<Priority, AtomicLong>(Priority.class);
+
+  /**
+   * In flight cost and moving averages of the latency of one resource type
+   */
+  private static class Slot {
+
+    private final AtomicLong inFlightMicros = new AtomicLong();
+    private double standardMicros = DEFAULT_COST_MICROS;
+    private double dismaxMicros = DEFAULT_COST_MICROS;
+
+    synchronized long getCost(boolean isDismax) {
+      return Math.round(isDismax ? dismaxMicros : standardMicros);
+    }
+
+    synchronized void addLatency(boolean isDismax, long micros) {
+      if (isDismax) {
+        dismaxMicros += ALPHA * (micros - dismaxMicros);
+      } else {
+        standardMicros += ALPHA * (micros - standardMicros);
+      }
+    }
+  }
+
+  /**
+   * Outcome of asking to run a search, an admitted search must be released once it is done. Only the latency of
+   * searches that ran is added to the moving averages, requests turned away before searching, such as those rate
+   * limited or whose query couldn't be parsed, would otherwise bring the estimated cost down during a spike.
+   */
+  public class Admission {
+
+    private final Slot slot;
+    private final boolean isDismax;
+    private final long cost;
+    private final long start;
+    private final int retryAfterSeconds;
+    private volatile boolean isSearched;
+
+    private Admission(Slot slot, boolean isDismax, long cost, long start) {
+      this.slot = slot;
+      this.isDismax = isDismax;
+      this.cost = cost;
+      this.start = start;
+      this.retryAfterSeconds = 0;
+    }
+
+    private Admission(int retryAfterSeconds) {
+      this.slot = null;
+      this.isDismax = false;
+      this.cost = 0;
+      this.start = 0;
+      this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public boolean isAdmitted() {
+      return slot != null;
+    }
+
+    /**
+     * @return seconds a shed search should wait before trying again
+     */
+    public int getRetryAfterSeconds() {
+      return retryAfterSeconds;
+    }
+
+    /**
+     * The search has run, until its time was up or to the end
+     */
+    public void setSearched() {
+      isSearched = true;
+    }
+
+    /**
+     * The search is done, its latency is added to the moving average of its resource type if it has run
+     */
+    public void release() {
+      release(System.nanoTime());
+    }
+
+    void release(long now) {
+      if (slot != null) {
+        slot.inFlightMicros.addAndGet(-cost);
+        if (isSearched) {
+          slot.addLatency(isDismax, TimeUnit.NANOSECONDS.toMicros(now - start));
+        }
+      }
+    }
+  }
+
+  /**
+   * @param budgetMillis search time that can be in flight for each resource type
+   * @param shedLowPercent load, as a percentage of the budget, past which low priority searches are shed
+   * @param shedNormalPercent load past which normal priority searches are shed
+   */
+  public AdmissionController(int budgetMillis, int shedLowPercent, int shedNormalPercent) {
+    this.budgetMicros = TimeUnit.MILLISECONDS.toMicros(budgetMillis);
+    shedPercents.put(Priority.LOW, shedLowPercent);
+    shedPercents.put(Priority.NORMAL, shedNormalPercent);
+    for (Priority priority : Priority.values()) {
+      admitted.put(priority, new AtomicLong());
+      shed.put(priority, new AtomicLong());
+    }
+  }
+
+  /**
+   * @param isAnonymous rate limited on behalf of the web service
+   * @param isAll search of all resource types
+   * @param isDismax
+   * @return
+   */
+  public static Priority getPriority(boolean isAnonymous, boolean isAll, boolean isDismax) {
+    if (isAnonymous) {
+      return Priority.LOW;
+    }
+    return isAll || isDismax ? Priority.NORMAL : Priority.HIGH;
+  }
+
+  /**
+   * @param type name of the resource type searched, or all
+   * @param isDismax
+   * @param priority
+   * @return whether the search can run
+   */
+  public Admission admit(String type, boolean isDismax, Priority priority) {
+    return admit(type, isDismax, priority, System.nanoTime());
+  }
+
+  Admission admit(String type, boolean isDismax, Priority priority, long now) {
+    Slot slot = slots.get(type);
+    if (slot == null) {
+      Slot newSlot = new Slot();
+      slot = slots.putIfAbsent(type, newSlot);
+      if (slot == null) {
+        slot = newSlot;
+      }
+    }
+
+    long cost = slot.getCost(isDismax);
+    Integer shedPercent = shedPercents.get(priority);
+    if (shedPercent != null) {
+      long excess = (slot.inFlightMicros.get() + cost) - budgetMicros * shedPercent / 100;
+      if (excess > 0) {
+        shed.get(priority).incrementAndGet();
+        // Time for the searches in flight to drain below the threshold if they ran one after another
+        long seconds = (excess + TimeUnit.SECONDS.toMicros(1) - 1) / TimeUnit.SECONDS.toMicros(1);
+        return new Admission((int) Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, seconds)));
+      }
+    }
+    slot.inFlightMicros.addAndGet(cost);
+    admitted.get(priority).incrementAndGet();
+    return new Admission(slot, isDismax, cost, now);
+  }
+
+  /**
+   * @param type
+   * @return estimated cost of the searches of the resource type in flight, in microseconds
+   */
+  long getInFlightMicros(String type) {
+    Slot slot = slots.get(type);
+    return slot != null ? slot.inFlightMicros.get() : 0;
+  }
+
+  /**
+   * @return one line for each resource type searched, and the searches admitted and shed by priority
+   */
+  public String getStatsMessage() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Slot> next : slots.entrySet()) {
+      Slot slot = next.getValue();
+      sb.append(String.format(Locale.US, "%s:inflight_ms:%d,standard_ms:%.1f,dismax_ms:%.1f%n", next.getKey(),
+          TimeUnit.MICROSECONDS.toMillis(slot.inFlightMicros.get()), slot.getCost(false) / 1000.0,
+          slot.getCost(true) / 1000.0));
+    }
+    for (Priority priority : Priority.values()) {
+      sb.append(String.format(Locale.US, "%s:admitted:%d,shed:%d%n", priority.name().toLowerCase(Locale.US),
+          admitted.get(priority).get(), shed.get(priority).get()));
+    }
+    return sb.toString();
+  }
+}
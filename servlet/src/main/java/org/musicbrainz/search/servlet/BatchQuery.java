@@ -0,0 +1,131 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * One of the searches of a batch, as posted in a json array such as
+ *
+ * <pre>
+ * [{"type":"recording","query":"blue monday","limit":5},{"type":"release","query":"technique","dismax":true}]
+ * </pre>
+ *
+ * Each search has the same meaning as the parameters of a search request, type and query are required, limit, offset
+ * and dismax are optional.
+ */
+public class BatchQuery {
+
+  public static final int DEFAULT_MAX_QUERIES = 100;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final String type;
+  private final ResourceType resourceType;
+  private final String query;
+  private final boolean isDismax;
+  private final int offset;
+  private final int limit;
+
+  BatchQuery(String type, ResourceType resourceType, String query, boolean isDismax, int offset, int limit) {
+    this.type = type;
+    this.resourceType = resourceType;
+    this.query = query;
+    this.isDismax = isDismax;
+    this.offset = offset;
+    this.limit = limit;
+  }
+
+  /**
+   * The batch holds more searches than allowed
+   */
+  public static class TooLargeException extends IOException {
+
+    private final int size;
+
+    public TooLargeException(int size) {
+      super("Batch of " + size + " searches");
+      this.size = size;
+    }
+
+    public int getSize() {
+      return size;
+    }
+  }
+
+  /**
+   * @param in json array of searches
+   * @param maxQueries most searches the batch can hold
+   * @param defaultLimit limit of searches that don't give one
+   * @param maxLimit largest limit allowed
+   * @return the searches in the order given, a search whose type isn't known has a null resource type and one without
+   *         a query has a null query
+   * @throws TooLargeException if the batch holds more than maxQueries searches
+   * @throws IOException if the json can't be read or isn't an array of objects
+   */
+  public static List<BatchQuery> parse(Reader in, int maxQueries, int defaultLimit, int maxLimit) throws IOException {
+    JsonNode root = mapper.readTree(in);
+    if (root == null || !root.isArray()) {
+      throw new IOException("Batch should be a json array of searches");
+    }
+    if (root.size() > maxQueries) {
+      throw new TooLargeException(root.size());
+    }
+    List<BatchQuery> queries = new ArrayList<BatchQuery>(root.size());
+    for (JsonNode node : root) {
+      if (!node.isObject()) {
+        throw new IOException("Batch should be a json array of searches");
+      }
+      String type = node.path("type").getTextValue();
+      if (SearchServerServlet.TYPE_TRACK.equals(type)) {
+        // V1 Compatibility
+        type = ResourceType.RECORDING.getName();
+      }
+      String query = node.path("query").getTextValue();
+      queries.add(new BatchQuery(type, type != null ? ResourceType.getValue(type) : null,
+          query != null && query.length() > 0 ? query : null,
+          node.path("dismax").asBoolean(false),
+          Math.max(0, node.path("offset").asInt(0)),
+          // A missing field reads as 0 whatever the default
+          Math.max(1, Math.min(maxLimit, node.has("limit") ? node.path("limit").asInt(defaultLimit) : defaultLimit))));
+    }
+    return queries;
+  }
+
+  /**
+   * @return type as given, may be null
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * @return null if the type isn't known
+   */
+  public ResourceType getResourceType() {
+    return resourceType;
+  }
+
+  /**
+   * @return null if not given
+   */
+  public String getQuery() {
+    return query;
+  }
+
+  public boolean isDismax() {
+    return isDismax;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+}
@@ -0,0 +1,137 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Writes the results of the searches of a batch as one document, with a section for each search in the order they
+ * were posted, each holding the mmd2 results of the search as a search request would return them or the error that
+ * the search request would have got.
+ *
+ * <pre>
+ * &lt;batch count="2"&gt;
+ *   &lt;search index="0" type="recording" status="200"&gt;&lt;metadata ...&gt;...&lt;/metadata&gt;&lt;/search&gt;
+ *   &lt;search index="1" type="releases" status="400"&gt;&lt;error&gt;Unknown resource type releases&lt;/error&gt;&lt;/search&gt;
+ * &lt;/batch&gt;
+ *
+ * {"count":2,"searches":[{"index":0,"type":"recording","status":200,"results":{...}},
+ *   {"index":1,"type":"releases","status":400,"error":"Unknown resource type releases"}]}
+ * </pre>
+ *
+ * Sections are flushed as they are written, so the first results are sent while later searches are still running.
+ */
+public class BatchWriter {
+
+  public static final String XML_MIME_TYPE = "application/xml; charset=UTF-8";
+  public static final String JSON_MIME_TYPE = "application/json; charset=UTF-8";
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private final Writer out;
+  // Null when writing xml
+  private final JsonGenerator json;
+
+  /**
+   * @param out
+   * @param responseFormat xml, or one of the json formats
+   * @throws IOException
+   */
+  public BatchWriter(Writer out, String responseFormat) throws IOException {
+    this.out = out;
+    this.json = responseFormat.equals(SearchServerServlet.RESPONSE_XML) ? null : jsonFactory.createJsonGenerator(out);
+  }
+
+  /**
+   * @param responseFormat
+   * @return mime type of batches written in the format
+   */
+  public static String getMimeType(String responseFormat) {
+    return responseFormat.equals(SearchServerServlet.RESPONSE_XML) ? XML_MIME_TYPE : JSON_MIME_TYPE;
+  }
+
+  /**
+   * @param count number of searches in the batch
+   * @throws IOException
+   */
+  public void start(int count) throws IOException {
+    if (json != null) {
+      json.writeStartObject();
+      json.writeNumberField("count", count);
+      json.writeArrayFieldStart("searches");
+    } else {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<batch count=\"" + count + "\">\n");
+    }
+  }
+
+  /**
+   * @param index position of the search in the batch
+   * @param query
+   * @param results the results as written for a search request in the same format
+   * @throws IOException
+   */
+  public void writeResults(int index, BatchQuery query, String results) throws IOException {
+    if (json != null) {
+      startJsonSection(index, query, 200);
+      json.writeFieldName("results");
+      json.writeRawValue(results);
+      json.writeEndObject();
+      json.flush();
+    } else {
+      // The results are embedded in the batch document, without their own xml declaration
+      if (results.startsWith("<?xml")) {
+        results = results.substring(results.indexOf("?>") + 2);
+      }
+      out.write(startXmlSection(index, query, 200));
+      out.write(results.trim());
+      out.write("</search>\n");
+      out.flush();
+    }
+  }
+
+  /**
+   * @param index position of the search in the batch
+   * @param query
+   * @param status http status the search request would have got
+   * @param message
+   * @throws IOException
+   */
+  public void writeError(int index, BatchQuery query, int status, String message) throws IOException {
+    if (json != null) {
+      startJsonSection(index, query, status);
+      json.writeStringField("error", message != null ? message : "");
+      json.writeEndObject();
+      json.flush();
+    } else {
+      out.write(startXmlSection(index, query, status));
+      out.write("<error>" + StringEscapeUtils.escapeXml(message != null ? message : "") + "</error></search>\n");
+      out.flush();
+    }
+  }
+
+  public void end() throws IOException {
+    if (json != null) {
+      json.writeEndArray();
+      json.writeEndObject();
+      json.flush();
+    } else {
+      out.write("</batch>\n");
+      out.flush();
+    }
+  }
+
+  private void startJsonSection(int index, BatchQuery query, int status) throws IOException {
+    json.writeStartObject();
+    json.writeNumberField("index", index);
+    json.writeStringField("type", query.getType() != null ? query.getType() : "");
+    json.writeNumberField("status", status);
+  }
+
+  private static String startXmlSection(int index, BatchQuery query, int status) {
+    return "<search index=\"" + index + "\" type=\""
+        + StringEscapeUtils.escapeXml(query.getType() != null ? query.getType() : "") + "\" status=\"" + status + "\">";
+  }
+}
@@ -0,0 +1,53 @@
+package org.musicbrainz.search.servlet;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.index.CDStubIndexField;
+
+/**
+ * Subclasses QueryParser to handle the date the cdstub was added, indexed as a numeric field so that range queries
+ * work
+ */
+public class CDStubQueryParser extends MultiFieldQueryParser {
+
+    public CDStubQueryParser(String[] strings, Analyzer a) {
+        super(LuceneVersion.LUCENE_VERSION, strings, a);
+    }
+
+    @Override
+    protected Query newTermQuery(Term term) {
+        if (term.field().equals(CDStubIndexField.ADDED.getName())) {
+            try {
+                long number = Long.parseLong(term.text());
+                BytesRefBuilder bytes = new BytesRefBuilder();
+                NumericUtils.longToPrefixCoded(number, 0, bytes);
+                return new TermQuery(new Term(term.field(), bytes.toBytesRef().utf8ToString()));
+            }
+            catch (NumberFormatException nfe) {
+                //If not provided numeric argument just leave as is, won't give matches
+                return super.newTermQuery(term);
+            }
+        }
+        return super.newTermQuery(term);
+    }
+
+    @Override
+    public Query newRangeQuery(String field,
+                               String part1,
+                               String part2,
+                               boolean startInclusive,
+                               boolean endInclusive)
+    {
+        if (field.equals(CDStubIndexField.ADDED.getName()))
+        {
+            return NumericRangeQueries.newLongRange(field, part1, part2, startInclusive, endInclusive);
+        }
+        return super.newRangeQuery(field, part1, part2, startInclusive, endInclusive);
+    }
+}
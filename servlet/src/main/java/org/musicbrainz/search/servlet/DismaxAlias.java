@@ -56,13 +56,24 @@ public class DismaxAlias {
         this.fields = fields;
     }
 
-    static class AliasField {
+    public static class AliasField {
         private boolean isFuzzy;
         private float boost;
+        private boolean hasSiblingFields;
 
         public AliasField(boolean isFuzzy, float boost) {
+            this(isFuzzy, boost, false);
+        }
+
+        /**
+         * @param isFuzzy
+         * @param boost
+         * @param hasSiblingFields the index may have ngram and shingle fields for this field, see DismaxSiblingFields
+         */
+        public AliasField(boolean isFuzzy, float boost, boolean hasSiblingFields) {
             this.isFuzzy=isFuzzy;
             this.boost=boost;
+            this.hasSiblingFields=hasSiblingFields;
         }
 
         public boolean isFuzzy() {
@@ -80,5 +91,9 @@ public class DismaxAlias {
         public void setBoost(float boost) {
             this.boost = boost;
         }
+
+        public boolean hasSiblingFields() {
+            return hasSiblingFields;
+        }
     }
 }
\ No newline at end of file
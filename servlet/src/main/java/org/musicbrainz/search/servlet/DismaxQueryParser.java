@@ -38,11 +38,14 @@ import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
 import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.index.DismaxSiblingFields;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class DismaxQueryParser {
 
@@ -121,15 +124,16 @@ public class DismaxQueryParser {
             aliases.put(field, dismaxAlias);
         }
 
-        // Rewrite Method used by Prefix Search and Fuzzy Search, use idf of the original term
-        MultiTermQuery.RewriteMethod prefixRewrite = new PrefixTermRewrite(200);
-        MultiTermQuery.RewriteMethod fuzzyRewrite = new FuzzyTermRewrite(200);
+        // Rewrite Method used by Prefix Search and Fuzzy Search, use idf of the original term, expansions are reused
+        // by later searches on the same index reader
+        MultiTermQuery.RewriteMethod prefixRewrite = new RewriteCache.CachingRewrite(new PrefixTermRewrite(200));
+        MultiTermQuery.RewriteMethod fuzzyRewrite = new RewriteCache.CachingRewrite(new FuzzyTermRewrite(200));
 
 
         protected boolean checkQuery(DisjunctionMaxQuery q, Query querySub, boolean quoted, DismaxAlias a, String f) {
             if (querySub != null) {
                 //if query was quoted but doesn't generate a phrase query we reject it
-                if ((!quoted) || (querySub instanceof PhraseQuery)) {
+                if ((!quoted) || isPhraseQuery(querySub)) {
                     //Reduce phrase because will have matched both parts giving far too much score differential
                     if (quoted) {
                         querySub.setBoost(PHRASE_BOOST_REDUCER);
@@ -143,6 +147,17 @@ public class DismaxQueryParser {
             return false;
         }
 
+        /**
+         * @param query
+         * @return true if the query is a phrase query, or a shingle query falling back to one
+         */
+        protected static boolean isPhraseQuery(Query query) {
+            if (query instanceof FallbackQuery) {
+                query = ((FallbackQuery) query).getFallback();
+            }
+            return query instanceof PhraseQuery;
+        }
+
         @Override
         //TODO FIXME was using a FLOAT similarity value of 0.5 but now changed to integral
         protected Query getFuzzyQuery(String field, String termStr, float minSimilarity) {
@@ -186,13 +201,20 @@ public class DismaxQueryParser {
                                 queryWildcard = newPrefixQuery(new Term(t.field(), t.text()));
                                 queryFuzzy = getFuzzyQuery(t.field(), t.text(), FUZZY_SIMILARITY);
                                 queryFuzzy.setBoost(af.getBoost() * WILDCARD_BOOST_REDUCER);
-                                q.add(queryFuzzy);
                                 queryWildcard.setBoost(af.getBoost() * WILDCARD_BOOST_REDUCER);
-                                q.add(queryWildcard);
+                                if (af.hasSiblingFields() && isNGramLength(t.text())) {
+                                    q.add(newNGramQuery(t, queryWildcard, queryFuzzy, af.getBoost() * WILDCARD_BOOST_REDUCER, a.getTie()));
+                                } else {
+                                    q.add(queryFuzzy);
+                                    q.add(queryWildcard);
+                                }
                             }
                         }
                     } else {
                         querySub = getFieldQuery(f, queryText, quoted);
+                        if (quoted && af.hasSiblingFields() && querySub instanceof PhraseQuery) {
+                            querySub = newShingleQuery(f, queryText, (PhraseQuery) querySub);
+                        }
                     }
 
                     if (checkQuery(q, querySub, quoted, a, f) && ok == false) {
@@ -212,6 +234,54 @@ public class DismaxQueryParser {
             }
         }
 
+        private static boolean isNGramLength(String text) {
+            return text.codePointCount(0, text.length()) <= DismaxSiblingFields.MAX_GRAM;
+        }
+
+        /**
+         * Builds a lookup of the term in the ngram sibling field, which matches the term and any word starting with it,
+         * falling back to the prefix and fuzzy queries if the index has no such ngram (either because nothing starts
+         * with the term, so only a fuzzy match is possible, or because the index was built without sibling fields).
+         *
+         * @param t analyzed term
+         * @param queryWildcard
+         * @param queryFuzzy
+         * @param boost
+         * @param tie tie breaker of the alias, so the fallback scores as if both queries were added to it
+         * @return
+         */
+        protected Query newNGramQuery(Term t, Query queryWildcard, Query queryFuzzy, float boost, float tie) {
+            Term ngram = new Term(DismaxSiblingFields.getNGramFieldName(t.field()), t.text());
+            TermQuery queryNGram = new TermQuery(ngram);
+            queryNGram.setBoost(boost);
+
+            DisjunctionMaxQuery expanded = new DisjunctionMaxQuery(tie);
+            expanded.add(queryFuzzy);
+            expanded.add(queryWildcard);
+            return new FallbackQuery(queryNGram, new Term[]{ngram}, expanded);
+        }
+
+        /**
+         * Builds a conjunction of the word pairs of the phrase in the shingle sibling field, falling back to the phrase
+         * query if any pair isn't in the index. A document with every pair somewhere in the field is very nearly always
+         * one containing the phrase, and is found without reading positions.
+         *
+         * @param field
+         * @param queryText
+         * @param phrase
+         * @return
+         */
+        protected Query newShingleQuery(String field, String queryText, PhraseQuery phrase) {
+            Query queryShingle = createBooleanQuery(DismaxSiblingFields.getShingleFieldName(field), queryText,
+                    BooleanClause.Occur.MUST);
+            if (queryShingle == null) {
+                return phrase;
+            }
+            Set<Term> terms = new LinkedHashSet<Term>();
+            queryShingle.extractTerms(terms);
+            return new FallbackQuery(queryShingle, terms.toArray(new Term[terms.size()]), phrase);
+        }
+
         /**
          * Builds a new PrefixQuery instance
          * @param prefix Prefix term
@@ -306,6 +376,16 @@ public class DismaxQueryParser {
             }
             return dmq;
         }
+
+        @Override
+        public int hashCode() {
+            return 31 * rewrite.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof PrefixTermRewrite && rewrite.equals(((PrefixTermRewrite) obj).rewrite);
+        }
     }
 
 
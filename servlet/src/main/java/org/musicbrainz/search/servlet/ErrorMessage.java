@@ -34,7 +34,12 @@ public enum ErrorMessage {
     NO_MATCHES ("zero search hits"),    //Formatting as is because depended on by mb_server
     UNKNOWN_COUNT_TYPE ("Count parameter {0} not valid, should be a type "),
     UNABLE_TO_PARSE_SEARCH_SLASHES_ARE_REGEXP ("Unable to parse search, forward slash is used for regex unless escaped:{0}"),
-    REQUEST_TIMEOUT_EXCEEDED ("Search request timed out -- please wait a moment and try again")
+    REQUEST_TIMEOUT_EXCEEDED ("Search request timed out -- please wait a moment and try again"),
+    SEARCHES_SATURATED ("Too many {0} searches running -- please wait a moment and try again"),
+    SEARCHES_SHED ("The search server is too busy to run {0} searches of this priority -- please try again after the time given by Retry-After"),
+    UNABLE_TO_PARSE_BATCH ("Unable to parse batch, it should be a json array of searches:{0}"),
+    BATCH_TOO_LARGE ("Batch of {0} searches is too large, the most allowed is {1}"),
+    QUERY_TOO_EXPENSIVE ("Search is too expensive, try making {1} more specific:{0}")
     ;
 
     String msg;
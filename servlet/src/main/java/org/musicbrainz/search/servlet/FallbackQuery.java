@@ -0,0 +1,100 @@
+package org.musicbrainz.search.servlet;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.ToStringUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Rewrites to a cheap query when all the terms it needs are in the index, and to a fallback query otherwise.
+ *
+ * The choice is made when the query is rewritten against the searcher's reader rather than when it is parsed, so the
+ * same parsed query works with indexes built with or without the terms (such as the dismax sibling fields), and can be
+ * cached across index reloads.
+ */
+public class FallbackQuery extends Query {
+
+    private final Query query;
+    private final Term[] terms;
+    private final Query fallback;
+
+    /**
+     * @param query query used if every term is in the index
+     * @param terms terms that query needs
+     * @param fallback query used otherwise
+     */
+    public FallbackQuery(Query query, Term[] terms, Query fallback) {
+        this.query = query;
+        this.terms = terms;
+        this.fallback = fallback;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public Query getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @param reader
+     * @return the query that is run against the reader, without the boost of this query
+     * @throws IOException
+     */
+    public Query choose(IndexReader reader) throws IOException {
+        for (Term term : terms) {
+            if (reader.docFreq(term) == 0) {
+                return fallback;
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query chosen = choose(reader);
+        Query rewritten = chosen.clone();
+        rewritten.setBoost(chosen.getBoost() * getBoost());
+        return rewritten;
+    }
+
+    /**
+     * Adds the terms of both queries, as which one is run isn't known until the query is rewritten
+     */
+    @Override
+    public void extractTerms(Set<Term> terms) {
+        query.extractTerms(terms);
+        fallback.extractTerms(terms);
+    }
+
+    @Override
+    public String toString(String field) {
+        return "fallback(" + query.toString(field) + " | " + fallback.toString(field) + ")" + ToStringUtils.boost(getBoost());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!super.equals(o)) {
+            return false;
+        }
+        FallbackQuery other = (FallbackQuery) o;
+        return query.equals(other.query) && Arrays.equals(terms, other.terms) && fallback.equals(other.fallback);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + query.hashCode();
+        result = 31 * result + Arrays.hashCode(terms);
+        result = 31 * result + fallback.hashCode();
+        return result;
+    }
+}
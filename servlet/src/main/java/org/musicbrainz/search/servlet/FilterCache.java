@@ -0,0 +1,233 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.WAH8DocIdSet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Documents matching a term of a low cardinality keyword field (status:official, primarytype:album, country:GB ...),
+ * cached for each segment as a compressed bitset.
+ *
+ * Such clauses are in a large share of advanced searches but only restrict the results, so the standard parsers turn
+ * required or prohibited term clauses on the filter fields of a resource type into filters that use this cache. The
+ * bitsets don't include deletions and are kept against the segment core, so they are still used after a refresh for
+ * the segments that haven't changed and are only built for new segments when first needed. Entries of a segment are
+ * dropped when it is closed, otherwise the least recently used are evicted to keep within the memory limit.
+ */
+public class FilterCache {
+
+  public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+  // Rough size of a cache entry, besides the bitset
+  private static final int ENTRY_BYTES = 96;
+
+  private final Cache<Key, DocIdSet> cache;
+
+  // Cores we've asked to be told about when they are closed
+  private final Set<Object> cores = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+  /**
+   * @param maxBytes estimated memory used by the cache
+   */
+  public FilterCache(long maxBytes) {
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(new Weigher<Key, DocIdSet>() {
+          @Override
+          public int weigh(Key key, DocIdSet docIdSet) {
+            return (int) Math.min(Integer.MAX_VALUE, ENTRY_BYTES + key.term.bytes().length + docIdSet.ramBytesUsed());
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * @return the statistics of the cache, in a human readable form
+   */
+  public String getStatsMessage() {
+    CacheStats stats = cache.stats();
+    long bytes = 0;
+    for (DocIdSet docIdSet : cache.asMap().values()) {
+      bytes += docIdSet.ramBytesUsed();
+    }
+    return "size:" + cache.size()
+        + ",bytes:" + bytes
+        + ",hits:" + stats.hitCount()
+        + ",misses:" + stats.missCount()
+        + ",hitrate:" + String.format("%.3f", stats.hitRate())
+        + ",evictions:" + stats.evictionCount();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * @param reader segment reader
+   * @param term
+   * @return documents of the segment containing the term, ignoring deletions
+   * @throws IOException
+   */
+  DocIdSet getDocIdSet(AtomicReader reader, Term term) throws IOException {
+    Key key = new Key(reader.getCoreCacheKey(), term);
+    DocIdSet docIdSet = cache.getIfPresent(key);
+    if (docIdSet == null) {
+      docIdSet = build(reader, term);
+      if (cores.add(key.core)) {
+        reader.addCoreClosedListener(new AtomicReader.CoreClosedListener() {
+          @Override
+          public void onClose(Object core) {
+            cores.remove(core);
+            for (Key cached : cache.asMap().keySet()) {
+              if (cached.core == core) {
+                cache.invalidate(cached);
+              }
+            }
+          }
+        });
+      }
+      cache.put(key, docIdSet);
+    }
+    return docIdSet;
+  }
+
+  private static DocIdSet build(AtomicReader reader, Term term) throws IOException {
+    Terms terms = reader.terms(term.field());
+    if (terms == null) {
+      return DocIdSet.EMPTY;
+    }
+    TermsEnum termsEnum = terms.iterator(null);
+    if (!termsEnum.seekExact(term.bytes())) {
+      return DocIdSet.EMPTY;
+    }
+    DocsEnum docsEnum = termsEnum.docs(null, null, DocsEnum.FLAG_NONE);
+    return new WAH8DocIdSet.Builder().add(docsEnum).build();
+  }
+
+  /**
+   * @param query parsed query, left unchanged as it may be shared with the query cache
+   * @param filterFields
+   * @return the query with its required and prohibited term clauses on the filter fields run as cached filters, or the
+   *         query itself if it has none
+   */
+  public Query applyTo(Query query, Set<String> filterFields) {
+    if (!(query instanceof BooleanQuery) || filterFields.isEmpty()) {
+      return query;
+    }
+    BooleanQuery bq = (BooleanQuery) query;
+    BooleanQuery filtered = new BooleanQuery(bq.isCoordDisabled());
+    filtered.setBoost(bq.getBoost());
+    filtered.setMinimumNumberShouldMatch(bq.getMinimumNumberShouldMatch());
+    boolean changed = false;
+    for (BooleanClause clause : bq.getClauses()) {
+      Query clauseQuery = clause.getQuery();
+      if (clause.getOccur() != BooleanClause.Occur.SHOULD
+          && clauseQuery instanceof TermQuery
+          && filterFields.contains(((TermQuery) clauseQuery).getTerm().field())) {
+        ConstantScoreQuery csq = new ConstantScoreQuery(new TermFilter(this, ((TermQuery) clauseQuery).getTerm()));
+        csq.setBoost(clauseQuery.getBoost());
+        clauseQuery = csq;
+      } else {
+        clauseQuery = applyTo(clauseQuery, filterFields);
+      }
+      changed |= clauseQuery != clause.getQuery();
+      filtered.add(clauseQuery, clause.getOccur());
+    }
+    return changed ? filtered : query;
+  }
+
+  /**
+   * Filter on a single term, using the cache
+   */
+  public static class TermFilter extends Filter {
+
+    private final FilterCache filterCache;
+    private final Term term;
+
+    public TermFilter(FilterCache filterCache, Term term) {
+      this.filterCache = filterCache;
+      this.term = term;
+    }
+
+    public Term getTerm() {
+      return term;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+      return BitsFilteredDocIdSet.wrap(filterCache.getDocIdSet(context.reader(), term), acceptDocs);
+    }
+
+    @Override
+    public String toString() {
+      return "filter(" + term + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof TermFilter && term.equals(((TermFilter) o).term)
+          && filterCache == ((TermFilter) o).filterCache;
+    }
+
+    @Override
+    public int hashCode() {
+      return term.hashCode();
+    }
+  }
+
+  private static class Key {
+
+    private final Object core;
+    private final Term term;
+
+    private Key(Object core, Term term) {
+      this.core = core;
+      this.term = term;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return core == key.core && term.equals(key.term);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(core) + term.hashCode();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package org.musicbrainz.search.servlet;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Which indexes are being searched and how the latest init is getting on with each, reported by the ready command.
+ *
+ * A node is ready once the indexes of the required resource types are all being searched, so a load balancer can
+ * check it to only route searches to the node when they can be answered, both while it starts and after a failed
+ * init.
+ */
+public class IndexReadiness {
+
+  public static final String DEFAULT_REQUIRED_TYPES = "artist,release,recording";
+
+  public enum LoadState {
+    // Index not looked at by any init yet
+    NONE,
+    // Being opened and warmed by the current init
+    LOADING,
+    // Opened by the latest init, searched once the set holding it is published
+    LOADED,
+    // Couldn't be opened by the latest init
+    FAILED,
+  }
+
+  private final Set<ResourceType> requiredTypes;
+  private final AtomicReferenceArray<LoadState> loadStates = new AtomicReferenceArray<LoadState>(
+      ResourceType.values().length);
+
+  /**
+   * @param requiredTypes resource types that must be searched for the node to be ready
+   */
+  public IndexReadiness(Set<ResourceType> requiredTypes) {
+    this.requiredTypes = Collections.unmodifiableSet(EnumSet.copyOf(requiredTypes));
+    for (ResourceType resourceType : ResourceType.values()) {
+      loadStates.set(resourceType.ordinal(), LoadState.NONE);
+    }
+  }
+
+  /**
+   * @param requiredTypes comma separated names of resource types, unknown names are ignored
+   * @return readiness requiring these types
+   */
+  public static IndexReadiness parse(String requiredTypes) {
+    Set<ResourceType> types = EnumSet.noneOf(ResourceType.class);
+    for (String name : requiredTypes.split(",")) {
+      ResourceType resourceType = ResourceType.getValue(name.trim());
+      if (resourceType != null) {
+        types.add(resourceType);
+      }
+    }
+    return new IndexReadiness(types);
+  }
+
+  public Set<ResourceType> getRequiredTypes() {
+    return requiredTypes;
+  }
+
+  /**
+   * Mark all the indexes as being loaded by a new init
+   */
+  public void startLoad() {
+    for (ResourceType resourceType : ResourceType.values()) {
+      loadStates.set(resourceType.ordinal(), LoadState.LOADING);
+    }
+  }
+
+  /**
+   * @param resourceType
+   * @param isLoaded whether the index could be opened
+   */
+  public void setLoaded(ResourceType resourceType, boolean isLoaded) {
+    loadStates.set(resourceType.ordinal(), isLoaded ? LoadState.LOADED : LoadState.FAILED);
+  }
+
+  public LoadState getLoadState(ResourceType resourceType) {
+    return loadStates.get(resourceType.ordinal());
+  }
+
+  /**
+   * @param indexSet indexes being searched, null if none have been published yet
+   * @return whether the indexes of all the required types are being searched
+   */
+  public boolean isReady(IndexSet indexSet) {
+    if (indexSet == null) {
+      return false;
+    }
+    for (ResourceType resourceType : requiredTypes) {
+      if (indexSet.getSearchServer(resourceType, false) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param indexSet indexes being searched, null if none have been published yet
+   * @return whether the node is ready, then one line for each resource type
+   */
+  public String getStatusMessage(IndexSet indexSet) {
+    StringBuilder sb = new StringBuilder("ready:").append(isReady(indexSet)).append('\n');
+    for (ResourceType resourceType : ResourceType.values()) {
+      sb.append(resourceType.getName())
+          .append(":serving:").append(indexSet != null && indexSet.getSearchServer(resourceType, false) != null)
+          .append(",required:").append(requiredTypes.contains(resourceType))
+          .append(",init:").append(getLoadState(resourceType).name().toLowerCase(Locale.US))
+          .append('\n');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,137 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The search servers of all the indexes loaded by one init, published to requests as a whole.
+ *
+ * A set is never changed once built, so a request that acquired it searches the same indexes from start to end, even
+ * for type=all, while the next set is being loaded and warmed. Requests acquire the set and release it once their
+ * results are written, the servlet holds a reference of its own until the set is replaced, and the search servers are
+ * closed when the last reference is released, so replacing a set never closes indexes under a running search.
+ *
+ * While the first indexes are loaded a set can be extended with the indexes loaded since, the new set then holds a
+ * reference to the set it extends and only closes the indexes it added, those it shares being closed with the set it
+ * extends once that is released by every set and request.
+ */
+public class IndexSet {
+
+  private static final Logger log = Logger.getLogger(IndexSet.class.getName());
+
+  private final Map<ResourceType, SearchServer> searchers;
+  private final Map<ResourceType, SearchServer> dismaxSearchers;
+  private final boolean isSearchAllEnabled;
+  // Set this one extends, null if it owns all its search servers
+  private final IndexSet base;
+  // References held by requests, plus one by the servlet until the set is replaced
+  private final AtomicInteger refCount = new AtomicInteger(1);
+
+  /**
+   * @param searchers search servers of the indexes loaded
+   * @param dismaxSearchers dismax search servers, sharing the searcher managers of the search servers
+   * @param isSearchAllEnabled whether all the indexes used by type=all were loaded
+   */
+  public IndexSet(EnumMap<ResourceType, SearchServer> searchers, EnumMap<ResourceType, SearchServer> dismaxSearchers,
+      boolean isSearchAllEnabled) {
+    this(null, searchers, dismaxSearchers, isSearchAllEnabled);
+  }
+
+  private IndexSet(IndexSet base, EnumMap<ResourceType, SearchServer> searchers,
+      EnumMap<ResourceType, SearchServer> dismaxSearchers, boolean isSearchAllEnabled) {
+    this.base = base;
+    this.searchers = Collections.unmodifiableMap(new EnumMap<ResourceType, SearchServer>(searchers));
+    this.dismaxSearchers = Collections.unmodifiableMap(new EnumMap<ResourceType, SearchServer>(dismaxSearchers));
+    this.isSearchAllEnabled = isSearchAllEnabled;
+  }
+
+  /**
+   * @param searchers search servers of the indexes loaded since this set was built
+   * @param dismaxSearchers their dismax search servers
+   * @param isSearchAllEnabled whether all the indexes used by type=all are in the new set
+   * @return set of the indexes of this set and the new ones, holding a reference to this set until it is closed
+   * @throws IllegalStateException if this set has already been closed
+   */
+  public IndexSet extend(EnumMap<ResourceType, SearchServer> searchers,
+      EnumMap<ResourceType, SearchServer> dismaxSearchers, boolean isSearchAllEnabled) {
+    if (!tryAcquire()) {
+      throw new IllegalStateException("Index set already closed");
+    }
+    EnumMap<ResourceType, SearchServer> allSearchers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+    allSearchers.putAll(this.searchers);
+    allSearchers.putAll(searchers);
+    EnumMap<ResourceType, SearchServer> allDismaxSearchers = new EnumMap<ResourceType, SearchServer>(
+        ResourceType.class);
+    allDismaxSearchers.putAll(this.dismaxSearchers);
+    allDismaxSearchers.putAll(dismaxSearchers);
+    return new IndexSet(this, allSearchers, allDismaxSearchers, isSearchAllEnabled);
+  }
+
+  /**
+   * @param resourceType
+   * @param isDismax
+   * @return search server of the resource type, null if its index couldn't be loaded
+   */
+  public SearchServer getSearchServer(ResourceType resourceType, boolean isDismax) {
+    return isDismax ? dismaxSearchers.get(resourceType) : searchers.get(resourceType);
+  }
+
+  /**
+   * @return standard search servers of the indexes loaded, the dismax ones share their searcher managers
+   */
+  public Map<ResourceType, SearchServer> getSearchServers() {
+    return searchers;
+  }
+
+  public boolean isSearchAllEnabled() {
+    return isSearchAllEnabled;
+  }
+
+  /**
+   * Take a reference to the set for the length of a request
+   *
+   * @return false if the set has already been closed, the current set should then be read again
+   */
+  public boolean tryAcquire() {
+    int count;
+    do {
+      count = refCount.get();
+      if (count <= 0) {
+        return false;
+      }
+    } while (!refCount.compareAndSet(count, count + 1));
+    return true;
+  }
+
+  /**
+   * Release a reference, closing the search servers when it was the last one. The servlet releases its own reference
+   * when the set is replaced.
+   */
+  public void release() {
+    if (refCount.decrementAndGet() == 0) {
+      close();
+    }
+  }
+
+  private void close() {
+    // Dismax search servers only delegate to these
+    for (Map.Entry<ResourceType, SearchServer> entry : searchers.entrySet()) {
+      if (base != null && base.searchers.get(entry.getKey()) == entry.getValue()) {
+        continue;
+      }
+      try {
+        entry.getValue().close();
+      } catch (IOException e) {
+        log.severe("Caught exception during closing of index searcher: " + entry.getKey().getIndexName() + ":"
+            + e.getMessage());
+      }
+    }
+    if (base != null) {
+      base.release();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+
+/**
+ * The shards an index has been split into by the index builder, each opened with its own searcher manager.
+ *
+ * The shards are searched together through a reader over all of them, so queries are rewritten, costed, scored and
+ * explained with the statistics of the whole index, as if it hadn't been split, up to documents deleted but not yet
+ * merged away, which are counted until they are. Their segments are searched in parallel like those of any other
+ * index.
+ */
+public class IndexShards {
+
+  private final SearcherManager[] searcherManagers;
+
+  public IndexShards(SearcherManager[] searcherManagers) {
+    this.searcherManagers = searcherManagers;
+  }
+
+  public int size() {
+    return searcherManagers.length;
+  }
+
+  public SearcherManager getSearcherManager(int shard) {
+    return searcherManagers[shard];
+  }
+
+  /**
+   * Acquire the current searcher of every shard, must be released once the results have been processed
+   *
+   * @return
+   * @throws IOException
+   */
+  public Searchers acquire() throws IOException {
+    IndexSearcher[] searchers = new IndexSearcher[searcherManagers.length];
+    try {
+      for (int i = 0; i < searchers.length; i++) {
+        searchers[i] = searcherManagers[i].acquire();
+      }
+      return new Searchers(searchers);
+    } catch (IOException e) {
+      release(searchers);
+      throw e;
+    } catch (RuntimeException e) {
+      release(searchers);
+      throw e;
+    }
+  }
+
+  public void release(Searchers searchers) throws IOException {
+    try {
+      searchers.all.getIndexReader().close();
+    } finally {
+      release(searchers.shards);
+    }
+  }
+
+  private void release(IndexSearcher[] searchers) throws IOException {
+    for (int i = 0; i < searchers.length; i++) {
+      if (searchers[i] != null) {
+        searcherManagers[i].release(searchers[i]);
+      }
+    }
+  }
+
+  public void maybeRefresh() throws IOException {
+    for (SearcherManager searcherManager : searcherManagers) {
+      searcherManager.maybeRefresh();
+    }
+  }
+
+  public void close() throws IOException {
+    for (SearcherManager searcherManager : searcherManagers) {
+      searcherManager.close();
+    }
+  }
+
+  /**
+   * Searchers of all the shards at a point in time
+   */
+  public static class Searchers {
+
+    private final IndexSearcher[] shards;
+    private final IndexSearcher all;
+
+    private Searchers(IndexSearcher[] shards) {
+      this.shards = shards;
+      IndexReader[] readers = new IndexReader[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        readers[i] = shards[i].getIndexReader();
+      }
+      // Doesn't close the shard readers, only releases its references to them
+      all = new IndexSearcher(new MultiReader(readers, false));
+      all.setSimilarity(shards[0].getSimilarity());
+    }
+
+    /**
+     * @return searcher over all the shards, scoring with the similarity of the shards
+     */
+    public IndexSearcher getSearcher() {
+      return all;
+    }
+
+    /**
+     * @return sum of the versions of the shards, which grows whenever any of them is updated
+     */
+    public long getIndexVersion() {
+      long version = 0;
+      for (IndexSearcher shard : shards) {
+        if (shard.getIndexReader() instanceof DirectoryReader) {
+          version += ((DirectoryReader) shard.getIndexReader()).getVersion();
+        }
+      }
+      return version;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package org.musicbrainz.search.servlet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies, in microseconds.
+ *
+ * Like an HDR histogram, every power of two is split into the same number of linear buckets, so percentiles are
+ * within about 6% of the recorded values whether they are a few microseconds or several minutes, in a fixed and small
+ * array of counters. Recording only increments counters, so it can be done on every request.
+ */
+public class LatencyHistogram {
+
+  // Linear buckets for each power of two
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values above about 12 days are counted as that
+  private static final int MAX_VALUE_BITS = 40;
+  private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param nanos
+   */
+  public void record(long nanos) {
+    long micros = Math.min(MAX_VALUE, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    counts.incrementAndGet(index(micros));
+    count.incrementAndGet();
+    sum.addAndGet(micros);
+    long currentMax = max.get();
+    while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+      currentMax = max.get();
+    }
+  }
+
+  static int index(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int shift = 64 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS - 1;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+  }
+
+  // Largest value counted in the bucket
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    long top = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return largest latency recorded, in microseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return average latency, in microseconds
+   */
+  public long getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / n;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return latency below which that percentage of requests were, in microseconds
+   */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+}
@@ -10,9 +10,19 @@ import org.apache.lucene.search.similarities.Similarity;
 public class MusicBrainzSearcherFactory extends SearcherFactory {
 
   private final ResourceType resourceType;
+  private final long rewriteCacheBytes;
 
   public MusicBrainzSearcherFactory(ResourceType resourceType) {
+    this(resourceType, 0);
+  }
+
+  /**
+   * @param resourceType
+   * @param rewriteCacheBytes memory used to cache the prefix and fuzzy expansions of each searcher, 0 for none
+   */
+  public MusicBrainzSearcherFactory(ResourceType resourceType, long rewriteCacheBytes) {
     this.resourceType = resourceType;
+    this.rewriteCacheBytes = rewriteCacheBytes;
   }
 
   @Override
@@ -32,6 +42,10 @@ public class MusicBrainzSearcherFactory extends SearcherFactory {
       }
     }
 
+    if (rewriteCacheBytes > 0) {
+      RewriteCache.register(reader, rewriteCacheBytes);
+    }
+
     return searcher;
   }
 
@@ -0,0 +1,82 @@
+package org.musicbrainz.search.servlet;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.MetaIndexField;
+
+/**
+ * Builds range queries over the numeric fields (durations, track counts, dates ...).
+ *
+ * Numeric fields are trie encoded, so a NumericRangeQuery matches a range by visiting a few terms at each precision
+ * instead of every value in the range. Indexes built before that only contain the full precision terms, so until they
+ * are rebuilt the range falls back to a TermRangeQuery over them, the index is told apart by the precision step
+ * recorded in its meta document. Either bound may be null for an open ended range.
+ */
+public class NumericRangeQueries {
+
+    private static final Term[] TRIE_ENCODED = new Term[] {
+            new Term(MetaIndexField.NUMERIC_PRECISION_STEP.getName(), Integer.toString(MbDocument.NUMERIC_PRECISION_STEP))
+    };
+
+    private NumericRangeQueries() {
+    }
+
+    public static Query newIntRange(String field, String part1, String part2, boolean startInclusive, boolean endInclusive) {
+        Integer min = part1 != null ? Integer.valueOf(part1) : null;
+        Integer max = part2 != null ? Integer.valueOf(part2) : null;
+        return new FallbackQuery(
+                NumericRangeQuery.newIntRange(field, MbDocument.NUMERIC_PRECISION_STEP, min, max, startInclusive, endInclusive),
+                TRIE_ENCODED,
+                TermRangeQuery.newStringRange(field, toPrefixCoded(min), toPrefixCoded(max), startInclusive, endInclusive));
+    }
+
+    public static Query newFloatRange(String field, String part1, String part2, boolean startInclusive, boolean endInclusive) {
+        Float min = part1 != null ? Float.valueOf(part1) : null;
+        Float max = part2 != null ? Float.valueOf(part2) : null;
+        return new FallbackQuery(
+                NumericRangeQuery.newFloatRange(field, MbDocument.NUMERIC_PRECISION_STEP, min, max, startInclusive, endInclusive),
+                TRIE_ENCODED,
+                TermRangeQuery.newStringRange(field,
+                        min != null ? toPrefixCoded(NumericUtils.floatToSortableInt(min)) : null,
+                        max != null ? toPrefixCoded(NumericUtils.floatToSortableInt(max)) : null,
+                        startInclusive, endInclusive));
+    }
+
+    public static Query newLongRange(String field, String part1, String part2, boolean startInclusive, boolean endInclusive) {
+        Long min = part1 != null ? Long.valueOf(part1) : null;
+        Long max = part2 != null ? Long.valueOf(part2) : null;
+        String lower = null;
+        String upper = null;
+        if (min != null) {
+            BytesRefBuilder bytes = new BytesRefBuilder();
+            NumericUtils.longToPrefixCoded(min, 0, bytes);
+            lower = bytes.toBytesRef().utf8ToString();
+        }
+        if (max != null) {
+            BytesRefBuilder bytes = new BytesRefBuilder();
+            NumericUtils.longToPrefixCoded(max, 0, bytes);
+            upper = bytes.toBytesRef().utf8ToString();
+        }
+        return new FallbackQuery(
+                NumericRangeQuery.newLongRange(field, MbDocument.NUMERIC_PRECISION_STEP, min, max, startInclusive, endInclusive),
+                TRIE_ENCODED,
+                TermRangeQuery.newStringRange(field, lower, upper, startInclusive, endInclusive));
+    }
+
+    /**
+     * @return full precision term of the value, as indexed by MbDocument.addNumericField()
+     */
+    private static String toPrefixCoded(Integer value) {
+        if (value == null) {
+            return null;
+        }
+        BytesRefBuilder bytes = new BytesRefBuilder();
+        NumericUtils.intToPrefixCoded(value, 0, bytes);
+        return bytes.toBytesRef().utf8ToString();
+    }
+}
@@ -0,0 +1,165 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Searches the segments of an index in parallel, on a bounded pool of threads shared by all the searchers of a
+ * resource type.
+ *
+ * This lets an expensive query on a large index use the cores that are idle when there is little traffic. When
+ * there already are enough searches running to keep the cores busy, splitting each of them up only adds overhead, so
+ * searches are then run on the request thread one segment after the other as usual. Tasks that don't fit in the queue
+ * of the pool are also run on the request thread.
+ */
+public class ParallelSearch {
+
+  // Segments waiting to be searched, for each thread of the pool
+  private static final int QUEUE_PER_THREAD = 16;
+
+  private final ExecutorService executor;
+  private final int maxConcurrentSearches;
+  private final AtomicInteger searches = new AtomicInteger();
+
+  /**
+   * @param name name of the resource type, used to name the threads
+   * @param threads size of the pool
+   */
+  public ParallelSearch(String name, int threads) {
+    this(name, threads, Math.max(1, Runtime.getRuntime().availableProcessors() / threads));
+  }
+
+  /**
+   * @param name name of the resource type, used to name the threads
+   * @param threads size of the pool
+   * @param maxConcurrentSearches searches running at once above which segments are searched one after the other
+   */
+  public ParallelSearch(String name, int threads, int maxConcurrentSearches) {
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-" + name + "-%d").build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    this.maxConcurrentSearches = maxConcurrentSearches;
+  }
+
+  /**
+   * @param searcher
+   * @param query
+   * @param numHits
+   * @param timeAllowed milliseconds the search may take
+   * @return the best numHits documents
+   * @throws IOException
+   * @throws TimeLimitingCollector.TimeExceededException if the search took too long
+   */
+  public TopDocs search(IndexSearcher searcher, Query query, int numHits, long timeAllowed) throws IOException {
+    List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+    int running = searches.incrementAndGet();
+    try {
+      if (running > maxConcurrentSearches || leaves.size() < 2) {
+        TopScoreDocCollector collector = TopScoreDocCollector.create(numHits, true);
+        searcher.search(query, new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), timeAllowed));
+        return collector.topDocs();
+      }
+
+      // Every segment is timed from the start of the search, not from when it is picked up by the pool
+      long baseline = TimeLimitingCollector.getGlobalCounter().get();
+      Weight weight = searcher.createNormalizedWeight(query);
+      List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>(leaves.size());
+      for (AtomicReaderContext leaf : leaves) {
+        futures.add(executor.submit(new SegmentSearch(weight, leaf, numHits, baseline, timeAllowed)));
+      }
+      TopDocs[] segmentTopDocs = new TopDocs[futures.size()];
+      try {
+        for (int i = 0; i < segmentTopDocs.length; i++) {
+          segmentTopDocs[i] = get(futures.get(i));
+        }
+      } finally {
+        // Once a segment failed or ran out of time the others are of no use, don't leave them queued on the pool. A
+        // segment being searched isn't interrupted as that would close the file channels of an NIOFSDirectory, it
+        // stops by itself when out of time.
+        for (Future<TopDocs> future : futures) {
+          future.cancel(false);
+        }
+      }
+      return TopDocs.merge(null, numHits, segmentTopDocs);
+    } finally {
+      searches.decrementAndGet();
+    }
+  }
+
+  private static TopDocs get(Future<TopDocs> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Best documents of a segment, doc ids are those of the whole index
+   */
+  private static class SegmentSearch implements Callable<TopDocs> {
+
+    private final Weight weight;
+    private final AtomicReaderContext leaf;
+    private final int numHits;
+    private final long baseline;
+    private final long timeAllowed;
+
+    SegmentSearch(Weight weight, AtomicReaderContext leaf, int numHits, long baseline, long timeAllowed) {
+      this.weight = weight;
+      this.leaf = leaf;
+      this.numHits = numHits;
+      this.baseline = baseline;
+      this.timeAllowed = timeAllowed;
+    }
+
+    @Override
+    public TopDocs call() throws IOException {
+      TopScoreDocCollector collector = TopScoreDocCollector.create(numHits, !weight.scoresDocsOutOfOrder());
+      TimeLimitingCollector tCollector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), timeAllowed);
+      tCollector.setBaseline(baseline);
+      tCollector.setNextReader(leaf);
+      BulkScorer scorer = weight.bulkScorer(leaf, !tCollector.acceptsDocsOutOfOrder(), leaf.reader().getLiveDocs());
+      if (scorer != null) {
+        scorer.score(tCollector);
+      }
+      return collector.topDocs();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package org.musicbrainz.search.servlet;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.Query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded cache of parsed queries, keyed by resource type, dismax flag and the query as sent by the user.
+ *
+ * Parsing only depends on the analyzers and parser configuration of a resource type, which are fixed for the life of
+ * the servlet, so the cache is kept when indexes are reloaded or replaced and is only cleared when the servlet is
+ * destroyed. Lucene queries are mutable so a copy is stored and a copy is returned, a cached query is never seen by a
+ * caller. Query.clone() is shallow, a cloned BooleanQuery shares its clauses with the original, so boolean and
+ * disjunction max queries are copied all the way down and the other queries they hold are cloned. A copy can then
+ * have the boost, clauses or occurs of any of its parts changed, only what a leaf query was built with, such as the
+ * terms of a phrase query, is still shared and must not be changed.
+ */
+public class QueryCache {
+
+  public static final int DEFAULT_SIZE = 10000;
+
+  private final Cache<Key, Query> cache;
+
+  /**
+   * @param maximumSize maximum number of queries kept
+   */
+  public QueryCache(int maximumSize) {
+    cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * @param resourceType
+   * @param isDismax
+   * @param query the query as sent by the user
+   * @return copy of the parsed query, or null if it isn't cached
+   */
+  public Query get(ResourceType resourceType, boolean isDismax, String query) {
+    Query parsed = cache.getIfPresent(new Key(resourceType, isDismax, query));
+    return parsed != null ? copy(parsed) : null;
+  }
+
+  /**
+   * @param resourceType
+   * @param isDismax
+   * @param query the query as sent by the user
+   * @param parsed
+   */
+  public void put(ResourceType resourceType, boolean isDismax, String query, Query parsed) {
+    cache.put(new Key(resourceType, isDismax, query), copy(parsed));
+  }
+
+  /**
+   * @param query
+   * @return copy of the query with its own clauses, at any depth
+   */
+  static Query copy(Query query) {
+    if (query instanceof BooleanQuery) {
+      BooleanQuery bq = (BooleanQuery) query;
+      BooleanQuery copy = new BooleanQuery(bq.isCoordDisabled());
+      copy.setBoost(bq.getBoost());
+      copy.setMinimumNumberShouldMatch(bq.getMinimumNumberShouldMatch());
+      for (BooleanClause clause : bq.getClauses()) {
+        copy.add(copy(clause.getQuery()), clause.getOccur());
+      }
+      return copy;
+    } else if (query instanceof DisjunctionMaxQuery) {
+      DisjunctionMaxQuery dmq = (DisjunctionMaxQuery) query;
+      DisjunctionMaxQuery copy = new DisjunctionMaxQuery(dmq.getTieBreakerMultiplier());
+      copy.setBoost(dmq.getBoost());
+      for (Query disjunct : dmq.getDisjuncts()) {
+        copy.add(copy(disjunct));
+      }
+      return copy;
+    }
+    return query.clone();
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * @return hit rate and counts in a human readable form, as output by the querycache admin command
+   */
+  public String getStatsMessage() {
+    CacheStats stats = cache.stats();
+    return "size:" + cache.size()
+        + ",hits:" + stats.hitCount()
+        + ",misses:" + stats.missCount()
+        + ",hitrate:" + String.format("%.3f", stats.hitRate())
+        + ",evictions:" + stats.evictionCount();
+  }
+
+  private static class Key {
+
+    private final ResourceType resourceType;
+    private final boolean isDismax;
+    private final String query;
+
+    Key(ResourceType resourceType, boolean isDismax, String query) {
+      this.resourceType = resourceType;
+      this.isDismax = isDismax;
+      this.query = query;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return resourceType == key.resourceType && isDismax == key.isDismax && query.equals(key.query);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = resourceType.hashCode();
+      result = 31 * result + (isDismax ? 1 : 0);
+      result = 31 * result + query.hashCode();
+      return result;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopTermsRewrite;
+import org.apache.lucene.search.WildcardQuery;
+
+/**
+ * Estimates the cost of a parsed query from the statistics of the index before it is run, so that queries which would
+ * only end up hitting the search time limit are turned away straight away.
+ *
+ * The cost is the number of postings the query reads and the number of terms its wildcard, prefix, fuzzy, regexp and
+ * range parts have to visit to find the terms they expand to. Term queries cost their docFreq and matching all
+ * documents costs next to nothing; expansions are estimated from the number of terms and postings in the field and the
+ * length of the literal prefix the expansion starts from (a wildcard or regexp with no literal prefix has to look at
+ * every term in the field).
+ *
+ * When a query reads too many postings its expansions are capped to the best scoring terms, which bounds the postings
+ * read. Capping doesn't lower the terms visited, as every term an expansion matches still has to be enumerated to find
+ * the best ones, so a query visiting too many terms is rejected straight away with a QueryTooExpensiveException, as is
+ * a query still reading too many postings once capped.
+ */
+public class QueryCostGuard {
+
+  public static final long DEFAULT_MAX_POSTINGS = 20000000;
+  public static final long DEFAULT_MAX_TERMS = 500000;
+  public static final int DEFAULT_MAX_EXPANSIONS = 1024;
+
+  // Fraction of a field's terms that start with each further character of a literal prefix
+  private static final double PREFIX_SELECTIVITY = 1d / 20;
+
+  // Fraction of the terms sharing the prefix that a fuzzy query visits, per edit allowed
+  private static final double FUZZY_SELECTIVITY = 0.02;
+
+  // Terms visited by a numeric range, bounded by the precision step of the trie encoding
+  private static final long NUMERIC_RANGE_TERMS = 500;
+
+  // Cost of matching every document, which is cheap whatever the size of the index
+  private static final long MATCH_ALL_POSTINGS = 1;
+
+  private final Logger log = Logger.getLogger(QueryCostGuard.class.getName());
+
+  private final long maxPostings;
+  private final long maxTerms;
+  private final int maxExpansions;
+
+  /**
+   * @param maxPostings postings a query may read
+   * @param maxTerms terms a query may visit to find those its expansions match
+   * @param maxExpansions terms kept for each expansion of a query over budget
+   */
+  public QueryCostGuard(long maxPostings, long maxTerms, int maxExpansions) {
+    this.maxPostings = maxPostings;
+    this.maxTerms = maxTerms;
+    this.maxExpansions = maxExpansions;
+  }
+
+  /**
+   * @param query the query as sent by the user, for logging
+   * @param parsed
+   * @param reader
+   * @return the query to run, either as parsed or with its expansions capped
+   * @throws QueryTooExpensiveException if the query visits too many terms, or reads too many postings even when
+   *           capped
+   * @throws IOException
+   */
+  public Query admit(String query, Query parsed, IndexReader reader) throws QueryTooExpensiveException, IOException {
+    Cost cost = estimate(parsed, reader);
+    if (cost.isWithin(maxPostings, maxTerms)) {
+      if (log.isLoggable(Level.FINE)) {
+        log.fine("Query cost:admitted," + cost + ",query:" + query);
+      }
+      return parsed;
+    }
+
+    // Capping only bounds the postings read, the terms are visited all the same
+    if (cost.terms <= maxTerms) {
+      Query capped = cap(parsed);
+      Cost cappedCost = estimate(capped, reader);
+      if (cappedCost.isWithin(maxPostings, maxTerms)) {
+        log.info("Query cost:capped," + cost + ",capped:" + cappedCost + ",query:" + query);
+        return capped;
+      }
+      log.info("Query cost:rejected," + cappedCost + ",query:" + query);
+      throw new QueryTooExpensiveException(query, cappedCost.mostPostings);
+    }
+
+    log.info("Query cost:rejected," + cost + ",query:" + query);
+    throw new QueryTooExpensiveException(query, cost.mostTerms);
+  }
+
+  /**
+   * @param query
+   * @param reader
+   * @return estimated cost of running the query against the reader
+   * @throws IOException
+   */
+  public Cost estimate(Query query, IndexReader reader) throws IOException {
+    Cost cost = new Cost();
+    addCost(cost, query, reader);
+    return cost;
+  }
+
+  private void addCost(Cost cost, Query query, IndexReader reader) throws IOException {
+    if (query instanceof BooleanQuery) {
+      for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+        addCost(cost, clause.getQuery(), reader);
+      }
+    } else if (query instanceof DisjunctionMaxQuery) {
+      for (Query disjunct : ((DisjunctionMaxQuery) query).getDisjuncts()) {
+        addCost(cost, disjunct, reader);
+      }
+    } else if (query instanceof ConstantScoreQuery && ((ConstantScoreQuery) query).getFilter() instanceof FilterCache.TermFilter) {
+      cost.add(query, reader.docFreq(((FilterCache.TermFilter) ((ConstantScoreQuery) query).getFilter()).getTerm()), 1);
+    } else if (query instanceof ConstantScoreQuery && ((ConstantScoreQuery) query).getQuery() != null) {
+      addCost(cost, ((ConstantScoreQuery) query).getQuery(), reader);
+    } else if (query instanceof FallbackQuery) {
+      addCost(cost, ((FallbackQuery) query).choose(reader), reader);
+    } else if (query instanceof TermQuery) {
+      cost.add(query, reader.docFreq(((TermQuery) query).getTerm()), 1);
+    } else if (query instanceof PhraseQuery) {
+      // Positions are read as well as postings
+      long postings = 0;
+      for (Term term : ((PhraseQuery) query).getTerms()) {
+        postings += 2L * reader.docFreq(term);
+      }
+      cost.add(query, postings, ((PhraseQuery) query).getTerms().length);
+    } else if (query instanceof MultiPhraseQuery) {
+      long postings = 0;
+      int terms = 0;
+      for (Term[] position : ((MultiPhraseQuery) query).getTermArrays()) {
+        for (Term term : position) {
+          postings += 2L * reader.docFreq(term);
+          terms++;
+        }
+      }
+      cost.add(query, postings, terms);
+    } else if (query instanceof MultiTermQuery) {
+      addExpansionCost(cost, (MultiTermQuery) query, reader);
+    } else if (query instanceof MatchAllDocsQuery) {
+      // Such as *:*, steps through the documents without reading any postings
+      cost.add(query, MATCH_ALL_POSTINGS, 0);
+    } else {
+      // Anything else is taken to read about as many postings as there are documents
+      cost.add(query, reader.maxDoc(), 0);
+    }
+  }
+
+  private void addExpansionCost(Cost cost, MultiTermQuery query, IndexReader reader) throws IOException {
+    long fieldTerms = 0;
+    long fieldPostings = 0;
+    for (AtomicReaderContext context : reader.leaves()) {
+      Terms terms = context.reader().terms(query.getField());
+      if (terms != null) {
+        fieldTerms += Math.max(terms.size(), 0);
+        fieldPostings += Math.max(terms.getSumDocFreq(), 0);
+      }
+    }
+
+    long terms;
+    if (query instanceof NumericRangeQuery) {
+      terms = Math.min(fieldTerms, NUMERIC_RANGE_TERMS);
+    } else {
+      terms = (long) Math.ceil(fieldTerms * getSelectivity(query));
+    }
+    long postings = fieldTerms > 0 ? fieldPostings * terms / fieldTerms : 0;
+
+    // Only the postings of the best terms are read when expansions are limited
+    if (query.getRewriteMethod() instanceof TopTermsRewrite && fieldTerms > 0) {
+      long size = ((TopTermsRewrite<?>) query.getRewriteMethod()).getSize();
+      postings = Math.min(postings, fieldPostings * size / fieldTerms);
+    }
+    cost.add(query, postings, terms);
+  }
+
+  /**
+   * @return fraction of the terms of the field the query has to visit
+   */
+  private static double getSelectivity(MultiTermQuery query) {
+    if (query instanceof PrefixQuery) {
+      return Math.pow(PREFIX_SELECTIVITY, ((PrefixQuery) query).getPrefix().text().length());
+    } else if (query instanceof WildcardQuery) {
+      return Math.pow(PREFIX_SELECTIVITY, getLiteralPrefixLength(((WildcardQuery) query).getTerm().text()));
+    } else if (query instanceof FuzzyQuery) {
+      FuzzyQuery fq = (FuzzyQuery) query;
+      return Math.pow(PREFIX_SELECTIVITY, fq.getPrefixLength()) * Math.min(1d, FUZZY_SELECTIVITY * fq.getMaxEdits());
+    }
+    // Regexps and term ranges, assume the worst
+    return 1d;
+  }
+
+  private static int getLiteralPrefixLength(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == WildcardQuery.WILDCARD_STRING || c == WildcardQuery.WILDCARD_CHAR || c == WildcardQuery.WILDCARD_ESCAPE) {
+        return i;
+      }
+    }
+    return text.length();
+  }
+
+  /**
+   * @return copy of the query where each expansion only keeps the best scoring maxExpansions terms, the query itself
+   *         is left unchanged as it may be shared with the query cache
+   */
+  Query cap(Query query) {
+    if (query instanceof BooleanQuery) {
+      BooleanQuery bq = (BooleanQuery) query;
+      BooleanQuery capped = new BooleanQuery(bq.isCoordDisabled());
+      capped.setBoost(bq.getBoost());
+      capped.setMinimumNumberShouldMatch(bq.getMinimumNumberShouldMatch());
+      for (BooleanClause clause : bq.getClauses()) {
+        capped.add(cap(clause.getQuery()), clause.getOccur());
+      }
+      return capped;
+    } else if (query instanceof DisjunctionMaxQuery) {
+      DisjunctionMaxQuery dmq = (DisjunctionMaxQuery) query;
+      DisjunctionMaxQuery capped = new DisjunctionMaxQuery(dmq.getTieBreakerMultiplier());
+      capped.setBoost(dmq.getBoost());
+      for (Query disjunct : dmq.getDisjuncts()) {
+        capped.add(cap(disjunct));
+      }
+      return capped;
+    } else if (query instanceof MultiTermQuery && !(query instanceof NumericRangeQuery)
+        && !(((MultiTermQuery) query).getRewriteMethod() instanceof TopTermsRewrite)) {
+      MultiTermQuery capped = (MultiTermQuery) query.clone();
+      capped.setRewriteMethod(new MultiTermQuery.TopTermsScoringBooleanQueryRewrite(maxExpansions));
+      return capped;
+    }
+    return query;
+  }
+
+  /**
+   * Estimated cost of a query, and the part of it costing the most
+   */
+  public static class Cost {
+
+    private long postings;
+    private long terms;
+    private Query mostPostings;
+    private long mostPostingsCount = -1;
+    private Query mostTerms;
+    private long mostTermsCount = -1;
+
+    void add(Query query, long postings, long terms) {
+      this.postings += postings;
+      this.terms += terms;
+      if (postings > mostPostingsCount) {
+        mostPostings = query;
+        mostPostingsCount = postings;
+      }
+      if (terms > mostTermsCount) {
+        mostTerms = query;
+        mostTermsCount = terms;
+      }
+    }
+
+    public long getPostings() {
+      return postings;
+    }
+
+    /**
+     * @return terms visited, including those of expansions that are then left out by a cap
+     */
+    public long getTerms() {
+      return terms;
+    }
+
+    boolean isWithin(long maxPostings, long maxTerms) {
+      return postings <= maxPostings && terms <= maxTerms;
+    }
+
+    @Override
+    public String toString() {
+      return "postings:" + postings + ",terms:" + terms;
+    }
+  }
+}
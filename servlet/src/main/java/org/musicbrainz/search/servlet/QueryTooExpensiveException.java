@@ -0,0 +1,19 @@
+package org.musicbrainz.search.servlet;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Query;
+
+/**
+ * Thrown when a query would cost too much to run, see QueryCostGuard. It is a ParseException because, like a query
+ * that can't be parsed, the user has to change it.
+ */
+public class QueryTooExpensiveException extends ParseException {
+
+  /**
+   * @param query the query as sent by the user
+   * @param mostExpensive the part of the parsed query costing the most
+   */
+  public QueryTooExpensiveException(String query, Query mostExpensive) {
+    super(ErrorMessage.QUERY_TOO_EXPENSIVE.getMsg(query, mostExpensive));
+  }
+}
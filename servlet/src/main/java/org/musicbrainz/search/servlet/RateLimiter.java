@@ -0,0 +1,22 @@
+package org.musicbrainz.search.servlet;
+
+/**
+ * Decides whether a search from an ip address is allowed, see {@link RateLimiterChecker}
+ */
+interface RateLimiter {
+
+    /**
+     * @param remoteIpAddress
+     * @return whether the request is allowed, and the messages to return if it isn't
+     */
+    RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress);
+
+    /**
+     * @param remoteIpAddress
+     * @param searches number of searches the request makes, counted against the limit all at once
+     * @return whether the request is allowed, and the messages to return if it isn't
+     */
+    RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress, int searches);
+
+    void close();
+}
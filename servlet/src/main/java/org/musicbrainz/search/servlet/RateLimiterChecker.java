@@ -1,17 +1,11 @@
 package org.musicbrainz.search.servlet;
 
 import javax.servlet.http.HttpServletRequest;
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
-import java.rmi.UnknownHostException;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 public class RateLimiterChecker {
 
@@ -30,45 +24,101 @@ public class RateLimiterChecker {
     
     private static String MSG_HEADER
             = "%s %s %s";
-    private static Pattern pe;
-    private static InetAddress  rateLimiterHost;
-    private static Integer      rateLimiterPort;
-    private static boolean      rateLimiterConfigured =false;
-    private static final String OVER_LIMIT_SEARCH_IP = " over_limit search ip=";
-    private static AtomicInteger count = new AtomicInteger(0);
+    public static final String MODE_UDP = "udp";
+    // Searches allowed for each ip address in a period of seconds
+    public static final int DEFAULT_REQUESTS = 50;
+    public static final int DEFAULT_PERIOD = 10;
+    // How long to wait for the rate limit server
+    public static final int DEFAULT_TIMEOUT_MILLIS = 200;
 
+    private static Pattern pe = Pattern.compile("^(?:[0-9]{1,3}\\.){3}[0-9]{1,3}$");
+    private static volatile RateLimiter rateLimiter;
+    // Configuration of the current rate limiter, so that it is only replaced when that changes
+    private static String rateLimiterConfig;
 
+    static final RateLimiterResponse ALWAYS_TRUE = new RateLimiterResponse();
 
-    private static final RateLimiterResponse ALWAYS_TRUE = new RateLimiterResponse();
-    private static final int MAX_SIZE_OFRESPONSE_PACKET = 100;
-
-    public static void init(String host, String port)
+    /**
+     * Rate limit requests in process, allowing each ip address to make up to requests searches over period seconds
+     *
+     * The rate limiter, and so the searches counted for each address, is kept if it already has this configuration.
+     *
+     * @param requests
+     * @param period
+     */
+    public static synchronized void initLocal(int requests, int period)
     {
-        try {
-            pe = Pattern.compile("^(?:[0-9]{1,3}\\.){3}[0-9]{1,3}$");
+        String config = "local " + requests + " " + period;
+        if (!config.equals(rateLimiterConfig)) {
+            setRateLimiter(new TokenBucketRateLimiter(requests, period), config);
         }
-        catch(PatternSyntaxException pe) {
-                    log.log(Level.SEVERE, "Unable to compile pattern:"+pe.getMessage(),pe);
+    }
+
+    /**
+     * Rate limit requests by asking the rate limit server, letting requests through when it doesn't reply in time
+     *
+     * The rate limiter is kept if it already has this configuration. If the rate limit server can't be used, rate
+     * limiting is disabled rather than left as it was.
+     *
+     * @param host
+     * @param port
+     * @param timeoutMillis
+     */
+    public static synchronized void initUdp(String host, String port, int timeoutMillis)
+    {
+        String config = "udp " + host + " " + port + " " + timeoutMillis;
+        if (config.equals(rateLimiterConfig)) {
             return;
         }
 
+        InetAddress rateLimiterHost;
         try {
             rateLimiterHost=InetAddress.getByName(host);
         }
         catch(java.net.UnknownHostException uhe) {
-            log.log(Level.SEVERE, "Unable to init rate limiter:"+uhe.getMessage(),uhe);
+            disable(uhe);
             return;
         }
 
+        int rateLimiterPort;
         try {
             rateLimiterPort=Integer.parseInt(port);
         }
         catch(NumberFormatException ne) {
-            log.log(Level.SEVERE, "Unable to init rate limiter:"+ne.getMessage(),pe);
+            disable(ne);
             return;
         }
 
-        rateLimiterConfigured =true;
+        try {
+            setRateLimiter(new UdpRateLimiter(rateLimiterHost, rateLimiterPort, timeoutMillis), config);
+        }
+        catch(SocketException se) {
+            disable(se);
+        }
+    }
+
+    private static void disable(Exception e)
+    {
+        log.log(Level.SEVERE, "Unable to init rate limiter, rate limiting is disabled:"+e.getMessage(),e);
+        close();
+    }
+
+    /**
+     * Stop rate limiting, releasing the resources of the rate limiter
+     */
+    public static void close()
+    {
+        setRateLimiter(null, null);
+    }
+
+    private static synchronized void setRateLimiter(RateLimiter newRateLimiter, String config)
+    {
+        RateLimiter oldRateLimiter = rateLimiter;
+        rateLimiter = newRateLimiter;
+        rateLimiterConfig = config;
+        if (oldRateLimiter != null) {
+            oldRateLimiter.close();
+        }
     }
 
     /**
@@ -83,87 +133,41 @@ public class RateLimiterChecker {
     }
 
     /**
-     * Is Search setup to use a Rate Lmiter
+     * Is the request made on behalf of an anonymous web service client, as opposed to an internal one
      *
+     * @param request
      * @return
      */
-    private static boolean isRateLimiterConfigured()
+    public static boolean isRateLimitApplied(HttpServletRequest request)
     {
-        return rateLimiterConfigured;
+        String applyRateLimiter=request.getHeader(HEADER_APPLY_RATE_LIMIT);
+        return (applyRateLimiter!=null) && applyRateLimiter.equals("yes");
     }
 
     /**
-     * Call Rate Limiter to see if query is allowed
      *
-     * @param remoteIpAddress
+     * @param request
      * @return
      */
-    private static RateLimiterResponse validateAgainstRateLimiter(String remoteIpAddress)
+    public static RateLimiterResponse checkRateLimiter(HttpServletRequest request)
     {
-        DatagramSocket ds = null;
-        try {
-
-            int requestId = count.incrementAndGet();
-            String requestIdAsString = String.valueOf(requestId);
-
-            //Send Request
-            String rateLimiter=requestId+OVER_LIMIT_SEARCH_IP+remoteIpAddress;
-            byte[] msg = rateLimiter.getBytes();
-            ds = new DatagramSocket();
-            DatagramPacket dp = new DatagramPacket(msg,msg.length,rateLimiterHost,rateLimiterPort.intValue());
-            ds.send(dp);
-
-            //Get Response
-            byte[] receiveData = new byte[MAX_SIZE_OFRESPONSE_PACKET];
-            DatagramPacket dpReceive = new DatagramPacket(receiveData, receiveData.length);
-            ds.receive(dpReceive);
-
-            //Parse Response
-            String result = new String(dpReceive.getData(), dpReceive.getOffset(), dpReceive.getLength());
-            if(result.startsWith(requestIdAsString)) {
-                RateLimiterResponse rlr = new RateLimiterResponse(result.substring(requestIdAsString.length() + 1));
-                return rlr;
-            }
-            //RequestId not matching so just let through
-            else {
-                return ALWAYS_TRUE;
-            }
-        }
-        catch(UnknownHostException uhe) {
-            log.log(Level.SEVERE, "ValidateAgainstRateLimiter:"+uhe.getMessage(),uhe);
-        }
-        catch(SocketException se) {
-            log.log(Level.SEVERE, "ValidateAgainstRateLimiter:"+se.getMessage(),se);
-
-        }
-        catch(IOException ioe) {
-            log.log(Level.SEVERE, "ValidateAgainstRateLimiter:"+ioe.getMessage(),ioe);
-        }
-        finally
-        {
-            if(ds!=null && !ds.isClosed())
-            {
-                ds.close();
-            }
-        }
-        return ALWAYS_TRUE;
+        return checkRateLimiter(request, 1);
     }
 
     /**
-     *
      * @param request
+     * @param searches number of searches made by the request, such as the size of a batch
      * @return
      */
-    public static RateLimiterResponse checkRateLimiter(HttpServletRequest request)
+    public static RateLimiterResponse checkRateLimiter(HttpServletRequest request, int searches)
     {
-        if(!isRateLimiterConfigured())
+        RateLimiter configuredRateLimiter = rateLimiter;
+        if(configuredRateLimiter == null)
         {
             return ALWAYS_TRUE;
         }
 
-        String applyRateLimiter=request.getHeader(HEADER_APPLY_RATE_LIMIT);
-
-        if((applyRateLimiter==null) || (applyRateLimiter.length()==0) || (!applyRateLimiter.equals("yes")))
+        if(!isRateLimitApplied(request))
         {
             return ALWAYS_TRUE;
         }
@@ -173,7 +177,7 @@ public class RateLimiterChecker {
         {
             return ALWAYS_TRUE;
         }
-        return validateAgainstRateLimiter(remoteIpAddress);
+        return configuredRateLimiter.check(remoteIpAddress, searches);
     }
 
     /**
@@ -206,23 +210,7 @@ public class RateLimiterChecker {
             {
                 String[] parts = response.substring(5).split(" ");
                 if(parts.length>=3) {
-                    rate=parts[0];
-                    limit=parts[1];
-                    period=parts[2];
-
-                    try {
-                        if(new Float(rate).floatValue() > new Float(limit).floatValue()){
-                            msg=String.format(MSG_SERVER_BUSY, limit, period, rate);
-                            headerMsg=String.format(MSG_HEADER, rate, limit, period );
-                        }
-                        else {
-                            msg=String.format(MSG_SERVER_BUSY_SIMPLE);
-                        }
-                    }
-                    catch(NumberFormatException nfe) {
-                        msg=String.format(MSG_SERVER_BUSY_SIMPLE);
-                    }
-
+                    setOverLimit(parts[0], parts[1], parts[2]);
                 }
                 else {
                     msg=String.format(MSG_SERVER_BUSY_SIMPLE);
@@ -231,6 +219,38 @@ public class RateLimiterChecker {
             }
         }
 
+        /**
+         * Request over the limit
+         *
+         * @param rate requests made in the period
+         * @param limit requests allowed in the period
+         * @param period in seconds
+         */
+        RateLimiterResponse(String rate, String limit, String period)
+        {
+            setOverLimit(rate, limit, period);
+        }
+
+        private void setOverLimit(String rate, String limit, String period)
+        {
+            this.rate=rate;
+            this.limit=limit;
+            this.period=period;
+
+            try {
+                if(new Float(rate).floatValue() > new Float(limit).floatValue()){
+                    msg=String.format(MSG_SERVER_BUSY, limit, period, rate);
+                    headerMsg=String.format(MSG_HEADER, rate, limit, period );
+                }
+                else {
+                    msg=String.format(MSG_SERVER_BUSY_SIMPLE);
+                }
+            }
+            catch(NumberFormatException nfe) {
+                msg=String.format(MSG_SERVER_BUSY_SIMPLE);
+            }
+        }
+
         public boolean isValid()
         {
             return valid;
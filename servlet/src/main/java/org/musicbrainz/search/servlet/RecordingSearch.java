@@ -2,6 +2,7 @@ package org.musicbrainz.search.servlet;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -17,16 +18,31 @@ import org.musicbrainz.search.servlet.mmd2.RecordingWriter;
 
 public class RecordingSearch extends AbstractSearchServer {
 
+  // Null unless the index was built with release summaries
+  private ReleaseSummaryCache releaseSummaries;
+
   protected void setupDefaultFields() {
     defaultFields = new ArrayList<String>();
     defaultFields.add(RecordingIndexField.RECORDING.getName());
   }
 
+  protected void setupFilterFields() {
+    filterFields = new HashSet<String>();
+    filterFields.add(RecordingIndexField.RELEASE_STATUS.getName());
+    filterFields.add(RecordingIndexField.RELEASE_PRIMARY_TYPE.getName());
+    filterFields.add(RecordingIndexField.RELEASE_SECONDARY_TYPE.getName());
+    filterFields.add(RecordingIndexField.RELEASE_TYPE.getName());
+    filterFields.add(RecordingIndexField.COUNTRY.getName());
+    filterFields.add(RecordingIndexField.FORMAT.getName());
+    filterFields.add(RecordingIndexField.VIDEO.getName());
+  }
+
   public RecordingSearch() throws Exception {
 
     resultsWriter = new RecordingWriter();
     mmd1Writer = new TrackMmd1XmlWriter();
     setupDefaultFields();
+    setupFilterFields();
     analyzer = DatabaseIndex.getAnalyzer(RecordingIndexField.class);
   }
 
@@ -37,6 +53,32 @@ public class RecordingSearch extends AbstractSearchServer {
     resultsWriter.setLastServerUpdatedDate(this.getServerLastUpdatedDate());
   }
 
+  /**
+   * Join the release summaries the index was built with into the recordings written, they are closed with the index
+   *
+   * @param releaseSummaries
+   */
+  public void setReleaseSummaries(ReleaseSummaryCache releaseSummaries) {
+    this.releaseSummaries = releaseSummaries;
+    ((RecordingWriter) resultsWriter).setReleaseSummaries(releaseSummaries);
+    ((TrackMmd1XmlWriter) mmd1Writer).setReleaseSummaries(releaseSummaries);
+  }
+
+  public ReleaseSummaryCache getReleaseSummaries() {
+    return releaseSummaries;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (releaseSummaries != null) {
+        releaseSummaries.close();
+      }
+    }
+  }
+
   @Override
   public QueryParser getParser() {
     return new RecordingQueryParser(defaultFields.toArray(new String[0]), analyzer);
@@ -76,7 +76,7 @@ public class ReleaseDismaxQueryParser extends DismaxQueryParser {
                 //if query was quoted but doesn't generate a phrase query we reject it
                 if (
                         (quoted == false) ||
-                        (querySub instanceof PhraseQuery)
+                        isPhraseQuery(querySub)
                     ) {
                     //Reduce phrase because will have matched both parts giving far too much score differential
                     if (quoted == true) {
@@ -2,6 +2,7 @@ package org.musicbrainz.search.servlet;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -21,11 +22,19 @@ public class ReleaseGroupSearch extends AbstractSearchServer {
     defaultFields.add(ReleaseGroupIndexField.RELEASEGROUP.getName());
   }
 
+  protected void setupFilterFields() {
+    filterFields = new HashSet<String>();
+    filterFields.add(ReleaseGroupIndexField.PRIMARY_TYPE.getName());
+    filterFields.add(ReleaseGroupIndexField.SECONDARY_TYPE.getName());
+    filterFields.add(ReleaseGroupIndexField.TYPE.getName());
+  }
+
   public ReleaseGroupSearch() throws Exception {
 
     resultsWriter = new ReleaseGroupWriter();
     mmd1Writer = new ReleaseGroupMmd1XmlWriter();
     setupDefaultFields();
+    setupFilterFields();
     analyzer = DatabaseIndex.getAnalyzer(ReleaseGroupIndexField.class);
   }
 
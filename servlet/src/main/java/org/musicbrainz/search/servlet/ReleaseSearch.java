@@ -2,6 +2,7 @@ package org.musicbrainz.search.servlet;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -21,11 +22,26 @@ public class ReleaseSearch extends AbstractSearchServer {
     defaultFields.add(ReleaseIndexField.RELEASE.getName());
   }
 
+  protected void setupFilterFields() {
+    filterFields = new HashSet<String>();
+    filterFields.add(ReleaseIndexField.STATUS.getName());
+    filterFields.add(ReleaseIndexField.PRIMARY_TYPE.getName());
+    filterFields.add(ReleaseIndexField.SECONDARY_TYPE.getName());
+    filterFields.add(ReleaseIndexField.TYPE.getName());
+    filterFields.add(ReleaseIndexField.COUNTRY.getName());
+    filterFields.add(ReleaseIndexField.FORMAT.getName());
+    filterFields.add(ReleaseIndexField.LANGUAGE.getName());
+    filterFields.add(ReleaseIndexField.SCRIPT.getName());
+    filterFields.add(ReleaseIndexField.QUALITY.getName());
+    filterFields.add(ReleaseIndexField.PACKAGING.getName());
+  }
+
   public ReleaseSearch() throws Exception {
 
     resultsWriter = new ReleaseWriter();
     mmd1Writer = new ReleaseMmd1XmlWriter();
     setupDefaultFields();
+    setupFilterFields();
     analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
   }
 
@@ -0,0 +1,132 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.musicbrainz.mmd2.MediumList;
+import org.musicbrainz.mmd2.ObjectFactory;
+import org.musicbrainz.mmd2.Recording;
+import org.musicbrainz.mmd2.Release;
+import org.musicbrainz.search.index.MMDSerializer;
+import org.musicbrainz.search.index.ReleaseSummaryStore;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Joins the release summaries of a recording index built with --release-summaries back into its recordings when they
+ * are written, keeping the most recently used summaries unserialized.
+ *
+ * One is shared by all the searches of a recording index, and closes the store with it. The summaries are shared by
+ * every recording joined with them so they must not be changed by the writers.
+ */
+public class ReleaseSummaryCache implements Closeable {
+
+  public static final int DEFAULT_SIZE = 100000;
+
+  private final ReleaseSummaryStore store;
+  private final Cache<Integer, Release> cache;
+  private final AtomicLong joined = new AtomicLong();
+  private final AtomicLong missing = new AtomicLong();
+  private final AtomicLong loadNanos = new AtomicLong();
+
+  /**
+   * @param store
+   * @param maximumSize maximum number of summaries kept
+   */
+  public ReleaseSummaryCache(ReleaseSummaryStore store, int maximumSize) {
+    this.store = store;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * @param releaseId internal id of the release
+   * @return summary of the release, or null if it isn't in the store
+   * @throws IOException
+   */
+  public Release get(int releaseId) throws IOException {
+    Release summary = cache.getIfPresent(releaseId);
+    if (summary == null) {
+      long start = System.nanoTime();
+      String serialized = store.get(releaseId);
+      if (serialized == null) {
+        return null;
+      }
+      summary = (Release) MMDSerializer.unserialize(serialized, Release.class);
+      loadNanos.addAndGet(System.nanoTime() - start);
+      cache.put(releaseId, summary);
+    }
+    return summary;
+  }
+
+  /**
+   * Replace the releases of the recording, which only hold what depends on the track, with their summary joined with
+   * what depends on the track. Releases missing from the store are left as they are.
+   *
+   * @param recording
+   * @param releaseIds internal id of each release of the recording, in the same order
+   * @throws IOException
+   */
+  public void join(Recording recording, String[] releaseIds) throws IOException {
+    if (recording.getReleaseList() == null) {
+      return;
+    }
+    ObjectFactory of = new ObjectFactory();
+    List<Release> releases = recording.getReleaseList().getRelease();
+    for (int i = 0; i < releases.size() && i < releaseIds.length; i++) {
+      Release summary = get(Integer.parseInt(releaseIds[i]));
+      if (summary == null) {
+        missing.incrementAndGet();
+        continue;
+      }
+      Release trackRelease = releases.get(i);
+      Release release = of.createRelease();
+      release.setId(trackRelease.getId());
+      release.setTitle(summary.getTitle());
+      release.setReleaseGroup(summary.getReleaseGroup());
+      release.setStatus(summary.getStatus());
+      release.setArtistCredit(trackRelease.getArtistCredit() != null ? trackRelease.getArtistCredit()
+          : summary.getArtistCredit());
+      MediumList ml = of.createMediumList();
+      if (summary.getMediumList() != null) {
+        ml.setTrackCount(summary.getMediumList().getTrackCount());
+      }
+      if (trackRelease.getMediumList() != null) {
+        ml.getMedium().addAll(trackRelease.getMediumList().getMedium());
+      }
+      release.setMediumList(ml);
+      release.setReleaseEventList(summary.getReleaseEventList());
+      release.setDate(summary.getDate());
+      release.setCountry(summary.getCountry());
+      releases.set(i, release);
+      joined.incrementAndGet();
+    }
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * @return summaries in the store and in the cache, releases joined and missing, and the time spent reading and
+   *         unserializing the summaries that weren't cached
+   */
+  public String getStatsMessage() {
+    CacheStats stats = cache.stats();
+    return String.format(Locale.US, "releases:%d,cached:%d,hits:%d,misses:%d,hitrate:%.2f,joined:%d,missing:%d,"
+        + "loadtime:%dms,averageload:%.1fus", store.size(), cache.size(), stats.hitCount(), stats.missCount(),
+        stats.hitRate(), joined.get(), missing.get(), TimeUnit.NANOSECONDS.toMillis(loadNanos.get()),
+        stats.missCount() > 0 ? loadNanos.get() / 1000.0 / stats.missCount() : 0.0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    cache.invalidateAll();
+    store.close();
+  }
+}
@@ -41,11 +41,16 @@ public enum RequestParameter {
     DISMAX("dismax"),
     EXPLAIN("explain"),
     PRETTY("pretty"),
+    // For load balancers
+    READY("ready"),
     // For admin only
     INIT ("init"),
     RELOAD_INDEXES ("reload"),
     RATE("rate"),
     GC("gc"),
+    QUERY_CACHE("querycache"),
+    METRICS("metrics"),
+    SLOW_QUERIES("slowqueries"),
     ;
     
     private String name;
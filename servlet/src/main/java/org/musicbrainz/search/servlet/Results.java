@@ -31,6 +31,8 @@ package org.musicbrainz.search.servlet;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.lucene.search.Query;
+
 /**
  * Store the results of a search
  */
@@ -41,6 +43,17 @@ public class Results implements Comparable<Results>{
     private int totalHits;
     private ResourceType resourceType;
 
+    // Time taken by each phase of the search, see SearchMetrics
+    private long parseNanos;
+    private long searchNanos;
+    private long loadNanos;
+    private long deserializeNanos;
+    private boolean queryCacheHit;
+
+    // The query as run and the version of the index it was run on, see SlowQueryLog
+    private Query query;
+    private long indexVersion = -1;
+
     public List<Result> results;
 
     public Results() {
@@ -110,4 +123,74 @@ public class Results implements Comparable<Results>{
     {
         this.resourceType = resourceType;
     }
+
+    public long getParseNanos()
+    {
+        return parseNanos;
+    }
+
+    public void setParseNanos(long parseNanos)
+    {
+        this.parseNanos = parseNanos;
+    }
+
+    public long getSearchNanos()
+    {
+        return searchNanos;
+    }
+
+    public void setSearchNanos(long searchNanos)
+    {
+        this.searchNanos = searchNanos;
+    }
+
+    public long getLoadNanos()
+    {
+        return loadNanos;
+    }
+
+    public void setLoadNanos(long loadNanos)
+    {
+        this.loadNanos = loadNanos;
+    }
+
+    public long getDeserializeNanos()
+    {
+        return deserializeNanos;
+    }
+
+    public void setDeserializeNanos(long deserializeNanos)
+    {
+        this.deserializeNanos = deserializeNanos;
+    }
+
+    public boolean isQueryCacheHit()
+    {
+        return queryCacheHit;
+    }
+
+    public void setQueryCacheHit(boolean queryCacheHit)
+    {
+        this.queryCacheHit = queryCacheHit;
+    }
+
+    public Query getQuery()
+    {
+        return query;
+    }
+
+    public void setQuery(Query query)
+    {
+        this.query = query;
+    }
+
+    public long getIndexVersion()
+    {
+        return indexVersion;
+    }
+
+    public void setIndexVersion(long indexVersion)
+    {
+        this.indexVersion = indexVersion;
+    }
 }
@@ -0,0 +1,242 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Expansions of the prefix and fuzzy queries built by the dismax parser, cached for the life of an index reader.
+ *
+ * Rewriting these queries walks the term dictionary to find the best matching terms, and popular searches repeat the
+ * same expansions. The expansion only depends on the reader, so it is kept with the TermContext of each term (the terms
+ * aren't looked up again when the query is run) until the reader is closed. MusicBrainzSearcherFactory registers a
+ * cache for each reader it opens, SearcherManager closes the old reader once a refresh has replaced it and all searches
+ * using it have finished.
+ *
+ * Expansions are cached without the boost of the query and boosted on the way out, so the same expansion is shared by
+ * every field alias using it.
+ */
+public class RewriteCache {
+
+  public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  // Rough size of a cached clause and of the state kept for each segment by its TermContext
+  private static final int CLAUSE_BYTES = 128;
+  private static final int TERM_STATE_BYTES = 64;
+
+  private static final Cache<IndexReader, RewriteCache> caches = CacheBuilder.newBuilder().weakKeys().build();
+
+  private final Cache<Key, Query> cache;
+
+  private RewriteCache(long maxBytes, final int numberOfSegments) {
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(new Weigher<Key, Query>() {
+          @Override
+          public int weigh(Key key, Query expanded) {
+            int clauses = expanded instanceof DisjunctionMaxQuery ? ((DisjunctionMaxQuery) expanded).getDisjuncts().size() : 1;
+            return clauses * (CLAUSE_BYTES + key.term.bytes().length + numberOfSegments * TERM_STATE_BYTES);
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Cache rewrites against this reader until it is closed
+   *
+   * @param reader top level reader of a searcher
+   * @param maxBytes estimated memory used by the cache
+   */
+  public static void register(IndexReader reader, long maxBytes) {
+    caches.put(reader, new RewriteCache(maxBytes, reader.leaves().size()));
+    reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+      @Override
+      public void onClose(IndexReader closed) {
+        caches.invalidate(closed);
+      }
+    });
+  }
+
+  /**
+   * @param reader
+   * @return the cache of the reader, or null if none was registered
+   */
+  public static RewriteCache forReader(IndexReader reader) {
+    return caches.getIfPresent(reader);
+  }
+
+  /**
+   * @return totals over the caches of all open readers, in a human readable form
+   */
+  public static String getStatsMessage() {
+    long size = 0;
+    CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+    for (RewriteCache rewriteCache : caches.asMap().values()) {
+      size += rewriteCache.cache.size();
+      stats = stats.plus(rewriteCache.cache.stats());
+    }
+    return "readers:" + caches.size()
+        + ",size:" + size
+        + ",hits:" + stats.hitCount()
+        + ",misses:" + stats.missCount()
+        + ",hitrate:" + String.format("%.3f", stats.hitRate())
+        + ",evictions:" + stats.evictionCount();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * @param reader the reader this cache was registered for
+   * @param query
+   * @param method
+   * @return the query rewritten by the method, reusing a previous expansion if there is one
+   * @throws IOException
+   */
+  public Query rewrite(IndexReader reader, MultiTermQuery query, MultiTermQuery.RewriteMethod method) throws IOException {
+    Key key = Key.create(query, method);
+    if (key == null) {
+      return method.rewrite(reader, query);
+    }
+
+    Query expanded = cache.getIfPresent(key);
+    if (expanded == null) {
+      MultiTermQuery unboosted = (MultiTermQuery) query.clone();
+      unboosted.setBoost(1f);
+      expanded = method.rewrite(reader, unboosted);
+      cache.put(key, expanded);
+    }
+    return boost(expanded, query.getBoost());
+  }
+
+  /**
+   * The rewrite methods fold the query boost into each clause, so copy the clauses rather than boosting the top query
+   */
+  private static Query boost(Query expanded, float boost) {
+    if (expanded instanceof DisjunctionMaxQuery) {
+      DisjunctionMaxQuery dmq = (DisjunctionMaxQuery) expanded;
+      DisjunctionMaxQuery boosted = new DisjunctionMaxQuery(dmq.getTieBreakerMultiplier());
+      boosted.setBoost(dmq.getBoost());
+      for (Query disjunct : dmq.getDisjuncts()) {
+        Query copy = disjunct.clone();
+        copy.setBoost(disjunct.getBoost() * boost);
+        boosted.add(copy);
+      }
+      return boosted;
+    }
+    Query copy = expanded.clone();
+    copy.setBoost(expanded.getBoost() * boost);
+    return copy;
+  }
+
+  /**
+   * Rewrite method that uses the cache of the reader, if there is one, to rewrite with another method
+   */
+  public static class CachingRewrite extends MultiTermQuery.RewriteMethod {
+
+    private final MultiTermQuery.RewriteMethod delegate;
+
+    /**
+     * @param delegate rewrite method, must implement equals() as it is part of the cache key
+     */
+    public CachingRewrite(MultiTermQuery.RewriteMethod delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader, MultiTermQuery query) throws IOException {
+      RewriteCache rewriteCache = forReader(reader);
+      return rewriteCache != null ? rewriteCache.rewrite(reader, query, delegate) : delegate.rewrite(reader, query);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CachingRewrite && delegate.equals(((CachingRewrite) o).delegate);
+    }
+  }
+
+  private static class Key {
+
+    private final Class<?> type;
+    private final Term term;
+    private final int maxEdits;
+    private final int prefixLength;
+    private final boolean transpositions;
+    private final MultiTermQuery.RewriteMethod method;
+
+    private Key(Class<?> type, Term term, int maxEdits, int prefixLength, boolean transpositions,
+        MultiTermQuery.RewriteMethod method) {
+      this.type = type;
+      this.term = term;
+      this.maxEdits = maxEdits;
+      this.prefixLength = prefixLength;
+      this.transpositions = transpositions;
+      this.method = method;
+    }
+
+    /**
+     * @return the key, or null for a type of query that isn't cached
+     */
+    static Key create(MultiTermQuery query, MultiTermQuery.RewriteMethod method) {
+      if (query instanceof FuzzyQuery) {
+        FuzzyQuery fq = (FuzzyQuery) query;
+        return new Key(FuzzyQuery.class, fq.getTerm(), fq.getMaxEdits(), fq.getPrefixLength(), fq.getTranspositions(),
+            method);
+      } else if (query instanceof PrefixQuery) {
+        Term prefix = ((PrefixQuery) query).getPrefix();
+        return new Key(PrefixQuery.class, prefix, 0, prefix.text().length(), false, method);
+      }
+      return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return type == key.type
+          && maxEdits == key.maxEdits
+          && prefixLength == key.prefixLength
+          && transpositions == key.transpositions
+          && term.equals(key.term)
+          && method.equals(key.method);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = type.hashCode();
+      result = 31 * result + term.hashCode();
+      result = 31 * result + maxEdits;
+      result = 31 * result + prefixLength;
+      result = 31 * result + (transpositions ? 1 : 0);
+      result = 31 * result + method.hashCode();
+      return result;
+    }
+  }
+}
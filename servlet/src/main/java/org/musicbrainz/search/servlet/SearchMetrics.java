@@ -0,0 +1,189 @@
+package org.musicbrainz.search.servlet;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of each phase of the searches of each resource type, and counts of how they ended, since the servlet
+ * started.
+ *
+ * Output by the metrics admin command as text or json, latencies are given in milliseconds.
+ */
+public class SearchMetrics {
+
+  public enum Phase {
+    // Parsing the query, or getting it from the query cache
+    PARSE,
+    // Searching the index and collecting the best documents
+    SEARCH,
+    // Loading the stored fields of the documents returned
+    LOAD,
+    // Building the results from the stored fields
+    DESERIALIZE,
+    // Writing the results as xml or json
+    SERIALIZE,
+    // The whole request
+    TOTAL,
+  }
+
+  public enum Counter {
+    REQUESTS,
+    QUERY_CACHE_HITS,
+    TIMEOUTS,
+    ERRORS,
+    CLIENT_ERRORS,
+    SERVER_ERRORS,
+    // Refused because the worker pool of the resource type was saturated
+    REJECTED,
+    // Turned away by admission control to protect higher priority searches
+    SHED,
+  }
+
+  private static final double[] PERCENTILES = { 50, 95, 99 };
+
+  private final Map<ResourceType, EnumMap<Phase, LatencyHistogram>> histograms
+      = new EnumMap<ResourceType, EnumMap<Phase, LatencyHistogram>>(ResourceType.class);
+  private final Map<ResourceType, EnumMap<Counter, AtomicLong>> counters
+      = new EnumMap<ResourceType, EnumMap<Counter, AtomicLong>>(ResourceType.class);
+
+  public SearchMetrics() {
+    // Everything is created upfront so that recording never needs a lock
+    for (ResourceType resourceType : ResourceType.values()) {
+      EnumMap<Phase, LatencyHistogram> phaseHistograms = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+      for (Phase phase : Phase.values()) {
+        phaseHistograms.put(phase, new LatencyHistogram());
+      }
+      histograms.put(resourceType, phaseHistograms);
+      EnumMap<Counter, AtomicLong> typeCounters = new EnumMap<Counter, AtomicLong>(Counter.class);
+      for (Counter counter : Counter.values()) {
+        typeCounters.put(counter, new AtomicLong());
+      }
+      counters.put(resourceType, typeCounters);
+    }
+  }
+
+  public LatencyHistogram getHistogram(ResourceType resourceType, Phase phase) {
+    return histograms.get(resourceType).get(phase);
+  }
+
+  public long getCount(ResourceType resourceType, Counter counter) {
+    return counters.get(resourceType).get(counter).get();
+  }
+
+  public void increment(ResourceType resourceType, Counter counter) {
+    counters.get(resourceType).get(counter).incrementAndGet();
+  }
+
+  /**
+   * Record the phases of a search that returned results
+   *
+   * @param resourceType
+   * @param results
+   * @param serializeNanos time taken to write the results, including building them
+   */
+  public void recordSearch(ResourceType resourceType, Results results, long serializeNanos) {
+    EnumMap<Phase, LatencyHistogram> phaseHistograms = histograms.get(resourceType);
+    phaseHistograms.get(Phase.PARSE).record(results.getParseNanos());
+    phaseHistograms.get(Phase.SEARCH).record(results.getSearchNanos());
+    phaseHistograms.get(Phase.LOAD).record(results.getLoadNanos());
+    phaseHistograms.get(Phase.DESERIALIZE).record(results.getDeserializeNanos());
+    phaseHistograms.get(Phase.SERIALIZE).record(Math.max(0, serializeNanos - results.getDeserializeNanos()));
+    if (results.isQueryCacheHit()) {
+      increment(resourceType, Counter.QUERY_CACHE_HITS);
+    }
+  }
+
+  /**
+   * Record how a request ended
+   *
+   * @param resourceType
+   * @param status http status sent
+   * @param totalNanos
+   */
+  public void recordRequest(ResourceType resourceType, int status, long totalNanos) {
+    histograms.get(resourceType).get(Phase.TOTAL).record(totalNanos);
+    increment(resourceType, Counter.REQUESTS);
+    if (status == 408) {
+      increment(resourceType, Counter.TIMEOUTS);
+    }
+    if (status >= 400 && status < 500) {
+      increment(resourceType, Counter.CLIENT_ERRORS);
+    } else if (status >= 500) {
+      increment(resourceType, Counter.SERVER_ERRORS);
+    }
+  }
+
+  private static String millis(long micros) {
+    return String.format(Locale.US, "%.3f", micros / 1000.0);
+  }
+
+  /**
+   * @return metrics of the resource types that have been searched, one line for each phase and one for the counters
+   */
+  public String getStatsMessage() {
+    StringBuilder sb = new StringBuilder();
+    for (ResourceType resourceType : ResourceType.values()) {
+      if (getCount(resourceType, Counter.REQUESTS) == 0) {
+        continue;
+      }
+      for (Phase phase : Phase.values()) {
+        LatencyHistogram histogram = getHistogram(resourceType, phase);
+        sb.append(resourceType.getName()).append(' ').append(phase.name().toLowerCase(Locale.US))
+            .append(":count:").append(histogram.getCount())
+            .append(",mean:").append(millis(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+          sb.append(",p").append((int) percentile).append(':').append(millis(histogram.getPercentile(percentile)));
+        }
+        sb.append(",max:").append(millis(histogram.getMax())).append('\n');
+      }
+      sb.append(resourceType.getName()).append(" counters:");
+      for (Counter counter : Counter.values()) {
+        if (counter.ordinal() > 0) {
+          sb.append(',');
+        }
+        sb.append(counter.name().toLowerCase(Locale.US)).append(':').append(getCount(resourceType, counter));
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the same metrics as {@link #getStatsMessage()} as a json object keyed by resource type
+   */
+  public String getStatsJson() {
+    StringBuilder sb = new StringBuilder("{");
+    boolean firstType = true;
+    for (ResourceType resourceType : ResourceType.values()) {
+      if (getCount(resourceType, Counter.REQUESTS) == 0) {
+        continue;
+      }
+      if (!firstType) {
+        sb.append(',');
+      }
+      firstType = false;
+      sb.append('"').append(resourceType.getName()).append("\":{");
+      for (Phase phase : Phase.values()) {
+        LatencyHistogram histogram = getHistogram(resourceType, phase);
+        sb.append('"').append(phase.name().toLowerCase(Locale.US)).append("\":{")
+            .append("\"count\":").append(histogram.getCount())
+            .append(",\"mean\":").append(millis(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+          sb.append(",\"p").append((int) percentile).append("\":").append(millis(histogram.getPercentile(percentile)));
+        }
+        sb.append(",\"max\":").append(millis(histogram.getMax())).append("},");
+      }
+      sb.append("\"counters\":{");
+      for (Counter counter : Counter.values()) {
+        if (counter.ordinal() > 0) {
+          sb.append(',');
+        }
+        sb.append('"').append(counter.name().toLowerCase(Locale.US)).append("\":").append(getCount(resourceType, counter));
+      }
+      sb.append("}}");
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -29,16 +29,22 @@
 package org.musicbrainz.search.servlet;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.NIOFSDirectory;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.ReleaseSummaryStore;
 import org.musicbrainz.search.servlet.mmd2.AllWriter;
 import org.musicbrainz.search.servlet.mmd2.ResultsWriter;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -47,10 +53,18 @@ import java.lang.*;
 import java.io.*;
 import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,6 +76,9 @@ public class SearchServerServlet extends HttpServlet
     final static int DEFAULT_OFFSET = 0;
     final static int DEFAULT_MATCHES_LIMIT = 25;
     final static int MAX_MATCHES_LIMIT = 100;
+    final static int DEFAULT_SLOW_QUERIES = 20;
+    final static int DEFAULT_INIT_THREADS = 4;
+    final static String HEADER_RETRY_AFTER = "Retry-After";
 
     public final static String RESPONSE_XML = "xml";
     public final static String RESPONSE_JSON = "json";
@@ -75,16 +92,58 @@ public class SearchServerServlet extends HttpServlet
     final static String TYPE_ALL = "all";
     final static String TYPE_TRACK = "track";
 
-    private boolean isServletInitialized = false;
-
-    // Enabled as long indexes for all resources are available
-    private boolean isSearchAllEnabled = true;
-
     // When doing search over multiple indexes use this executorservice to run in parallel
     private final ExecutorService es = Executors.newCachedThreadPool();
 
-    private final EnumMap<ResourceType, SearchServer> searchers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
-    private final EnumMap<ResourceType, SearchServer> dismaxSearchers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+    // Search servers of the indexes currently searched, replaced as a whole by init, null until the first init
+    private final AtomicReference<IndexSet> indexSet = new AtomicReference<IndexSet>();
+
+    // Indexes opened at once by init
+    private int initThreads = DEFAULT_INIT_THREADS;
+
+    // Which indexes are searched and loaded, for the ready command
+    private volatile IndexReadiness indexReadiness = IndexReadiness.parse(IndexReadiness.DEFAULT_REQUIRED_TYPES);
+
+    // Parsed queries shared by all search servers, kept across index reloads
+    private QueryCache queryCache;
+
+    // Memory used to cache prefix and fuzzy expansions for each index searcher
+    private long rewriteCacheBytes = RewriteCache.DEFAULT_MAX_BYTES;
+    // Release summaries kept unserialized, for recording indexes built with release summaries
+    private int releaseSummaryCacheSize = ReleaseSummaryCache.DEFAULT_SIZE;
+
+    // Bitsets of the terms of low cardinality fields used as filters, shared by all search servers
+    private FilterCache filterCache;
+
+    // Pools used to search the segments of an index in parallel, only for the resource types configured
+    private EnumMap<ResourceType, ParallelSearch> parallelSearches;
+
+    // Rejects or caps queries parsed by the standard parsers that would cost too much to run
+    private QueryCostGuard queryCostGuard;
+
+    // Latencies and outcomes of searches since the servlet started
+    private final SearchMetrics searchMetrics = new SearchMetrics();
+
+    // Shares the results of identical searches running at the same time, null if disabled
+    private SingleFlight<List<Object>, EncodedResults> searchCoalescer;
+
+    // Most searches a batch can hold
+    private int batchMaxQueries = BatchQuery.DEFAULT_MAX_QUERIES;
+
+    // Sheds low priority searches when those in flight are too costly, null if disabled
+    private AdmissionController admissionController;
+
+    // Pools searches are run on, by resource type, null to run them on the container's threads
+    private SearchWorkers searchWorkers;
+
+    // Logs searches slower than slowquery_ms, null if disabled
+    private SlowQueryLog slowQueryLog;
+
+    // Sample of recent queries of each resource type replayed on new searchers, null if warming is disabled
+    private EnumMap<ResourceType, WarmupQueries> warmupQueries;
+    private boolean isWarmupTouchFiles = false;
+    // Where the samples are kept while the servlet is stopped, may be null
+    private String warmupDir;
 
     private final String initMessage = null;
     private static String searchWebPage = "";
@@ -94,23 +153,37 @@ public class SearchServerServlet extends HttpServlet
     @Override
     public void init()
     {
-        String init = getServletConfig().getInitParameter("init");
-        if (init != null && init.equals("nfio"))
+        String requiredTypes = getServletConfig().getInitParameter("ready_types");
+        if (requiredTypes != null)
         {
-            init(false);
+            indexReadiness = IndexReadiness.parse(requiredTypes);
         }
-        else
+
+        // Load the indexes in the background so that the ready command can be answered while they are opened,
+        // searches are refused until they are all loaded
+        final boolean useMMapDirectory = !"nfio".equals(getServletConfig().getInitParameter("init"));
+        Thread initThread = new Thread(new Runnable()
         {
-            init(true);
-        }
+            @Override
+            public void run()
+            {
+                init(useMMapDirectory);
+            }
+        }, "index-init");
+        initThread.setDaemon(true);
+        initThread.start();
     }
 
     /**
      * If you have indexes that are available this reads from the new indexes and closes the existing readers
      *
+     * The new indexes are loaded and warmed while the existing ones keep serving requests, then replace them all at
+     * once. If an index that is currently available fails to load or is empty, the existing indexes are kept.
+     *
      * @param useMMapDirectory
+     * @return confirmation of the indexes loaded or kept
      */
-    public void init(boolean useMMapDirectory)
+    public synchronized String init(boolean useMMapDirectory)
     {
 
         searchWebPage = getServletConfig().getInitParameter("search_webpage");
@@ -123,280 +196,1287 @@ public class SearchServerServlet extends HttpServlet
 
         String indexDir = getServletConfig().getInitParameter("index_dir");
 
-        if (useMMapDirectory)
+        String initThreadsValue = getServletConfig().getInitParameter("init_threads");
+        initThreads = Strings.isNullOrEmpty(initThreadsValue) ? DEFAULT_INIT_THREADS : Math.max(1, Integer.parseInt(initThreadsValue));
+
+        if (queryCache == null)
         {
-            log.info("Start:Loading Indexes from " + indexDir + ",Type:mmap," + "MaxHeap:" + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+            String queryCacheSize = getServletConfig().getInitParameter("querycache_size");
+            int size = Strings.isNullOrEmpty(queryCacheSize) ? QueryCache.DEFAULT_SIZE : Integer.parseInt(queryCacheSize);
+            if (size > 0)
+            {
+                queryCache = new QueryCache(size);
+            }
         }
-        else
+
+        String releaseSummaryCacheSizeValue = getServletConfig().getInitParameter("release_summary_cache_size");
+        releaseSummaryCacheSize = Strings.isNullOrEmpty(releaseSummaryCacheSizeValue) ? ReleaseSummaryCache.DEFAULT_SIZE : Integer.parseInt(releaseSummaryCacheSizeValue);
+
+        String rewriteCacheSize = getServletConfig().getInitParameter("rewritecache_mb");
+        if (!Strings.isNullOrEmpty(rewriteCacheSize))
         {
-            log.info("Start:loading Indexes from " + indexDir + ",Type:nfio," + "MaxHeap:" + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+            rewriteCacheBytes = Long.parseLong(rewriteCacheSize) * 1024 * 1024;
         }
 
-        // Initialize all search servers
-        for (ResourceType resourceType : ResourceType.values())
+        if (filterCache == null)
         {
+            String filterCacheSize = getServletConfig().getInitParameter("filtercache_mb");
+            long bytes = Strings.isNullOrEmpty(filterCacheSize) ? FilterCache.DEFAULT_MAX_BYTES : Long.parseLong(filterCacheSize) * 1024 * 1024;
+            if (bytes > 0)
+            {
+                filterCache = new FilterCache(bytes);
+            }
+        }
 
-            File indexFileDir = new File(indexDir + System.getProperty("file.separator") + resourceType.getIndexName() + "_index");
+        if (parallelSearches == null)
+        {
+            parallelSearches = new EnumMap<ResourceType, ParallelSearch>(ResourceType.class);
+            // Pool size for each resource type, such as recording:4,release:4
+            String parallelSearchThreads = getServletConfig().getInitParameter("parallelsearch_threads");
+            if (!Strings.isNullOrEmpty(parallelSearchThreads))
+            {
+                for (String typeThreads : parallelSearchThreads.split(","))
+                {
+                    String[] parts = typeThreads.trim().split(":");
+                    ResourceType resourceType = ResourceType.getValue(parts[0]);
+                    int threads = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                    if (resourceType == null || threads <= 0)
+                    {
+                        log.warning("Ignoring parallelsearch_threads entry:" + typeThreads);
+                        continue;
+                    }
+                    parallelSearches.put(resourceType, new ParallelSearch(resourceType.getName(), threads));
+                }
+            }
+        }
 
-            AbstractSearchServer searchServer = null;
-            AbstractDismaxSearchServer dismaxSearchServer = null;
+        if (searchWorkers == null)
+        {
+            String workerThreads = getServletConfig().getInitParameter("worker_threads");
+            String workerQueueSize = getServletConfig().getInitParameter("worker_queue_size");
+            int defaultThreads = Strings.isNullOrEmpty(workerThreads) ? SearchWorkers.DEFAULT_THREADS : Integer.parseInt(workerThreads);
+            if (defaultThreads > 0)
+            {
+                // Pool size of the resource types that need more or fewer threads, such as recording:16,release:12
+                Map<ResourceType, Integer> typeThreads = new EnumMap<ResourceType, Integer>(ResourceType.class);
+                String workerTypeThreads = getServletConfig().getInitParameter("worker_type_threads");
+                if (!Strings.isNullOrEmpty(workerTypeThreads))
+                {
+                    for (String typeThreadsEntry : workerTypeThreads.split(","))
+                    {
+                        String[] parts = typeThreadsEntry.trim().split(":");
+                        ResourceType resourceType = ResourceType.getValue(parts[0]);
+                        int threads = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                        if (resourceType == null || threads <= 0)
+                        {
+                            log.warning("Ignoring worker_type_threads entry:" + typeThreadsEntry);
+                            continue;
+                        }
+                        typeThreads.put(resourceType, threads);
+                    }
+                }
+                searchWorkers = new SearchWorkers(defaultThreads, typeThreads,
+                        Strings.isNullOrEmpty(workerQueueSize) ? SearchWorkers.DEFAULT_QUEUE_SIZE : Integer.parseInt(workerQueueSize));
+            }
+        }
 
-            try
+        if (admissionController == null)
+        {
+            String budget = getServletConfig().getInitParameter("admission_budget_ms");
+            String shedLow = getServletConfig().getInitParameter("admission_shed_low_percent");
+            String shedNormal = getServletConfig().getInitParameter("admission_shed_normal_percent");
+            int budgetValue = Strings.isNullOrEmpty(budget) ? AdmissionController.DEFAULT_BUDGET_MILLIS : Integer.parseInt(budget);
+            if (budgetValue > 0)
             {
-                Directory directory = useMMapDirectory ? new MMapDirectory(indexFileDir) : new NIOFSDirectory(indexFileDir);
-                SearcherManager searcherManager = new SearcherManager(directory, new MusicBrainzSearcherFactory(resourceType));
-                searchServer = resourceType.getSearchServerClass().getConstructor(SearcherManager.class).newInstance(searcherManager);
-                dismaxSearchServer = resourceType.getDismaxSearchServerClass().getConstructor(AbstractSearchServer.class).newInstance(searchServer);
+                admissionController = new AdmissionController(budgetValue,
+                        Strings.isNullOrEmpty(shedLow) ? AdmissionController.DEFAULT_SHED_LOW_PERCENT : Integer.parseInt(shedLow),
+                        Strings.isNullOrEmpty(shedNormal) ? AdmissionController.DEFAULT_SHED_NORMAL_PERCENT : Integer.parseInt(shedNormal));
+            }
+        }
+
+        String batchMaxQueriesValue = getServletConfig().getInitParameter("batch_max_queries");
+        batchMaxQueries = Strings.isNullOrEmpty(batchMaxQueriesValue) ? BatchQuery.DEFAULT_MAX_QUERIES : Integer.parseInt(batchMaxQueriesValue);
 
+        if (searchCoalescer == null)
+        {
+            String maxWaiters = getServletConfig().getInitParameter("coalesce_max_waiters");
+            String timeout = getServletConfig().getInitParameter("coalesce_timeout_ms");
+            int maxWaitersValue = Strings.isNullOrEmpty(maxWaiters) ? SingleFlight.DEFAULT_MAX_WAITERS : Integer.parseInt(maxWaiters);
+            if (maxWaitersValue > 0)
+            {
+                searchCoalescer = new SingleFlight<List<Object>, EncodedResults>(maxWaitersValue,
+                        Strings.isNullOrEmpty(timeout) ? SingleFlight.DEFAULT_TIMEOUT_MILLIS : Integer.parseInt(timeout));
             }
-            catch (CorruptIndexException e)
+        }
+
+        if (slowQueryLog == null)
+        {
+            String slowQueryMillis = getServletConfig().getInitParameter("slowquery_ms");
+            int millis = Strings.isNullOrEmpty(slowQueryMillis) ? SlowQueryLog.DEFAULT_THRESHOLD_MILLIS : Integer.parseInt(slowQueryMillis);
+            if (millis > 0)
             {
-                if (resourceType.isUsedBySearchAll())
-                {
-                    isSearchAllEnabled = false;
-                }
+                slowQueryLog = new SlowQueryLog(millis);
             }
-            catch (IOException e)
+        }
+
+        if (warmupQueries == null)
+        {
+            String warmupSize = getServletConfig().getInitParameter("warmup_queries");
+            String warmupSampleRate = getServletConfig().getInitParameter("warmup_sample_rate");
+            int size = Strings.isNullOrEmpty(warmupSize) ? WarmupQueries.DEFAULT_SIZE : Integer.parseInt(warmupSize);
+            int sampleRate = Strings.isNullOrEmpty(warmupSampleRate) ? WarmupQueries.DEFAULT_SAMPLE_RATE : Integer.parseInt(warmupSampleRate);
+            isWarmupTouchFiles = Boolean.parseBoolean(getServletConfig().getInitParameter("warmup_touch_files"));
+            warmupDir = getServletConfig().getInitParameter("warmup_dir");
+            if (size > 0)
             {
-                if (resourceType.isUsedBySearchAll())
+                warmupQueries = new EnumMap<ResourceType, WarmupQueries>(ResourceType.class);
+                for (ResourceType resourceType : ResourceType.values())
                 {
-                    isSearchAllEnabled = false;
+                    WarmupQueries queries = new WarmupQueries(size, sampleRate);
+                    if (!Strings.isNullOrEmpty(warmupDir))
+                    {
+                        try
+                        {
+                            queries.load(getWarmupFile(resourceType));
+                        }
+                        catch (IOException e)
+                        {
+                            log.log(Level.WARNING, "Could not load warmup queries of " + resourceType.getName() + ": " + e.getMessage(), e);
+                        }
+                    }
+                    warmupQueries.put(resourceType, queries);
                 }
             }
-            catch (Exception e)
+        }
+
+        String maxPostings = getServletConfig().getInitParameter("querycost_max_postings");
+        String maxTerms = getServletConfig().getInitParameter("querycost_max_terms");
+        String maxExpansions = getServletConfig().getInitParameter("querycost_max_expansions");
+        long maxPostingsValue = Strings.isNullOrEmpty(maxPostings) ? QueryCostGuard.DEFAULT_MAX_POSTINGS : Long.parseLong(maxPostings);
+        long maxTermsValue = Strings.isNullOrEmpty(maxTerms) ? QueryCostGuard.DEFAULT_MAX_TERMS : Long.parseLong(maxTerms);
+        int maxExpansionsValue = Strings.isNullOrEmpty(maxExpansions) ? QueryCostGuard.DEFAULT_MAX_EXPANSIONS : Integer.parseInt(maxExpansions);
+        queryCostGuard = maxPostingsValue > 0 && maxTermsValue > 0 ? new QueryCostGuard(maxPostingsValue, maxTermsValue, maxExpansionsValue) : null;
+
+        if (useMMapDirectory)
+        {
+            log.info("Start:Loading Indexes from " + indexDir + ",Type:mmap," + "MaxHeap:" + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+        }
+        else
+        {
+            log.info("Start:loading Indexes from " + indexDir + ",Type:nfio," + "MaxHeap:" + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+        }
+
+        // Load and warm a complete new set of indexes, requests are served by the current set meanwhile. With no set to
+        // serve yet, indexes are published as they load, as soon as those the node needs to be ready have
+        IndexSet currentIndexSet = indexSet.get();
+        IndexSet newIndexSet = loadIndexSet(indexDir, useMMapDirectory, currentIndexSet == null);
+        if (newIndexSet == indexSet.get())
+        {
+            return "Indexes Loaded:";
+        }
+
+        currentIndexSet = indexSet.get();
+        String invalidIndexes = currentIndexSet != null ? validateIndexSet(newIndexSet, currentIndexSet) : "";
+        if (invalidIndexes.length() > 0)
+        {
+            // Keep searching the current indexes rather than publish a set missing some of them
+            log.severe("New indexes failed validation, keeping current indexes:" + invalidIndexes);
+            newIndexSet.release();
+            return "Indexes Not Loaded, kept current indexes, failed validation:" + invalidIndexes;
+        }
+
+        publishIndexSet(newIndexSet);
+        return "Indexes Loaded:";
+    }
+
+    /**
+     * Requests acquire whichever set is current when they start, so they never mix old and new indexes
+     *
+     * @param newIndexSet
+     */
+    private void publishIndexSet(IndexSet newIndexSet)
+    {
+        IndexSet oldIndexSet = indexSet.getAndSet(newIndexSet);
+        if (oldIndexSet != null)
+        {
+            // Closed once the requests still searching it have released it
+            oldIndexSet.release();
+        }
+    }
+
+    /**
+     * Load the search servers of all the resource types from the index directory, warming them up. Indexes are opened
+     * concurrently on a pool of init_threads threads, their state can be followed with the ready command meanwhile.
+     *
+     * @param indexDir
+     * @param useMMapDirectory
+     * @param isPublishedWhileLoading publish the indexes loaded so far once those of the required types have been
+     *                                loaded or have failed, then again as each of the others is loaded, rather than
+     *                                only returning the complete set
+     * @return set of the indexes that could be loaded, already published if isPublishedWhileLoading
+     */
+    private IndexSet loadIndexSet(final String indexDir, final boolean useMMapDirectory, boolean isPublishedWhileLoading)
+    {
+        EnumMap<ResourceType, SearchServer> searchers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+        EnumMap<ResourceType, SearchServer> dismaxSearchers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+        // Loaded since the set was last published
+        EnumMap<ResourceType, SearchServer> newSearchers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+        EnumMap<ResourceType, SearchServer> newDismaxSearchers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+        Set<ResourceType> pendingRequiredTypes = EnumSet.noneOf(ResourceType.class);
+        pendingRequiredTypes.addAll(indexReadiness.getRequiredTypes());
+        IndexSet publishedIndexSet = null;
+
+        indexReadiness.startLoad();
+        ExecutorService initExecutor = Executors.newFixedThreadPool(initThreads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("index-init-%d").build());
+        try
+        {
+            BlockingQueue<Future<AbstractDismaxSearchServer>> completed = new LinkedBlockingQueue<Future<AbstractDismaxSearchServer>>();
+            CompletionService<AbstractDismaxSearchServer> completionService = new ExecutorCompletionService<AbstractDismaxSearchServer>(initExecutor, completed);
+            Map<Future<AbstractDismaxSearchServer>, ResourceType> loads = new HashMap<Future<AbstractDismaxSearchServer>, ResourceType>();
+            for (final ResourceType resourceType : ResourceType.values())
             {
-                log.log(Level.WARNING, "Could not load " + resourceType.getIndexName() + " index: " + e.getMessage(), e);
-                if (resourceType.isUsedBySearchAll())
+                loads.put(completionService.submit(new Callable<AbstractDismaxSearchServer>()
                 {
-                    isSearchAllEnabled = false;
-                }
+                    @Override
+                    public AbstractDismaxSearchServer call()
+                    {
+                        AbstractDismaxSearchServer dismaxSearchServer = loadSearchServer(resourceType, indexDir, useMMapDirectory);
+                        indexReadiness.setLoaded(resourceType, dismaxSearchServer != null);
+                        return dismaxSearchServer;
+                    }
+                }), resourceType);
             }
 
-            // Close old search server, incRef/decRef counting will ensure not closed until no longer in use.
-            SearchServer oldSearchServer = searchers.get(resourceType);
-            if (oldSearchServer != null)
+            // Take each load as it completes
+            for (int i = 0; i < loads.size(); i++)
             {
+                Future<AbstractDismaxSearchServer> load = Uninterruptibles.takeUninterruptibly(completed);
+                ResourceType resourceType = loads.get(load);
+                AbstractDismaxSearchServer dismaxSearchServer = null;
                 try
                 {
-                    oldSearchServer.close();
+                    dismaxSearchServer = Uninterruptibles.getUninterruptibly(load);
                 }
-                catch (IOException e)
+                catch (ExecutionException e)
                 {
-                    log.severe("Caught exception during closing of index searcher within Init: " + resourceType.getIndexName() + ":" + e.getMessage());
+                    log.log(Level.WARNING, "Could not load " + resourceType.getIndexName() + " index: " + e.getMessage(), e);
                 }
-            }
 
-            // Add in new search server and set last updated date
-            searchers.put(resourceType, searchServer);
-            dismaxSearchers.put(resourceType, dismaxSearchServer);
+                if (dismaxSearchServer != null)
+                {
+                    searchers.put(resourceType, dismaxSearchServer.getSearchServer());
+                    dismaxSearchers.put(resourceType, dismaxSearchServer);
+                    newSearchers.put(resourceType, dismaxSearchServer.getSearchServer());
+                    newDismaxSearchers.put(resourceType, dismaxSearchServer);
+                }
+                pendingRequiredTypes.remove(resourceType);
 
+                if (isPublishedWhileLoading && pendingRequiredTypes.isEmpty()
+                        && (publishedIndexSet == null || !newSearchers.isEmpty()))
+                {
+                    publishedIndexSet = publishedIndexSet == null
+                            ? new IndexSet(newSearchers, newDismaxSearchers, isSearchAllEnabled(searchers))
+                            : publishedIndexSet.extend(newSearchers, newDismaxSearchers, isSearchAllEnabled(searchers));
+                    publishIndexSet(publishedIndexSet);
+                    newSearchers.clear();
+                    newDismaxSearchers.clear();
+                    log.info("Published indexes:" + searchers.keySet());
+                }
+            }
+        }
+        finally
+        {
+            initExecutor.shutdown();
         }
-        isServletInitialized = true;
+        return publishedIndexSet != null ? publishedIndexSet : new IndexSet(searchers, dismaxSearchers, isSearchAllEnabled(searchers));
+    }
 
+    /**
+     * @param searchers search servers loaded
+     * @return whether the indexes of all the resource types used by type=all are loaded
+     */
+    private static boolean isSearchAllEnabled(Map<ResourceType, SearchServer> searchers)
+    {
+        for (ResourceType resourceType : ResourceType.values())
+        {
+            if (resourceType.isUsedBySearchAll() && !searchers.containsKey(resourceType))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
-    @Override
-    public void destroy()
+    /**
+     * Open the index of a resource type and warm it up
+     *
+     * @param resourceType
+     * @param indexDir
+     * @param useMMapDirectory
+     * @return dismax search server wrapping the search server of the index, null if it couldn't be loaded
+     */
+    private AbstractDismaxSearchServer loadSearchServer(ResourceType resourceType, String indexDir, boolean useMMapDirectory)
     {
+        File indexFileDir = new File(indexDir + System.getProperty("file.separator") + resourceType.getIndexName() + "_index");
+
+        AbstractSearchServer searchServer = null;
+        AbstractDismaxSearchServer dismaxSearchServer = null;
 
-        // Close all search servers
-        for (SearchServer searchServer : searchers.values())
+        try
         {
-            if (searchServer == null)
+            MusicBrainzSearcherFactory searcherFactory = warmupQueries != null
+                    ? new WarmingSearcherFactory(resourceType, rewriteCacheBytes, warmupQueries.get(resourceType), isWarmupTouchFiles)
+                    : new MusicBrainzSearcherFactory(resourceType, rewriteCacheBytes);
+            IndexShards indexShards = null;
+            SearcherManager searcherManager;
+            if (!indexFileDir.exists() && new File(indexFileDir.getPath() + DatabaseIndex.SHARD_SUFFIX + 0).exists())
             {
-                continue;
+                // Index was built as shards, one searcher manager each
+                List<SearcherManager> shardSearcherManagers = new ArrayList<SearcherManager>();
+                File shardDir;
+                while ((shardDir = new File(indexFileDir.getPath() + DatabaseIndex.SHARD_SUFFIX + shardSearcherManagers.size())).exists())
+                {
+                    shardSearcherManagers.add(new SearcherManager(openDirectory(shardDir, useMMapDirectory), searcherFactory));
+                }
+                indexShards = new IndexShards(shardSearcherManagers.toArray(new SearcherManager[shardSearcherManagers.size()]));
+                searcherManager = indexShards.getSearcherManager(0);
+                log.info("Loading " + resourceType.getIndexName() + " index from " + indexShards.size() + " shards");
             }
-            try
+            else
             {
-                searchServer.close();
+                searcherManager = new SearcherManager(openDirectory(indexFileDir, useMMapDirectory), searcherFactory);
             }
-            catch (IOException e)
+            searchServer = resourceType.getSearchServerClass().getConstructor(SearcherManager.class).newInstance(searcherManager);
+            searchServer.setIndexShards(indexShards);
+            // Releases stored once for all recordings rather than in each of them
+            if (searchServer instanceof RecordingSearch && new File(indexDir, ReleaseSummaryStore.FILENAME).exists())
             {
-                log.severe("Caught exception during closing of index searcher: " + e.getMessage());
+                ((RecordingSearch) searchServer).setReleaseSummaries(new ReleaseSummaryCache(
+                        new ReleaseSummaryStore(openDirectory(new File(indexDir), useMMapDirectory)), releaseSummaryCacheSize));
             }
-        }
-        searchers.clear();
-        // Close all dismax search servers
-        for (SearchServer searchServer : dismaxSearchers.values())
-        {
-            if (searchServer == null)
+            dismaxSearchServer = resourceType.getDismaxSearchServerClass().getConstructor(AbstractSearchServer.class).newInstance(searchServer);
+            if (queryCache != null)
             {
-                continue;
+                searchServer.setQueryCache(queryCache, resourceType);
+                dismaxSearchServer.setQueryCache(queryCache, resourceType);
+            }
+            searchServer.setQueryCostGuard(queryCostGuard);
+            searchServer.setFilterCache(filterCache);
+            searchServer.setParallelSearch(parallelSearches.get(resourceType));
+
+            // Warm the new searchers up before the search servers are published, later searchers are warmed by the
+            // factory when the index is reloaded
+            if (searcherFactory instanceof WarmingSearcherFactory)
+            {
+                WarmingSearcherFactory warmingSearcherFactory = (WarmingSearcherFactory) searcherFactory;
+                warmingSearcherFactory.setSearchServers(searchServer, dismaxSearchServer);
+                for (int i = 0; i < (indexShards != null ? indexShards.size() : 1); i++)
+                {
+                    SearcherManager shardSearcherManager = indexShards != null ? indexShards.getSearcherManager(i) : searcherManager;
+                    IndexSearcher searcher = shardSearcherManager.acquire();
+                    try
+                    {
+                        warmingSearcherFactory.warm(searcher);
+                    }
+                    finally
+                    {
+                        shardSearcherManager.release(searcher);
+                    }
+                }
             }
+
+        }
+        catch (CorruptIndexException e)
+        {
+            dismaxSearchServer = null;
+        }
+        catch (IOException e)
+        {
+            dismaxSearchServer = null;
+        }
+        catch (Exception e)
+        {
+            log.log(Level.WARNING, "Could not load " + resourceType.getIndexName() + " index: " + e.getMessage(), e);
+            dismaxSearchServer = null;
+        }
+
+        if (dismaxSearchServer == null && searchServer != null)
+        {
+            // Loaded but failed while being set up
             try
             {
                 searchServer.close();
             }
             catch (IOException e)
             {
-                log.severe("Caught exception during closing of index searcher: " + e.getMessage());
+                log.severe("Caught exception during closing of index searcher within Init: " + resourceType.getIndexName() + ":" + e.getMessage());
             }
         }
-        dismaxSearchers.clear();
+        return dismaxSearchServer;
     }
 
     /**
-     * Init Rate Limiter
+     * A new set must have every index of the current set, with documents in it
+     *
+     * @param newIndexSet
+     * @param currentIndexSet
+     * @return the indexes that failed, empty if the new set can replace the current one
      */
-    private void initRateLimiter(String rateLimiterEnabled)
+    private String validateIndexSet(IndexSet newIndexSet, IndexSet currentIndexSet)
     {
-        String rateLimiterHost = getServletConfig().getInitParameter("ratelimitserver_host");
-        String rateLimiterPort = getServletConfig().getInitParameter("ratelimitserver_port");
-        isRateLimiterEnabled = Boolean.parseBoolean(rateLimiterEnabled);
-        if (isRateLimiterEnabled)
+        StringBuilder invalidIndexes = new StringBuilder();
+        for (ResourceType resourceType : currentIndexSet.getSearchServers().keySet())
         {
-            RateLimiterChecker.init(rateLimiterHost, rateLimiterPort);
+            SearchServer searchServer = newIndexSet.getSearchServer(resourceType, false);
+            try
+            {
+                if (searchServer == null || ((AbstractSearchServer) searchServer).getNumDocs() == 0)
+                {
+                    invalidIndexes.append(' ').append(resourceType.getIndexName());
+                }
+            }
+            catch (IOException e)
+            {
+                log.log(Level.WARNING, "Could not validate " + resourceType.getIndexName() + " index: " + e.getMessage(), e);
+                invalidIndexes.append(' ').append(resourceType.getIndexName());
+            }
         }
+        return invalidIndexes.toString();
     }
 
     /**
-     * If Index has just been updated (Documents added or removed from existing index) you can use this method to read the
-     * latest documents from the index.
+     * @return statistics of the release summaries of the current recording index
      */
-    protected void reloadIndexes()
+    private String getReleaseSummaryStatsMessage()
     {
-        // We iterate over searchers only, since dismaxSearchers share the exact same SearcherManagers
-        for (SearchServer searchServer : searchers.values())
+        IndexSet currentIndexSet = acquireIndexSet();
+        if (currentIndexSet == null)
         {
-            if (searchServer == null)
+            return "disabled";
+        }
+        try
+        {
+            SearchServer searchServer = currentIndexSet.getSearchServer(ResourceType.RECORDING, false);
+            if (searchServer instanceof RecordingSearch && ((RecordingSearch) searchServer).getReleaseSummaries() != null)
             {
-                continue;
+                return ((RecordingSearch) searchServer).getReleaseSummaries().getStatsMessage();
             }
-            try
+            return "disabled";
+        }
+        finally
+        {
+            currentIndexSet.release();
+        }
+    }
+
+    private File getWarmupFile(ResourceType resourceType)
+    {
+        return new File(warmupDir, "warmup_" + resourceType.getName() + ".txt");
+    }
+
+    private static Directory openDirectory(File indexFileDir, boolean useMMapDirectory) throws IOException
+    {
+        return useMMapDirectory ? new MMapDirectory(indexFileDir) : new NIOFSDirectory(indexFileDir);
+    }
+
+    @Override
+    public void destroy()
+    {
+        RateLimiterChecker.close();
+
+        // Close all search servers, once the requests still running have released them. Waits for an init still
+        // loading indexes so that it doesn't publish them afterwards.
+        synchronized (this)
+        {
+            IndexSet oldIndexSet = indexSet.getAndSet(null);
+            if (oldIndexSet != null)
             {
-                searchServer.reloadIndex();
+                oldIndexSet.release();
             }
-            catch (IOException e)
+        }
+
+        if (parallelSearches != null)
+        {
+            for (ParallelSearch parallelSearch : parallelSearches.values())
+            {
+                parallelSearch.shutdown();
+            }
+            parallelSearches = null;
+        }
+
+        if (searchWorkers != null)
+        {
+            searchWorkers.shutdown();
+            searchWorkers = null;
+        }
+
+        if (slowQueryLog != null)
+        {
+            slowQueryLog.shutdown();
+            slowQueryLog = null;
+        }
+
+        if (warmupQueries != null)
+        {
+            // Keep the samples for when the servlet is started again
+            if (!Strings.isNullOrEmpty(warmupDir))
             {
-                log.severe("Caught exception during reopening of index: " + e.getMessage());
+                for (ResourceType resourceType : warmupQueries.keySet())
+                {
+                    try
+                    {
+                        warmupQueries.get(resourceType).save(getWarmupFile(resourceType));
+                    }
+                    catch (IOException e)
+                    {
+                        log.log(Level.WARNING, "Could not save warmup queries of " + resourceType.getName() + ": " + e.getMessage(), e);
+                    }
+                }
             }
+            warmupQueries = null;
         }
 
+        if (queryCache != null)
+        {
+            queryCache.clear();
+        }
     }
 
     /**
-     * Ensures that admin requests are coming direct from local machine
-     *
-     * @param request
-     * @return true if request has come from server, false otherwise
+     * Init Rate Limiter
      */
-    private boolean isRequestFromLocalHost(HttpServletRequest request)
+    private void initRateLimiter(String rateLimiterEnabled)
+    {
+        isRateLimiterEnabled = Boolean.parseBoolean(rateLimiterEnabled);
+        if (!isRateLimiterEnabled)
+        {
+            RateLimiterChecker.close();
+            return;
+        }
+
+        // Rate limit in process unless configured to ask the rate limit server
+        if (RateLimiterChecker.MODE_UDP.equals(getServletConfig().getInitParameter("ratelimit_mode")))
+        {
+            String rateLimiterHost = getServletConfig().getInitParameter("ratelimitserver_host");
+            String rateLimiterPort = getServletConfig().getInitParameter("ratelimitserver_port");
+            String timeout = getServletConfig().getInitParameter("ratelimitserver_timeout_ms");
+            int timeoutMillis = Strings.isNullOrEmpty(timeout) ? RateLimiterChecker.DEFAULT_TIMEOUT_MILLIS : Integer.parseInt(timeout);
+            RateLimiterChecker.initUdp(rateLimiterHost, rateLimiterPort, timeoutMillis);
+        }
+        else
+        {
+            String requests = getServletConfig().getInitParameter("ratelimit_requests");
+            String period = getServletConfig().getInitParameter("ratelimit_period");
+            RateLimiterChecker.initLocal(
+                    Strings.isNullOrEmpty(requests) ? RateLimiterChecker.DEFAULT_REQUESTS : Integer.parseInt(requests),
+                    Strings.isNullOrEmpty(period) ? RateLimiterChecker.DEFAULT_PERIOD : Integer.parseInt(period));
+        }
+    }
+
+    /**
+     * If Index has just been updated (Documents added or removed from existing index) you can use this method to read the
+     * latest documents from the index.
+     */
+    protected void reloadIndexes()
     {
+        IndexSet currentIndexSet = acquireIndexSet();
+        if (currentIndexSet == null)
+        {
+            return;
+        }
+        try
+        {
+            // We iterate over searchers only, since dismaxSearchers share the exact same SearcherManagers
+            for (SearchServer searchServer : currentIndexSet.getSearchServers().values())
+            {
+                try
+                {
+                    searchServer.reloadIndex();
+                }
+                catch (IOException e)
+                {
+                    log.severe("Caught exception during reopening of index: " + e.getMessage());
+                }
+            }
+        }
+        finally
+        {
+            currentIndexSet.release();
+        }
+    }
+
+    /**
+     * Acquire the current set of indexes, must be released once the request is done with it
+     *
+     * @return null if no indexes have been loaded
+     */
+    private IndexSet acquireIndexSet()
+    {
+        while (true)
+        {
+            IndexSet currentIndexSet = indexSet.get();
+            // Only fails if the set has just been replaced and closed, the next one is then current
+            if (currentIndexSet == null || currentIndexSet.tryAcquire())
+            {
+                return currentIndexSet;
+            }
+        }
+    }
+
+    /**
+     * Ensures that admin requests are coming direct from local machine
+     *
+     * @param request
+     * @return true if request has come from server, false otherwise
+     */
+    private boolean isRequestFromLocalHost(HttpServletRequest request)
+    {
+
+        if (isAdminRemoteEnabled || (request.getRemoteAddr().equals("127.0.0.1")) || (request.getRemoteAddr().equals("0:0:0:0:0:0:0:1")))
+        {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Output plain text confirmation of  an admin command
+     *
+     * @param response
+     * @param msg
+     * @throws IOException
+     */
+    private void outputConfirmation( HttpServletResponse response, String msg) throws IOException
+    {
+        response.setCharacterEncoding(CHARSET);
+        response.setContentType("text/plain; charset=UTF-8; charset=UTF-8");
+        response.getWriter().println(msg);
+        response.getWriter().close();
+    }
+
+    /**
+     * Has an admin command been made, if so deal with it now and then return
+     *
+     * @param request
+     * @param response
+     * @return true if admin command, false otherwise
+     * @throws IOException
+     */
+    private boolean processedAdminCommand(HttpServletRequest request, HttpServletResponse response)
+        throws IOException
+    {
+        // Force initialization of search server should be called when index have been replaced by new indexes
+        String init = request.getParameter(RequestParameter.INIT.getName());
+        if (init != null)
+        {
+            if (isRequestFromLocalHost(request))
+            {
+                outputConfirmation( response, init(init.equals("mmap")));
+                return true;
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return true;
+            }
+
+        }
+
+        // Enabled/Disable Rate Limiter
+        String rate = request.getParameter(RequestParameter.RATE.getName());
+        if (rate != null)
+        {
+            if (isRequestFromLocalHost(request))
+            {
+                initRateLimiter(rate);
+                outputConfirmation( response, "Rate Limiter:" + rate);
+                return true ;
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return true ;
+            }
+        }
+
+        // Reopen the indexes in an efficient way when existing indexes have been updated (not replaced)
+        String reloadIndexes = request.getParameter(RequestParameter.RELOAD_INDEXES.getName());
+        if (reloadIndexes != null)
+        {
+            if (isRequestFromLocalHost(request))
+            {
+                reloadIndexes();
+                outputConfirmation( response, "Indexes Reloaded");
+                return true ;
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return true ;
+            }
+        }
+
+        // Output query cache statistics
+        String queryCacheCommand = request.getParameter(RequestParameter.QUERY_CACHE.getName());
+        if (queryCacheCommand != null)
+        {
+            if (isRequestFromLocalHost(request))
+            {
+                outputConfirmation( response, (queryCache != null ? "Query Cache:" + queryCache.getStatsMessage() : "Query Cache:disabled")
+                        + "\nRewrite Cache:" + RewriteCache.getStatsMessage()
+                        + "\nFilter Cache:" + (filterCache != null ? filterCache.getStatsMessage() : "disabled")
+                        + "\nCoalesced Searches:" + (searchCoalescer != null ? searchCoalescer.getStatsMessage() : "disabled")
+                        + "\nRelease Summaries:" + getReleaseSummaryStatsMessage());
+                return true ;
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return true ;
+            }
+        }
+
+        // Output latency histograms and counters of searches, as json if asked for
+        String metrics = request.getParameter(RequestParameter.METRICS.getName());
+        if (metrics != null)
+        {
+            if (isRequestFromLocalHost(request))
+            {
+                if (metrics.equals("json"))
+                {
+                    response.setCharacterEncoding(CHARSET);
+                    response.setContentType("application/json; charset=UTF-8");
+                    response.getWriter().println(searchMetrics.getStatsJson());
+                    response.getWriter().close();
+                }
+                else
+                {
+                    outputConfirmation( response, searchMetrics.getStatsMessage()
+                            + (searchWorkers != null ? "workers:\n" + searchWorkers.getStatsMessage() : "workers:disabled\n")
+                            + (admissionController != null ? "admission:\n" + admissionController.getStatsMessage() : "admission:disabled"));
+                }
+                return true ;
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return true ;
+            }
+        }
+
+        // Output the slowest of the recent slow queries
+        String slowQueries = request.getParameter(RequestParameter.SLOW_QUERIES.getName());
+        if (slowQueries != null)
+        {
+            if (isRequestFromLocalHost(request))
+            {
+                int n = Strings.isNullOrEmpty(slowQueries) || slowQueries.equals("true") ? DEFAULT_SLOW_QUERIES : Integer.parseInt(slowQueries);
+                outputConfirmation( response, slowQueryLog != null ? slowQueryLog.getSlowestMessage(n) : "Slow Query Log:disabled");
+                return true ;
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return true ;
+            }
+        }
+
+        // Force GC
+        String gc = request.getParameter(RequestParameter.GC.getName());
+        if (gc != null)
+        {
+            if (isRequestFromLocalHost(request))
+            {
+                System.gc();
+                outputConfirmation( response, "Garbage Collection Requested");
+                return true ;
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return true ;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        // Before any parameter is read
+        request.setCharacterEncoding(CHARSET);
+
+        final long start = System.nanoTime();
+
+        // Low priority searches are turned away first when those of their resource type in flight are too costly
+        final AdmissionController.Admission admission = admit(request);
+        if (admission != null && !admission.isAdmitted())
+        {
+            response.setHeader(HEADER_RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ErrorMessage.SEARCHES_SHED.getMsg(request.getParameter(RequestParameter.TYPE.getName())));
+            ResourceType resourceType = getResourceType(request);
+            if (resourceType != null)
+            {
+                searchMetrics.increment(resourceType, SearchMetrics.Counter.SHED);
+                searchMetrics.recordRequest(resourceType, HttpServletResponse.SC_SERVICE_UNAVAILABLE, System.nanoTime() - start);
+            }
+            return;
+        }
+
+        boolean isHandedOver = false;
+        try
+        {
+            // Searches are run on the worker pool of their resource type, giving the container's thread back straight away
+            String type = request.getParameter(RequestParameter.TYPE.getName());
+            if (searchWorkers != null && type != null && request.getParameter(RequestParameter.COUNT.getName()) == null
+                    && request.isAsyncSupported() && indexSet.get() != null)
+            {
+                final ResourceType resourceType = getResourceType(request);
+                if (resourceType != null || type.equalsIgnoreCase(TYPE_ALL))
+                {
+                    // Keeps the request as forwarded by the url rewrite filter
+                    final AsyncContext asyncContext = request.startAsync(request, response);
+                    // Searches are already time limited
+                    asyncContext.setTimeout(0);
+                    isHandedOver = searchWorkers.execute(resourceType, new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                processRequest((HttpServletRequest) asyncContext.getRequest(), (HttpServletResponse) asyncContext.getResponse(), admission, start);
+                            }
+                            catch (IOException e)
+                            {
+                                log.log(Level.WARNING, "Could not send search results: " + e.getMessage(), e);
+                            }
+                            finally
+                            {
+                                if (admission != null)
+                                {
+                                    admission.release();
+                                }
+                                asyncContext.complete();
+                            }
+                        }
+                    });
+                    if (!isHandedOver)
+                    {
+                        try
+                        {
+                            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ErrorMessage.SEARCHES_SATURATED.getMsg(type));
+                            if (resourceType != null)
+                            {
+                                searchMetrics.increment(resourceType, SearchMetrics.Counter.REJECTED);
+                                searchMetrics.recordRequest(resourceType, HttpServletResponse.SC_SERVICE_UNAVAILABLE, System.nanoTime() - start);
+                            }
+                        }
+                        finally
+                        {
+                            asyncContext.complete();
+                        }
+                    }
+                    return;
+                }
+            }
+            processRequest(request, response, admission, start);
+        }
+        finally
+        {
+            // Searches handed over to a worker are released when done
+            if (admission != null && !isHandedOver)
+            {
+                admission.release();
+            }
+        }
+    }
+
+    /**
+     * Ask the admission controller to let the search in, searches are low priority when rate limited on behalf of the
+     * web service, normal priority when of type=all or dismax and high priority otherwise
+     *
+     * @param request
+     * @return null if the request isn't a search or admission control is disabled
+     */
+    private AdmissionController.Admission admit(HttpServletRequest request)
+    {
+        String type = request.getParameter(RequestParameter.TYPE.getName());
+        if (admissionController == null || type == null || request.getParameter(RequestParameter.COUNT.getName()) != null)
+        {
+            return null;
+        }
+        ResourceType resourceType = getResourceType(request);
+        boolean isAll = resourceType == null;
+        if (isAll && !type.equalsIgnoreCase(TYPE_ALL))
+        {
+            return null;
+        }
+        boolean isDismax = "true".equals(request.getParameter(RequestParameter.DISMAX.getName()));
+        return admissionController.admit(isAll ? TYPE_ALL : resourceType.getName(), isDismax,
+                AdmissionController.getPriority(RateLimiterChecker.isRateLimitApplied(request), isAll, isDismax));
+    }
+
+    /**
+     * Tell the admission controller the search has run, its latency then counts towards the cost of searches
+     *
+     * @param admission null if the search wasn't asked to be let in
+     */
+    private static void setSearched(AdmissionController.Admission admission)
+    {
+        if (admission != null)
+        {
+            admission.setSearched();
+        }
+    }
+
+    /**
+     * Batch of searches, posted as a json array and answered with one document holding the results of each
+     *
+     * @param request
+     * @param response
+     * @throws ServletException
+     * @throws IOException
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        request.setCharacterEncoding(CHARSET);
+        IndexSet acquiredIndexSet = null;
+        try
+        {
+            if (indexSet.get() == null)
+            {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ErrorMessage.SERVLET_INIT_FAILED.getMsg(initMessage));
+                return;
+            }
+
+            List<BatchQuery> queries;
+            try
+            {
+                queries = BatchQuery.parse(request.getReader(), batchMaxQueries, DEFAULT_MATCHES_LIMIT, MAX_MATCHES_LIMIT);
+            }
+            catch (BatchQuery.TooLargeException e)
+            {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, ErrorMessage.BATCH_TOO_LARGE.getMsg(e.getSize(), batchMaxQueries));
+                return;
+            }
+            catch (IOException e)
+            {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, ErrorMessage.UNABLE_TO_PARSE_BATCH.getMsg(e.getMessage()));
+                return;
+            }
+
+            // The batch is checked once, counting each of its searches
+            if (isRateLimiterEnabled)
+            {
+                RateLimiterChecker.RateLimiterResponse rateLimiterResponse = RateLimiterChecker.checkRateLimiter(request, queries.size());
+                if (!rateLimiterResponse.isValid())
+                {
+                    if (rateLimiterResponse.getHeaderMsg() != null)
+                    {
+                        response.setHeader(RateLimiterChecker.HEADER_RATE_LIMITED, rateLimiterResponse.getHeaderMsg());
+                    }
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rateLimiterResponse.getMsg());
+                    return;
+                }
+            }
+
+            acquiredIndexSet = acquireIndexSet();
+            if (acquiredIndexSet == null)
+            {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ErrorMessage.SERVLET_INIT_FAILED.getMsg(initMessage));
+                return;
+            }
+            doBatchSearch(response, acquiredIndexSet, queries, RateLimiterChecker.isRateLimitApplied(request), getResponseFormat(request),
+                    "true".equals(request.getParameter(RequestParameter.PRETTY.getName())));
+        }
+        finally
+        {
+            if (acquiredIndexSet != null)
+            {
+                acquiredIndexSet.release();
+            }
+        }
+    }
+
+    /**
+     * Search of a batch run on the worker pool of its resource type, releasing its admission once it has run, or has
+     * been cancelled
+     */
+    private static class BatchSearch extends FutureTask<EncodedResults>
+    {
+        private final AdmissionController.Admission admission;
+        private final AtomicBoolean isReleased = new AtomicBoolean();
+
+        BatchSearch(Callable<EncodedResults> search, AdmissionController.Admission admission)
+        {
+            super(search);
+            this.admission = admission;
+        }
+
+        @Override
+        public void run()
+        {
+            // Also called for a search cancelled while queued, which then returns straight away
+            try
+            {
+                super.run();
+            }
+            finally
+            {
+                release();
+            }
+        }
 
-        if (isAdminRemoteEnabled || (request.getRemoteAddr().equals("127.0.0.1")) || (request.getRemoteAddr().equals("0:0:0:0:0:0:0:1")))
+        void release()
         {
-            return true;
+            if (admission != null && isReleased.compareAndSet(false, true))
+            {
+                admission.release();
+            }
         }
-        return false;
     }
 
     /**
-     * Output plain text confirmation of  an admin command
+     * Run the searches of a batch in parallel and write their results in the order they were posted, as soon as each
+     * is available
      *
-     * @param response
-     * @param msg
-     * @throws IOException
-     */
-    private void outputConfirmation( HttpServletResponse response, String msg) throws IOException
-    {
-        response.setCharacterEncoding(CHARSET);
-        response.setContentType("text/plain; charset=UTF-8; charset=UTF-8");
-        response.getWriter().println(msg);
-        response.getWriter().close();
-    }
-
-    /**
-     * Has an admin command been made, if so deal with it now and then return
+     * Each search is let in by the admission controller and run on the worker pool of its resource type like a single
+     * search, so a batch can't get round either; those shed or rejected are answered with an error in their place.
      *
-     * @param request
      * @param response
-     * @return true if admin command, false otherwise
+     * @param indexSet indexes acquired for the request
+     * @param queries
+     * @param isAnonymous rate limited on behalf of the web service
+     * @param responseFormat
+     * @param isPretty
      * @throws IOException
      */
-    private boolean processedAdminCommand(HttpServletRequest request, HttpServletResponse response)
-        throws IOException
+    private void doBatchSearch(HttpServletResponse response, final IndexSet indexSet, List<BatchQuery> queries, boolean isAnonymous,
+                               final String responseFormat, final boolean isPretty) throws IOException
     {
-        // Force initialization of search server should be called when index have been replaced by new indexes
-        String init = request.getParameter(RequestParameter.INIT.getName());
-        if (init != null)
+        List<BatchSearch> results = new ArrayList<BatchSearch>(queries.size());
+        // Why the search of the batch couldn't run, if it was shed or rejected
+        String[] refusals = new String[queries.size()];
+        for (int i = 0; i < queries.size(); i++)
         {
-            if (isRequestFromLocalHost(request))
+            final BatchQuery query = queries.get(i);
+            final SearchServer searchServer = query.getResourceType() != null && query.getQuery() != null
+                    ? indexSet.getSearchServer(query.getResourceType(), query.isDismax()) : null;
+            if (searchServer == null)
             {
-                init(init.equals("mmap"));
-                outputConfirmation( response, "Indexes Loaded:");
-                return true;
+                results.add(null);
+                continue;
             }
-            else
+
+            AdmissionController.Admission admission = null;
+            if (admissionController != null)
             {
-                response.sendError(HttpServletResponse.SC_FORBIDDEN);
-                return true;
+                admission = admissionController.admit(query.getResourceType().getName(), query.isDismax(),
+                        AdmissionController.getPriority(isAnonymous, false, query.isDismax()));
+                if (!admission.isAdmitted())
+                {
+                    refusals[i] = ErrorMessage.SEARCHES_SHED.getMsg(query.getType());
+                    searchMetrics.increment(query.getResourceType(), SearchMetrics.Counter.SHED);
+                    results.add(null);
+                    continue;
+                }
             }
 
-        }
-
-        // Enabled/Disable Rate Limiter
-        String rate = request.getParameter(RequestParameter.RATE.getName());
-        if (rate != null)
-        {
-            if (isRequestFromLocalHost(request))
+            final AdmissionController.Admission searchAdmission = admission;
+            BatchSearch search = new BatchSearch(new Callable<EncodedResults>()
             {
-                initRateLimiter(rate);
-                outputConfirmation( response, "Rate Limiter:" + rate);
-                return true ;
-            }
-            else
+                @Override
+                public EncodedResults call() throws Exception
+                {
+                    // Searches left running when the request ends keep the indexes open until they are done
+                    if (!indexSet.tryAcquire())
+                    {
+                        throw new IOException(ErrorMessage.INDEX_NOT_AVAILABLE_FOR_TYPE.getMsg(query.getType()));
+                    }
+                    try
+                    {
+                        EncodedResults results = searchAndEncode(searchServer, searchServer.getWriter(WS_VERSION_2), query.getResourceType(), query.getQuery(),
+                                query.isDismax(), isPretty, query.getOffset(), query.getLimit(), responseFormat);
+                        setSearched(searchAdmission);
+                        return results;
+                    }
+                    catch (TimeExceededException e)
+                    {
+                        setSearched(searchAdmission);
+                        throw e;
+                    }
+                    finally
+                    {
+                        indexSet.release();
+                    }
+                }
+            }, admission);
+            // Without worker pools each search is run when its results are written
+            if (searchWorkers != null && !searchWorkers.execute(query.getResourceType(), search))
             {
-                response.sendError(HttpServletResponse.SC_FORBIDDEN);
-                return true ;
+                search.release();
+                refusals[i] = ErrorMessage.SEARCHES_SATURATED.getMsg(query.getType());
+                searchMetrics.increment(query.getResourceType(), SearchMetrics.Counter.REJECTED);
+                results.add(null);
+                continue;
             }
+            results.add(search);
         }
 
-        // Reopen the indexes in an efficient way when existing indexes have been updated (not replaced)
-        String reloadIndexes = request.getParameter(RequestParameter.RELOAD_INDEXES.getName());
-        if (reloadIndexes != null)
+        response.setCharacterEncoding(CHARSET);
+        response.setContentType(BatchWriter.getMimeType(responseFormat));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), CHARSET)));
+        try
         {
-            if (isRequestFromLocalHost(request))
+            BatchWriter writer = new BatchWriter(out, responseFormat);
+            writer.start(queries.size());
+            for (int i = 0; i < queries.size(); i++)
             {
-                reloadIndexes();
-                outputConfirmation( response, "Indexes Reloaded");
-                return true ;
+                BatchQuery query = queries.get(i);
+                BatchSearch result = results.get(i);
+                if (query.getResourceType() == null)
+                {
+                    writer.writeError(i, query, HttpServletResponse.SC_BAD_REQUEST, ErrorMessage.UNKNOWN_RESOURCE_TYPE.getMsg(query.getType()));
+                }
+                else if (query.getQuery() == null)
+                {
+                    writer.writeError(i, query, HttpServletResponse.SC_BAD_REQUEST, ErrorMessage.NO_QUERY_PARAMETER.getMsg());
+                }
+                else if (refusals[i] != null)
+                {
+                    writer.writeError(i, query, HttpServletResponse.SC_SERVICE_UNAVAILABLE, refusals[i]);
+                }
+                else if (result == null)
+                {
+                    writer.writeError(i, query, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorMessage.INDEX_NOT_AVAILABLE_FOR_TYPE.getMsg(query.getType()));
+                }
+                else
+                {
+                    if (searchWorkers == null)
+                    {
+                        result.run();
+                    }
+                    try
+                    {
+                        writer.writeResults(i, query, new String(Uninterruptibles.getUninterruptibly(result).body, CHARSET));
+                    }
+                    catch (ExecutionException e)
+                    {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof QueryTooExpensiveException)
+                        {
+                            writer.writeError(i, query, HttpServletResponse.SC_BAD_REQUEST, cause.getMessage());
+                        }
+                        else if (cause instanceof ParseException)
+                        {
+                            writer.writeError(i, query, HttpServletResponse.SC_BAD_REQUEST, ErrorMessage.UNABLE_TO_PARSE_SEARCH.getMsg(query.getQuery()));
+                        }
+                        else if (cause instanceof TimeExceededException)
+                        {
+                            log.info("Query timeout: " + query.getQuery());
+                            writer.writeError(i, query, HttpServletResponse.SC_REQUEST_TIMEOUT, ErrorMessage.REQUEST_TIMEOUT_EXCEEDED.getMsg());
+                        }
+                        else
+                        {
+                            searchMetrics.increment(query.getResourceType(), SearchMetrics.Counter.ERRORS);
+                            log.log(Level.WARNING, query.getQuery() + ":" + cause.getMessage(), cause);
+                            writer.writeError(i, query, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, cause.getMessage());
+                        }
+                    }
+                }
             }
-            else
+            writer.end();
+        }
+        finally
+        {
+            // Searches not yet started aren't needed any more if the client has gone away, those never run release
+            // their admission here
+            for (BatchSearch result : results)
             {
-                response.sendError(HttpServletResponse.SC_FORBIDDEN);
-                return true ;
+                if (result != null)
+                {
+                    result.cancel(false);
+                    if (searchWorkers == null)
+                    {
+                        result.release();
+                    }
+                }
             }
+            out.close();
         }
+    }
 
-        // Force GC
-        String gc = request.getParameter(RequestParameter.GC.getName());
-        if (gc != null)
+    /**
+     * Process the request, recording how long it took
+     *
+     * @param request
+     * @param response
+     * @param admission admission of the search, null if it wasn't asked to be let in
+     * @param start when the request was received
+     * @throws IOException
+     */
+    private void processRequest(HttpServletRequest request, HttpServletResponse response, AdmissionController.Admission admission, long start) throws IOException
+    {
+        try
         {
-            if (isRequestFromLocalHost(request))
-            {
-                System.gc();
-                outputConfirmation( response, "Garbage Collection Requested");
-                return true ;
-            }
-            else
+            doSearchRequest(request, response, admission);
+        }
+        finally
+        {
+            ResourceType resourceType = getResourceType(request);
+            if (resourceType != null)
             {
-                response.sendError(HttpServletResponse.SC_FORBIDDEN);
-                return true ;
+                searchMetrics.recordRequest(resourceType, response.getStatus(), System.nanoTime() - start);
             }
         }
-        return false;
     }
 
-    @Override
-    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    /**
+     * @param request
+     * @return the resource type searched, or null if it isn't a search of a single resource type
+     */
+    private static ResourceType getResourceType(HttpServletRequest request)
+    {
+        String type = request.getParameter(RequestParameter.TYPE.getName());
+        if (type == null || request.getParameter(RequestParameter.COUNT.getName()) != null)
+        {
+            return null;
+        }
+        return ResourceType.getValue(type.equals(TYPE_TRACK) ? ResourceType.RECORDING.getName() : type);
+    }
+
+    /**
+     * @param request
+     * @param response
+     * @param admission admission of the search, told once the search has run so that requests answered before
+     *                  searching don't count towards the cost of searches
+     * @throws IOException
+     */
+    private void doSearchRequest(HttpServletRequest request, HttpServletResponse response, AdmissionController.Admission admission) throws IOException
     {
         String query = "";
+        IndexSet acquiredIndexSet = null;
         try
         {
-            // Check if servlet is initialized ok
-            if (!isServletInitialized)
+            // Readiness for load balancers, answered from anywhere and while the indexes are being loaded
+            if (request.getParameter(RequestParameter.READY.getName()) != null)
             {
-                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorMessage.SERVLET_INIT_FAILED.getMsg(initMessage));
+                IndexSet currentIndexSet = indexSet.get();
+                if (!indexReadiness.isReady(currentIndexSet))
+                {
+                    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+                outputConfirmation( response, indexReadiness.getStatusMessage(currentIndexSet));
+                return;
+            }
+
+            // Check if servlet is initialized ok, indexes are still being loaded until the first set is published
+            if (indexSet.get() == null)
+            {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ErrorMessage.SERVLET_INIT_FAILED.getMsg(initMessage));
                 return;
             }
             // Ensure encoding set to UTF8
@@ -408,6 +1488,14 @@ public class SearchServerServlet extends HttpServlet
                 return;
             }
 
+            // The whole request searches the same indexes, even if they are replaced meanwhile
+            acquiredIndexSet = acquireIndexSet();
+            if (acquiredIndexSet == null)
+            {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorMessage.SERVLET_INIT_FAILED.getMsg(initMessage));
+                return;
+            }
+
             // If we receive Count Parameter then we just return a count immediately, the options are the same as for the type
             // parameter
             String count = request.getParameter(RequestParameter.COUNT.getName());
@@ -420,7 +1508,12 @@ public class SearchServerServlet extends HttpServlet
                     return;
                 }
 
-                SearchServer searchServerCount = searchers.get(resourceType);
+                SearchServer searchServerCount = acquiredIndexSet.getSearchServer(resourceType, false);
+                if (searchServerCount == null)
+                {
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorMessage.INDEX_NOT_AVAILABLE_FOR_TYPE.getMsg(resourceType));
+                    return;
+                }
                 outputConfirmation( response, searchServerCount.getCount());
                 return;
             }
@@ -456,7 +1549,7 @@ public class SearchServerServlet extends HttpServlet
                     return;
                 }
             }
-            else if (!isSearchAllEnabled)
+            else if (!acquiredIndexSet.isSearchAllEnabled())
             {
                 response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorMessage.INDEX_NOT_AVAILABLE_FOR_TYPE.getMsg(TYPE_ALL));
                 return;
@@ -486,25 +1579,7 @@ public class SearchServerServlet extends HttpServlet
             // Response Format, first defined by fmt parameter, if not set defined by accept header, if not set default
             // to Xml. Note if accept header set to json this will set format to RESPONSE_JSON_NEW not RESPONSE_JSON (the
             // old internal format)
-            String responseFormat = request.getParameter(RequestParameter.FORMAT.getName());
-            if (Strings.isNullOrEmpty(responseFormat))
-            {
-                Enumeration<String> headers = request.getHeaders("Accept");
-                while (headers.hasMoreElements())
-                {
-                    String nextHeader = headers.nextElement();
-                    if (nextHeader.equals("application/json"))
-                    {
-                        responseFormat = RESPONSE_JSON_NEW;
-                        break;
-                    }
-                }
-                // Default to xml if not provided
-                if (responseFormat == null)
-                {
-                    responseFormat = RESPONSE_XML;
-                }
-            }
+            String responseFormat = getResponseFormat(request);
 
             String responseVersion = request.getParameter(RequestParameter.VERSION.getName());
             if (Strings.isNullOrEmpty(responseVersion))
@@ -562,24 +1637,36 @@ public class SearchServerServlet extends HttpServlet
                 isDismax = true;
             }
 
+            long startSearch = System.nanoTime();
             try 
             {
                 if (resourceType != null)
                 {
-                    doSearch(response, resourceType, query, isDismax, isExplain, isPretty, offset, limit, responseFormat, responseVersion);
+                    doSearch(response, acquiredIndexSet, resourceType, query, isDismax, isExplain, isPretty, offset, limit, responseFormat, responseVersion);
                 }
                 else
                 {
-                    doAllSearch(response, query, isDismax, offset, limit, responseFormat, isPretty);
+                    doAllSearch(response, acquiredIndexSet, query, isDismax, offset, limit, responseFormat, isPretty);
                 }
+                setSearched(admission);
             }
             catch (TimeExceededException tee)
             {
+                setSearched(admission);
                 log.info("Query timeout: " + query);
+                if (slowQueryLog != null && resourceType != null)
+                {
+                    slowQueryLog.offerTimeout(resourceType, isDismax, query, System.nanoTime() - startSearch);
+                }
                 response.sendError(HttpServletResponse.SC_REQUEST_TIMEOUT, ErrorMessage.REQUEST_TIMEOUT_EXCEEDED.getMsg());
                 return;
             }
         }
+        catch (QueryTooExpensiveException qte)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, qte.getMessage());
+            return;
+        }
         catch (ParseException pe)
         {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, ErrorMessage.UNABLE_TO_PARSE_SEARCH.getMsg(query));
@@ -600,16 +1687,69 @@ public class SearchServerServlet extends HttpServlet
         }
         catch (Exception e)
         {
+            countError(request);
             log.log(Level.WARNING, query + ":" + e.getMessage(), e);
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
             return;
         }
         catch (Throwable t)
         {
+            countError(request);
             log.log(Level.WARNING, query + ":" + t.getMessage(), t);
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST, t.getMessage());
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, t.getMessage());
             return;
         }
+        finally
+        {
+            if (acquiredIndexSet != null)
+            {
+                acquiredIndexSet.release();
+            }
+        }
+    }
+
+    /**
+     * Response Format, first defined by fmt parameter, if not set defined by accept header, if not set default to Xml.
+     *
+     * @param request
+     * @return
+     */
+    private static String getResponseFormat(HttpServletRequest request)
+    {
+        String responseFormat = request.getParameter(RequestParameter.FORMAT.getName());
+        if (Strings.isNullOrEmpty(responseFormat))
+        {
+            Enumeration<String> headers = request.getHeaders("Accept");
+            while (headers.hasMoreElements())
+            {
+                String nextHeader = headers.nextElement();
+                if (nextHeader.equals("application/json"))
+                {
+                    responseFormat = RESPONSE_JSON_NEW;
+                    break;
+                }
+            }
+            // Default to xml if not provided
+            if (responseFormat == null)
+            {
+                responseFormat = RESPONSE_XML;
+            }
+        }
+        return responseFormat;
+    }
+
+    /**
+     * Count a search that failed with an unexpected exception
+     *
+     * @param request
+     */
+    private void countError(HttpServletRequest request)
+    {
+        ResourceType resourceType = getResourceType(request);
+        if (resourceType != null)
+        {
+            searchMetrics.increment(resourceType, SearchMetrics.Counter.ERRORS);
+        }
     }
 
     /**
@@ -636,6 +1776,7 @@ public class SearchServerServlet extends HttpServlet
      * Normal Search over one index
      *
      * @param response
+     * @param indexSet indexes acquired for the request
      * @param resourceType
      * @param query
      * @param isDismax
@@ -646,18 +1787,10 @@ public class SearchServerServlet extends HttpServlet
      * @param responseVersion @throws ParseException
      * @throws IOException
      */
-    public void doSearch(HttpServletResponse response, ResourceType resourceType, String query, boolean isDismax, boolean isExplain, boolean isPretty, Integer offset, Integer limit, String responseFormat, String responseVersion) throws ParseException, IOException
+    public void doSearch(HttpServletResponse response, IndexSet indexSet, final ResourceType resourceType, final String query, final boolean isDismax, boolean isExplain, final boolean isPretty, final Integer offset, final Integer limit, final String responseFormat, String responseVersion) throws ParseException, IOException
     {
 
-        SearchServer searchServer;
-        if (isDismax)
-        {
-            searchServer = dismaxSearchers.get(resourceType);
-        }
-        else
-        {
-            searchServer = searchers.get(resourceType);
-        }
+        final SearchServer searchServer = indexSet.getSearchServer(resourceType, isDismax);
 
         if (searchServer == null)
         {
@@ -685,36 +1818,93 @@ public class SearchServerServlet extends HttpServlet
             */
         }
 
-        long startLucene = System.currentTimeMillis();
-        Results results = searchServer.search(query, offset, limit);
-
-        org.musicbrainz.search.servlet.ResultsWriter writer = searchServer.getWriter(responseVersion);
+        final org.musicbrainz.search.servlet.ResultsWriter writer = searchServer.getWriter(responseVersion);
 
         if (writer == null)
         {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorMessage.NO_HANDLER_FOR_TYPE_AND_FORMAT.getMsg(resourceType, responseFormat));
             return;
         }
-        response.setCharacterEncoding(CHARSET);
-        if (responseFormat.equals(RESPONSE_XML))
+
+        EncodedResults encodedResults;
+        if (searchCoalescer != null)
         {
-            response.setContentType(writer.getMimeType());
+            // Identical searches running at the same time share the results written by the first one, the key holds
+            // everything the output depends on, including the indexes searched
+            List<Object> key = Arrays.<Object>asList(indexSet, resourceType, query, isDismax, isPretty, offset, limit, responseFormat, responseVersion);
+            encodedResults = searchCoalescer.execute(key, new SingleFlight.Computation<EncodedResults>()
+            {
+                @Override
+                public EncodedResults compute() throws IOException, ParseException
+                {
+                    return searchAndEncode(searchServer, writer, resourceType, query, isDismax, isPretty, offset, limit, responseFormat);
+                }
+            });
         }
         else
         {
-            response.setContentType(((ResultsWriter) writer).getJsonMimeType());
+            encodedResults = searchAndEncode(searchServer, writer, resourceType, query, isDismax, isPretty, offset, limit, responseFormat);
         }
 
-        if (writer.getLastUpdateDate() != null)
+        response.setCharacterEncoding(CHARSET);
+        response.setContentType(encodedResults.contentType);
+        if (encodedResults.lastModified != null)
         {
-            response.setDateHeader("Last-Modified", writer.getLastUpdateDate().getTime());
+            response.setDateHeader("Last-Modified", encodedResults.lastModified.getTime());
+        }
+        response.setContentLength(encodedResults.body.length);
+        OutputStream out = response.getOutputStream();
+        try
+        {
+            out.write(encodedResults.body);
+        }
+        finally
+        {
+            out.close();
         }
+    }
 
-        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), CHARSET)));
+    /**
+     * Search one index and write the results in the response format
+     *
+     * @return the results as they are to be sent
+     * @throws ParseException
+     * @throws IOException
+     */
+    private EncodedResults searchAndEncode(SearchServer searchServer, org.musicbrainz.search.servlet.ResultsWriter writer, ResourceType resourceType, String query, boolean isDismax, boolean isPretty, int offset, int limit, String responseFormat) throws ParseException, IOException
+    {
+        long startLucene = System.currentTimeMillis();
+        long start = System.nanoTime();
+        Results results = searchServer.search(query, offset, limit);
+
+        String contentType;
+        if (responseFormat.equals(RESPONSE_XML))
+        {
+            contentType = writer.getMimeType();
+        }
+        else
+        {
+            contentType = ((ResultsWriter) writer).getJsonMimeType();
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(body, CHARSET)));
         try
         {
             long startSer = System.currentTimeMillis();
+            long startWrite = System.nanoTime();
             writer.write(out, results, responseFormat, isPretty);
+            out.flush();
+            long writeNanos = System.nanoTime() - startWrite;
+            searchMetrics.recordSearch(resourceType, results, writeNanos);
+            if (warmupQueries != null)
+            {
+                warmupQueries.get(resourceType).add(isDismax, query);
+            }
+            if (slowQueryLog != null)
+            {
+                slowQueryLog.offer(resourceType, isDismax, query, results, writeNanos, System.nanoTime() - start);
+            }
             if (resourceType.getName() == "recording")
                 log.info("lucene:" + (System.currentTimeMillis()-startLucene) + 
                          " serialize:" + (System.currentTimeMillis()-startSer) +
@@ -724,12 +1914,31 @@ public class SearchServerServlet extends HttpServlet
         {
             out.close();
         }
+        return new EncodedResults(contentType, writer.getLastUpdateDate(), body.toByteArray());
+    }
+
+    /**
+     * Results of a search written in the response format, ready to be sent to every request that asked for them
+     */
+    private static class EncodedResults
+    {
+        private final String contentType;
+        private final Date lastModified;
+        private final byte[] body;
+
+        EncodedResults(String contentType, Date lastModified, byte[] body)
+        {
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
     }
 
     /**
      * Search over multiple different indexes and return merged result
      *
      * @param response
+     * @param indexSet indexes acquired for the request
      * @param query
      * @param isDismax
      * @param offset
@@ -738,14 +1947,14 @@ public class SearchServerServlet extends HttpServlet
      * @param isPretty
      * @throws IOException
      */
-    private void doAllSearch(HttpServletResponse response, String query, boolean isDismax, Integer offset, Integer limit, String responseFormat, boolean isPretty) throws Exception
-    {
-        SearchServer artistSearch = isDismax ? dismaxSearchers.get(ResourceType.ARTIST) : searchers.get(ResourceType.ARTIST);
-        SearchServer releaseSearch = isDismax ? dismaxSearchers.get(ResourceType.RELEASE) : searchers.get(ResourceType.RELEASE);
-        SearchServer releaseGroupSearch = isDismax ? dismaxSearchers.get(ResourceType.RELEASE_GROUP) : searchers.get(ResourceType.RELEASE_GROUP);
-        SearchServer labelSearch = isDismax ? dismaxSearchers.get(ResourceType.LABEL) : searchers.get(ResourceType.LABEL);
-        SearchServer recordingSearch = isDismax ? dismaxSearchers.get(ResourceType.RECORDING) : searchers.get(ResourceType.RECORDING);
-        SearchServer workSearch = isDismax ? dismaxSearchers.get(ResourceType.WORK) : searchers.get(ResourceType.WORK);
+    private void doAllSearch(HttpServletResponse response, IndexSet indexSet, String query, boolean isDismax, Integer offset, Integer limit, String responseFormat, boolean isPretty) throws Exception
+    {
+        SearchServer artistSearch = indexSet.getSearchServer(ResourceType.ARTIST, isDismax);
+        SearchServer releaseSearch = indexSet.getSearchServer(ResourceType.RELEASE, isDismax);
+        SearchServer releaseGroupSearch = indexSet.getSearchServer(ResourceType.RELEASE_GROUP, isDismax);
+        SearchServer labelSearch = indexSet.getSearchServer(ResourceType.LABEL, isDismax);
+        SearchServer recordingSearch = indexSet.getSearchServer(ResourceType.RECORDING, isDismax);
+        SearchServer workSearch = indexSet.getSearchServer(ResourceType.WORK, isDismax);
 
         Collection<Callable<Results>> searches = new ArrayList<Callable<Results>>();
         searches.add(new CallableSearch(artistSearch, query, offset, limit));
@@ -0,0 +1,101 @@
+package org.musicbrainz.search.servlet;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded pools of threads running the searches handed over by the servlet, one pool for each resource type and one
+ * for searches of all of them.
+ *
+ * Each resource type only ever uses its own threads, so slow recording searches piling up can't take the threads
+ * that cheap artist lookups need, and the container's threads are given back as soon as a search is handed over.
+ * Each pool has a bounded queue, a search arriving when its pool is busy and its queue full is refused straight away
+ * rather than left waiting behind searches that are already late.
+ */
+public class SearchWorkers {
+
+  public static final int DEFAULT_THREADS = 8;
+  public static final int DEFAULT_QUEUE_SIZE = 50;
+
+  private final EnumMap<ResourceType, ThreadPoolExecutor> executors
+      = new EnumMap<ResourceType, ThreadPoolExecutor>(ResourceType.class);
+  private final ThreadPoolExecutor allExecutor;
+  private final EnumMap<ResourceType, AtomicLong> rejected = new EnumMap<ResourceType, AtomicLong>(ResourceType.class);
+  private final AtomicLong allRejected = new AtomicLong();
+
+  /**
+   * @param defaultThreads size of the pool of each resource type not listed in typeThreads, and of type=all
+   * @param typeThreads size of the pool of some resource types
+   * @param queueSize searches waiting for a thread in each pool
+   */
+  public SearchWorkers(int defaultThreads, Map<ResourceType, Integer> typeThreads, int queueSize) {
+    for (ResourceType resourceType : ResourceType.values()) {
+      Integer threads = typeThreads.get(resourceType);
+      executors.put(resourceType, newExecutor(resourceType.getName(), threads != null ? threads : defaultThreads,
+          queueSize));
+      rejected.put(resourceType, new AtomicLong());
+    }
+    allExecutor = newExecutor(SearchServerServlet.TYPE_ALL, defaultThreads, queueSize);
+  }
+
+  private static ThreadPoolExecutor newExecutor(String name, int threads, int queueSize) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("worker-" + name + "-%d").build(),
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * @param resourceType type searched, null for type=all
+   * @param search
+   * @return false if the pool is saturated, the search then hasn't been run
+   */
+  public boolean execute(ResourceType resourceType, Runnable search) {
+    try {
+      (resourceType != null ? executors.get(resourceType) : allExecutor).execute(search);
+      return true;
+    } catch (RejectedExecutionException e) {
+      (resourceType != null ? rejected.get(resourceType) : allRejected).incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * @return one line for each pool that has been used
+   */
+  public String getStatsMessage() {
+    StringBuilder sb = new StringBuilder();
+    for (ResourceType resourceType : ResourceType.values()) {
+      appendStats(sb, resourceType.getName(), executors.get(resourceType), rejected.get(resourceType).get());
+    }
+    appendStats(sb, SearchServerServlet.TYPE_ALL, allExecutor, allRejected.get());
+    return sb.toString();
+  }
+
+  private static void appendStats(StringBuilder sb, String name, ThreadPoolExecutor executor, long rejected) {
+    if (executor.getTaskCount() == 0 && rejected == 0) {
+      return;
+    }
+    sb.append(String.format(Locale.US, "%s:threads:%d,active:%d,queued:%d,completed:%d,rejected:%d%n", name,
+        executor.getMaximumPoolSize(), executor.getActiveCount(), executor.getQueue().size(),
+        executor.getCompletedTaskCount(), rejected));
+  }
+
+  /**
+   * Stop taking searches, those already handed over are still run
+   */
+  public void shutdown() {
+    for (ThreadPoolExecutor executor : executors.values()) {
+      executor.shutdown();
+    }
+    allExecutor.shutdown();
+  }
+}
@@ -0,0 +1,134 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Runs a computation once for all the identical requests that arrive while it is running.
+ *
+ * The first request for a key runs the computation, requests for the same key arriving before it is done wait for its
+ * result rather than computing it again. A popular query sent many times at once is then only searched and written
+ * once. At most maxWaiters requests wait on a computation and only for timeoutMillis, requests past the cap, or whose
+ * wait timed out, run the computation themselves, so a stuck search never holds up more requests than it would have
+ * without coalescing. Requests waiting on a computation that failed fail with the same exception, as running it again
+ * would most likely fail the same way.
+ *
+ * @param <K> key of the computation, must only be equal for computations giving the same result
+ * @param <V>
+ */
+public class SingleFlight<K, V> {
+
+  public static final int DEFAULT_MAX_WAITERS = 100;
+  // Longer than a search may take, leaving time to write its results, so that waiters only give up on a stuck search
+  public static final int DEFAULT_TIMEOUT_MILLIS = (int) AbstractSearchServer.TIME_ALLOWED_MILLIS + 1000;
+
+  public interface Computation<V> {
+    V compute() throws IOException, ParseException;
+  }
+
+  private final int maxWaiters;
+  private final long timeoutMillis;
+  private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<K, Flight<V>>();
+  private final AtomicLong computed = new AtomicLong();
+  private final AtomicLong shared = new AtomicLong();
+  private final AtomicLong fallbacks = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * @param maxWaiters requests that can wait for a computation
+   * @param timeoutMillis how long a request waits for a computation before running it itself
+   */
+  public SingleFlight(int maxWaiters, long timeoutMillis) {
+    this.maxWaiters = maxWaiters;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * @param key
+   * @param computation
+   * @return result of the computation, possibly run for another request
+   * @throws IOException
+   * @throws ParseException
+   */
+  public V execute(K key, Computation<V> computation) throws IOException, ParseException {
+    Flight<V> flight = new Flight<V>();
+    Flight<V> running = flights.putIfAbsent(key, flight);
+    if (running == null) {
+      computed.incrementAndGet();
+      boolean success = false;
+      try {
+        V value = computation.compute();
+        flight.result.set(value);
+        success = true;
+        return value;
+      } catch (IOException e) {
+        flight.result.setException(e);
+        throw e;
+      } catch (ParseException e) {
+        flight.result.setException(e);
+        throw e;
+      } catch (RuntimeException e) {
+        flight.result.setException(e);
+        throw e;
+      } finally {
+        if (!success && !flight.result.isDone()) {
+          flight.result.setException(new IOException("Computation failed"));
+        }
+        flights.remove(key, flight);
+      }
+    }
+
+    if (running.waiters.incrementAndGet() <= maxWaiters) {
+      try {
+        V value = running.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        shared.incrementAndGet();
+        return value;
+      } catch (TimeoutException e) {
+        // Run it ourselves
+      } catch (ExecutionException e) {
+        failed.incrementAndGet();
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof ParseException) {
+          throw (ParseException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IOException(cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    fallbacks.incrementAndGet();
+    return computation.compute();
+  }
+
+  /**
+   * @return number of computations running
+   */
+  public int size() {
+    return flights.size();
+  }
+
+  public String getStatsMessage() {
+    return "computed:" + computed.get() + ",shared:" + shared.get() + ",fallbacks:" + fallbacks.get() + ",failed:"
+        + failed.get();
+  }
+
+  private static class Flight<V> {
+
+    private final SettableFuture<V> result = SettableFuture.create();
+    private final AtomicInteger waiters = new AtomicInteger();
+  }
+}
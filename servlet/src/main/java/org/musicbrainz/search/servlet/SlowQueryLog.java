@@ -0,0 +1,264 @@
+package org.musicbrainz.search.servlet;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.lucene.search.Query;
+
+/**
+ * Logs searches that took longer than a threshold, with what is needed to find out why: the query as sent and as run,
+ * the number of hits, the time taken by each phase and the version of the index searched.
+ *
+ * Searches are only handed over to a bounded queue on the request thread, a single background thread formats and
+ * logs them, dropping them when the queue is full and logging at most maxPerSecond a second so that a burst of slow
+ * queries can't flood the log. The most recent slow queries are also kept for the slowqueries admin command, which
+ * lists the slowest of them.
+ */
+public class SlowQueryLog {
+
+  public static final int DEFAULT_THRESHOLD_MILLIS = 500;
+
+  private static final Logger log = Logger.getLogger(SlowQueryLog.class.getName());
+
+  private static final int QUEUE_SIZE = 1000;
+  private static final int DEFAULT_RECENT_SIZE = 1000;
+  private static final int DEFAULT_MAX_PER_SECOND = 20;
+
+  private final long thresholdNanos;
+  private final int maxPerSecond;
+  private final int recentSize;
+  private final BlockingQueue<SlowQuery> queue = new ArrayBlockingQueue<SlowQuery>(QUEUE_SIZE);
+  private final LinkedList<SlowQuery> recent = new LinkedList<SlowQuery>();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writer;
+
+  /**
+   * @param thresholdMillis searches taking at least this long are logged
+   */
+  public SlowQueryLog(int thresholdMillis) {
+    this(thresholdMillis, DEFAULT_MAX_PER_SECOND);
+  }
+
+  /**
+   * @param thresholdMillis searches taking at least this long are logged
+   * @param maxPerSecond slow queries logged in a second, above which they are only kept for the admin command
+   */
+  public SlowQueryLog(int thresholdMillis, int maxPerSecond) {
+    this(thresholdMillis, maxPerSecond, DEFAULT_RECENT_SIZE);
+  }
+
+  /**
+   * @param thresholdMillis
+   * @param maxPerSecond
+   * @param recentSize recent slow queries kept for the admin command
+   */
+  SlowQueryLog(int thresholdMillis, int maxPerSecond, int recentSize) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.maxPerSecond = maxPerSecond;
+    this.recentSize = recentSize;
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, "slowquery-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public boolean isSlow(long totalNanos) {
+    return totalNanos >= thresholdNanos;
+  }
+
+  /**
+   * Log the search if it was slow
+   *
+   * @param resourceType
+   * @param isDismax
+   * @param query the query as sent by the user
+   * @param results
+   * @param serializeNanos time taken to write the results, including building them
+   * @param totalNanos
+   */
+  public void offer(ResourceType resourceType, boolean isDismax, String query, Results results, long serializeNanos,
+      long totalNanos) {
+    if (isSlow(totalNanos)) {
+      offer(new SlowQuery(resourceType, isDismax, query, results, serializeNanos, totalNanos));
+    }
+  }
+
+  /**
+   * Log a search that was stopped for taking too long
+   *
+   * @param resourceType
+   * @param isDismax
+   * @param query the query as sent by the user
+   * @param totalNanos
+   */
+  public void offerTimeout(ResourceType resourceType, boolean isDismax, String query, long totalNanos) {
+    offer(new SlowQuery(resourceType, isDismax, query, null, 0, totalNanos));
+  }
+
+  private void offer(SlowQuery slowQuery) {
+    if (!queue.offer(slowQuery)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void write() {
+    long second = 0;
+    int loggedThisSecond = 0;
+    while (!Thread.currentThread().isInterrupted()) {
+      SlowQuery slowQuery;
+      try {
+        slowQuery = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      slowQuery.format();
+      synchronized (recent) {
+        recent.addFirst(slowQuery);
+        if (recent.size() > recentSize) {
+          recent.removeLast();
+        }
+      }
+
+      long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+      if (now != second) {
+        second = now;
+        loggedThisSecond = 0;
+      }
+      if (loggedThisSecond++ < maxPerSecond) {
+        log.warning("Slow query:" + slowQuery);
+      }
+    }
+  }
+
+  /**
+   * @param n
+   * @return the n slowest of the recent slow queries, one a line, slowest first
+   */
+  public String getSlowestMessage(int n) {
+    List<SlowQuery> slowest;
+    synchronized (recent) {
+      slowest = new ArrayList<SlowQuery>(recent);
+    }
+    Collections.sort(slowest, new Comparator<SlowQuery>() {
+      @Override
+      public int compare(SlowQuery q1, SlowQuery q2) {
+        return q1.totalNanos < q2.totalNanos ? 1 : (q1.totalNanos == q2.totalNanos ? 0 : -1);
+      }
+    });
+    StringBuilder sb = new StringBuilder();
+    for (SlowQuery slowQuery : slowest.subList(0, Math.min(n, slowest.size()))) {
+      sb.append(slowQuery).append('\n');
+    }
+    sb.append("dropped:").append(dropped.get());
+    return sb.toString();
+  }
+
+  public void shutdown() {
+    writer.interrupt();
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.US, "%.1f", nanos / 1000000.0);
+  }
+
+  /**
+   * What is known of a slow search, copied when it is offered so that its results aren't kept. The rewritten query is
+   * only kept until the writer thread formats it, so that printing it isn't paid for by the request.
+   */
+  private static class SlowQuery {
+
+    private final long time = System.currentTimeMillis();
+    private final String type;
+    private final boolean isDismax;
+    private final String query;
+    private final boolean isTimeout;
+    private Query rewrittenQuery;
+    private final int hits;
+    private final long indexVersion;
+    private final long parseNanos;
+    private final long searchNanos;
+    private final long loadNanos;
+    private final long deserializeNanos;
+    private final long serializeNanos;
+    private final long totalNanos;
+    private String message;
+
+    /**
+     * @param results null if the search timed out
+     */
+    SlowQuery(ResourceType resourceType, boolean isDismax, String query, Results results, long serializeNanos,
+        long totalNanos) {
+      this.type = resourceType.getName();
+      this.isDismax = isDismax;
+      this.query = query;
+      this.totalNanos = totalNanos;
+      this.isTimeout = results == null;
+      if (results != null) {
+        this.rewrittenQuery = results.getQuery();
+        this.hits = results.getTotalHits();
+        this.indexVersion = results.getIndexVersion();
+        this.parseNanos = results.getParseNanos();
+        this.searchNanos = results.getSearchNanos();
+        this.loadNanos = results.getLoadNanos();
+        this.deserializeNanos = results.getDeserializeNanos();
+        this.serializeNanos = Math.max(0, serializeNanos - results.getDeserializeNanos());
+      } else {
+        this.rewrittenQuery = null;
+        this.hits = 0;
+        this.indexVersion = 0;
+        this.parseNanos = 0;
+        this.searchNanos = 0;
+        this.loadNanos = 0;
+        this.deserializeNanos = 0;
+        this.serializeNanos = 0;
+      }
+    }
+
+    /**
+     * Format the slow query once, on the writer thread, and drop the reference to its rewritten query
+     */
+    void format() {
+      SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+      dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      StringBuilder sb = new StringBuilder(dateFormat.format(new Date(time)))
+          .append(" type:").append(type)
+          .append(",dismax:").append(isDismax)
+          .append(",total:").append(millis(totalNanos));
+      if (isTimeout) {
+        sb.append(",timeout:true");
+      } else {
+        sb.append(",parse:").append(millis(parseNanos))
+            .append(",search:").append(millis(searchNanos))
+            .append(",load:").append(millis(loadNanos))
+            .append(",deserialize:").append(millis(deserializeNanos))
+            .append(",serialize:").append(millis(serializeNanos))
+            .append(",hits:").append(hits)
+            .append(",indexversion:").append(indexVersion)
+            .append(",lucene:").append(rewrittenQuery != null ? rewrittenQuery.toString() : "");
+      }
+      message = sb.append(",query:").append(query).toString();
+      rewrittenQuery = null;
+    }
+
+    @Override
+    public String toString() {
+      return message;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.musicbrainz.search.servlet;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rate limits each ip address in process with a token bucket, without a round trip to the rate limit server.
+ *
+ * A bucket holds up to limit tokens and is refilled at limit tokens per period, each search takes one token and is
+ * refused when there are none left, so an ip address can make limit searches in a burst and limit searches per period
+ * on average. A batch takes one token for each of its searches all at once, so a batch of more than limit searches is
+ * always refused. Buckets are kept in a concurrent map and updated with compare and set, so requests never wait on each
+ * other. Buckets that have been idle long enough to be full again are the same as no bucket at all, they are swept
+ * from the map every period by whichever request finds the sweep due.
+ */
+class TokenBucketRateLimiter implements RateLimiter {
+
+    private static final long MIN_CLEANUP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int limit;
+    private final int period;
+    private final double tokensPerNano;
+    private final long cleanupIntervalNanos;
+    private final ConcurrentHashMap<String, AtomicReference<Bucket>> buckets
+            = new ConcurrentHashMap<String, AtomicReference<Bucket>>();
+    private final AtomicLong nextCleanup;
+
+    /**
+     * @param limit searches allowed in a period
+     * @param period in seconds
+     */
+    TokenBucketRateLimiter(int limit, int period) {
+        this.limit = limit;
+        this.period = period;
+        this.tokensPerNano = (double) limit / TimeUnit.SECONDS.toNanos(period);
+        this.cleanupIntervalNanos = Math.max(MIN_CLEANUP_INTERVAL_NANOS, TimeUnit.SECONDS.toNanos(period));
+        this.nextCleanup = new AtomicLong(System.nanoTime() + cleanupIntervalNanos);
+    }
+
+    @Override
+    public RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress) {
+        return check(remoteIpAddress, 1, System.nanoTime());
+    }
+
+    @Override
+    public RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress, int searches) {
+        return check(remoteIpAddress, searches, System.nanoTime());
+    }
+
+    RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress, long now) {
+        return check(remoteIpAddress, 1, now);
+    }
+
+    RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress, int searches, long now) {
+        cleanupIfDue(now);
+        int cost = Math.max(1, searches);
+
+        AtomicReference<Bucket> bucketRef = buckets.get(remoteIpAddress);
+        if (bucketRef == null) {
+            AtomicReference<Bucket> newBucketRef = new AtomicReference<Bucket>(new Bucket(limit, now));
+            bucketRef = buckets.putIfAbsent(remoteIpAddress, newBucketRef);
+            if (bucketRef == null) {
+                bucketRef = newBucketRef;
+            }
+        }
+
+        while (true) {
+            Bucket bucket = bucketRef.get();
+            double tokens = bucket.tokensAt(now, tokensPerNano, limit);
+            if (tokens < cost) {
+                // Searches made in the period, counting this one, as the rate limit server reports them
+                return new RateLimiterChecker.RateLimiterResponse(
+                        String.format(Locale.US, "%.1f", limit - tokens + cost), String.valueOf(limit), String.valueOf(period));
+            }
+            if (bucketRef.compareAndSet(bucket, new Bucket(tokens - cost, now))) {
+                return RateLimiterChecker.ALWAYS_TRUE;
+            }
+        }
+    }
+
+    private void cleanupIfDue(long now) {
+        long due = nextCleanup.get();
+        if (now - due < 0 || !nextCleanup.compareAndSet(due, now + cleanupIntervalNanos)) {
+            return;
+        }
+        for (Map.Entry<String, AtomicReference<Bucket>> entry : buckets.entrySet()) {
+            if (entry.getValue().get().tokensAt(now, tokensPerNano, limit) >= limit) {
+                // A request racing with the removal may use the old bucket, which only lets it through
+                buckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    int size() {
+        return buckets.size();
+    }
+
+    @Override
+    public void close() {
+        buckets.clear();
+    }
+
+    /**
+     * Immutable state of a bucket, replaced as a whole
+     */
+    private static class Bucket {
+
+        private final double tokens;
+        private final long time;
+
+        Bucket(double tokens, long time) {
+            this.tokens = tokens;
+            this.time = time;
+        }
+
+        double tokensAt(long now, double tokensPerNano, int limit) {
+            return Math.min(limit, tokens + Math.max(0, now - time) * tokensPerNano);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Asks the rate limit server whether a search is allowed.
+ *
+ * All requests share one socket. Replies are read by a single thread and handed to the waiting request by the
+ * request id they start with, and a request waits at most timeoutMillis for its reply before being let through, so a
+ * slow or lost reply never holds a request thread for longer.
+ */
+class UdpRateLimiter implements RateLimiter {
+
+    private static final Logger log = Logger.getLogger(UdpRateLimiter.class.getName());
+
+    private static final String OVER_LIMIT_SEARCH_IP = " over_limit search ip=";
+    private static final int MAX_SIZE_OFRESPONSE_PACKET = 100;
+    // How often the reading thread checks whether it has been closed
+    private static final int RECEIVE_TIMEOUT_MILLIS = 1000;
+
+    private final InetAddress host;
+    private final int port;
+    private final long timeoutMillis;
+    private final DatagramSocket socket;
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final ConcurrentHashMap<String, SettableFuture<String>> pending
+            = new ConcurrentHashMap<String, SettableFuture<String>>();
+    private final Thread receiver;
+    private volatile boolean closed = false;
+
+    /**
+     * @param host of the rate limit server
+     * @param port of the rate limit server
+     * @param timeoutMillis how long to wait for a reply
+     * @throws SocketException
+     */
+    UdpRateLimiter(InetAddress host, int port, long timeoutMillis) throws SocketException {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.socket = new DatagramSocket();
+        socket.setSoTimeout(RECEIVE_TIMEOUT_MILLIS);
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "ratelimiter-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress) {
+        return check(remoteIpAddress, 1);
+    }
+
+    /**
+     * The rate limit server counts one search per message, so a batch sends one message for each of its searches, all
+     * at once, and is refused if any of them is over the limit. The replies share the same timeout.
+     */
+    @Override
+    public RateLimiterChecker.RateLimiterResponse check(String remoteIpAddress, int searches) {
+        int messages = Math.max(1, searches);
+        List<String> requestIds = new ArrayList<String>(messages);
+        List<SettableFuture<String>> replies = new ArrayList<SettableFuture<String>>(messages);
+        RateLimiterChecker.RateLimiterResponse response = RateLimiterChecker.ALWAYS_TRUE;
+        try {
+            for (int i = 0; i < messages; i++) {
+                String requestId = String.valueOf(count.incrementAndGet());
+                SettableFuture<String> reply = SettableFuture.create();
+                pending.put(requestId, reply);
+                requestIds.add(requestId);
+                replies.add(reply);
+                byte[] msg = (requestId + OVER_LIMIT_SEARCH_IP + remoteIpAddress).getBytes();
+                socket.send(new DatagramPacket(msg, msg.length, host, port));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for (SettableFuture<String> reply : replies) {
+                RateLimiterChecker.RateLimiterResponse next = new RateLimiterChecker.RateLimiterResponse(
+                        reply.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                if (!next.isValid()) {
+                    // The last search of the batch over the limit reports the most searches made
+                    response = next;
+                }
+            }
+            return response;
+        } catch (TimeoutException te) {
+            log.warning("ValidateAgainstRateLimiter:No reply within " + timeoutMillis + "ms for " + remoteIpAddress);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            log.log(Level.SEVERE, "ValidateAgainstRateLimiter:" + ee.getMessage(), ee);
+        } catch (IOException ioe) {
+            log.log(Level.SEVERE, "ValidateAgainstRateLimiter:" + ioe.getMessage(), ioe);
+        } finally {
+            for (String requestId : requestIds) {
+                pending.remove(requestId);
+            }
+        }
+        // Let through unless a reply that did arrive was over the limit
+        return response;
+    }
+
+    private void receive() {
+        byte[] receiveData = new byte[MAX_SIZE_OFRESPONSE_PACKET];
+        while (!closed) {
+            DatagramPacket dpReceive = new DatagramPacket(receiveData, receiveData.length);
+            try {
+                socket.receive(dpReceive);
+            } catch (SocketTimeoutException ste) {
+                continue;
+            } catch (IOException ioe) {
+                if (!closed) {
+                    log.log(Level.SEVERE, "ValidateAgainstRateLimiter:" + ioe.getMessage(), ioe);
+                }
+                continue;
+            }
+
+            // Replies start with the request id, those nobody is waiting for any more are dropped
+            String result = new String(dpReceive.getData(), dpReceive.getOffset(), dpReceive.getLength());
+            int separator = result.indexOf(' ');
+            if (separator > 0) {
+                SettableFuture<String> reply = pending.get(result.substring(0, separator));
+                if (reply != null) {
+                    reply.set(result.substring(separator + 1));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        socket.close();
+    }
+}
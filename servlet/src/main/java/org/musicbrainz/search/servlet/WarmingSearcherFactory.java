@@ -0,0 +1,193 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+/**
+ * Searcher factory that warms up each new searcher before it is used, by replaying a sample of recent queries.
+ *
+ * Searches on an index that has just been copied in are much slower until the pages of its files that they read are in
+ * the page cache. The sample of queries reads the terms, postings and stored fields that real searches need, and the
+ * term dictionary and stored fields files can also be read through in full beforehand. A searcher opened when
+ * reloading is only made visible by the searcher manager once this returns. Searchers of replaced indexes are
+ * warmed with {@link #warm(IndexSearcher)} before their search server is published, as the first searcher is created
+ * before the search server that parses the queries.
+ */
+public class WarmingSearcherFactory extends MusicBrainzSearcherFactory {
+
+  private static final Logger log = Logger.getLogger(WarmingSearcherFactory.class.getName());
+
+  private static final int HITS = 25;
+  private static final long TIME_ALLOWED_MILLIS = 1000;
+  // Queries run a second time to measure the effect of warming
+  private static final int MEASURED_QUERIES = 20;
+  // Extensions of the term dictionary, terms index, stored fields and compound files
+  private static final String[] TOUCHED_EXTENSIONS = { "tim", "tip", "fdt", "fdx", "cfs" };
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ResourceType resourceType;
+  private final WarmupQueries warmupQueries;
+  private final boolean touchFiles;
+  private volatile AbstractSearchServer searchServer;
+  private volatile AbstractDismaxSearchServer dismaxSearchServer;
+
+  /**
+   * @param resourceType
+   * @param rewriteCacheBytes memory used to cache the prefix and fuzzy expansions of each searcher, 0 for none
+   * @param warmupQueries queries replayed on new searchers
+   * @param touchFiles whether to read through the term dictionary and stored fields files first
+   */
+  public WarmingSearcherFactory(ResourceType resourceType, long rewriteCacheBytes, WarmupQueries warmupQueries,
+      boolean touchFiles) {
+    super(resourceType, rewriteCacheBytes);
+    this.resourceType = resourceType;
+    this.warmupQueries = warmupQueries;
+    this.touchFiles = touchFiles;
+  }
+
+  /**
+   * @param searchServer used to parse standard queries
+   * @param dismaxSearchServer used to parse dismax queries
+   */
+  public void setSearchServers(AbstractSearchServer searchServer, AbstractDismaxSearchServer dismaxSearchServer) {
+    this.searchServer = searchServer;
+    this.dismaxSearchServer = dismaxSearchServer;
+  }
+
+  @Override
+  public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+    IndexSearcher searcher = super.newSearcher(reader);
+    if (searchServer != null) {
+      warm(searcher);
+    }
+    return searcher;
+  }
+
+  /**
+   * Replay the sample of queries on the searcher, logging how long it took and how much faster the queries are
+   * afterwards
+   *
+   * @param searcher
+   */
+  public void warm(IndexSearcher searcher) {
+    List<WarmupQueries.WarmupQuery> queries = warmupQueries.getQueries();
+    if (queries.isEmpty() && !touchFiles) {
+      return;
+    }
+    long start = System.nanoTime();
+    long touchedBytes = 0;
+    if (touchFiles) {
+      try {
+        touchedBytes = touchFiles(searcher.getIndexReader());
+      } catch (IOException e) {
+        log.log(Level.WARNING, "Could not read through the files of the " + resourceType.getName() + " index: "
+            + e.getMessage(), e);
+      }
+    }
+
+    List<WarmupQueries.WarmupQuery> measured = new ArrayList<WarmupQueries.WarmupQuery>(MEASURED_QUERIES);
+    long cold = 0;
+    int warmed = 0;
+    for (WarmupQueries.WarmupQuery query : queries) {
+      long queryNanos = run(searcher, query);
+      if (queryNanos >= 0) {
+        if (measured.size() < MEASURED_QUERIES) {
+          measured.add(query);
+          cold += queryNanos;
+        }
+        warmed++;
+      }
+    }
+    long warmupNanos = System.nanoTime() - start;
+
+    // Run the first queries again, now that the searcher is warm
+    long warm = 0;
+    for (WarmupQueries.WarmupQuery query : measured) {
+      warm += Math.max(0, run(searcher, query));
+    }
+    log.info("Warmed " + resourceType.getName() + " index:queries:" + warmed + ",touched bytes:" + touchedBytes
+        + ",took:" + warmupNanos / 1000000 + "ms"
+        + ",first queries cold:" + cold / 1000000 + "ms,warm:" + warm / 1000000 + "ms");
+  }
+
+  /**
+   * @return time taken, or -1 if the query couldn't be run
+   */
+  private long run(IndexSearcher searcher, WarmupQueries.WarmupQuery warmupQuery) {
+    long start = System.nanoTime();
+    try {
+      Query query = warmupQuery.isDismax() && dismaxSearchServer != null
+          ? dismaxSearchServer.getQuery(warmupQuery.getQuery())
+          : searchServer.getQuery(warmupQuery.getQuery());
+      TopScoreDocCollector collector = TopScoreDocCollector.create(HITS, true);
+      searcher.search(query, new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(),
+          TIME_ALLOWED_MILLIS));
+      for (ScoreDoc scoreDoc : collector.topDocs().scoreDocs) {
+        searcher.doc(scoreDoc.doc);
+      }
+      return System.nanoTime() - start;
+    } catch (Exception e) {
+      // Parse errors and timeouts, the query is only skipped
+      return -1;
+    }
+  }
+
+  /**
+   * Read through the term dictionary and stored fields files of every segment so that they are in the page cache
+   *
+   * @return bytes read
+   */
+  private static long touchFiles(IndexReader reader) throws IOException {
+    long bytes = 0;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    for (AtomicReaderContext leaf : reader.leaves()) {
+      if (!(leaf.reader() instanceof SegmentReader)) {
+        continue;
+      }
+      SegmentReader segmentReader = (SegmentReader) leaf.reader();
+      Directory directory = segmentReader.directory();
+      for (String file : segmentReader.getSegmentInfo().files()) {
+        if (!isTouched(file)) {
+          continue;
+        }
+        IndexInput in = directory.openInput(file, IOContext.READONCE);
+        try {
+          long remaining = in.length();
+          while (remaining > 0) {
+            int length = (int) Math.min(buffer.length, remaining);
+            in.readBytes(buffer, 0, length);
+            remaining -= length;
+          }
+          bytes += in.length();
+        } finally {
+          in.close();
+        }
+      }
+    }
+    return bytes;
+  }
+
+  private static boolean isTouched(String file) {
+    for (String extension : TOUCHED_EXTENSIONS) {
+      if (file.endsWith("." + extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,132 @@
+package org.musicbrainz.search.servlet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Sample of the recent queries of a resource type, replayed to warm up new searchers.
+ *
+ * One search in every sampleRate is kept, in a ring of the most recent ones, so that the sample follows the traffic
+ * without the cost of recording every search. The sample can be saved when the servlet is stopped and loaded when it
+ * is started so that the first indexes opened are warmed too.
+ */
+public class WarmupQueries {
+
+  public static final int DEFAULT_SIZE = 200;
+  public static final int DEFAULT_SAMPLE_RATE = 10;
+
+  private final AtomicReferenceArray<WarmupQuery> queries;
+  private final int sampleRate;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong next = new AtomicLong();
+
+  /**
+   * @param size number of queries kept
+   * @param sampleRate one query in sampleRate is kept
+   */
+  public WarmupQueries(int size, int sampleRate) {
+    this.queries = new AtomicReferenceArray<WarmupQuery>(size);
+    this.sampleRate = Math.max(1, sampleRate);
+  }
+
+  /**
+   * @param isDismax
+   * @param query the query as sent by the user
+   */
+  public void add(boolean isDismax, String query) {
+    if (count.getAndIncrement() % sampleRate == 0) {
+      queries.set((int) (next.getAndIncrement() % queries.length()), new WarmupQuery(isDismax, query));
+    }
+  }
+
+  /**
+   * @return the queries kept, oldest first
+   */
+  public List<WarmupQuery> getQueries() {
+    List<WarmupQuery> list = new ArrayList<WarmupQuery>(queries.length());
+    long last = next.get();
+    for (long i = Math.max(0, last - queries.length()); i < last; i++) {
+      WarmupQuery query = queries.get((int) (i % queries.length()));
+      if (query != null) {
+        list.add(query);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Add the queries saved to file, if it exists
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void load(File file) throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab > 0) {
+          queries.set((int) (next.getAndIncrement() % queries.length()),
+              new WarmupQuery(Boolean.parseBoolean(line.substring(0, tab)), line.substring(tab + 1)));
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Save the queries kept to file, one a line preceded by the dismax flag
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void save(File file) throws IOException {
+    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8));
+    try {
+      for (WarmupQuery query : getQueries()) {
+        if (query.getQuery().indexOf('\n') == -1 && query.getQuery().indexOf('\r') == -1) {
+          out.write(query.isDismax() + "\t" + query.getQuery());
+          out.newLine();
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static class WarmupQuery {
+
+    private final boolean isDismax;
+    private final String query;
+
+    WarmupQuery(boolean isDismax, String query) {
+      this.isDismax = isDismax;
+      this.query = query;
+    }
+
+    public boolean isDismax() {
+      return isDismax;
+    }
+
+    public String getQuery() {
+      return query;
+    }
+  }
+}
@@ -35,6 +35,7 @@ import org.musicbrainz.mmd2.ArtistCredit;
 import org.musicbrainz.search.MbDocument;
 import org.musicbrainz.search.index.MMDSerializer;
 import org.musicbrainz.search.index.RecordingIndexField;
+import org.musicbrainz.search.servlet.ReleaseSummaryCache;
 import org.musicbrainz.search.servlet.Result;
 import org.musicbrainz.search.servlet.Results;
 
@@ -43,6 +44,16 @@ import java.math.BigInteger;
 
 public class TrackMmd1XmlWriter extends Mmd1XmlWriter {
 
+    // Null unless the index was built with release summaries
+    private ReleaseSummaryCache releaseSummaries;
+
+    /**
+     * @param releaseSummaries release summaries to join into the recordings
+     */
+    public void setReleaseSummaries(ReleaseSummaryCache releaseSummaries) {
+        this.releaseSummaries = releaseSummaries;
+    }
+
     public Metadata write(Results results) throws IOException {
 
 
@@ -60,6 +71,10 @@ public class TrackMmd1XmlWriter extends Mmd1XmlWriter {
 
             org.musicbrainz.mmd2.Recording recordingv2
                     = (org.musicbrainz.mmd2.Recording) MMDSerializer.unserialize(doc.get(RecordingIndexField.RECORDING_STORE), org.musicbrainz.mmd2.Recording.class);
+            String[] releaseSummaryIds = doc.getValues(RecordingIndexField.RELEASE_SUMMARY_ID);
+            if (releaseSummaries != null && releaseSummaryIds.length > 0) {
+                releaseSummaries.join(recordingv2, releaseSummaryIds);
+            }
 
             track.setId(recordingv2.getId());
 
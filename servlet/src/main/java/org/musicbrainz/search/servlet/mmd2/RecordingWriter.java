@@ -35,6 +35,7 @@ import org.musicbrainz.mmd2.RecordingList;
 import org.musicbrainz.search.MbDocument;
 import org.musicbrainz.search.index.MMDSerializer;
 import org.musicbrainz.search.index.RecordingIndexField;
+import org.musicbrainz.search.servlet.ReleaseSummaryCache;
 import org.musicbrainz.search.servlet.Result;
 import org.musicbrainz.search.servlet.Results;
 
@@ -44,6 +45,17 @@ import java.util.List;
 
 public class RecordingWriter extends ResultsWriter {
 
+    // Null unless the index was built with release summaries
+    private ReleaseSummaryCache releaseSummaries;
+
+    /**
+     *
+     * @param releaseSummaries release summaries to join into the recordings
+     */
+    public void setReleaseSummaries(ReleaseSummaryCache releaseSummaries)
+    {
+        this.releaseSummaries = releaseSummaries;
+    }
 
     /**
      *
@@ -91,6 +103,11 @@ public class RecordingWriter extends ResultsWriter {
     {
         MbDocument doc = result.getDoc();
         Recording recording = (Recording) MMDSerializer.unserialize(doc.get(RecordingIndexField.RECORDING_STORE), Recording.class);
+        String[] releaseSummaryIds = doc.getValues(RecordingIndexField.RELEASE_SUMMARY_ID);
+        if (releaseSummaries != null && releaseSummaryIds.length > 0)
+        {
+            releaseSummaries.join(recording, releaseSummaryIds);
+        }
         recording.setScore(result.getNormalizedScore());
         list.add(recording);
     }
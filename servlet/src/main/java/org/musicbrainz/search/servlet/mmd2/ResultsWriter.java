@@ -116,10 +116,12 @@ public abstract class ResultsWriter extends org.musicbrainz.search.servlet.Resul
      * @throws java.io.IOException
      */
     public Metadata write(Results results) throws IOException {
+        long start = System.nanoTime();
         ObjectFactory of = new ObjectFactory();
         Metadata metadata = of.createMetadata();
         write(metadata, results);
         setIndexUpdateDate(metadata);
+        results.setDeserializeNanos(System.nanoTime() - start);
         return metadata;
     }
 
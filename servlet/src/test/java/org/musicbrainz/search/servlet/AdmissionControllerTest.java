@@ -0,0 +1,87 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testPriority() throws Exception {
+    assertEquals(AdmissionController.Priority.LOW, AdmissionController.getPriority(true, false, false));
+    assertEquals(AdmissionController.Priority.LOW, AdmissionController.getPriority(true, true, true));
+    assertEquals(AdmissionController.Priority.NORMAL, AdmissionController.getPriority(false, true, false));
+    assertEquals(AdmissionController.Priority.NORMAL, AdmissionController.getPriority(false, false, true));
+    assertEquals(AdmissionController.Priority.HIGH, AdmissionController.getPriority(false, false, false));
+  }
+
+  @Test
+  public void testShedLowPriorityFirst() throws Exception {
+    // Searches are first estimated at 100ms each
+    AdmissionController controller = new AdmissionController(1000, 50, 80);
+    long now = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      assertTrue(controller.admit("artist", false, AdmissionController.Priority.HIGH, now).isAdmitted());
+    }
+
+    // Past half the budget
+    AdmissionController.Admission shed = controller.admit("artist", false, AdmissionController.Priority.LOW, now);
+    assertFalse(shed.isAdmitted());
+    assertEquals(1, shed.getRetryAfterSeconds());
+    for (int i = 0; i < 3; i++) {
+      assertTrue(controller.admit("artist", false, AdmissionController.Priority.NORMAL, now).isAdmitted());
+    }
+
+    // Past 80% of the budget
+    assertFalse(controller.admit("artist", true, AdmissionController.Priority.NORMAL, now).isAdmitted());
+    assertTrue(controller.admit("artist", false, AdmissionController.Priority.HIGH, now).isAdmitted());
+
+    // Other resource types have their own budget
+    assertTrue(controller.admit("release", false, AdmissionController.Priority.LOW, now).isAdmitted());
+  }
+
+  @Test
+  public void testCostFollowsLatency() throws Exception {
+    AdmissionController controller = new AdmissionController(1000, 50, 80);
+    long now = System.nanoTime();
+    AdmissionController.Admission admission = controller.admit("recording", true, AdmissionController.Priority.HIGH, now);
+    assertEquals(TimeUnit.MILLISECONDS.toMicros(100), controller.getInFlightMicros("recording"));
+    admission.setSearched();
+    admission.release(now + SECOND);
+    assertEquals(0, controller.getInFlightMicros("recording"));
+
+    // Dismax searches now cost 280ms, standard ones are still 100ms
+    controller.admit("recording", true, AdmissionController.Priority.HIGH, now);
+    assertEquals(TimeUnit.MILLISECONDS.toMicros(280), controller.getInFlightMicros("recording"));
+    controller.admit("recording", false, AdmissionController.Priority.HIGH, now);
+    assertEquals(TimeUnit.MILLISECONDS.toMicros(380), controller.getInFlightMicros("recording"));
+
+    AdmissionController.Admission shed = controller.admit("recording", true, AdmissionController.Priority.LOW, now);
+    assertFalse(shed.isAdmitted());
+    assertEquals(1, shed.getRetryAfterSeconds());
+  }
+
+  @Test
+  public void testCostOnlyFollowsSearchesThatRan() throws Exception {
+    AdmissionController controller = new AdmissionController(1000, 50, 80);
+    long now = System.nanoTime();
+    // Many requests answered straight away without searching, such as rate limited ones
+    for (int i = 0; i < 50; i++) {
+      controller.admit("recording", false, AdmissionController.Priority.LOW, now).release(now + 1000);
+    }
+    assertEquals(0, controller.getInFlightMicros("recording"));
+
+    // Searches are still estimated at 100ms, so low priority ones are shed past half the budget
+    for (int i = 0; i < 5; i++) {
+      assertTrue(controller.admit("recording", false, AdmissionController.Priority.LOW, now).isAdmitted());
+    }
+    assertEquals(TimeUnit.MILLISECONDS.toMicros(500), controller.getInFlightMicros("recording"));
+    assertFalse(controller.admit("recording", false, AdmissionController.Priority.LOW, now).isAdmitted());
+  }
+}
@@ -0,0 +1,102 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchQueryTest {
+
+  private static List<BatchQuery> parse(String json) throws IOException {
+    return BatchQuery.parse(new StringReader(json), 3, 25, 100);
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    List<BatchQuery> queries = parse("[{\"type\":\"artist\",\"query\":\"portishead\"},"
+        + "{\"type\":\"release\",\"query\":\"dummy\",\"limit\":500,\"offset\":10,\"dismax\":true},"
+        + "{\"type\":\"track\",\"query\":\"roads\",\"limit\":0}]");
+    assertEquals(3, queries.size());
+
+    BatchQuery query = queries.get(0);
+    assertEquals("artist", query.getType());
+    assertEquals(ResourceType.ARTIST, query.getResourceType());
+    assertEquals("portishead", query.getQuery());
+    assertFalse(query.isDismax());
+    assertEquals(0, query.getOffset());
+    assertEquals(25, query.getLimit());
+
+    query = queries.get(1);
+    assertEquals(ResourceType.RELEASE, query.getResourceType());
+    assertTrue(query.isDismax());
+    assertEquals(10, query.getOffset());
+    assertEquals(100, query.getLimit());
+
+    // V1 Compatibility
+    query = queries.get(2);
+    assertEquals(ResourceType.RECORDING, query.getResourceType());
+    assertEquals(1, query.getLimit());
+  }
+
+  @Test
+  public void testUnknownTypeAndMissingQuery() throws Exception {
+    List<BatchQuery> queries = parse("[{\"type\":\"releases\",\"query\":\"dummy\"},{\"query\":\"dummy\"},"
+        + "{\"type\":\"artist\",\"query\":\"\"}]");
+    assertEquals(3, queries.size());
+    assertEquals("releases", queries.get(0).getType());
+    assertNull(queries.get(0).getResourceType());
+    assertEquals("dummy", queries.get(0).getQuery());
+    assertNull(queries.get(1).getType());
+    assertNull(queries.get(1).getResourceType());
+    assertEquals(ResourceType.ARTIST, queries.get(2).getResourceType());
+    assertNull(queries.get(2).getQuery());
+  }
+
+  @Test
+  public void testEmptyBatch() throws Exception {
+    assertTrue(parse("[]").isEmpty());
+  }
+
+  @Test
+  public void testMalformedJson() throws Exception {
+    for (String json : new String[] { "[{\"type\":\"artist\",\"query\":", "[{\"type\":artist}]", "" }) {
+      try {
+        parse(json);
+        fail(json);
+      } catch (IOException e) {
+        assertFalse(e instanceof BatchQuery.TooLargeException);
+      }
+    }
+  }
+
+  @Test
+  public void testNotAnArray() throws Exception {
+    for (String json : new String[] { "{\"type\":\"artist\",\"query\":\"portishead\"}", "\"artist\"",
+        "[\"artist\"]" }) {
+      try {
+        parse(json);
+        fail(json);
+      } catch (IOException e) {
+        assertEquals("Batch should be a json array of searches", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void testTooLarge() throws Exception {
+    assertEquals(3, parse("[{},{},{}]").size());
+    try {
+      parse("[{},{},{},{}]");
+      fail();
+    } catch (BatchQuery.TooLargeException e) {
+      assertEquals(4, e.getSize());
+    }
+  }
+}
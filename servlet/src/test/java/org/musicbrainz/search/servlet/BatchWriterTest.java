@@ -0,0 +1,59 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class BatchWriterTest {
+
+  private static final BatchQuery RECORDING = new BatchQuery("recording", ResourceType.RECORDING, "blue monday", false, 0,
+      25);
+  private static final BatchQuery UNKNOWN = new BatchQuery("rel<eases", null, "dummy", false, 0, 25);
+
+  @Test
+  public void testJson() throws Exception {
+    StringWriter out = new StringWriter();
+    BatchWriter writer = new BatchWriter(out, SearchServerServlet.RESPONSE_JSON_NEW);
+    writer.start(2);
+    writer.writeResults(0, RECORDING, "{\"count\":1,\"recordings\":[{\"id\":\"1\"}]}");
+    writer.writeError(1, UNKNOWN, 400, "Unknown resource type \"rel<eases\"");
+    writer.end();
+    assertEquals("{\"count\":2,\"searches\":["
+        + "{\"index\":0,\"type\":\"recording\",\"status\":200,\"results\":{\"count\":1,\"recordings\":[{\"id\":\"1\"}]}},"
+        + "{\"index\":1,\"type\":\"rel<eases\",\"status\":400,\"error\":\"Unknown resource type \\\"rel<eases\\\"\"}]}",
+        out.toString());
+  }
+
+  @Test
+  public void testXml() throws Exception {
+    StringWriter out = new StringWriter();
+    BatchWriter writer = new BatchWriter(out, SearchServerServlet.RESPONSE_XML);
+    writer.start(2);
+    writer.writeResults(0, RECORDING, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+        + "<metadata><recording-list count=\"1\"/></metadata>\n");
+    writer.writeError(1, UNKNOWN, 400, "Unknown resource type \"rel<eases\"");
+    writer.end();
+    assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<batch count=\"2\">\n"
+        + "<search index=\"0\" type=\"recording\" status=\"200\"><metadata><recording-list count=\"1\"/></metadata></search>\n"
+        + "<search index=\"1\" type=\"rel&lt;eases\" status=\"400\">"
+        + "<error>Unknown resource type &quot;rel&lt;eases&quot;</error></search>\n"
+        + "</batch>\n", out.toString());
+  }
+
+  @Test
+  public void testEmptyBatch() throws Exception {
+    StringWriter out = new StringWriter();
+    BatchWriter writer = new BatchWriter(out, SearchServerServlet.RESPONSE_JSON);
+    writer.start(0);
+    writer.end();
+    assertEquals("{\"count\":0,\"searches\":[]}", out.toString());
+  }
+
+  @Test
+  public void testMimeType() throws Exception {
+    assertEquals(BatchWriter.XML_MIME_TYPE, BatchWriter.getMimeType(SearchServerServlet.RESPONSE_XML));
+    assertEquals(BatchWriter.JSON_MIME_TYPE, BatchWriter.getMimeType(SearchServerServlet.RESPONSE_JSON));
+  }
+}
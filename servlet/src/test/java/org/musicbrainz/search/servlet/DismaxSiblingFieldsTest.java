@@ -0,0 +1,98 @@
+package org.musicbrainz.search.servlet;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.DismaxSiblingFields;
+import org.musicbrainz.search.index.ReleaseIndex;
+import org.musicbrainz.search.index.ReleaseIndexField;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DismaxSiblingFieldsTest {
+
+    private Analyzer analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+
+    private IndexSearcher createSearcher(boolean withSiblingFields) throws Exception {
+        RAMDirectory ramDir = new RAMDirectory();
+        IndexWriterConfig writerConfig = new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer);
+        IndexWriter writer = new IndexWriter(ramDir, writerConfig);
+        {
+            MbDocument doc = new MbDocument();
+            doc.addField(ReleaseIndexField.RELEASE_ID, "1d9e8ed6-3893-4d3b-aa7d-6cd79609e386");
+            doc.addField(ReleaseIndexField.RELEASE, "Farming Daylight Savings");
+            doc.addField(ReleaseIndexField.ARTIST, "Echo & The Bunnymen");
+            Document luceneDoc = doc.getLuceneDocument();
+            if (withSiblingFields) {
+                DismaxSiblingFields.forIndex(ReleaseIndex.INDEX_NAME).addTo(luceneDoc);
+            }
+            writer.addDocument(luceneDoc);
+        }
+        writer.close();
+        return new IndexSearcher(DirectoryReader.open(ramDir));
+    }
+
+    private Query parse(String query) throws Exception {
+        Map<String, DismaxAlias.AliasField> fieldBoosts = new HashMap<String, DismaxAlias.AliasField>(2);
+        fieldBoosts.put(ReleaseIndexField.RELEASE.getName(), new DismaxAlias.AliasField(true, 1.2f, true));
+        fieldBoosts.put(ReleaseIndexField.ARTIST.getName(), new DismaxAlias.AliasField(true, 1f, true));
+        DismaxAlias dismaxAlias = new DismaxAlias();
+        dismaxAlias.setFields(fieldBoosts);
+        dismaxAlias.setTie(0.1f);
+        return new ReleaseDismaxSearcher(dismaxAlias).parseQuery(query, analyzer);
+    }
+
+    @Test
+    public void testPrefixUsesNGramField() throws Exception {
+        IndexSearcher searcher = createSearcher(true);
+        Query query = parse("dayli");
+        assertEquals(1, searcher.search(query, 10).totalHits);
+
+        String rewritten = searcher.rewrite(query).toString();
+        assertTrue(rewritten, rewritten.contains("releasengram:dayli"));
+        assertFalse(rewritten, rewritten.contains("release:daylight"));
+    }
+
+    @Test
+    public void testFuzzyFallsBack() throws Exception {
+        IndexSearcher searcher = createSearcher(true);
+        Query query = parse("daylihgt");
+        assertEquals(1, searcher.search(query, 10).totalHits);
+        assertFalse(searcher.rewrite(query).toString().contains("releasengram"));
+    }
+
+    @Test
+    public void testPhraseUsesShingleField() throws Exception {
+        IndexSearcher searcher = createSearcher(true);
+        Query query = parse("daylight savings");
+        assertEquals(1, searcher.search(query, 10).totalHits);
+
+        String rewritten = searcher.rewrite(query).toString();
+        assertTrue(rewritten, rewritten.contains("releaseshingle:daylight savings"));
+    }
+
+    @Test
+    public void testIndexWithoutSiblingFields() throws Exception {
+        IndexSearcher searcher = createSearcher(false);
+        for (String query : new String[]{"dayli", "daylihgt", "daylight savings"}) {
+            Query q = parse(query);
+            assertEquals(query, 1, searcher.search(q, 10).totalHits);
+            assertFalse(query, searcher.rewrite(q).toString().contains("releasengram"));
+            assertFalse(query, searcher.rewrite(q).toString().contains("releaseshingle"));
+        }
+    }
+}
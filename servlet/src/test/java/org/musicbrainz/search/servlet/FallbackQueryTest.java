@@ -0,0 +1,31 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+
+public class FallbackQueryTest {
+
+  @Test
+  public void testExtractTermsOfBothQueries() {
+    Term shingle = new Term("name_shingle", "blue monday");
+    PhraseQuery phrase = new PhraseQuery();
+    phrase.add(new Term("name", "blue"));
+    phrase.add(new Term("name", "monday"));
+    FallbackQuery query = new FallbackQuery(new TermQuery(shingle), new Term[]{shingle}, phrase);
+
+    Set<Term> terms = new HashSet<Term>();
+    query.extractTerms(terms);
+    Set<Term> expected = new HashSet<Term>();
+    expected.add(shingle);
+    expected.add(new Term("name", "blue"));
+    expected.add(new Term("name", "monday"));
+    assertEquals(expected, terms);
+  }
+}
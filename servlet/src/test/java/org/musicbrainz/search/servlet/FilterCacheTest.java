@@ -0,0 +1,115 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Before;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.ReleaseIndexField;
+
+public class FilterCacheTest {
+
+  private Analyzer analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+  private RAMDirectory ramDir;
+  private IndexWriter writer;
+  private Set<String> filterFields;
+
+  @Before
+  public void setUp() throws Exception {
+    ramDir = new RAMDirectory();
+    writer = new IndexWriter(ramDir, new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer));
+    for (int i = 0; i < 100; i++) {
+      MbDocument doc = new MbDocument();
+      doc.addField(ReleaseIndexField.RELEASE_ID, Integer.toString(i));
+      doc.addField(ReleaseIndexField.RELEASE, i % 3 == 0 ? "greatest hits" : "live");
+      doc.addField(ReleaseIndexField.STATUS, i % 2 == 0 ? "Official" : "Bootleg");
+      doc.addField(ReleaseIndexField.COUNTRY, i % 5 == 0 ? "GB" : "US");
+      writer.addDocument(doc.getLuceneDocument());
+      if (i == 49) {
+        // Two segments
+        writer.commit();
+      }
+    }
+    writer.commit();
+
+    filterFields = new HashSet<String>();
+    filterFields.add(ReleaseIndexField.STATUS.getName());
+    filterFields.add(ReleaseIndexField.COUNTRY.getName());
+  }
+
+  private Query parse(String query) throws Exception {
+    return new QueryParser(LuceneVersion.LUCENE_VERSION, ReleaseIndexField.RELEASE.getName(), analyzer).parse(query);
+  }
+
+  @Test
+  public void testRequiredAndProhibitedClausesFiltered() throws Exception {
+    FilterCache filterCache = new FilterCache(FilterCache.DEFAULT_MAX_BYTES);
+    Query query = parse("greatest AND status:official AND NOT country:gb OR status:bootleg");
+    BooleanQuery filtered = (BooleanQuery) filterCache.applyTo(query, filterFields);
+    assertTrue(filtered.getClauses()[1].getQuery() instanceof ConstantScoreQuery);
+    assertTrue(filtered.getClauses()[2].getQuery() instanceof ConstantScoreQuery);
+    // Optional clauses score so are left alone
+    assertTrue(filtered.getClauses()[3].getQuery() instanceof TermQuery);
+    // The parsed query is left alone as it may be cached
+    assertTrue(((BooleanQuery) query).getClauses()[1].getQuery() instanceof TermQuery);
+
+    Query unfiltered = parse("release:live");
+    assertSame(unfiltered, filterCache.applyTo(unfiltered, filterFields));
+  }
+
+  @Test
+  public void testSameResults() throws Exception {
+    FilterCache filterCache = new FilterCache(FilterCache.DEFAULT_MAX_BYTES);
+    IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(ramDir));
+    for (String query : new String[] { "greatest AND status:official", "live AND NOT country:gb",
+        "status:official AND country:gb", "live AND status:unknown" }) {
+      int expected = searcher.search(parse(query), 100).totalHits;
+      assertEquals(query, expected, searcher.search(filterCache.applyTo(parse(query), filterFields), 100).totalHits);
+    }
+    searcher.getIndexReader().close();
+  }
+
+  @Test
+  public void testBitsetsReusedAfterRefresh() throws Exception {
+    FilterCache filterCache = new FilterCache(FilterCache.DEFAULT_MAX_BYTES);
+    Query query = filterCache.applyTo(parse("live AND status:official"), filterFields);
+
+    DirectoryReader reader = DirectoryReader.open(ramDir);
+    assertEquals(33, new IndexSearcher(reader).search(query, 100).totalHits);
+    assertEquals(2, filterCache.size());
+    assertEquals(2, filterCache.getStats().missCount());
+
+    // Deleting changes the live docs but not the segment cores, so the bitsets are still used
+    writer.deleteDocuments(new Term(ReleaseIndexField.RELEASE_ID.getName(), "2"));
+    writer.commit();
+    DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+    reader.close();
+    assertEquals(32, new IndexSearcher(newReader).search(query, 100).totalHits);
+    assertEquals(2, filterCache.getStats().hitCount());
+    assertEquals(2, filterCache.size());
+
+    // and dropped once the segments are closed
+    newReader.close();
+    writer.close();
+    assertEquals(0, filterCache.size());
+  }
+}
@@ -0,0 +1,95 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.EnumMap;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+public class IndexReadinessTest {
+
+  private static SearchServer newSearchServer() {
+    return (SearchServer) Proxy.newProxyInstance(SearchServer.class.getClassLoader(),
+        new Class<?>[] { SearchServer.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return null;
+          }
+        });
+  }
+
+  private static EnumMap<ResourceType, SearchServer> newSearchServers(ResourceType... resourceTypes) {
+    EnumMap<ResourceType, SearchServer> searchServers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+    for (ResourceType resourceType : resourceTypes) {
+      searchServers.put(resourceType, newSearchServer());
+    }
+    return searchServers;
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    IndexReadiness readiness = IndexReadiness.parse("artist, release,releases,");
+    assertEquals(EnumSet.of(ResourceType.ARTIST, ResourceType.RELEASE), readiness.getRequiredTypes());
+  }
+
+  @Test
+  public void testLoadStates() throws Exception {
+    IndexReadiness readiness = new IndexReadiness(EnumSet.of(ResourceType.ARTIST));
+    assertEquals(IndexReadiness.LoadState.NONE, readiness.getLoadState(ResourceType.ARTIST));
+
+    readiness.startLoad();
+    assertEquals(IndexReadiness.LoadState.LOADING, readiness.getLoadState(ResourceType.ARTIST));
+    assertEquals(IndexReadiness.LoadState.LOADING, readiness.getLoadState(ResourceType.RELEASE));
+
+    readiness.setLoaded(ResourceType.ARTIST, true);
+    readiness.setLoaded(ResourceType.RELEASE, false);
+    assertEquals(IndexReadiness.LoadState.LOADED, readiness.getLoadState(ResourceType.ARTIST));
+    assertEquals(IndexReadiness.LoadState.FAILED, readiness.getLoadState(ResourceType.RELEASE));
+    assertEquals(IndexReadiness.LoadState.LOADING, readiness.getLoadState(ResourceType.RECORDING));
+
+    // A later init starts over
+    readiness.startLoad();
+    assertEquals(IndexReadiness.LoadState.LOADING, readiness.getLoadState(ResourceType.RELEASE));
+  }
+
+  @Test
+  public void testReadyOnceRequiredTypesAreSearched() throws Exception {
+    IndexReadiness readiness = new IndexReadiness(EnumSet.of(ResourceType.ARTIST, ResourceType.RELEASE));
+    assertFalse(readiness.isReady(null));
+
+    // Published as the indexes load, the required ones first
+    IndexSet artistOnly = new IndexSet(newSearchServers(ResourceType.ARTIST), newSearchServers(ResourceType.ARTIST),
+        false);
+    assertFalse(readiness.isReady(artistOnly));
+    IndexSet required = artistOnly.extend(newSearchServers(ResourceType.RELEASE),
+        newSearchServers(ResourceType.RELEASE), false);
+    assertTrue(readiness.isReady(required));
+    IndexSet all = required.extend(newSearchServers(ResourceType.RECORDING), newSearchServers(ResourceType.RECORDING),
+        true);
+    assertTrue(readiness.isReady(all));
+    assertTrue(all.isSearchAllEnabled());
+
+    // Not ready once a set is missing a required index, such as after a failed init
+    assertFalse(readiness.isReady(new IndexSet(newSearchServers(ResourceType.RELEASE, ResourceType.RECORDING),
+        newSearchServers(ResourceType.RELEASE, ResourceType.RECORDING), true)));
+  }
+
+  @Test
+  public void testStatusMessage() throws Exception {
+    IndexReadiness readiness = new IndexReadiness(EnumSet.of(ResourceType.ARTIST));
+    readiness.startLoad();
+    readiness.setLoaded(ResourceType.ARTIST, true);
+    IndexSet indexSet = new IndexSet(newSearchServers(ResourceType.ARTIST), newSearchServers(ResourceType.ARTIST),
+        false);
+    String[] lines = readiness.getStatusMessage(indexSet).split("\n");
+    assertEquals("ready:true", lines[0]);
+    assertEquals("artist:serving:true,required:true,init:loaded", lines[1 + ResourceType.ARTIST.ordinal()]);
+    assertEquals("release:serving:false,required:false,init:loading", lines[1 + ResourceType.RELEASE.ordinal()]);
+  }
+}
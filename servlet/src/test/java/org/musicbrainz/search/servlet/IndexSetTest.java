@@ -0,0 +1,110 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class IndexSetTest {
+
+  // Number of times each search server was closed
+  private final Map<SearchServer, Integer> closed = new HashMap<SearchServer, Integer>();
+
+  private SearchServer newSearchServer() {
+    return (SearchServer) Proxy.newProxyInstance(SearchServer.class.getClassLoader(),
+        new Class<?>[] { SearchServer.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("close")) {
+              Integer count = closed.get(proxy);
+              closed.put((SearchServer) proxy, count == null ? 1 : count + 1);
+            } else if (method.getName().equals("hashCode")) {
+              return System.identityHashCode(proxy);
+            } else if (method.getName().equals("equals")) {
+              return proxy == args[0];
+            }
+            return null;
+          }
+        });
+  }
+
+  private EnumMap<ResourceType, SearchServer> newSearchServers(ResourceType... resourceTypes) {
+    EnumMap<ResourceType, SearchServer> searchServers = new EnumMap<ResourceType, SearchServer>(ResourceType.class);
+    for (ResourceType resourceType : resourceTypes) {
+      searchServers.put(resourceType, newSearchServer());
+    }
+    return searchServers;
+  }
+
+  private int getCloseCount(SearchServer searchServer) {
+    Integer count = closed.get(searchServer);
+    return count == null ? 0 : count;
+  }
+
+  @Test
+  public void testClosedOnLastRelease() throws Exception {
+    EnumMap<ResourceType, SearchServer> searchers = newSearchServers(ResourceType.ARTIST);
+    IndexSet indexSet = new IndexSet(searchers, new EnumMap<ResourceType, SearchServer>(ResourceType.class), false);
+    SearchServer artist = searchers.get(ResourceType.ARTIST);
+
+    // Requests acquire the set, the servlet releases its own reference when the set is replaced
+    assertTrue(indexSet.tryAcquire());
+    assertTrue(indexSet.tryAcquire());
+    indexSet.release();
+    indexSet.release();
+    assertEquals(0, getCloseCount(artist));
+
+    indexSet.release();
+    assertEquals(1, getCloseCount(artist));
+  }
+
+  @Test
+  public void testAcquireClosedSet() throws Exception {
+    IndexSet indexSet = new IndexSet(newSearchServers(ResourceType.ARTIST),
+        new EnumMap<ResourceType, SearchServer>(ResourceType.class), false);
+    indexSet.release();
+    assertFalse(indexSet.tryAcquire());
+    try {
+      indexSet.extend(newSearchServers(ResourceType.RELEASE), newSearchServers(), false);
+      fail();
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  @Test
+  public void testExtend() throws Exception {
+    EnumMap<ResourceType, SearchServer> artist = newSearchServers(ResourceType.ARTIST);
+    EnumMap<ResourceType, SearchServer> release = newSearchServers(ResourceType.RELEASE);
+    IndexSet base = new IndexSet(artist, newSearchServers(), false);
+    IndexSet extended = base.extend(release, newSearchServers(), true);
+    assertSame(artist.get(ResourceType.ARTIST), extended.getSearchServer(ResourceType.ARTIST, false));
+    assertSame(release.get(ResourceType.RELEASE), extended.getSearchServer(ResourceType.RELEASE, false));
+    assertTrue(extended.isSearchAllEnabled());
+
+    // The servlet publishes the extended set while a request is still searching the base set
+    assertTrue(base.tryAcquire());
+    base.release();
+    assertEquals(0, getCloseCount(artist.get(ResourceType.ARTIST)));
+
+    // Once replaced, the extended set only closes the index it added
+    extended.release();
+    assertEquals(0, getCloseCount(artist.get(ResourceType.ARTIST)));
+    assertEquals(1, getCloseCount(release.get(ResourceType.RELEASE)));
+
+    // The shared index is closed with the base set once the request releases it
+    base.release();
+    assertEquals(1, getCloseCount(artist.get(ResourceType.ARTIST)));
+    assertEquals(1, getCloseCount(release.get(ResourceType.RELEASE)));
+    assertFalse(base.tryAcquire());
+  }
+}
@@ -0,0 +1,140 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.ReleaseIndexField;
+
+public class IndexShardsTest {
+
+  private static final int SHARDS = 3;
+
+  private Analyzer analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+  private DirectoryReader reader;
+  private IndexShards indexShards;
+  private ParallelSearch parallelSearch;
+
+  // Shards score with the similarity set by the searcher factory, as the search servers do
+  private static IndexSearcher newSearcher(IndexReader reader) {
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity());
+    return searcher;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    RAMDirectory ramDir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(ramDir, new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer));
+    RAMDirectory[] shardDirs = new RAMDirectory[SHARDS];
+    IndexWriter[] shardWriters = new IndexWriter[SHARDS];
+    for (int i = 0; i < SHARDS; i++) {
+      shardDirs[i] = new RAMDirectory();
+      shardWriters[i] = new IndexWriter(shardDirs[i], new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer));
+    }
+    // Terms are spread unevenly across the id ranges of the shards, so their local statistics differ
+    for (int i = 0; i < 300; i++) {
+      MbDocument doc = new MbDocument();
+      doc.addField(ReleaseIndexField.RELEASE_ID, Integer.toString(i));
+      doc.addField(ReleaseIndexField.RELEASE, (i < 40 ? "greatest hits " : "") + (i % 11 == 0 ? "live " : "")
+          + "volume " + (i % 13));
+      writer.addDocument(doc.getLuceneDocument());
+      shardWriters[i * SHARDS / 300].addDocument(doc.getLuceneDocument());
+    }
+    writer.close();
+    reader = DirectoryReader.open(ramDir);
+
+    SearcherManager[] searcherManagers = new SearcherManager[SHARDS];
+    for (int i = 0; i < SHARDS; i++) {
+      shardWriters[i].close();
+      searcherManagers[i] = new SearcherManager(shardDirs[i], new SearcherFactory() {
+        @Override
+        public IndexSearcher newSearcher(IndexReader reader) {
+          return IndexShardsTest.newSearcher(reader);
+        }
+      });
+    }
+    indexShards = new IndexShards(searcherManagers);
+    parallelSearch = new ParallelSearch("test", 2, 10);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    parallelSearch.shutdown();
+    indexShards.close();
+    reader.close();
+  }
+
+  private Query parse(String query) throws Exception {
+    return new QueryParser(LuceneVersion.LUCENE_VERSION, ReleaseIndexField.RELEASE.getName(), analyzer).parse(query);
+  }
+
+  @Test
+  public void testSameResultsAsUnshardedIndex() throws Exception {
+    IndexSearcher searcher = newSearcher(reader);
+    for (String query : new String[] { "greatest OR live", "hits AND volume", "live OR 12^2", "vol*", "nothing" }) {
+      TopDocs expected = searcher.search(parse(query), 20);
+      IndexShards.Searchers searchers = indexShards.acquire();
+      try {
+        // The segments of all the shards are searched in parallel
+        TopDocs topDocs = parallelSearch.search(searchers.getSearcher(), searchers.getSearcher().rewrite(parse(query)),
+            20, 1000);
+        assertEquals(query, expected.totalHits, topDocs.totalHits);
+        assertEquals(query, expected.scoreDocs.length, topDocs.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+          assertEquals(query, expected.scoreDocs[i].score, topDocs.scoreDocs[i].score, 0.0001f);
+          assertEquals(query, searcher.doc(expected.scoreDocs[i].doc).get(ReleaseIndexField.RELEASE_ID.getName()),
+              searchers.getSearcher().doc(topDocs.scoreDocs[i].doc).get(ReleaseIndexField.RELEASE_ID.getName()));
+        }
+      } finally {
+        indexShards.release(searchers);
+      }
+    }
+  }
+
+  @Test
+  public void testCostOfAllShards() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(100000, 100000, 10);
+    IndexShards.Searchers searchers = indexShards.acquire();
+    try {
+      // Postings of terms are counted in every shard, as in the unsharded index
+      for (String query : new String[] { "greatest OR live", "hits AND volume", "nothing" }) {
+        QueryCostGuard.Cost expected = guard.estimate(parse(query), reader);
+        QueryCostGuard.Cost cost = guard.estimate(parse(query), searchers.getSearcher().getIndexReader());
+        assertEquals(query, expected.getPostings(), cost.getPostings());
+        assertEquals(query, expected.getTerms(), cost.getTerms());
+      }
+    } finally {
+      indexShards.release(searchers);
+    }
+  }
+
+  @Test
+  public void testSimilarityOfShards() throws Exception {
+    IndexShards.Searchers searchers = indexShards.acquire();
+    try {
+      assertTrue(searchers.getSearcher().getSimilarity() instanceof BM25Similarity);
+      assertEquals(SHARDS, searchers.getSearcher().getIndexReader().leaves().size());
+    } finally {
+      indexShards.release(searchers);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    for (long micros = 0; micros < 100000; micros++) {
+      int index = LatencyHistogram.index(micros);
+      assertTrue(micros <= LatencyHistogram.highestValue(index));
+      assertTrue(index == 0 || micros > LatencyHistogram.highestValue(index - 1));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentile(99));
+    for (int millis = 1; millis <= 1000; millis++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000000, histogram.getMax());
+    assertEquals(500500, histogram.getMean());
+    assertWithin(500000, histogram.getPercentile(50));
+    assertWithin(950000, histogram.getPercentile(95));
+    assertWithin(990000, histogram.getPercentile(99));
+    assertEquals(1000000, histogram.getPercentile(100));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " isn't close to " + expected, actual >= expected && actual <= expected * 1.07);
+  }
+}
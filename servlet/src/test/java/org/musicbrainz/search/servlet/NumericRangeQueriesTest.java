@@ -0,0 +1,86 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.MetaIndexField;
+import org.musicbrainz.search.index.RecordingIndexField;
+
+public class NumericRangeQueriesTest {
+
+  private static final int[] DURATIONS = { 87, 1000, 234000, 240000, 3599999 };
+
+  private Analyzer analyzer = DatabaseIndex.getAnalyzer(RecordingIndexField.class);
+
+  /**
+   * @param trie whether to index the way the index is built now, or with only the full precision term of each value
+   *          as older indexes were
+   */
+  private IndexSearcher createSearcher(boolean trie) throws Exception {
+    RAMDirectory ramDir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(ramDir, new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer));
+    if (trie) {
+      MbDocument meta = new MbDocument();
+      meta.addField(MetaIndexField.NUMERIC_PRECISION_STEP, MbDocument.NUMERIC_PRECISION_STEP);
+      writer.addDocument(meta.getLuceneDocument());
+    }
+    for (int duration : DURATIONS) {
+      MbDocument doc = new MbDocument();
+      if (trie) {
+        doc.addNumericField(RecordingIndexField.DURATION, duration);
+      } else {
+        BytesRefBuilder bytes = new BytesRefBuilder();
+        NumericUtils.intToPrefixCoded(duration, 0, bytes);
+        doc.getLuceneDocument().add(new Field(RecordingIndexField.DURATION.getName(),
+            bytes.toBytesRef().utf8ToString(), RecordingIndexField.DURATION.getFieldType()));
+      }
+      writer.addDocument(doc.getLuceneDocument());
+    }
+    writer.close();
+    return new IndexSearcher(DirectoryReader.open(ramDir));
+  }
+
+  private Query parse(String query) throws Exception {
+    return new RecordingQueryParser(new String[] { RecordingIndexField.RECORDING.getName() }, analyzer).parse(query);
+  }
+
+  private void assertHits(IndexSearcher searcher) throws Exception {
+    assertEquals(4, searcher.search(parse("dur:[87 TO 240000]"), 10).totalHits);
+    assertEquals(2, searcher.search(parse("dur:{87 TO 240000}"), 10).totalHits);
+    assertEquals(2, searcher.search(parse("dur:[* TO 1000]"), 10).totalHits);
+    assertEquals(2, searcher.search(parse("dur:[240000 TO *]"), 10).totalHits);
+    assertEquals(1, searcher.search(parse("dur:234000"), 10).totalHits);
+  }
+
+  @Test
+  public void testTrieEncodedIndex() throws Exception {
+    IndexSearcher searcher = createSearcher(true);
+    assertHits(searcher);
+    assertTrue(((FallbackQuery) parse("dur:[87 TO 240000]")).choose(searcher.getIndexReader()) instanceof NumericRangeQuery);
+    searcher.getIndexReader().close();
+  }
+
+  @Test
+  public void testIndexBuiltBeforeTrieEncoding() throws Exception {
+    IndexSearcher searcher = createSearcher(false);
+    assertHits(searcher);
+    assertTrue(((FallbackQuery) parse("dur:[87 TO 240000]")).choose(searcher.getIndexReader()) instanceof TermRangeQuery);
+    searcher.getIndexReader().close();
+  }
+}
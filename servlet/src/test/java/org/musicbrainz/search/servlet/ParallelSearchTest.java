@@ -0,0 +1,71 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.ReleaseIndexField;
+
+public class ParallelSearchTest {
+
+  private Analyzer analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+  private DirectoryReader reader;
+  private ParallelSearch parallelSearch;
+
+  @Before
+  public void setUp() throws Exception {
+    RAMDirectory ramDir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(ramDir, new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer));
+    for (int i = 0; i < 400; i++) {
+      MbDocument doc = new MbDocument();
+      doc.addField(ReleaseIndexField.RELEASE, (i % 7 == 0 ? "greatest hits " : "") + "live volume " + (i % 13));
+      writer.addDocument(doc.getLuceneDocument());
+      if (i % 100 == 99) {
+        writer.commit();
+      }
+    }
+    writer.close();
+    reader = DirectoryReader.open(ramDir);
+    parallelSearch = new ParallelSearch("release", 2, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    parallelSearch.shutdown();
+    reader.close();
+  }
+
+  private Query parse(String query) throws Exception {
+    return new QueryParser(LuceneVersion.LUCENE_VERSION, ReleaseIndexField.RELEASE.getName(), analyzer).parse(query);
+  }
+
+  @Test
+  public void testSameResultsAsSequentialSearch() throws Exception {
+    assertTrue(reader.leaves().size() > 1);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    for (String query : new String[] { "greatest OR volume", "live AND 5", "hits^2 OR 12", "nothing" }) {
+      TopDocs expected = new IndexSearcher(reader).search(parse(query), 25);
+      TopDocs topDocs = parallelSearch.search(searcher, parse(query), 25, 1000);
+      assertEquals(query, expected.totalHits, topDocs.totalHits);
+      assertEquals(query, expected.scoreDocs.length, topDocs.scoreDocs.length);
+      for (int i = 0; i < expected.scoreDocs.length; i++) {
+        assertEquals(query, expected.scoreDocs[i].doc, topDocs.scoreDocs[i].doc);
+        assertEquals(query, expected.scoreDocs[i].score, topDocs.scoreDocs[i].score, 0.0001f);
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.analysis.MusicbrainzSimilarity;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.MetaIndexField;
+import org.musicbrainz.search.index.ReleaseIndexField;
+
+public class QueryCacheTest {
+
+  @Test
+  public void testReturnsCopies() {
+    QueryCache cache = new QueryCache(10);
+    Query query = new TermQuery(new Term("release", "farming"));
+    cache.put(ResourceType.RELEASE, false, "farming", query);
+
+    Query cached = cache.get(ResourceType.RELEASE, false, "farming");
+    assertEquals(query, cached);
+    assertNotSame(query, cached);
+
+    // Changing the returned query mustn't change the cached one
+    cached.setBoost(2f);
+    assertEquals(query, cache.get(ResourceType.RELEASE, false, "farming"));
+  }
+
+  @Test
+  public void testReturnsDeepCopies() {
+    QueryCache cache = new QueryCache(10);
+    BooleanQuery query = new BooleanQuery();
+    query.add(new TermQuery(new Term("release", "farming")), BooleanClause.Occur.MUST);
+    DisjunctionMaxQuery dmq = new DisjunctionMaxQuery(0.1f);
+    dmq.add(new TermQuery(new Term("release", "orb")));
+    dmq.add(new TermQuery(new Term("artist", "orb")));
+    query.add(dmq, BooleanClause.Occur.SHOULD);
+    String original = query.toString();
+    cache.put(ResourceType.RELEASE, false, "farming orb", query);
+
+    // Changing the clauses or nested queries of what was cached or returned mustn't change the cached query
+    query.clauses().get(0).setOccur(BooleanClause.Occur.SHOULD);
+    query.clauses().get(0).getQuery().setBoost(3f);
+    BooleanQuery cached = (BooleanQuery) cache.get(ResourceType.RELEASE, false, "farming orb");
+    assertEquals(original, cached.toString());
+    cached.clauses().get(1).setOccur(BooleanClause.Occur.MUST_NOT);
+    ((DisjunctionMaxQuery) cached.clauses().get(1).getQuery()).getDisjuncts().get(0).setBoost(2f);
+    cached.clauses().get(0).getQuery().setBoost(2f);
+    assertEquals(original, cache.get(ResourceType.RELEASE, false, "farming orb").toString());
+  }
+
+  @Test
+  public void testKeyedByResourceTypeAndDismax() {
+    QueryCache cache = new QueryCache(10);
+    cache.put(ResourceType.RELEASE, false, "farming", new TermQuery(new Term("release", "farming")));
+
+    assertNotNull(cache.get(ResourceType.RELEASE, false, "farming"));
+    assertNull(cache.get(ResourceType.RELEASE, true, "farming"));
+    assertNull(cache.get(ResourceType.ARTIST, false, "farming"));
+    assertNull(cache.get(ResourceType.RELEASE, false, "Farming"));
+    assertEquals(1, cache.getStats().hitCount());
+    assertEquals(3, cache.getStats().missCount());
+  }
+
+  @Test
+  public void testSearchServersUseCache() throws Exception {
+    RAMDirectory ramDir = new RAMDirectory();
+    Analyzer analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+    IndexWriterConfig writerConfig = new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer);
+    writerConfig.setSimilarity(new MusicbrainzSimilarity());
+    IndexWriter writer = new IndexWriter(ramDir, writerConfig);
+    {
+      MbDocument doc = new MbDocument();
+      doc.addField(ReleaseIndexField.RELEASE_ID, "11111111-1cf0-4d1f-aca7-2a6f89e34b36");
+      doc.addField(ReleaseIndexField.CATALOG_NO, "AD 17T");
+      writer.addDocument(doc.getLuceneDocument());
+    }
+    {
+      MbDocument doc = new MbDocument();
+      doc.addField(MetaIndexField.META, MetaIndexField.META_VALUE);
+      doc.addNumericField(MetaIndexField.LAST_UPDATED, new Date().getTime());
+      writer.addDocument(doc.getLuceneDocument());
+    }
+    writer.close();
+
+    SearcherManager searcherManager = new SearcherManager(ramDir, new MusicBrainzSearcherFactory(ResourceType.RELEASE));
+    AbstractSearchServer ss = new ReleaseSearch(searcherManager);
+    AbstractDismaxSearchServer sd = new ReleaseDismaxSearch(ss);
+    QueryCache cache = new QueryCache(10);
+    ss.setQueryCache(cache, ResourceType.RELEASE);
+    sd.setQueryCache(cache, ResourceType.RELEASE);
+
+    assertEquals(1, ss.search("catno:ad17t", 0, 10).getTotalHits());
+    assertEquals(1, ss.search("catno:ad17t", 0, 10).getTotalHits());
+    assertEquals(1, sd.search("ad17t", 0, 10).getTotalHits());
+    assertEquals(1, sd.search("ad17t", 0, 10).getTotalHits());
+
+    assertEquals(2, cache.size());
+    assertEquals(2, cache.getStats().hitCount());
+    assertEquals(2, cache.getStats().missCount());
+  }
+}
@@ -0,0 +1,139 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.ReleaseIndexField;
+
+public class QueryCostGuardTest {
+
+  private Analyzer analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+  private IndexReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    RAMDirectory ramDir = new RAMDirectory();
+    IndexWriterConfig writerConfig = new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer);
+    IndexWriter writer = new IndexWriter(ramDir, writerConfig);
+    for (int i = 0; i < 1000; i++) {
+      MbDocument doc = new MbDocument();
+      doc.addField(ReleaseIndexField.RELEASE, "title" + i + " volume");
+      doc.addField(ReleaseIndexField.COUNTRY, i % 2 == 0 ? "GB" : "US");
+      writer.addDocument(doc.getLuceneDocument());
+    }
+    writer.close();
+    reader = DirectoryReader.open(ramDir);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    reader.close();
+  }
+
+  private Query parse(String query) throws Exception {
+    QueryParser parser = new QueryParser(LuceneVersion.LUCENE_VERSION, ReleaseIndexField.RELEASE.getName(), analyzer);
+    return parser.parse(query);
+  }
+
+  @Test
+  public void testEstimate() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(100000, 100000, 10);
+    assertEquals(1000, guard.estimate(parse("volume"), reader).getPostings());
+    assertEquals(1500, guard.estimate(parse("volume OR country:gb"), reader).getPostings());
+    assertEquals(2, guard.estimate(parse("volume OR country:gb"), reader).getTerms());
+    // A regexp has to look at every term of the field
+    assertEquals(1001, guard.estimate(parse("/.*5/"), reader).getTerms());
+  }
+
+  @Test
+  public void testMatchAllIsCheap() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(600, 100, 10);
+    assertEquals(1, guard.estimate(new MatchAllDocsQuery(), reader).getPostings());
+    assertEquals(0, guard.estimate(new MatchAllDocsQuery(), reader).getTerms());
+
+    // More documents than the budget allows postings, yet admitted
+    Query query = parse("*:* -country:gb");
+    assertEquals(501, guard.estimate(query, reader).getPostings());
+    assertSame(query, guard.admit("-country:gb", query, reader));
+  }
+
+  @Test
+  public void testCheapQueryAdmitted() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(2000, 100, 10);
+    Query query = parse("title5 AND country:gb");
+    assertSame(query, guard.admit("title5 AND country:gb", query, reader));
+  }
+
+  @Test
+  public void testExpansionCapped() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(100, 2000, 10);
+    Query query = parse("/title.*/");
+    Query admitted = guard.admit("/title.*/", query, reader);
+    assertNotSame(query, admitted);
+    assertTrue(((MultiTermQuery) admitted).getRewriteMethod() instanceof MultiTermQuery.TopTermsScoringBooleanQueryRewrite);
+    // The parsed query is left alone as it may be cached
+    assertSame(MultiTermQuery.CONSTANT_SCORE_AUTO_REWRITE_DEFAULT, ((MultiTermQuery) query).getRewriteMethod());
+  }
+
+  @Test
+  public void testCappedInsideBooleanQuery() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(1100, 2000, 10);
+    Query query = parse("volume AND /title.*/");
+    Query admitted = guard.admit("volume AND /title.*/", query, reader);
+    MultiTermQuery capped = (MultiTermQuery) ((BooleanQuery) admitted).getClauses()[1].getQuery();
+    assertTrue(capped.getRewriteMethod() instanceof MultiTermQuery.TopTermsScoringBooleanQueryRewrite);
+  }
+
+  @Test
+  public void testTooManyTermsRejected() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(100000, 100, 10);
+    try {
+      guard.admit("/.*5/", parse("/.*5/"), reader);
+      fail();
+    } catch (QueryTooExpensiveException e) {
+      assertEquals("Search is too expensive, try making release:/.*5/ more specific:/.*5/", e.getMessage());
+    }
+
+    // Small fields can still be expanded
+    Query query = parse("country:/.*b/");
+    assertSame(query, guard.admit("country:/.*b/", query, reader));
+  }
+
+  @Test
+  public void testCappingDoesNotLowerTerms() throws Exception {
+    QueryCostGuard guard = new QueryCostGuard(100, 100, 10);
+    Query query = parse("/title.*/");
+    QueryCostGuard.Cost cost = guard.estimate(query, reader);
+    QueryCostGuard.Cost cappedCost = guard.estimate(guard.cap(query), reader);
+    assertTrue(cappedCost.getPostings() < cost.getPostings());
+    assertEquals(cost.getTerms(), cappedCost.getTerms());
+
+    // Over both budgets, rejected for its terms without being capped
+    try {
+      guard.admit("/title.*/", query, reader);
+      fail();
+    } catch (QueryTooExpensiveException e) {
+      assertEquals("Search is too expensive, try making release:/title.*/ more specific:/title.*/", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * A request rate limited for the address
+   */
+  private static HttpServletRequest newRequest(final String remoteIpAddress) {
+    return (HttpServletRequest) Proxy.newProxyInstance(RateLimiterTest.class.getClassLoader(),
+        new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getHeader")) {
+              if ("X-Apply-Rate-Limit".equals(args[0])) {
+                return "yes";
+              } else if ("X-MB-Remote-Addr".equals(args[0])) {
+                return remoteIpAddress;
+              }
+            }
+            return null;
+          }
+        });
+  }
+
+  @Test
+  public void testTokenBucket() throws Exception {
+    TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(5, 10);
+    long now = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      assertTrue(rateLimiter.check("10.0.0.1", now).isValid());
+    }
+    RateLimiterChecker.RateLimiterResponse response = rateLimiter.check("10.0.0.1", now);
+    assertFalse(response.isValid());
+    assertEquals("6.0 5 10", response.getHeaderMsg());
+    assertEquals("Your requests are exceeding the allowable rate limit, you are limited to making 5 requests per 10"
+        + " seconds, but you're currently making 6.0 requests in that period. Please see"
+        + " http://wiki.musicbrainz.org/XMLWebService for more information.", response.getMsg());
+
+    // Other addresses have their own bucket
+    assertTrue(rateLimiter.check("10.0.0.2", now).isValid());
+
+    // One token back every 2 seconds
+    assertFalse(rateLimiter.check("10.0.0.1", now + SECOND).isValid());
+    assertTrue(rateLimiter.check("10.0.0.1", now + 2 * SECOND).isValid());
+    assertFalse(rateLimiter.check("10.0.0.1", now + 2 * SECOND).isValid());
+  }
+
+  @Test
+  public void testBatchTakesTokenForEachSearch() throws Exception {
+    TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(5, 10);
+    long now = System.nanoTime();
+    assertTrue(rateLimiter.check("10.0.0.1", 3, now).isValid());
+    RateLimiterChecker.RateLimiterResponse response = rateLimiter.check("10.0.0.1", 3, now);
+    assertFalse(response.isValid());
+    assertEquals("6.0 5 10", response.getHeaderMsg());
+    assertTrue(rateLimiter.check("10.0.0.1", 2, now).isValid());
+
+    // A batch larger than the limit is never let through, and takes no tokens
+    response = rateLimiter.check("10.0.0.3", 20, now);
+    assertFalse(response.isValid());
+    assertEquals("20.0 5 10", response.getHeaderMsg());
+    for (int i = 0; i < 5; i++) {
+      assertTrue(rateLimiter.check("10.0.0.3", now).isValid());
+    }
+  }
+
+  @Test
+  public void testUdpBatchSendsEachSearch() throws Exception {
+    final DatagramSocket server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+    final AtomicInteger received = new AtomicInteger();
+    Thread serverThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          byte[] buffer = new byte[100];
+          while (true) {
+            DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+            server.receive(request);
+            String message = new String(request.getData(), request.getOffset(), request.getLength());
+            String requestId = message.substring(0, message.indexOf(' '));
+            // Allows 3 searches
+            int searches = received.incrementAndGet();
+            String reply = searches <= 3 ? requestId + " ok N " + searches + ".0 3 10"
+                : requestId + " ok Y " + searches + ".0 3 10";
+            byte[] bytes = reply.getBytes();
+            server.send(new DatagramPacket(bytes, bytes.length, request.getSocketAddress()));
+          }
+        } catch (Exception e) {
+          // Closed
+        }
+      }
+    };
+    serverThread.setDaemon(true);
+    serverThread.start();
+
+    UdpRateLimiter rateLimiter = new UdpRateLimiter(InetAddress.getByName("127.0.0.1"), server.getLocalPort(), 1000);
+    try {
+      assertTrue(rateLimiter.check("10.0.0.1", 2).isValid());
+      assertEquals(2, received.get());
+      RateLimiterChecker.RateLimiterResponse response = rateLimiter.check("10.0.0.1", 3);
+      assertFalse(response.isValid());
+      assertEquals(5, received.get());
+      assertEquals("5.0 3 10", response.getHeaderMsg());
+    } finally {
+      rateLimiter.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testIdleBucketsRemoved() throws Exception {
+    TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(5, 10);
+    long now = System.nanoTime();
+    rateLimiter.check("10.0.0.1", now);
+    for (int i = 0; i < 3; i++) {
+      rateLimiter.check("10.0.0.2", now + 9 * SECOND);
+    }
+    assertEquals(2, rateLimiter.size());
+    // The first bucket is full again, the second isn't yet
+    rateLimiter.check("10.0.0.3", now + 12 * SECOND);
+    assertEquals(2, rateLimiter.size());
+  }
+
+  @Test
+  public void testUdpReplies() throws Exception {
+    final DatagramSocket server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+    Thread serverThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          byte[] buffer = new byte[100];
+          while (true) {
+            DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+            server.receive(request);
+            String message = new String(request.getData(), request.getOffset(), request.getLength());
+            String requestId = message.substring(0, message.indexOf(' '));
+            String reply;
+            if (message.endsWith("10.0.0.1")) {
+              reply = requestId + " ok N 1.0 5 10";
+            } else if (message.endsWith("10.0.0.2")) {
+              reply = requestId + " ok Y 8.5 5 10";
+            } else {
+              // No reply
+              continue;
+            }
+            byte[] bytes = reply.getBytes();
+            server.send(new DatagramPacket(bytes, bytes.length, request.getSocketAddress()));
+          }
+        } catch (Exception e) {
+          // Closed
+        }
+      }
+    };
+    serverThread.setDaemon(true);
+    serverThread.start();
+
+    UdpRateLimiter rateLimiter = new UdpRateLimiter(InetAddress.getByName("127.0.0.1"), server.getLocalPort(), 500);
+    try {
+      assertTrue(rateLimiter.check("10.0.0.1").isValid());
+      RateLimiterChecker.RateLimiterResponse response = rateLimiter.check("10.0.0.2");
+      assertFalse(response.isValid());
+      assertEquals("8.5 5 10", response.getHeaderMsg());
+
+      // Let through once the timeout has passed
+      long start = System.currentTimeMillis();
+      assertTrue(rateLimiter.check("10.0.0.3").isValid());
+      assertTrue(System.currentTimeMillis() - start < 2000);
+    } finally {
+      rateLimiter.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testInitKeepsRateLimiterOfSameConfig() throws Exception {
+    HttpServletRequest request = newRequest("10.0.0.1");
+    try {
+      RateLimiterChecker.initLocal(2, 10);
+      assertTrue(RateLimiterChecker.checkRateLimiter(request).isValid());
+      assertTrue(RateLimiterChecker.checkRateLimiter(request).isValid());
+
+      // The searches already made still count
+      RateLimiterChecker.initLocal(2, 10);
+      assertFalse(RateLimiterChecker.checkRateLimiter(request).isValid());
+
+      // A new configuration starts afresh
+      RateLimiterChecker.initLocal(3, 10);
+      assertTrue(RateLimiterChecker.checkRateLimiter(request).isValid());
+    } finally {
+      RateLimiterChecker.close();
+    }
+  }
+
+  @Test
+  public void testFailedUdpInitDisablesRateLimiting() throws Exception {
+    HttpServletRequest request = newRequest("10.0.0.1");
+    try {
+      RateLimiterChecker.initLocal(1, 10);
+      assertTrue(RateLimiterChecker.checkRateLimiter(request).isValid());
+      assertFalse(RateLimiterChecker.checkRateLimiter(request).isValid());
+
+      RateLimiterChecker.initUdp("127.0.0.1", "notaport", 200);
+      assertTrue(RateLimiterChecker.checkRateLimiter(request).isValid());
+      assertTrue(RateLimiterChecker.checkRateLimiter(request).isValid());
+    } finally {
+      RateLimiterChecker.close();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Before;
+import org.junit.Test;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.MbDocument;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.ReleaseIndexField;
+
+public class RewriteCacheTest {
+
+  private Analyzer analyzer = DatabaseIndex.getAnalyzer(ReleaseIndexField.class);
+  private RAMDirectory ramDir;
+
+  @Before
+  public void setUp() throws Exception {
+    ramDir = new RAMDirectory();
+    IndexWriterConfig writerConfig = new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer);
+    IndexWriter writer = new IndexWriter(ramDir, writerConfig);
+    for (String title : new String[] { "Metallica", "Metal Box", "Master of Puppets" }) {
+      MbDocument doc = new MbDocument();
+      doc.addField(ReleaseIndexField.RELEASE, title);
+      writer.addDocument(doc.getLuceneDocument());
+    }
+    writer.close();
+  }
+
+  private Query parse(String query) throws Exception {
+    Map<String, DismaxAlias.AliasField> fieldBoosts = new HashMap<String, DismaxAlias.AliasField>(1);
+    fieldBoosts.put(ReleaseIndexField.RELEASE.getName(), new DismaxAlias.AliasField(true, 1.2f));
+    DismaxAlias dismaxAlias = new DismaxAlias();
+    dismaxAlias.setFields(fieldBoosts);
+    dismaxAlias.setTie(0.1f);
+    return new DismaxSearcher(dismaxAlias).parseQuery(query, analyzer);
+  }
+
+  @Test
+  public void testCachedRewriteGivesSameResults() throws Exception {
+    IndexReader uncachedReader = DirectoryReader.open(ramDir);
+    IndexReader reader = DirectoryReader.open(ramDir);
+    RewriteCache.register(reader, RewriteCache.DEFAULT_MAX_BYTES);
+    IndexSearcher uncached = new IndexSearcher(uncachedReader);
+    IndexSearcher searcher = new IndexSearcher(reader);
+
+    TopDocs expected = uncached.search(parse("metall"), 10);
+    TopDocs first = searcher.search(parse("metall"), 10);
+    TopDocs second = searcher.search(parse("metall"), 10);
+
+    for (TopDocs topDocs : new TopDocs[] { first, second }) {
+      assertEquals(expected.totalHits, topDocs.totalHits);
+      for (int i = 0; i < expected.scoreDocs.length; i++) {
+        assertEquals(expected.scoreDocs[i].doc, topDocs.scoreDocs[i].doc);
+        assertEquals(expected.scoreDocs[i].score, topDocs.scoreDocs[i].score, 0.0001f);
+      }
+    }
+
+    RewriteCache rewriteCache = RewriteCache.forReader(reader);
+    // A prefix and a fuzzy expansion
+    assertEquals(2, rewriteCache.size());
+    assertEquals(2, rewriteCache.getStats().hitCount());
+    uncachedReader.close();
+    reader.close();
+  }
+
+  @Test
+  public void testBoostAppliedToCachedExpansion() throws Exception {
+    IndexReader uncachedReader = DirectoryReader.open(ramDir);
+    IndexReader reader = DirectoryReader.open(ramDir);
+    RewriteCache.register(reader, RewriteCache.DEFAULT_MAX_BYTES);
+    IndexSearcher uncached = new IndexSearcher(uncachedReader);
+    IndexSearcher searcher = new IndexSearcher(reader);
+
+    searcher.rewrite(parse("metall"));
+    Map<String, DismaxAlias.AliasField> fieldBoosts = new HashMap<String, DismaxAlias.AliasField>(1);
+    fieldBoosts.put(ReleaseIndexField.RELEASE.getName(), new DismaxAlias.AliasField(true, 3f));
+    DismaxAlias dismaxAlias = new DismaxAlias();
+    dismaxAlias.setFields(fieldBoosts);
+    dismaxAlias.setTie(0.1f);
+    Query boosted = new DismaxSearcher(dismaxAlias).parseQuery("metall", analyzer);
+
+    assertEquals(uncached.rewrite(boosted).toString(), searcher.rewrite(boosted).toString());
+    assertEquals(2, RewriteCache.forReader(reader).getStats().hitCount());
+    uncachedReader.close();
+    reader.close();
+  }
+
+  @Test
+  public void testDroppedWhenReaderClosed() throws Exception {
+    IndexReader reader = DirectoryReader.open(ramDir);
+    RewriteCache.register(reader, RewriteCache.DEFAULT_MAX_BYTES);
+    assertNotNull(RewriteCache.forReader(reader));
+    reader.close();
+    assertNull(RewriteCache.forReader(reader));
+  }
+}
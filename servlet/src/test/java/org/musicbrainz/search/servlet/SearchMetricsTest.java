@@ -0,0 +1,36 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SearchMetricsTest {
+
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testStatusClassCounters() {
+    SearchMetrics searchMetrics = new SearchMetrics();
+    int[] statuses = { 200, 200, 400, 408, 500, 503 };
+    for (int status : statuses) {
+      searchMetrics.recordRequest(ResourceType.ARTIST, status, 10 * MILLI);
+    }
+
+    assertEquals(6, searchMetrics.getCount(ResourceType.ARTIST, SearchMetrics.Counter.REQUESTS));
+    assertEquals(2, searchMetrics.getCount(ResourceType.ARTIST, SearchMetrics.Counter.CLIENT_ERRORS));
+    assertEquals(2, searchMetrics.getCount(ResourceType.ARTIST, SearchMetrics.Counter.SERVER_ERRORS));
+    assertEquals(1, searchMetrics.getCount(ResourceType.ARTIST, SearchMetrics.Counter.TIMEOUTS));
+    assertEquals(6, searchMetrics.getHistogram(ResourceType.ARTIST, SearchMetrics.Phase.TOTAL).getCount());
+    // Counted for their own resource type only
+    assertEquals(0, searchMetrics.getCount(ResourceType.RELEASE, SearchMetrics.Counter.REQUESTS));
+
+    String message = searchMetrics.getStatsMessage();
+    assertTrue(message, message.contains("artist counters:requests:6,query_cache_hits:0,timeouts:1,errors:0,"
+        + "client_errors:2,server_errors:2,rejected:0,shed:0\n"));
+    assertFalse(message, message.contains("release "));
+  }
+}
@@ -0,0 +1,154 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SearchWorkersTest {
+
+  private SearchWorkers searchWorkers;
+  // Released at the end of each test so that blocked searches complete
+  private final CountDownLatch unblock = new CountDownLatch(1);
+
+  /**
+   * Search that keeps its thread until the test ends
+   */
+  private class BlockedSearch implements Runnable {
+
+    private final CountDownLatch started;
+    private final AtomicInteger running;
+    private final AtomicInteger maxRunning;
+
+    BlockedSearch(CountDownLatch started, AtomicInteger running, AtomicInteger maxRunning) {
+      this.started = started;
+      this.running = running;
+      this.maxRunning = maxRunning;
+    }
+
+    @Override
+    public void run() {
+      int count = running.incrementAndGet();
+      synchronized (maxRunning) {
+        maxRunning.set(Math.max(maxRunning.get(), count));
+      }
+      started.countDown();
+      try {
+        unblock.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+
+  private static Runnable countDown(final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    unblock.countDown();
+    if (searchWorkers != null) {
+      searchWorkers.shutdown();
+    }
+  }
+
+  @Test
+  public void testPoolIsBounded() throws Exception {
+    Map<ResourceType, Integer> typeThreads = new EnumMap<ResourceType, Integer>(ResourceType.class);
+    typeThreads.put(ResourceType.ARTIST, 2);
+    searchWorkers = new SearchWorkers(4, typeThreads, 2);
+
+    CountDownLatch started = new CountDownLatch(2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    // Two running and two queued
+    for (int i = 0; i < 4; i++) {
+      assertTrue(searchWorkers.execute(ResourceType.ARTIST, new BlockedSearch(started, running, maxRunning)));
+    }
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(2, maxRunning.get());
+    assertTrue(searchWorkers.getStatsMessage().contains("artist:threads:2,active:2,queued:2,completed:0,rejected:0"));
+
+    unblock.countDown();
+    searchWorkers.shutdown();
+    assertTrue(awaitZero(running));
+    assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void testRejectedWhenQueueIsFull() throws Exception {
+    searchWorkers = new SearchWorkers(1, Collections.<ResourceType, Integer> emptyMap(), 1);
+
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    assertTrue(searchWorkers.execute(ResourceType.ARTIST, new BlockedSearch(started, running, maxRunning)));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(searchWorkers.execute(ResourceType.ARTIST, new BlockedSearch(started, running, maxRunning)));
+
+    CountDownLatch rejected = new CountDownLatch(1);
+    assertFalse(searchWorkers.execute(ResourceType.ARTIST, countDown(rejected)));
+    assertFalse(searchWorkers.execute(ResourceType.ARTIST, countDown(rejected)));
+    assertTrue(searchWorkers.getStatsMessage().contains("artist:threads:1,active:1,queued:1,completed:0,rejected:2"));
+
+    // Refused searches are never run
+    unblock.countDown();
+    searchWorkers.shutdown();
+    assertTrue(awaitZero(running));
+    assertEquals(1, rejected.getCount());
+  }
+
+  @Test
+  public void testResourceTypesAreIsolated() throws Exception {
+    searchWorkers = new SearchWorkers(1, Collections.<ResourceType, Integer> emptyMap(), 1);
+
+    // Saturate the recording pool
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    assertTrue(searchWorkers.execute(ResourceType.RECORDING, new BlockedSearch(started, running, maxRunning)));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(searchWorkers.execute(ResourceType.RECORDING, new BlockedSearch(started, running, maxRunning)));
+    assertFalse(searchWorkers.execute(ResourceType.RECORDING, new BlockedSearch(started, running, maxRunning)));
+
+    // Other resource types, and type=all, still run straight away
+    CountDownLatch done = new CountDownLatch(2);
+    assertTrue(searchWorkers.execute(ResourceType.ARTIST, countDown(done)));
+    assertTrue(searchWorkers.execute(null, countDown(done)));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    String stats = searchWorkers.getStatsMessage();
+    assertTrue(stats.contains("recording:threads:1,active:1,queued:1,completed:0,rejected:1"));
+    assertTrue(stats.contains("artist:threads:1,"));
+    assertTrue(stats.contains("all:threads:1,"));
+    assertFalse(stats.contains("release:"));
+  }
+
+  private static boolean awaitZero(AtomicInteger count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (count.get() > 0) {
+      if (System.nanoTime() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,143 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  /**
+   * Computation that blocks until released, counting how many times it ran
+   */
+  private static class BlockingComputation implements SingleFlight.Computation<String> {
+
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean isFailing;
+
+    @Override
+    public String compute() throws IOException {
+      runs.incrementAndGet();
+      started.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (isFailing) {
+        throw new IOException("index closed");
+      }
+      return "results";
+    }
+  }
+
+  private static List<Future<String>> submit(ExecutorService executor, final SingleFlight<String, String> singleFlight,
+      final BlockingComputation computation, int requests) {
+    List<Future<String>> futures = new ArrayList<Future<String>>();
+    for (int i = 0; i < requests; i++) {
+      futures.add(executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return singleFlight.execute("query", computation);
+        }
+      }));
+    }
+    return futures;
+  }
+
+  private static void waitForStats(SingleFlight<String, String> singleFlight, String expected) throws Exception {
+    for (int i = 0; i < 500 && !singleFlight.getStatsMessage().equals(expected); i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testIdenticalRequestsShareOneComputation() throws Exception {
+    SingleFlight<String, String> singleFlight = new SingleFlight<String, String>(10, 5000);
+    BlockingComputation computation = new BlockingComputation();
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      List<Future<String>> futures = submit(executor, singleFlight, computation, 1);
+      computation.started.await(5, TimeUnit.SECONDS);
+      futures.addAll(submit(executor, singleFlight, computation, 4));
+      // Let the waiters reach the running computation before it ends
+      Thread.sleep(200);
+      computation.release.countDown();
+      for (Future<String> future : futures) {
+        assertEquals("results", future.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(1, computation.runs.get());
+      assertEquals("computed:1,shared:4,fallbacks:0,failed:0", singleFlight.getStatsMessage());
+      assertEquals(0, singleFlight.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRequestsPastCapOrTimeoutRunThemselves() throws Exception {
+    SingleFlight<String, String> singleFlight = new SingleFlight<String, String>(1, 100);
+    BlockingComputation computation = new BlockingComputation();
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      List<Future<String>> futures = submit(executor, singleFlight, computation, 1);
+      computation.started.await(5, TimeUnit.SECONDS);
+      // One waits and times out, the other is over the cap, both end up running the computation
+      futures.addAll(submit(executor, singleFlight, computation, 2));
+      waitForStats(singleFlight, "computed:1,shared:0,fallbacks:2,failed:0");
+      assertEquals("computed:1,shared:0,fallbacks:2,failed:0", singleFlight.getStatsMessage());
+      computation.release.countDown();
+      for (Future<String> future : futures) {
+        assertEquals("results", future.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(3, computation.runs.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWaitersGetTheFailureOfTheComputation() throws Exception {
+    SingleFlight<String, String> singleFlight = new SingleFlight<String, String>(10, 5000);
+    BlockingComputation computation = new BlockingComputation();
+    computation.isFailing = true;
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      List<Future<String>> futures = submit(executor, singleFlight, computation, 1);
+      computation.started.await(5, TimeUnit.SECONDS);
+      futures.addAll(submit(executor, singleFlight, computation, 3));
+      Thread.sleep(200);
+      computation.release.countDown();
+      for (Future<String> future : futures) {
+        try {
+          future.get(5, TimeUnit.SECONDS);
+          fail();
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof IOException);
+          assertEquals("index closed", e.getCause().getMessage());
+        }
+      }
+      // The waiters didn't run it again
+      assertEquals(1, computation.runs.get());
+      assertEquals("computed:1,shared:0,fallbacks:0,failed:3", singleFlight.getStatsMessage());
+      assertEquals(0, singleFlight.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
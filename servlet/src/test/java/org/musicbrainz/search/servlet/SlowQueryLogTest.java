@@ -0,0 +1,123 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+
+public class SlowQueryLogTest {
+
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static Results newResults(int hits) {
+    Results results = new Results();
+    results.setTotalHits(hits);
+    results.setQuery(new TermQuery(new Term("artist", "portishead")));
+    results.setIndexVersion(42);
+    results.setParseNanos(2 * MILLI);
+    results.setSearchNanos(300 * MILLI);
+    results.setLoadNanos(50 * MILLI);
+    results.setDeserializeNanos(40 * MILLI);
+    return results;
+  }
+
+  /**
+   * Wait for the background thread to take the slow queries offered
+   */
+  private static String waitForSlowest(SlowQueryLog slowQueryLog, int n, int expected) throws Exception {
+    String message = slowQueryLog.getSlowestMessage(n);
+    for (int i = 0; i < 500 && message.split("\n").length - 1 < expected; i++) {
+      Thread.sleep(10);
+      message = slowQueryLog.getSlowestMessage(n);
+    }
+    return message;
+  }
+
+  @Test
+  public void testThreshold() throws Exception {
+    SlowQueryLog slowQueryLog = new SlowQueryLog(500);
+    try {
+      assertFalse(slowQueryLog.isSlow(499 * MILLI));
+      assertTrue(slowQueryLog.isSlow(500 * MILLI));
+
+      slowQueryLog.offer(ResourceType.ARTIST, false, "fast", newResults(1), 10 * MILLI, 499 * MILLI);
+      slowQueryLog.offer(ResourceType.ARTIST, false, "slow", newResults(1), 10 * MILLI, 500 * MILLI);
+      String message = waitForSlowest(slowQueryLog, 10, 1);
+      assertTrue(message, message.contains("query:slow\n"));
+      assertFalse(message, message.contains("query:fast"));
+    } finally {
+      slowQueryLog.shutdown();
+    }
+  }
+
+  @Test
+  public void testFormat() throws Exception {
+    SlowQueryLog slowQueryLog = new SlowQueryLog(500);
+    try {
+      slowQueryLog.offer(ResourceType.ARTIST, true, "portishead", newResults(7), 100 * MILLI, 600 * MILLI);
+      slowQueryLog.offerTimeout(ResourceType.RECORDING, false, "blue monday", 1200 * MILLI);
+      String[] lines = waitForSlowest(slowQueryLog, 10, 2).split("\n");
+      assertEquals(3, lines.length);
+      // Slowest first, each line starting with the time it was logged
+      assertTrue(lines[0], lines[0].matches("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2} .*"));
+      assertEquals("type:recording,dismax:false,total:1200.0,timeout:true,query:blue monday",
+          lines[0].substring(20));
+      assertEquals("type:artist,dismax:true,total:600.0,parse:2.0,search:300.0,load:50.0,deserialize:40.0,"
+          + "serialize:60.0,hits:7,indexversion:42,lucene:artist:portishead,query:portishead", lines[1].substring(20));
+      assertEquals("dropped:0", lines[2]);
+    } finally {
+      slowQueryLog.shutdown();
+    }
+  }
+
+  @Test
+  public void testRecentAreBounded() throws Exception {
+    SlowQueryLog slowQueryLog = new SlowQueryLog(500, 20, 3);
+    try {
+      for (int i = 1; i <= 5; i++) {
+        slowQueryLog.offer(ResourceType.ARTIST, false, "query" + i, newResults(i), 0, (1000 - i) * MILLI);
+      }
+      // Only the 3 most recent are kept, even if older ones were slower
+      waitForSlowest(slowQueryLog, 10, 3);
+      Thread.sleep(100);
+      String[] lines = slowQueryLog.getSlowestMessage(10).split("\n");
+      assertEquals(4, lines.length);
+      assertTrue(lines[0], lines[0].endsWith(",query:query3"));
+      assertTrue(lines[1], lines[1].endsWith(",query:query4"));
+      assertTrue(lines[2], lines[2].endsWith(",query:query5"));
+
+      // Only the n slowest are listed
+      assertEquals(2, slowQueryLog.getSlowestMessage(1).split("\n").length);
+    } finally {
+      slowQueryLog.shutdown();
+    }
+  }
+
+  @Test
+  public void testQueryIsFormattedByWriter() throws Exception {
+    final AtomicReference<String> formattingThread = new AtomicReference<String>();
+    Results results = newResults(1);
+    results.setQuery(new TermQuery(new Term("artist", "portishead")) {
+      @Override
+      public String toString(String field) {
+        formattingThread.set(Thread.currentThread().getName());
+        return super.toString(field);
+      }
+    });
+    SlowQueryLog slowQueryLog = new SlowQueryLog(500);
+    try {
+      slowQueryLog.offer(ResourceType.ARTIST, false, "portishead", results, 0, 600 * MILLI);
+      String message = waitForSlowest(slowQueryLog, 10, 1);
+      assertTrue(message, message.contains(",lucene:artist:portishead,"));
+      assertEquals("slowquery-log", formattingThread.get());
+    } finally {
+      slowQueryLog.shutdown();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package org.musicbrainz.search.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WarmupQueriesTest {
+
+  @Test
+  public void testSampleKeepsMostRecent() {
+    WarmupQueries warmupQueries = new WarmupQueries(3, 2);
+    for (int i = 0; i < 10; i++) {
+      warmupQueries.add(i % 4 == 0, "query " + i);
+    }
+    // Every other query, the last three of them
+    List<WarmupQueries.WarmupQuery> queries = warmupQueries.getQueries();
+    assertEquals(3, queries.size());
+    assertEquals("query 4", queries.get(0).getQuery());
+    assertTrue(queries.get(0).isDismax());
+    assertEquals("query 6", queries.get(1).getQuery());
+    assertFalse(queries.get(1).isDismax());
+    assertEquals("query 8", queries.get(2).getQuery());
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    WarmupQueries warmupQueries = new WarmupQueries(10, 1);
+    warmupQueries.add(true, "blue\tmonday");
+    warmupQueries.add(false, "artist:\"new order\"");
+    warmupQueries.add(false, "two\nlines");
+    File file = File.createTempFile("warmup", ".txt");
+    try {
+      warmupQueries.save(file);
+      WarmupQueries loaded = new WarmupQueries(10, 1);
+      loaded.load(file);
+      List<WarmupQueries.WarmupQuery> queries = loaded.getQueries();
+      assertEquals(2, queries.size());
+      assertTrue(queries.get(0).isDismax());
+      assertEquals("blue\tmonday", queries.get(0).getQuery());
+      assertEquals("artist:\"new order\"", queries.get(1).getQuery());
+    } finally {
+      file.delete();
+    }
+  }
+}
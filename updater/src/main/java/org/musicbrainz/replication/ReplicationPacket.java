@@ -3,6 +3,9 @@ package org.musicbrainz.replication;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,8 +18,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
@@ -137,13 +142,39 @@ public class ReplicationPacket {
 	}
 	
 	public static ReplicationPacket loadFromRepository(int sequence, String repositoryPath) {
+		return loadFromRepository(sequence, repositoryPath, null);
+	}
+
+	/**
+	 * Load a packet from the local cache if it's there, otherwise download it from the repository and store it in the
+	 * cache
+	 * 
+	 * @param sequence
+	 * @param repositoryPath
+	 * @param cache may be null
+	 * @return the packet, or null if it isn't available
+	 */
+	public static ReplicationPacket loadFromRepository(int sequence, String repositoryPath, ReplicationPacketCache cache) {
 
 		ReplicationPacket packet = null;
 		
 		try {
+			if (cache != null) {
+				packet = cache.get(sequence);
+				if (packet != null) {
+					return packet;
+				}
+			}
+
 			URL url = new URL(repositoryPath + "/" + "replication-"+sequence+".tar.bz2");
 			InputStream input = url.openStream();
-			packet = ReplicationPacket.loadFromRepository(input);
+			if (cache == null) {
+				packet = ReplicationPacket.loadFromRepository(input);
+			} else {
+				byte[] archive = readFully(input);
+				packet = ReplicationPacket.loadFromRepository(new ByteArrayInputStream(archive));
+				cache.put(sequence, archive, packet);
+			}
 		} catch (MalformedURLException e) {
 			e.printStackTrace();
 		} catch (FileNotFoundException e) {
@@ -155,7 +186,21 @@ public class ReplicationPacket {
 		return packet;
 	}	
 	
-	private static ReplicationPacket loadFromRepository(InputStream input) throws IOException {
+	private static byte[] readFully(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		try {
+			while ((read = input.read(buffer)) != -1) {
+				output.write(buffer, 0, read);
+			}
+		} finally {
+			input.close();
+		}
+		return output.toByteArray();
+	}
+
+	static ReplicationPacket loadFromRepository(InputStream input) throws IOException {
 		
 		ReplicationPacket packet = new ReplicationPacket();
 		
@@ -267,6 +312,87 @@ public class ReplicationPacket {
 		return packet;
 	}
 	
+	/**
+	 * Write the packet with its changes already decoded, so that it can be read back without bzip2 decompression and
+	 * parsing of the dbmirror data
+	 * 
+	 * @param output
+	 * @throws IOException
+	 */
+	void writeTo(DataOutput output) throws IOException {
+		output.writeInt(replicationSequence);
+		output.writeInt(schemaSequence);
+		output.writeInt(changes.size());
+		for (ReplicationChange change : changes) {
+			output.writeInt(change.getId());
+			writeString(output, change.getSchemaName());
+			writeString(output, change.getTableName());
+			output.writeByte(change.getOperation() != null ? change.getOperation().ordinal() : -1);
+			writeValues(output, change.getOldValues());
+			writeValues(output, change.getNewValues());
+		}
+	}
+
+	static ReplicationPacket readFrom(DataInput input) throws IOException {
+		ReplicationPacket packet = new ReplicationPacket();
+		packet.setReplicationSequence(input.readInt());
+		packet.setSchemaSequence(input.readInt());
+		int noOfChanges = input.readInt();
+		for (int i = 0; i < noOfChanges; i++) {
+			ReplicationChange change = new ReplicationChange(input.readInt());
+			change.setSchemaName(readString(input));
+			change.setTableName(readString(input));
+			byte operation = input.readByte();
+			if (operation >= 0) {
+				change.setOperation(DatabaseOperation.values()[operation]);
+			}
+			change.setOldValues(readValues(input));
+			change.setNewValues(readValues(input));
+			packet.getChanges().add(change);
+		}
+		return packet;
+	}
+
+	private static void writeValues(DataOutput output, Map<String, String> values) throws IOException {
+		output.writeInt(values.size());
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			writeString(output, entry.getKey());
+			writeString(output, entry.getValue());
+		}
+	}
+
+	private static Map<String, String> readValues(DataInput input) throws IOException {
+		int size = input.readInt();
+		Map<String, String> values = new HashMap<String, String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			values.put(readString(input), readString(input));
+		}
+		return values;
+	}
+
+	/**
+	 * DataOutput.writeUTF() is limited to 64k, which annotation values can exceed
+	 */
+	private static void writeString(DataOutput output, String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes("UTF-8");
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInput input) throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
 	private static String sanitizeTableName(String inputTableName) {
 		String outputTableName = inputTableName.replace("\"public\".", "").replace("\"musicbrainz\".", ""); 
 		return outputTableName.substring(1, outputTableName.length()-1);
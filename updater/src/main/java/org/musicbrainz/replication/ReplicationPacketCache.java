@@ -0,0 +1,294 @@
+package org.musicbrainz.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Local on-disk cache of replication packets, keyed by replication sequence.
+ *
+ * Packets are kept as the downloaded replication-N.tar.bz2 archive, along with a replication-N.tar.bz2.crc file
+ * holding its checksum, and optionally as a replication-N.bin file holding the already decoded changes so that a
+ * replay doesn't need to decompress and parse the archive again. Files are written to a temporary file then renamed,
+ * so the cache directory can be shared by several updaters. When the cache grows over its maximum size, packets that
+ * have been used least recently are removed.
+ */
+public class ReplicationPacketCache {
+
+	private static final Logger LOGGER = Logger.getLogger(ReplicationPacketCache.class.getName());
+
+	private static final String FILE_PREFIX = "replication-";
+	private static final String ARCHIVE_SUFFIX = ".tar.bz2";
+	private static final String CHECKSUM_SUFFIX = ".tar.bz2.crc";
+	private static final String DECODED_SUFFIX = ".bin";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final int DECODED_MAGIC = 0x4d425250;
+	private static final int DECODED_VERSION = 1;
+
+	private final File directory;
+	private final long maxSize;
+	private final boolean storeDecoded;
+
+	/**
+	 * @param directory
+	 * @param maxSize maximum size of the cache in bytes
+	 * @param storeDecoded whether to also store packets in decoded form
+	 */
+	public ReplicationPacketCache(File directory, long maxSize, boolean storeDecoded) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.storeDecoded = storeDecoded;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Unable to create replication packet cache directory " + directory);
+		}
+	}
+
+	/**
+	 * @param sequence
+	 * @return the cached packet, or null if it isn't cached or the cached files are corrupt
+	 */
+	public ReplicationPacket get(int sequence) {
+
+		if (storeDecoded) {
+			File decodedFile = getFile(sequence, DECODED_SUFFIX);
+			if (decodedFile.exists()) {
+				try {
+					ReplicationPacket packet = readDecoded(decodedFile);
+					touch(sequence);
+					LOGGER.fine("Loaded decoded replication packet #" + sequence + " from cache");
+					return packet;
+				} catch (IOException e) {
+					LOGGER.warning("Discarding cached decoded replication packet #" + sequence + ": " + e.getMessage());
+					decodedFile.delete();
+				}
+			}
+		}
+
+		File archiveFile = getFile(sequence, ARCHIVE_SUFFIX);
+		File checksumFile = getFile(sequence, CHECKSUM_SUFFIX);
+		if (!archiveFile.exists() || !checksumFile.exists()) {
+			return null;
+		}
+		try {
+			byte[] archive = readFile(archiveFile);
+			String checksum = new String(readFile(checksumFile), "US-ASCII").trim();
+			if (!checksum.equals(checksum(archive))) {
+				throw new IOException("checksum mismatch");
+			}
+			ReplicationPacket packet = ReplicationPacket.loadFromRepository(new ByteArrayInputStream(archive));
+			if (storeDecoded) {
+				writeDecoded(sequence, packet);
+			}
+			touch(sequence);
+			LOGGER.fine("Loaded replication packet #" + sequence + " from cache");
+			return packet;
+		} catch (IOException e) {
+			LOGGER.warning("Discarding cached replication packet #" + sequence + ": " + e.getMessage());
+			archiveFile.delete();
+			checksumFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store a downloaded packet, failure to do so is logged but otherwise ignored
+	 *
+	 * @param sequence
+	 * @param archive the downloaded archive
+	 * @param packet the packet decoded from the archive
+	 */
+	public void put(int sequence, byte[] archive, ReplicationPacket packet) {
+		try {
+			writeFile(getFile(sequence, ARCHIVE_SUFFIX), archive);
+			writeFile(getFile(sequence, CHECKSUM_SUFFIX), checksum(archive).getBytes("US-ASCII"));
+			if (storeDecoded) {
+				writeDecoded(sequence, packet);
+			}
+		} catch (IOException e) {
+			LOGGER.warning("Unable to cache replication packet #" + sequence + ": " + e.getMessage());
+		}
+		evict();
+	}
+
+	/**
+	 * Remove the least recently used packets until the cache fits in its maximum size
+	 */
+	protected void evict() {
+
+		final Map<Integer, Long> lastUsed = new HashMap<Integer, Long>();
+		Map<Integer, List<File>> filesBySequence = new HashMap<Integer, List<File>>();
+		long size = 0;
+
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			Integer sequence = getSequence(file.getName());
+			if (sequence == null) {
+				continue;
+			}
+			size += file.length();
+			List<File> sequenceFiles = filesBySequence.get(sequence);
+			if (sequenceFiles == null) {
+				sequenceFiles = new ArrayList<File>();
+				filesBySequence.put(sequence, sequenceFiles);
+			}
+			sequenceFiles.add(file);
+			Long modified = lastUsed.get(sequence);
+			if (modified == null || file.lastModified() > modified) {
+				lastUsed.put(sequence, file.lastModified());
+			}
+		}
+
+		if (size <= maxSize) {
+			return;
+		}
+
+		List<Integer> sequences = new ArrayList<Integer>(lastUsed.keySet());
+		Collections.sort(sequences, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return lastUsed.get(o1).compareTo(lastUsed.get(o2));
+			}
+		});
+		for (Integer sequence : sequences) {
+			if (size <= maxSize) {
+				break;
+			}
+			for (File file : filesBySequence.get(sequence)) {
+				long length = file.length();
+				if (file.delete()) {
+					size -= length;
+				}
+			}
+			LOGGER.fine("Evicted replication packet #" + sequence + " from cache");
+		}
+	}
+
+	private ReplicationPacket readDecoded(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != DECODED_MAGIC || input.readInt() != DECODED_VERSION) {
+				throw new IOException("unknown format");
+			}
+			long checksum = input.readLong();
+			byte[] content = new byte[input.readInt()];
+			input.readFully(content);
+
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			if (crc.getValue() != checksum) {
+				throw new IOException("checksum mismatch");
+			}
+			return ReplicationPacket.readFrom(new DataInputStream(new ByteArrayInputStream(content)));
+		} finally {
+			input.close();
+		}
+	}
+
+	private void writeDecoded(int sequence, ReplicationPacket packet) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		DataOutputStream contentOutput = new DataOutputStream(content);
+		packet.writeTo(contentOutput);
+		contentOutput.flush();
+		byte[] bytes = content.toByteArray();
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+
+		ByteArrayOutputStream file = new ByteArrayOutputStream(bytes.length + 20);
+		DataOutputStream fileOutput = new DataOutputStream(file);
+		fileOutput.writeInt(DECODED_MAGIC);
+		fileOutput.writeInt(DECODED_VERSION);
+		fileOutput.writeLong(crc.getValue());
+		fileOutput.writeInt(bytes.length);
+		fileOutput.write(bytes);
+		fileOutput.flush();
+		writeFile(getFile(sequence, DECODED_SUFFIX), file.toByteArray());
+	}
+
+	private File getFile(int sequence, String suffix) {
+		return new File(directory, FILE_PREFIX + sequence + suffix);
+	}
+
+	/**
+	 * @param name
+	 * @return the sequence of a cache file, null if the file doesn't belong to the cache
+	 */
+	private static Integer getSequence(String name) {
+		if (!name.startsWith(FILE_PREFIX) || name.endsWith(TMP_SUFFIX)) {
+			return null;
+		}
+		int end = name.indexOf('.');
+		if (end < 0) {
+			return null;
+		}
+		try {
+			return Integer.parseInt(name.substring(FILE_PREFIX.length(), end));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Mark the files of a packet as recently used
+	 */
+	private void touch(int sequence) {
+		long now = System.currentTimeMillis();
+		getFile(sequence, ARCHIVE_SUFFIX).setLastModified(now);
+		getFile(sequence, CHECKSUM_SUFFIX).setLastModified(now);
+		getFile(sequence, DECODED_SUFFIX).setLastModified(now);
+	}
+
+	private static String checksum(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		return Long.toHexString(crc.getValue()) + " " + content.length;
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(content);
+		} finally {
+			input.close();
+		}
+		return content;
+	}
+
+	private void writeFile(File file, byte[] content) throws IOException {
+		File tmpFile = File.createTempFile(file.getName() + ".", TMP_SUFFIX, directory);
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(tmpFile));
+		try {
+			output.write(content);
+		} finally {
+			output.close();
+		}
+		if (!tmpFile.renameTo(file)) {
+			file.delete();
+			if (!tmpFile.renameTo(file)) {
+				tmpFile.delete();
+				throw new IOException("unable to rename " + tmpFile + " to " + file);
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.musicbrainz.replication;
 
+import java.io.File;
 import java.sql.Connection;
 import java.util.Iterator;
 
@@ -12,6 +13,7 @@ public class ReplicationPacketIterator implements Iterator<ReplicationPacket> {
 	private boolean useLocalDatabase = false;
 	private ReplicationPacket nextPacket = null;
 	private Connection databaseConnection = null;
+	private ReplicationPacketCache packetCache = null;
 
 	private ReplicationInformation currentReplicationPosition = null;
 
@@ -29,6 +31,12 @@ public class ReplicationPacketIterator implements Iterator<ReplicationPacket> {
 		this.currentReplicationPosition.schemaSequence = initialReplicationInfo.schemaSequence;
 		this.currentReplicationPosition.changeSequence = initialReplicationInfo.changeSequence;
 		this.useLocalDatabase = useLocalDatabase;
+
+		LiveDataFeedIndexUpdaterOptions options = LiveDataFeedIndexUpdaterOptions.getInstance();
+		if (!options.getReplicationCacheDir().isEmpty()) {
+			this.packetCache = new ReplicationPacketCache(new File(options.getReplicationCacheDir()),
+					options.getReplicationCacheSize() * 1024L * 1024L, options.isReplicationCacheDecoded());
+		}
 	}
 
 	public void setDatabaseConnection(Connection databaseConnection) {
@@ -69,7 +77,8 @@ public class ReplicationPacketIterator implements Iterator<ReplicationPacket> {
 		int packetNo = currentReplicationPosition.replicationSequence + 1;
 
 		// First try to load from repository
-		nextPacket = ReplicationPacket.loadFromRepository(packetNo, LiveDataFeedIndexUpdaterOptions.getInstance().getRepositoryPath());
+		nextPacket = ReplicationPacket.loadFromRepository(packetNo, LiveDataFeedIndexUpdaterOptions.getInstance().getRepositoryPath(),
+				packetCache);
 
 		// No packet in repository: let's try with pending changes from database
 		if (useLocalDatabase && databaseConnection != null && nextPacket == null && currentReplicationPosition.changeSequence != null) {
@@ -0,0 +1,123 @@
+package org.musicbrainz.search.update;
+
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.IndexReader;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.ReplicationInformation;
+
+/**
+ * Checks that an index holds as many documents as it should without counting the rows of the database table.
+ *
+ * The expected number of documents is stored in the meta document and maintained from the documents added and
+ * removed by each update, it is compared with IndexReader.numDocs() which is free. Counting the database rows is a
+ * sequential scan of the whole table so it is only done every --full-count-interval hours, or straight away once the
+ * index doesn't hold the expected number of documents. The expected count is only reset to the number of rows once
+ * they have been counted, if counting them fails the expected count is kept and they are counted on the next update.
+ */
+public class DocumentCountTracker {
+
+	private static final long MILLIS_PER_HOUR = 60L * 60L * 1000L;
+
+	private static final Logger LOGGER = Logger.getLogger(DocumentCountTracker.class.getName());
+
+	private final int fullCountInterval;
+
+	public DocumentCountTracker(LiveDataFeedIndexUpdaterOptions options) {
+		this(options.getFullCountInterval());
+	}
+
+	/**
+	 * @param fullCountInterval hours between full counts, 0 for every update, -1 for never
+	 */
+	DocumentCountTracker(int fullCountInterval) {
+		this.fullCountInterval = fullCountInterval;
+	}
+
+	/**
+	 * @param reader
+	 * @return number of live entity documents, i.e excluding the meta document
+	 */
+	public static int countDocuments(IndexReader reader) {
+		return reader.numDocs() - 1;
+	}
+
+	/**
+	 * @param indexName
+	 * @param reader reader on the index before the update
+	 * @param info replication information read from the index
+	 * @return the number of documents the index is expected to hold before the update
+	 */
+	public int getExpectedCount(String indexName, IndexReader reader, ReplicationInformation info) {
+		int actual = countDocuments(reader);
+		if (info.documentCount == null) {
+			// Index built before counts were tracked, start from what it holds
+			return actual;
+		}
+		if (info.documentCount != actual) {
+			LOGGER.warning(indexName + ": index holds " + actual + " documents but " + info.documentCount
+					+ " were expected before update");
+		}
+		return info.documentCount;
+	}
+
+	/**
+	 * @param info
+	 * @return true if database rows should be counted during this update
+	 */
+	public boolean isFullCountDue(ReplicationInformation info) {
+		if (fullCountInterval < 0) {
+			return false;
+		}
+		if (info.lastFullCount == null) {
+			return true;
+		}
+		return System.currentTimeMillis() - info.lastFullCount >= fullCountInterval * MILLIS_PER_HOUR;
+	}
+
+	/**
+	 * Compare the documents in the updated index with the expected count, and with the number of database rows if a
+	 * full count is due or the documents don't match the expected count. The count to carry on to the next update is
+	 * set on newInfo, it is the number of database rows if they could be counted and the expected count otherwise.
+	 *
+	 * @param index
+	 * @param reader reader on the updated index
+	 * @param expected
+	 * @param currentInfo replication information read from the index before the update
+	 * @param newInfo replication information that will be written to the updated index
+	 */
+	public void check(DatabaseIndex index, IndexReader reader, int expected, ReplicationInformation currentInfo,
+			ReplicationInformation newInfo) {
+
+		int actual = countDocuments(reader);
+		boolean isMismatch = actual != expected;
+		if (isMismatch) {
+			LOGGER.warning(index.getName() + ": " + actual + " lucene documents, " + expected + " expected");
+		} else {
+			LOGGER.info(index.getName() + ": " + actual + " lucene documents");
+		}
+		newInfo.documentCount = expected;
+		newInfo.lastFullCount = currentInfo.lastFullCount;
+
+		if (!isFullCountDue(currentInfo) && !(isMismatch && fullCountInterval >= 0)) {
+			return;
+		}
+		int dbRows;
+		try {
+			dbRows = index.getNoOfRows(Integer.MAX_VALUE);
+		} catch (SQLException e) {
+			// Keep the expected count until the rows can be counted
+			LOGGER.warning(index.getName() + ": unable to count database rows, " + expected
+					+ " documents still expected: " + e.getMessage());
+			return;
+		}
+		if (dbRows != actual) {
+			LOGGER.warning(index.getName() + ": " + dbRows + " rows in database, " + actual + " lucene documents");
+		} else {
+			LOGGER.info(index.getName() + ": " + dbRows + " rows in database, " + actual + " lucene documents");
+		}
+		newInfo.documentCount = dbRows;
+		newInfo.lastFullCount = System.currentTimeMillis();
+	}
+}
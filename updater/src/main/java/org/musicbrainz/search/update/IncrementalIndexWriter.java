@@ -0,0 +1,155 @@
+package org.musicbrainz.search.update;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.musicbrainz.search.index.ContentHash;
+import org.musicbrainz.search.index.IndexField;
+import org.musicbrainz.search.index.ThreadedIndexWriter;
+
+/**
+ * Index writer used by the updater, documents reindexed because of a replication change are only written if their
+ * content hash differs from the one of the document currently in the index.
+ *
+ * A change to a side table (such as artist_credit_name) causes every dependent document to be rebuilt, but most of
+ * them come out identical, skipping them avoids the delete/add and the resulting segment churn and merges.
+ */
+public class IncrementalIndexWriter extends ThreadedIndexWriter {
+
+	private final String identifierField;
+
+	private DirectoryReader previousReader;
+	private IndexSearcher previousSearcher;
+
+	private final Set<String> reindexedIds = new HashSet<String>();
+	private int rewrittenCount = 0;
+	private int unchangedCount = 0;
+	private int addedCount = 0;
+	private int removedCount = 0;
+
+	public IncrementalIndexWriter(Directory dir, IndexWriterConfig config, int numThreads, int maxQueueSize,
+			IndexField identifierField) throws IOException {
+		super(dir, config, numThreads, maxQueueSize);
+		this.identifierField = identifierField.getName();
+	}
+
+	/**
+	 * Take a snapshot of the index as it currently is (including any deletes already made), reindexed documents are
+	 * then compared against it.
+	 *
+	 * @throws IOException
+	 */
+	public void startReindex() throws IOException {
+		if (previousReader != null) {
+			previousReader.close();
+		}
+		previousReader = DirectoryReader.open(this, true);
+		previousSearcher = new IndexSearcher(previousReader);
+		reindexedIds.clear();
+		rewrittenCount = 0;
+		unchangedCount = 0;
+		addedCount = 0;
+		removedCount = 0;
+	}
+
+	/**
+	 * Delete the documents for ids that were to be reindexed but for which the index did not produce any document,
+	 * i.e the entity no longer exists in the database.
+	 *
+	 * @param ids
+	 * @throws IOException
+	 */
+	public void finishReindex(Collection<Integer> ids) throws IOException {
+		for (Integer id : ids) {
+			if (!reindexedIds.contains(id.toString())) {
+				Term term = new Term(identifierField, id.toString());
+				if (previousSearcher != null && previousSearcher.search(new TermQuery(term), 1).totalHits > 0) {
+					removedCount++;
+				}
+				deleteDocuments(term);
+			}
+		}
+		if (previousReader != null) {
+			previousReader.close();
+			previousReader = null;
+			previousSearcher = null;
+		}
+	}
+
+	@Override
+	protected void writeDocument(Iterable<? extends IndexableField> doc, Analyzer analyzer) throws IOException {
+		if (previousSearcher == null || !(doc instanceof Document)) {
+			super.writeDocument(doc, analyzer);
+			return;
+		}
+
+		Document document = (Document) doc;
+		String id = document.get(identifierField);
+		if (id == null) {
+			// Meta document
+			super.writeDocument(doc, analyzer);
+			return;
+		}
+
+		reindexedIds.add(id);
+		String hash = ContentHash.addTo(document);
+		TopDocs previous = previousSearcher.search(new TermQuery(new Term(identifierField, id)), 1);
+		if (previous.totalHits == 0) {
+			addedCount++;
+		} else if (previous.totalHits == 1) {
+			if (hash.equals(ContentHash.get(previousSearcher.doc(previous.scoreDocs[0].doc)))) {
+				unchangedCount++;
+				return;
+			}
+		} else {
+			// Duplicates of the id are all replaced by the one document
+			removedCount += previous.totalHits - 1;
+		}
+		replaceDocument(new Term(identifierField, id), document, analyzer);
+		rewrittenCount++;
+	}
+
+	public int getRewrittenCount() {
+		return rewrittenCount;
+	}
+
+	public int getUnchangedCount() {
+		return unchangedCount;
+	}
+
+	/**
+	 * @return number of reindexed documents for which there was no document in the index
+	 */
+	public int getAddedCount() {
+		return addedCount;
+	}
+
+	/**
+	 * @return number of documents removed because their entity didn't produce a document anymore, or because they
+	 *         were duplicates of a rewritten document
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		if (previousReader != null) {
+			previousReader.close();
+			previousReader = null;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.musicbrainz.search.update;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
+
+/**
+ * Background maintenance of the indexes kept up to date by the updater.
+ *
+ * The updater never runs forceMerge(1), which is far too expensive to do on every run, so deleted documents and small
+ * segments slowly accumulate. Instead merges are done by a tuned TieredMergePolicy with throttled merge IO, and
+ * forceMergeDeletes is run once the ratio of deleted documents goes over a threshold, only within the configured
+ * off-peak window.
+ */
+public class IndexMaintenance {
+
+	private static final Logger LOGGER = Logger.getLogger(IndexMaintenance.class.getName());
+
+	private final double deletesThreshold;
+	private final int windowStartHour;
+	private final int windowEndHour;
+	private final double maxMergeMBPerSec;
+	private final int mergeThreads;
+	private final String statsFile;
+
+	public IndexMaintenance(LiveDataFeedIndexUpdaterOptions options) {
+		this(options.getMergeDeletesThreshold(), options.getMergeWindow(), options.getMergeMaxMBPerSec(),
+				options.getMergeThreads(), options.getMergeStatsFile());
+	}
+
+	/**
+	 * @param deletesThreshold percentage of deleted documents above which deletes are expunged
+	 * @param window hours of the day as startHour-endHour, null or empty for any time
+	 * @param maxMergeMBPerSec
+	 * @param mergeThreads
+	 * @param statsFile
+	 */
+	IndexMaintenance(double deletesThreshold, String window, double maxMergeMBPerSec, int mergeThreads,
+			String statsFile) {
+		this.deletesThreshold = deletesThreshold;
+		this.maxMergeMBPerSec = maxMergeMBPerSec;
+		this.mergeThreads = mergeThreads;
+		this.statsFile = statsFile;
+
+		if (window == null || window.isEmpty()) {
+			windowStartHour = 0;
+			windowEndHour = 24;
+		} else {
+			String[] hours = window.split("-");
+			if (hours.length != 2) {
+				throw new IllegalArgumentException("Invalid merge window: " + window + ", expected startHour-endHour");
+			}
+			windowStartHour = Integer.parseInt(hours[0].trim());
+			windowEndHour = Integer.parseInt(hours[1].trim());
+		}
+	}
+
+	/**
+	 * Wrap the index directory so that merges can't use more than the configured IO bandwidth, leaving room for the
+	 * searches served from the same disk
+	 *
+	 * @param dir
+	 * @return
+	 */
+	public Directory wrapDirectory(Directory dir) {
+		if (maxMergeMBPerSec <= 0) {
+			return dir;
+		}
+		RateLimitedDirectoryWrapper rateLimitedDir = new RateLimitedDirectoryWrapper(dir);
+		rateLimitedDir.setMaxWriteMBPerSec(maxMergeMBPerSec, IOContext.Context.MERGE);
+		return rateLimitedDir;
+	}
+
+	/**
+	 * Configure the merge policy and scheduler of an updater index writer
+	 *
+	 * @param writerConfig
+	 */
+	public void configure(IndexWriterConfig writerConfig) {
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		// Updates are small and frequent, favour reclaiming deletes over merge size
+		mergePolicy.setSegmentsPerTier(8.0);
+		mergePolicy.setMaxMergeAtOnce(8);
+		mergePolicy.setReclaimDeletesWeight(3.0);
+		mergePolicy.setForceMergeDeletesPctAllowed(deletesThreshold);
+		writerConfig.setMergePolicy(mergePolicy);
+
+		ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+		mergeScheduler.setMaxMergesAndThreads(mergeThreads + 1, mergeThreads);
+		writerConfig.setMergeScheduler(mergeScheduler);
+	}
+
+	/**
+	 * Log (and optionally record) the segment count and ratio of deleted documents of the index, then expunge deletes
+	 * if the ratio is over the threshold and we are in the maintenance window.
+	 *
+	 * @param indexName
+	 * @param indexWriter
+	 * @throws IOException
+	 */
+	public void run(String indexName, IndexWriter indexWriter) throws IOException {
+
+		int segments;
+		int maxDoc;
+		int deletedDocs;
+		DirectoryReader reader = DirectoryReader.open(indexWriter, true);
+		try {
+			segments = reader.leaves().size();
+			maxDoc = reader.maxDoc();
+			deletedDocs = reader.numDeletedDocs();
+		} finally {
+			reader.close();
+		}
+		double deletesPct = maxDoc > 0 ? (100.0 * deletedDocs) / maxDoc : 0.0;
+
+		LOGGER.info(indexName + ": " + segments + " segments, " + deletedDocs + " deleted documents ("
+				+ String.format("%.2f", deletesPct) + "%)");
+		recordStats(indexName, segments, maxDoc, deletedDocs);
+
+		if (!isOverThreshold(maxDoc, deletedDocs)) {
+			return;
+		}
+		if (!isInWindow(Calendar.getInstance().get(Calendar.HOUR_OF_DAY))) {
+			LOGGER.info(indexName + ": deleted documents over " + deletesThreshold
+					+ "%, merge postponed until maintenance window " + windowStartHour + "-" + windowEndHour);
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		indexWriter.forceMergeDeletes(true);
+		indexWriter.commit();
+		LOGGER.info(indexName + ": expunged deleted documents in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @param maxDoc
+	 * @param deletedDocs
+	 * @return true if the ratio of deleted documents has reached the threshold
+	 */
+	protected boolean isOverThreshold(int maxDoc, int deletedDocs) {
+		return maxDoc > 0 && (100.0 * deletedDocs) / maxDoc >= deletesThreshold;
+	}
+
+	/**
+	 * @param hour
+	 * @return true if hour is within the maintenance window, windows can wrap around midnight (e.g. 22-4)
+	 */
+	protected boolean isInWindow(int hour) {
+		if (windowStartHour <= windowEndHour) {
+			return hour >= windowStartHour && hour < windowEndHour;
+		}
+		return hour >= windowStartHour || hour < windowEndHour;
+	}
+
+	private void recordStats(String indexName, int segments, int maxDoc, int deletedDocs) {
+		if (statsFile == null || statsFile.isEmpty()) {
+			return;
+		}
+		PrintWriter out = null;
+		try {
+			out = new PrintWriter(new FileWriter(statsFile, true));
+			out.println(new Date().getTime() + "\t" + indexName + "\t" + segments + "\t" + maxDoc + "\t" + deletedDocs);
+		} catch (IOException e) {
+			LOGGER.warning("Unable to write merge stats to " + statsFile + ": " + e.getMessage());
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.FSDirectory;
 import org.jdom.JDOMException;
@@ -32,6 +33,7 @@ import org.musicbrainz.search.index.AnnotationIndex;
 import org.musicbrainz.search.index.ArtistIndex;
 import org.musicbrainz.search.index.CommonTables;
 import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.DismaxSiblingFields;
 import org.musicbrainz.search.index.LabelIndex;
 import org.musicbrainz.search.index.MetaIndexField;
 import org.musicbrainz.search.index.RecordingIndex;
@@ -39,7 +41,6 @@ import org.musicbrainz.search.index.ReleaseGroupIndex;
 import org.musicbrainz.search.index.ReleaseIndex;
 import org.musicbrainz.search.index.ReplicationInformation;
 import org.musicbrainz.search.index.TagIndex;
-import org.musicbrainz.search.index.ThreadedIndexWriter;
 import org.musicbrainz.search.index.WorkIndex;
 import org.musicbrainz.search.update.dependencies.DatabaseIndexDependencies;
 
@@ -50,8 +51,10 @@ public class LiveDataFeedIndexUpdater {
 	private Connection mainDbConn;
 
 	private LiveDataFeedIndexUpdaterOptions options;
+	private IndexMaintenance maintenance;
+	private DocumentCountTracker countTracker;
 	private List<DatabaseIndex> indexes;
-	private final Map<DatabaseIndex, IndexWriter> indexWriters = new HashMap<DatabaseIndex, IndexWriter>();
+	private final Map<DatabaseIndex, IncrementalIndexWriter> indexWriters = new HashMap<DatabaseIndex, IncrementalIndexWriter>();
 	private final Map<DatabaseIndex, ReplicationInformation> indexReplicationInfos = new HashMap<DatabaseIndex, ReplicationInformation>();
 	private final Map<DatabaseIndex, ChangesAnalyzer> indexChangesAnalyzers = new HashMap<DatabaseIndex, ChangesAnalyzer>();
 
@@ -75,6 +78,9 @@ public class LiveDataFeedIndexUpdater {
 
 	public void init() throws SQLException, IOException {
 
+		maintenance = new IndexMaintenance(options);
+		countTracker = new DocumentCountTracker(options);
+
 		// Connect to main database
 		mainDbConn = this.options.getMainDatabaseConnection();
 
@@ -105,13 +111,14 @@ public class LiveDataFeedIndexUpdater {
 		for (DatabaseIndex index : indexes) {
 
 			// Initialize index writer
-			IndexWriter indexWriter = createWriterForIndex(index, options);
+			IncrementalIndexWriter indexWriter = createWriterForIndex(index, options);
 			indexWriters.put(index, indexWriter);
 
 			// Load replication information
 			IndexReader indexReader = DirectoryReader.open(indexWriter, true);
 			ReplicationInformation replicationInfo = index.readReplicationInformationFromIndex(indexReader);
 			indexReplicationInfos.put(index, replicationInfo);
+			indexReader.close();
 
 			// Initialize the changes analyzer
 			DatabaseIndexDependencies dependencies = new DatabaseIndexDependencies(index.getName());
@@ -203,7 +210,7 @@ public class LiveDataFeedIndexUpdater {
 			clock.start();
 			LOGGER.info("Started updating index: " + index.getName());
 
-			IndexWriter indexWriter = indexWriters.get(index);
+			IncrementalIndexWriter indexWriter = indexWriters.get(index);
 			ReplicationInformation replicationInfo = indexReplicationInfos.get(index);
 			ChangesAnalyzer changesAnalyzer = indexChangesAnalyzers.get(index);
 
@@ -222,12 +229,26 @@ public class LiveDataFeedIndexUpdater {
 
 	}
 
-	private IndexWriter createWriterForIndex(DatabaseIndex index, LiveDataFeedIndexUpdaterOptions options) throws IOException {
+	private IncrementalIndexWriter createWriterForIndex(DatabaseIndex index, LiveDataFeedIndexUpdaterOptions options) throws IOException {
 		IndexWriterConfig writerConfig = new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, index.getAnalyzer());
+		maintenance.configure(writerConfig);
 
 		String path = options.getIndexesDir() + index.getFilename();
-		IndexWriter indexWriter = new ThreadedIndexWriter(FSDirectory.open(new File(path)), writerConfig, Runtime.getRuntime()
-				.availableProcessors(), 10);
+		IncrementalIndexWriter indexWriter = new IncrementalIndexWriter(maintenance.wrapDirectory(FSDirectory.open(new File(path))),
+				writerConfig, Runtime.getRuntime().availableProcessors(), 10, index.getIdentifierField());
+
+		// Keep adding the sibling fields if the index was built with them
+		DismaxSiblingFields siblingFields = DismaxSiblingFields.forIndex(index.getName());
+		if (siblingFields != null) {
+			IndexReader indexReader = DirectoryReader.open(indexWriter, false);
+			try {
+				if (siblingFields.isPresent(indexReader)) {
+					indexWriter.setSiblingFields(siblingFields);
+				}
+			} finally {
+				indexReader.close();
+			}
+		}
 
 		return indexWriter;
 	}
@@ -240,7 +261,7 @@ public class LiveDataFeedIndexUpdater {
 	 * @throws SQLException
 	 * @throws DatabaseSchemaChangedException
 	 */
-	private void updateDatabaseIndex(DatabaseIndex index, IndexWriter indexWriter, ReplicationInformation currentReplicationInfo,
+	private void updateDatabaseIndex(DatabaseIndex index, IncrementalIndexWriter indexWriter, ReplicationInformation currentReplicationInfo,
 			ChangesAnalyzer changesAnalyzer, ReplicationInformation newReplicationInfo) throws IOException, SQLException,
 			DatabaseSchemaChangedException {
 
@@ -252,41 +273,58 @@ public class LiveDataFeedIndexUpdater {
 		Term term = new Term(MetaIndexField.META.getName(), MetaIndexField.META_VALUE);
 		TermQuery query = new TermQuery(term);
 
-		// Delete obsolete documents
+		// Delete obsolete documents, keeping track of how many documents the index should hold
+		IndexReader indexReader = DirectoryReader.open(indexWriter, true);
+		IndexSearcher indexSearcher = new IndexSearcher(indexReader);
+		int expectedDocs = countTracker.getExpectedCount(index.getName(), indexReader, currentReplicationInfo);
 		for (Integer id : changesAnalyzer.getDeletedIds()) {
 			LOGGER.fine("Deleting " + index.getName() + " #" + id.toString());
 			term = new Term(index.getIdentifierField().getName(), id.toString());
 			query = new TermQuery(term);
+			if (indexSearcher.search(query, 1).totalHits > 0) {
+				expectedDocs--;
+			}
 			indexWriter.deleteDocuments(query);
 		}
+		indexReader.close();
 
-		// Index new (or udpated) ones
+		// Index new (or udpated) ones, documents whose content hash hasn't changed are left untouched
 		if (!changesAnalyzer.getInsertedOrUpdatedIds().isEmpty()) {
 			index.init(indexWriter, true);
+			indexWriter.startReindex();
 
 			for (Integer id : changesAnalyzer.getInsertedOrUpdatedIds()) {
 				LOGGER.fine("Reindexing " + index.getName() + " #" + id.toString());
-				term = new Term(index.getIdentifierField().getName(), id.toString());
-				query = new TermQuery(term);
-				indexWriter.deleteDocuments(query);
 				index.indexData(indexWriter, id, id);
 			}
+			indexWriter.finishReindex(changesAnalyzer.getInsertedOrUpdatedIds());
 			index.destroy();
+
+			LOGGER.info(index.getName() + ": " + indexWriter.getRewrittenCount() + " documents rewritten, "
+					+ indexWriter.getUnchangedCount() + " unchanged documents skipped");
+			expectedDocs += indexWriter.getAddedCount() - indexWriter.getRemovedCount();
 		}
 
 		// Only update the index if we've processed some database changes
 		if (currentReplicationInfo.compareTo(newReplicationInfo) != 0) {
 
-			index.updateMetaInformation(indexWriter, newReplicationInfo);
-			indexWriter.commit();
-			// TODO: index don't need to be optimized on each update, it's way too resource intensive
-			// => disabled for now, need to be done on a regular basis that should determined
-			// indexWriter.optimize();
+			// The new replication position is shared by all indexes, document counts are specific to this one
+			ReplicationInformation metaInfo = new ReplicationInformation();
+			metaInfo.schemaSequence = newReplicationInfo.schemaSequence;
+			metaInfo.replicationSequence = newReplicationInfo.replicationSequence;
+			metaInfo.changeSequence = newReplicationInfo.changeSequence;
+			metaInfo.numericPrecisionStep = currentReplicationInfo.numericPrecisionStep;
 
-			// Check to we have as much Lucene documents as Database rows
-			int dbRows = index.getNoOfRows(Integer.MAX_VALUE);
-			IndexReader indexReader = DirectoryReader.open(indexWriter, true);
-			LOGGER.info(dbRows + " rows in database, " + (indexReader.maxDoc() - 1) + " lucene documents");
+			// Check we have as many Lucene documents as expected (and from time to time as database rows)
+			indexReader = DirectoryReader.open(indexWriter, true);
+			countTracker.check(index, indexReader, expectedDocs, currentReplicationInfo, metaInfo);
+			indexReader.close();
+
+			index.updateMetaInformation(indexWriter, metaInfo);
+			indexWriter.commit();
+			// Index isn't optimized on each update, it's way too resource intensive, instead deletes are
+			// expunged when they get too numerous
+			maintenance.run(index.getName(), indexWriter);
 		} else {
 			LOGGER.info("No changes found");
 		}
@@ -308,7 +346,7 @@ public class LiveDataFeedIndexUpdater {
 		try {
 			parser.parseArgument(args);
 		} catch (CmdLineException e) {
-			System.err.println("Couldn't parse command line parameters");
+			System.err.println("Couldn't parse command line parameters: " + e.getMessage());
 			parser.printUsage(System.out);
 			System.exit(1);
 		}
@@ -1,5 +1,6 @@
 package org.musicbrainz.search.update;
 
+import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.Option;
 import org.musicbrainz.search.index.IndexOptions;
 
@@ -20,8 +21,50 @@ public class LiveDataFeedIndexUpdaterOptions extends IndexOptions {
     private String repositoryPath = "http://ftp.musicbrainz.org/pub/musicbrainz/data/replication/";
     public String getRepositoryPath() { return repositoryPath; }
 
+    @Option(name="--replication-cache-dir", usage="Directory in which downloaded replication packets are cached, empty for no cache.")
+    private String replicationCacheDir = "";
+    public String getReplicationCacheDir() { return replicationCacheDir; }
+
+    @Option(name="--replication-cache-size", usage="Maximum size of the replication packet cache in MB. (default: 1024)")
+    private int replicationCacheSize = 1024;
+    public int getReplicationCacheSize() { return replicationCacheSize; }
+
+    @Option(name="--replication-cache-decoded", usage="Also cache replication packets in decoded form, to skip decompressing and parsing them again.")
+    private boolean replicationCacheDecoded = false;
+    public boolean isReplicationCacheDecoded() { return replicationCacheDecoded; }
+
     @Option(name="--verbose", usage="More verbosity")
     private boolean verbose = false;
     public boolean isVerbose() { return verbose; }
+
+    @Option(name="--full-count-interval", usage="Hours between full counts of database rows against index documents, 0 for every update, -1 for never. (default: 24)")
+    private int fullCountInterval = 24;
+    public int getFullCountInterval() { return fullCountInterval; }
+
+    private double mergeDeletesThreshold = 10.0;
+    public double getMergeDeletesThreshold() { return mergeDeletesThreshold; }
+    @Option(name="--merge-deletes-threshold", usage="Percentage of deleted documents above which deletes are expunged from an index, from 0 to 100. (default: 10)")
+    public void setMergeDeletesThreshold(double mergeDeletesThreshold) throws CmdLineException {
+        if (mergeDeletesThreshold < 0 || mergeDeletesThreshold > 100) {
+            throw new CmdLineException("--merge-deletes-threshold must be from 0 to 100, not " + mergeDeletesThreshold);
+        }
+        this.mergeDeletesThreshold = mergeDeletesThreshold;
+    }
+
+    @Option(name="--merge-window", usage="Hours of the day during which deletes may be expunged, as startHour-endHour, empty for any time. (default: 2-6)")
+    private String mergeWindow = "2-6";
+    public String getMergeWindow() { return mergeWindow; }
+
+    @Option(name="--merge-max-mb-per-sec", usage="Maximum merge write rate in MB/s, 0 for no limit. (default: 20)")
+    private double mergeMaxMBPerSec = 20.0;
+    public double getMergeMaxMBPerSec() { return mergeMaxMBPerSec; }
+
+    @Option(name="--merge-threads", usage="Maximum number of concurrent merge threads per index. (default: 1)")
+    private int mergeThreads = 1;
+    public int getMergeThreads() { return mergeThreads; }
+
+    @Option(name="--merge-stats-file", usage="File to which segment count and deleted documents of each index are appended after each update.")
+    private String mergeStatsFile = "";
+    public String getMergeStatsFile() { return mergeStatsFile; }
 	
 }
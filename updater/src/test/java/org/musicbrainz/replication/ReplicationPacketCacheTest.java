@@ -0,0 +1,90 @@
+package org.musicbrainz.replication;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ReplicationPacketCacheTest extends TestCase {
+
+	private File cacheDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		cacheDir = File.createTempFile("replication-cache", "");
+		cacheDir.delete();
+		cacheDir.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : cacheDir.listFiles()) {
+			file.delete();
+		}
+		cacheDir.delete();
+	}
+
+	private ReplicationPacket createPacket() {
+		ReplicationPacket packet = new ReplicationPacket();
+		ReplicationChange change = new ReplicationChange(6243972);
+		change.setTableName("release_meta");
+		change.setOperation(DatabaseOperation.UPDATE);
+		Map<String, String> oldValues = new HashMap<String, String>();
+		oldValues.put("id", "1");
+		oldValues.put("info_url", null);
+		change.setOldValues(oldValues);
+		Map<String, String> newValues = new HashMap<String, String>();
+		newValues.put("id", "1");
+		newValues.put("info_url", "http://www.example.com/");
+		change.setNewValues(newValues);
+		packet.getChanges().add(change);
+		return packet;
+	}
+
+	public void testDecodedPacketRoundTrip() throws IOException {
+		ReplicationPacketCache cache = new ReplicationPacketCache(cacheDir, 1024 * 1024, true);
+		cache.put(51992, new byte[] { 1, 2, 3 }, createPacket());
+
+		ReplicationPacket packet = cache.get(51992);
+		assertNotNull(packet);
+		assertEquals(1, packet.getChanges().size());
+		ReplicationChange change = packet.getChanges().get(0);
+		assertEquals(6243972, change.getId());
+		assertEquals("release_meta", change.getTableName());
+		assertEquals(DatabaseOperation.UPDATE, change.getOperation());
+		assertNull(change.getOldValues().get("info_url"));
+		assertTrue(change.getOldValues().containsKey("info_url"));
+		assertEquals("http://www.example.com/", change.getNewValues().get("info_url"));
+		assertEquals(1, change.getChangedFields().size());
+	}
+
+	public void testMissingPacket() {
+		ReplicationPacketCache cache = new ReplicationPacketCache(cacheDir, 1024 * 1024, true);
+		assertNull(cache.get(51992));
+	}
+
+	public void testCorruptArchiveIsDiscarded() {
+		ReplicationPacketCache cache = new ReplicationPacketCache(cacheDir, 1024 * 1024, false);
+		cache.put(51992, new byte[] { 1, 2, 3 }, createPacket());
+
+		// Checksum matches but it's not a valid archive
+		assertNull(cache.get(51992));
+		assertFalse(new File(cacheDir, "replication-51992.tar.bz2").exists());
+	}
+
+	public void testEviction() {
+		ReplicationPacketCache cache = new ReplicationPacketCache(cacheDir, 2500, false);
+		cache.put(1, new byte[1000], createPacket());
+		new File(cacheDir, "replication-1.tar.bz2").setLastModified(System.currentTimeMillis() - 60000);
+		new File(cacheDir, "replication-1.tar.bz2.crc").setLastModified(System.currentTimeMillis() - 60000);
+		cache.put(2, new byte[1000], createPacket());
+		cache.put(3, new byte[1000], createPacket());
+
+		assertFalse(new File(cacheDir, "replication-1.tar.bz2").exists());
+		assertFalse(new File(cacheDir, "replication-1.tar.bz2.crc").exists());
+		assertTrue(new File(cacheDir, "replication-2.tar.bz2").exists());
+		assertTrue(new File(cacheDir, "replication-3.tar.bz2").exists());
+	}
+}
@@ -0,0 +1,157 @@
+package org.musicbrainz.search.update;
+
+import java.sql.SQLException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.index.DatabaseIndex;
+import org.musicbrainz.search.index.IndexField;
+import org.musicbrainz.search.index.ReplicationInformation;
+
+import junit.framework.TestCase;
+
+public class DocumentCountTrackerTest extends TestCase {
+
+	/**
+	 * Index with the given number of database rows, or whose rows can't be counted if negative
+	 */
+	private static class CountedIndex extends DatabaseIndex {
+
+		private final int rows;
+		private int counts;
+
+		CountedIndex(int rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public int getNoOfRows(int maxId) throws SQLException {
+			counts++;
+			if (rows < 0) {
+				throw new SQLException("connection lost");
+			}
+			return rows;
+		}
+
+		@Override
+		public int getMaxId() {
+			return rows;
+		}
+
+		@Override
+		public void indexData(IndexWriter indexWriter, int min, int max) {
+		}
+
+		@Override
+		public IndexField getIdentifierField() {
+			return null;
+		}
+
+		@Override
+		public String getName() {
+			return "test";
+		}
+
+		@Override
+		public Analyzer getAnalyzer() {
+			return new KeywordAnalyzer();
+		}
+	}
+
+	private IndexReader reader;
+
+	@Override
+	protected void setUp() throws Exception {
+		// Meta document and 10 entity documents
+		RAMDirectory dir = new RAMDirectory();
+		IndexWriter indexWriter = new IndexWriter(dir,
+				new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, new KeywordAnalyzer()));
+		for (int i = 0; i <= 10; i++) {
+			Document doc = new Document();
+			doc.add(new StringField("id", String.valueOf(i), Field.Store.NO));
+			indexWriter.addDocument(doc);
+		}
+		indexWriter.close();
+		reader = DirectoryReader.open(dir);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		reader.close();
+	}
+
+	private ReplicationInformation counted(long lastFullCount) {
+		ReplicationInformation info = new ReplicationInformation();
+		info.documentCount = 10;
+		info.lastFullCount = lastFullCount;
+		return info;
+	}
+
+	public void testExpectedCount() {
+		DocumentCountTracker tracker = new DocumentCountTracker(24);
+		ReplicationInformation info = new ReplicationInformation();
+		assertEquals(10, tracker.getExpectedCount("test", reader, info));
+		info.documentCount = 12;
+		assertEquals(12, tracker.getExpectedCount("test", reader, info));
+	}
+
+	public void testMatchingCountSkipsFullCount() throws Exception {
+		DocumentCountTracker tracker = new DocumentCountTracker(24);
+		CountedIndex index = new CountedIndex(10);
+		ReplicationInformation currentInfo = counted(System.currentTimeMillis());
+		ReplicationInformation newInfo = new ReplicationInformation();
+		tracker.check(index, reader, 10, currentInfo, newInfo);
+		assertEquals(0, index.counts);
+		assertEquals(Integer.valueOf(10), newInfo.documentCount);
+		assertEquals(currentInfo.lastFullCount, newInfo.lastFullCount);
+	}
+
+	public void testFullCountDue() throws Exception {
+		DocumentCountTracker tracker = new DocumentCountTracker(24);
+		assertTrue(tracker.isFullCountDue(new ReplicationInformation()));
+		assertFalse(tracker.isFullCountDue(counted(System.currentTimeMillis())));
+		assertTrue(tracker.isFullCountDue(counted(System.currentTimeMillis() - 25 * 60 * 60 * 1000L)));
+		assertFalse(new DocumentCountTracker(-1).isFullCountDue(new ReplicationInformation()));
+		assertTrue(new DocumentCountTracker(0).isFullCountDue(counted(System.currentTimeMillis())));
+	}
+
+	public void testMismatchResetsToDatabaseRows() throws Exception {
+		DocumentCountTracker tracker = new DocumentCountTracker(24);
+		CountedIndex index = new CountedIndex(10);
+		ReplicationInformation currentInfo = counted(System.currentTimeMillis() - 1000);
+		ReplicationInformation newInfo = new ReplicationInformation();
+		tracker.check(index, reader, 12, currentInfo, newInfo);
+		assertEquals(1, index.counts);
+		assertEquals(Integer.valueOf(10), newInfo.documentCount);
+		assertTrue(newInfo.lastFullCount > currentInfo.lastFullCount);
+	}
+
+	public void testMismatchKeepsExpectedCountIfRowsCantBeCounted() throws Exception {
+		DocumentCountTracker tracker = new DocumentCountTracker(24);
+		CountedIndex index = new CountedIndex(-1);
+		ReplicationInformation currentInfo = counted(System.currentTimeMillis() - 1000);
+		ReplicationInformation newInfo = new ReplicationInformation();
+		tracker.check(index, reader, 12, currentInfo, newInfo);
+		assertEquals(1, index.counts);
+		assertEquals(Integer.valueOf(12), newInfo.documentCount);
+		assertEquals(currentInfo.lastFullCount, newInfo.lastFullCount);
+	}
+
+	public void testMismatchWithoutFullCounts() throws Exception {
+		DocumentCountTracker tracker = new DocumentCountTracker(-1);
+		CountedIndex index = new CountedIndex(10);
+		ReplicationInformation newInfo = new ReplicationInformation();
+		tracker.check(index, reader, 12, counted(0), newInfo);
+		assertEquals(0, index.counts);
+		assertEquals(Integer.valueOf(12), newInfo.documentCount);
+	}
+}
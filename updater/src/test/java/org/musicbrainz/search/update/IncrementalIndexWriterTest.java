@@ -0,0 +1,129 @@
+package org.musicbrainz.search.update;
+
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.musicbrainz.search.LuceneVersion;
+import org.musicbrainz.search.index.LabelIndexField;
+
+import junit.framework.TestCase;
+
+public class IncrementalIndexWriterTest extends TestCase {
+
+	private final Analyzer analyzer = new KeywordAnalyzer();
+	private IncrementalIndexWriter indexWriter;
+
+	@Override
+	protected void setUp() throws Exception {
+		indexWriter = new IncrementalIndexWriter(new RAMDirectory(),
+				new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, analyzer), 1, 10, LabelIndexField.ID);
+		write(1, "Warp");
+		write(2, "Ninja Tune");
+		write(3, "Mute");
+		indexWriter.commit();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		indexWriter.close();
+	}
+
+	/**
+	 * Write the document as the indexes do, through the IndexWriter api
+	 */
+	private void write(int id, String name) throws Exception {
+		Document doc = new Document();
+		doc.add(new StringField(LabelIndexField.ID.getName(), String.valueOf(id), Field.Store.YES));
+		doc.add(new StringField(LabelIndexField.LABEL.getName(), name, Field.Store.YES));
+		indexWriter.addDocument((Iterable<IndexableField>) doc, analyzer);
+	}
+
+	private Document getDocument(IndexSearcher searcher, int id) throws Exception {
+		TopDocs hits = searcher.search(new TermQuery(new Term(LabelIndexField.ID.getName(), String.valueOf(id))), 2);
+		if (hits.totalHits == 0) {
+			return null;
+		}
+		assertEquals(1, hits.totalHits);
+		return searcher.doc(hits.scoreDocs[0].doc);
+	}
+
+	public void testReindex() throws Exception {
+		indexWriter.startReindex();
+		write(1, "Warp");
+		write(2, "Ninja Tune Records");
+		write(4, "Rough Trade");
+		indexWriter.finishReindex(Arrays.asList(1, 2, 3, 4));
+		indexWriter.commit();
+
+		assertEquals(1, indexWriter.getUnchangedCount());
+		assertEquals(2, indexWriter.getRewrittenCount());
+		assertEquals(1, indexWriter.getAddedCount());
+		assertEquals(1, indexWriter.getRemovedCount());
+
+		DirectoryReader reader = DirectoryReader.open(indexWriter, true);
+		try {
+			assertEquals(3, reader.numDocs());
+			// Only the changed and removed documents were deleted, the unchanged one was left as it was
+			assertEquals(2, reader.numDeletedDocs());
+
+			IndexSearcher searcher = new IndexSearcher(reader);
+			assertEquals("Warp", getDocument(searcher, 1).get(LabelIndexField.LABEL.getName()));
+			assertEquals("Ninja Tune Records", getDocument(searcher, 2).get(LabelIndexField.LABEL.getName()));
+			assertNull(getDocument(searcher, 3));
+			assertEquals("Rough Trade", getDocument(searcher, 4).get(LabelIndexField.LABEL.getName()));
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testCountsAreResetOnEachReindex() throws Exception {
+		indexWriter.startReindex();
+		write(2, "Ninja Tune Records");
+		indexWriter.finishReindex(Arrays.asList(2, 3));
+
+		indexWriter.startReindex();
+		write(1, "Warp");
+		indexWriter.finishReindex(Arrays.asList(1));
+
+		assertEquals(1, indexWriter.getUnchangedCount());
+		assertEquals(0, indexWriter.getRewrittenCount());
+		assertEquals(0, indexWriter.getAddedCount());
+		assertEquals(0, indexWriter.getRemovedCount());
+	}
+
+	public void testDuplicatesAreReplaced() throws Exception {
+		write(5, "Sub Pop");
+		write(5, "Sub Pop");
+		write(5, "Sub Pop");
+		indexWriter.commit();
+
+		indexWriter.startReindex();
+		write(5, "Sub Pop");
+		indexWriter.finishReindex(Arrays.asList(5));
+		indexWriter.commit();
+
+		// The expected count goes down by the duplicates removed
+		assertEquals(1, indexWriter.getRewrittenCount());
+		assertEquals(0, indexWriter.getAddedCount());
+		assertEquals(2, indexWriter.getRemovedCount());
+		DirectoryReader reader = DirectoryReader.open(indexWriter, true);
+		try {
+			assertEquals(4, reader.numDocs());
+			assertNotNull(getDocument(new IndexSearcher(reader), 5));
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.musicbrainz.search.update;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.musicbrainz.search.LuceneVersion;
+
+import junit.framework.TestCase;
+
+public class IndexMaintenanceTest extends TestCase {
+
+	private IndexWriter createIndexWriter(IndexMaintenance maintenance, int docs, int deletedDocs) throws Exception {
+		IndexWriterConfig writerConfig = new IndexWriterConfig(LuceneVersion.LUCENE_VERSION, new KeywordAnalyzer());
+		maintenance.configure(writerConfig);
+		IndexWriter indexWriter = new IndexWriter(maintenance.wrapDirectory(new RAMDirectory()), writerConfig);
+		for (int i = 0; i < docs; i++) {
+			Document doc = new Document();
+			doc.add(new StringField("id", String.valueOf(i), Field.Store.NO));
+			indexWriter.addDocument(doc);
+		}
+		indexWriter.commit();
+		for (int i = 0; i < deletedDocs; i++) {
+			indexWriter.deleteDocuments(new Term("id", String.valueOf(i)));
+		}
+		indexWriter.commit();
+		return indexWriter;
+	}
+
+	private int getDeletedDocs(IndexWriter indexWriter) throws Exception {
+		DirectoryReader reader = DirectoryReader.open(indexWriter, true);
+		try {
+			return reader.numDeletedDocs();
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testIsInWindow() {
+		IndexMaintenance maintenance = new IndexMaintenance(10.0, "2-6", 0, 1, null);
+		assertFalse(maintenance.isInWindow(0));
+		assertFalse(maintenance.isInWindow(1));
+		assertTrue(maintenance.isInWindow(2));
+		assertTrue(maintenance.isInWindow(5));
+		assertFalse(maintenance.isInWindow(6));
+		assertFalse(maintenance.isInWindow(23));
+	}
+
+	public void testIsInWindowPastMidnight() {
+		IndexMaintenance maintenance = new IndexMaintenance(10.0, "22-4", 0, 1, null);
+		assertFalse(maintenance.isInWindow(21));
+		assertTrue(maintenance.isInWindow(22));
+		assertTrue(maintenance.isInWindow(23));
+		assertTrue(maintenance.isInWindow(0));
+		assertTrue(maintenance.isInWindow(3));
+		assertFalse(maintenance.isInWindow(4));
+		assertFalse(maintenance.isInWindow(12));
+	}
+
+	public void testIsInWindowAnyTime() {
+		IndexMaintenance maintenance = new IndexMaintenance(10.0, "", 0, 1, null);
+		for (int hour = 0; hour < 24; hour++) {
+			assertTrue(maintenance.isInWindow(hour));
+		}
+	}
+
+	public void testInvalidWindow() {
+		try {
+			new IndexMaintenance(10.0, "2", 0, 1, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testThresholdOption() throws Exception {
+		LiveDataFeedIndexUpdaterOptions options = LiveDataFeedIndexUpdaterOptions.getInstance();
+		CmdLineParser parser = new CmdLineParser(options);
+		parser.parseArgument("--merge-deletes-threshold", "25");
+		assertEquals(25.0, options.getMergeDeletesThreshold());
+		try {
+			parser.parseArgument("--merge-deletes-threshold", "150");
+			fail();
+		} catch (CmdLineException e) {
+		}
+		try {
+			parser.parseArgument("--merge-deletes-threshold", "-1");
+			fail();
+		} catch (CmdLineException e) {
+		}
+		assertEquals(25.0, options.getMergeDeletesThreshold());
+		parser.parseArgument("--merge-deletes-threshold", "10");
+	}
+
+	public void testIsOverThreshold() {
+		IndexMaintenance maintenance = new IndexMaintenance(10.0, "", 0, 1, null);
+		assertFalse(maintenance.isOverThreshold(0, 0));
+		assertFalse(maintenance.isOverThreshold(1000, 0));
+		assertFalse(maintenance.isOverThreshold(1000, 99));
+		assertTrue(maintenance.isOverThreshold(1000, 100));
+		assertTrue(maintenance.isOverThreshold(1000, 500));
+	}
+
+	public void testRunExpungesDeletesOverThreshold() throws Exception {
+		IndexMaintenance maintenance = new IndexMaintenance(10.0, "", 0, 1, null);
+		IndexWriter indexWriter = createIndexWriter(maintenance, 10, 5);
+		try {
+			assertEquals(5, getDeletedDocs(indexWriter));
+			maintenance.run("test", indexWriter);
+			assertEquals(0, getDeletedDocs(indexWriter));
+		} finally {
+			indexWriter.close();
+		}
+	}
+
+	public void testRunKeepsDeletesUnderThreshold() throws Exception {
+		IndexMaintenance maintenance = new IndexMaintenance(60.0, "", 0, 1, null);
+		IndexWriter indexWriter = createIndexWriter(maintenance, 10, 5);
+		try {
+			maintenance.run("test", indexWriter);
+			assertEquals(5, getDeletedDocs(indexWriter));
+		} finally {
+			indexWriter.close();
+		}
+	}
+}